@@ -22,6 +22,8 @@
 
 package igeo;
 
+import java.util.ArrayList;
+
 /**
    3D vector filed agent.
    
@@ -32,7 +34,76 @@ abstract public class I3DField extends IField implements I3DFieldI{
     public I3DFieldI field;
     public I3DField(I3DFieldI f){ field=f; }
     public IVecI get(IVecI pt){ return field.get(pt); }
+    /** get field values at count of 3D locations in xyzIn as x,y,z sequence into xyzOut */
+    public void get(double[] xyzIn, double[] xyzOut, int count){
+	if(field!=null) get(field, xyzIn, xyzOut, count);
+	else getEach(this, xyzIn, xyzOut, count);
+    }
+    
+    /** get values of any I3DFieldI at count of locations. I3DField and field geometries of iGeo are evaluated in batch and others by get(IVecI) one by one. */
+    static public void get(I3DFieldI field, double[] xyzIn, double[] xyzOut, int count){
+	if(field instanceof I3DField) ((I3DField)field).get(xyzIn, xyzOut, count);
+	else if(field instanceof IPointFieldGeo) ((IPointFieldGeo)field).get(xyzIn, xyzOut, count);
+	else if(field instanceof ICurveFieldGeo) ((ICurveFieldGeo)field).get(xyzIn, xyzOut, count);
+	else if(field instanceof ISurfaceFieldGeo) ((ISurfaceFieldGeo)field).get(xyzIn, xyzOut, count);
+	else getEach(field, xyzIn, xyzOut, count);
+    }
+    
+    /** get values of field at count of locations by get(IVecI) one by one */
+    static void getEach(I3DFieldI field, double[] xyzIn, double[] xyzOut, int count){
+	IVec v = new IVec();
+	for(int i=0; i<count; i++){
+	    v.set(xyzIn[i*3], xyzIn[i*3+1], xyzIn[i*3+2]);
+	    IVec f = field.get(v).get();
+	    xyzOut[i*3] = f.x;
+	    xyzOut[i*3+1] = f.y;
+	    xyzOut[i*3+2] = f.z;
+	}
+    }
+    
     public void applyField(IParticleI p){ p.push(get(p.pos())); }
+    
+    /** buffers of batch evaluation */
+    double[] batchIn, batchOut;
+    /** null if not checked yet */
+    Boolean batchApplicable;
+    
+    /** apply field to particles with one batch evaluation if applyField(IParticleI) and get(IVecI) are not customized in subclass */
+    public void applyField(ArrayList<IParticleI> particles){
+	if(!IConfig.batchFieldEvaluation || !isBatchApplicable()){
+	    super.applyField(particles);
+	    return;
+	}
+	int num = particles.size();
+	if(batchIn==null || batchIn.length < num*3){
+	    batchIn = new double[num*3];
+	    batchOut = new double[num*3];
+	}
+	for(int i=0; i<num; i++){
+	    IVec p = particles.get(i).pos();
+	    batchIn[i*3] = p.x;
+	    batchIn[i*3+1] = p.y;
+	    batchIn[i*3+2] = p.z;
+	}
+	get(batchIn, batchOut, num);
+	for(int i=0; i<num; i++){
+	    particles.get(i).push(batchOut[i*3], batchOut[i*3+1], batchOut[i*3+2]);
+	}
+    }
+    
+    boolean isBatchApplicable(){
+	if(batchApplicable==null){
+	    try{
+		Class<?> cls = getClass();
+		Class<?> applyCls = cls.getMethod("applyField", IParticleI.class).getDeclaringClass();
+		Class<?> getCls = cls.getMethod("get", IVecI.class).getDeclaringClass();
+		Class<?> batchCls = cls.getMethod("get", double[].class, double[].class, int.class).getDeclaringClass();
+		batchApplicable = applyCls==I3DField.class && getCls.isAssignableFrom(batchCls);
+	    }
+	    catch(NoSuchMethodException e){ batchApplicable = false; }
+	}
+	return batchApplicable;
+    }
     public I3DFieldI field(){ return field; }
     /** set no decay */
     public I3DField noDecay(){ field.noDecay(); return this; }
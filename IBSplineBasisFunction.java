@@ -121,6 +121,82 @@ public class IBSplineBasisFunction{ // not implementing IFunction. return type o
 	return val;
     }
     
+    /**
+       Cox-de Boor evaluation of non-zero basis functions at span index
+       into buf.n[0..degree] without allocation.
+    */
+    public void eval(int index, double x, Buffer buf){
+	buf.n[0] = 1.0;
+	for(int j=1; j<=degree; j++) step(index, x, j, buf);
+    }
+    
+    /**
+       Cox-de Boor evaluation of non-zero basis functions and their first derivatives
+       at span index into buf.n[0..degree] and buf.dn[0..degree] without allocation.
+    */
+    public void evalWithDerivative(int index, double x, Buffer buf){
+	buf.n[0] = 1.0;
+	if(degree==0){ buf.dn[0] = 0; return; }
+	for(int j=1; j<degree; j++) step(index, x, j, buf);
+	// derivative from basis of degree-1
+	for(int k=0; k<=degree; k++){
+	    double d = 0;
+	    if(k>0){
+		double den = knots[index+k] - knots[index-degree+k];
+		if(den!=0) d += buf.n[k-1]/den;
+	    }
+	    if(k<degree){
+		double den = knots[index+k+1] - knots[index-degree+k+1];
+		if(den!=0) d -= buf.n[k]/den;
+	    }
+	    buf.dn[k] = degree*d;
+	}
+	step(index, x, degree, buf);
+    }
+    
+    /** raising degree of basis in buf.n from j-1 to j */
+    void step(int index, double x, int j, Buffer buf){
+	double[] n = buf.n;
+	buf.left[j] = x - knots[index+1-j];
+	buf.right[j] = knots[index+j] - x;
+	double saved = 0;
+	for(int r=0; r<j; r++){
+	    double den = buf.right[r+1] + buf.left[j-r];
+	    double tmp = 0;
+	    if(den!=0) tmp = n[r]/den;
+	    n[r] = saved + buf.right[r+1]*tmp;
+	    saved = buf.left[j-r]*tmp;
+	}
+	n[j] = saved;
+    }
+    
+    
+    static ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>();
+    
+    /** reusable buffer of the current thread with enough length for the degree */
+    public static Buffer buffer(int degree){
+	Buffer buf = buffers.get();
+	if(buf==null || buf.n.length < degree+1){
+	    buf = new Buffer(degree);
+	    buffers.set(buf);
+	}
+	return buf;
+    }
+    
+    /**
+       Scratch arrays for allocation-free evaluation.
+    */
+    public static class Buffer{
+	public double[] n, dn, left, right;
+	public Buffer(int degree){
+	    n = new double[degree+1];
+	    dn = new double[degree+1];
+	    left = new double[degree+1];
+	    right = new double[degree+1];
+	}
+    }
+    
+    
     public void differentiate(){
 	for(int i=0; i<functions.length; i++) functions[i].differentiate();
     }
@@ -155,12 +155,21 @@ public class IBoidGeo extends IParticleGeo implements IBoidI{
 	separationForce.zero(); // reset
 	alignmentForce.zero(); // reset
 	
+	// only boids within the largest distance when the list is the one of the server
+	ArrayList<IDynamics> neighbors = dynamics;
+	if(IConfig.useNeighborIndex){
+	    IDynamicServer server = dynamicServer();
+	    if(server!=null && server.dynamics==dynamics){
+		neighbors = server.neighbors(pos(), Math.max(cohesionDist, Math.max(separationDist, alignmentDist)));
+	    }
+	}
+	
 	IDynamics dy=null;
-	for(int i=0; i<dynamics.size(); i++){
+	for(int i=0; i<neighbors.size(); i++){
 	    
 	    // what happens if IBoidGeo is grandchild of IAgent?
 	    // (boid in local dynamics of IAgent which is also local dynamics of IAgent)
-	    dy = dynamics.get(i);
+	    dy = neighbors.get(i);
 	    if(dy instanceof IBoidI && dy != this && dy != parent){
 		IBoidI b = (IBoidI)dy;
 		IVec dif = b.pos().dif(pos());
@@ -225,6 +234,16 @@ public class IBoidGeo extends IParticleGeo implements IBoidI{
     }
     
     
+    /** dynamic server of the parent or the current one if it doesn't have parent */
+    public IDynamicServer dynamicServer(){
+	if(parent!=null){
+	    if(parent.server()!=null) return parent.server().dynamicServer();
+	    return null;
+	}
+	return IG.dynamicThread();
+    }
+    
+    
     /**************************************
      * IParticleI API
      **************************************/
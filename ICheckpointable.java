@@ -0,0 +1,41 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+   Interface of IDynamics which has custom state to be saved by IDynamicCheckpoint
+   in addition to particle state and agent time.
+   readCheckpoint needs to read exactly what writeCheckpoint wrote.
+   
+   @author Satoru Sugihara
+*/
+public interface ICheckpointable{
+    /** write custom fields of the dynamics. called between time steps. */
+    public void writeCheckpoint(DataOutput out) throws IOException;
+    /** read custom fields written by writeCheckpoint when the simulation is resumed. */
+    public void readCheckpoint(DataInput in) throws IOException;
+}
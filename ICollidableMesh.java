@@ -28,13 +28,16 @@ import java.awt.Color;
 import igeo.gui.*;
 
 /**
-   Class of polygon mesh with collidable ITriangleWall for IParticleI on each face
+   Class of polygon mesh with collidable ITriangleWall for IParticleI on each face.
+   With IConfig.collidableMeshBVH, the walls are checked by one ITriangleWallCollider.
    
    @author Satoru Sugihara
 */
 public class ICollidableMesh extends IMesh{
     
     public ArrayList<ITriangleWall> collidables;
+    /** single agent to check all collidables. null when IConfig.collidableMeshBVH is false */
+    public ITriangleWallCollider collider;
     
     public ICollidableMesh(){ super(); initCollidable(); }
     public ICollidableMesh(IServerI s){ super(s); initCollidable(); }
@@ -166,6 +169,7 @@ public class ICollidableMesh extends IMesh{
 	    }
 	    collidables.add(new ITriangleWall(f.vertex(0).pos(),f.vertex(1).pos(),f.vertex(2).pos()));
 	}
+	initCollider();
     }
     
     synchronized public void initCollidable(ICollidableMesh m){
@@ -188,6 +192,17 @@ public class ICollidableMesh extends IMesh{
 	    }
 	    collidables.add(wall);
 	}
+	initCollider();
+    }
+    
+    synchronized public void initCollider(){
+	if(collider!=null){ collider.del(); collider=null; }
+	if(IConfig.collidableMeshBVH){ collider = new ITriangleWallCollider(this, collidables); }
+    }
+    
+    synchronized public void del(){
+	if(collider!=null){ collider.del(); }
+	super.del();
     }
     
     
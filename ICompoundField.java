@@ -124,4 +124,71 @@ public class ICompoundField extends I3DField{
 	return closestField.get(pt);
     }
     
+    
+    /** get field values at count of locations by grouping locations by the closest field and evaluating each field in batch */
+    @Override public void get(double[] xyzIn, double[] xyzOut, int count){
+	int pnum = pointFields.size(), cnum = curveFields.size(), snum = surfaceFields.size();
+	I3DFieldI[] fields = new I3DFieldI[pnum+cnum+snum];
+	for(int i=0; i<pnum; i++) fields[i] = pointFields.get(i);
+	for(int i=0; i<cnum; i++) fields[pnum+i] = curveFields.get(i);
+	for(int i=0; i<snum; i++) fields[pnum+cnum+i] = surfaceFields.get(i);
+	
+	IVec[] pointPos = new IVec[pnum];
+	for(int i=0; i<pnum; i++) if(pointFields.get(i).pos!=null) pointPos[i] = pointFields.get(i).pos.get();
+	
+	// index of closest field of each location
+	int[] closest = new int[count];
+	int[] fieldCount = new int[fields.length];
+	IVec v = new IVec();
+	for(int i=0; i<count; i++){
+	    double x = xyzIn[i*3], y = xyzIn[i*3+1], z = xyzIn[i*3+2];
+	    v.set(x,y,z);
+	    int idx = -1;
+	    double minDist=0;
+	    for(int j=0; j<pnum; j++){
+		if(pointPos[j]!=null){
+		    double dist = pointPos[j].dist(v);
+		    if(dist < minDist || idx<0){ minDist = dist; idx = j; }
+		}
+	    }
+	    for(int j=0; j<cnum; j++){
+		double dist = curveFields.get(j).curve.dist(v);
+		if(dist < minDist || idx<0){ minDist = dist; idx = pnum+j; }
+	    }
+	    for(int j=0; j<snum; j++){
+		double dist = surfaceFields.get(j).surface.dist(v);
+		if(dist < minDist || idx<0){ minDist = dist; idx = pnum+cnum+j; }
+	    }
+	    closest[i] = idx;
+	    if(idx>=0) fieldCount[idx]++;
+	    else{ xyzOut[i*3]=xyzOut[i*3+1]=xyzOut[i*3+2]=0; }
+	}
+	
+	// evaluate each field at its locations in batch
+	double[] in=null, out=null;
+	for(int j=0; j<fields.length; j++){
+	    if(fieldCount[j]==0) continue;
+	    if(fieldCount[j]==count){ get(fields[j], xyzIn, xyzOut, count); return; }
+	    if(in==null || in.length < fieldCount[j]*3){
+		in = new double[fieldCount[j]*3];
+		out = new double[fieldCount[j]*3];
+	    }
+	    int n=0;
+	    for(int i=0; i<count; i++){
+		if(closest[i]==j){
+		    in[n*3] = xyzIn[i*3]; in[n*3+1] = xyzIn[i*3+1]; in[n*3+2] = xyzIn[i*3+2];
+		    n++;
+		}
+	    }
+	    get(fields[j], in, out, n);
+	    n=0;
+	    for(int i=0; i<count; i++){
+		if(closest[i]==j){
+		    xyzOut[i*3] = out[n*3]; xyzOut[i*3+1] = out[n*3+1]; xyzOut[i*3+2] = out[n*3+2];
+		    n++;
+		}
+	    }
+	}
+    }
+    
 }
@@ -79,7 +79,13 @@ public /*interface*/ class IConfig{
     /** Number of division per edit point to tesselate a surface into mesh. */
     public static int tessellationResolution = 5; //4;
     //public static int surfaceTessellationResolution=4; //2;//10; //9; //2 ; //3; //4; //2; //10; // variable name changed to tessellationResolution
-    
+
+    /** tessellate trimmed surfaces and curves for graphics in background threads of igeo.gui.ITessellator instead of the drawing thread.
+	a coarse placeholder is drawn until the tessellation is finished. */
+    public static boolean asyncTessellation = true;
+    /** number of threads of igeo.gui.ITessellator. If zero or negative, number of available processors minus one is used. */
+    public static int tessellationThreadNum = 0;
+
     /** Point resolution per the isoparm segment to draw wireframe curves of surfaces. */
     //public static int surfaceWireframeResolution=8; //2; // now both wireframe and curve resolution are defined by segmentResolution
     // public static int wireSegmentResolution = 8;
@@ -209,6 +215,14 @@ public /*interface*/ class IConfig{
     //public static double defaultFieldThreshold = 100;
     public static double defaultFieldIntensity = 10;
     public static boolean defaultConstantFieldIntensity = true;
+    /** I3DField evaluates its field for all target particles in one batch in a time step instead of one by one */
+    public static boolean batchFieldEvaluation = true;
+    /** IFieldMesh.create samples fields slab by slab on multiple threads instead of sampling the whole lattice at once */
+    public static boolean parallelFieldMesh = true;
+    /** number of threads of IFieldMesh when parallelFieldMesh is true. If zero or negative, number of available processors is used. */
+    public static int fieldMeshThreadNum = 0;
+    /** IFieldMesh.create samples fields only around the interface with octree, skipping boxes whose intensity bounds estimated from decay of point fields cannot cross the interface */
+    public static boolean adaptiveFieldMesh = false;
     
     
     /*****************************
@@ -251,6 +265,21 @@ public /*interface*/ class IConfig{
     /** synchronize draw loop and dynamics updating loop instead of using another thread. default is false to use multi-thread. */
     public static boolean syncDrawAndDynamics=false;
     
+    /** run each phase of IDynamicServer.step() (preinteract, interact, postinteract, preupdate, update, postupdate) on multiple threads.
+	Phases are separated by barriers in the same order as the sequential loop configured by loopPreinteract, loopPostinteract, loopPreupdate and loopPostupdate.
+	All IDynamics in the server need to be safe to be executed in parallel. Default is false. */
+    public static boolean parallelDynamics=false;
+    /** number of threads to run dynamics when parallelDynamics is true. If zero or negative, number of available processors is used. */
+    public static int parallelDynamicsThreadNum=0;
+    /** when parallelDynamics is true, dynamics are partitioned into fixed contiguous blocks, one per thread, instead of being subdivided and stolen by idle threads.
+	Each block is executed in the same order as the sequential loop every time step to have reproducible results. Default is false. */
+    public static boolean deterministicParallelDynamics=false;
+    
+    /** use the neighbor index of IDynamicServer in interact of agents like IBoid to check only dynamics within the interaction distance instead of all of them. Default is true. */
+    public static boolean useNeighborIndex=true;
+    /** cell size of the neighbor index of IDynamicServer. If zero or negative, the largest radius queried in the previous time step is used. */
+    public static double neighborIndexCellSize=0;
+    
     
     /*****************************
      * properties of IWall
@@ -266,7 +295,13 @@ public /*interface*/ class IConfig{
     
     /** When this option is true, IWall checks all other exsiting walls to see if the particle is also colliging into other walls. If so, only the closest one collides. True on this option makes the process heavy. Default is true.*/
     public static boolean checkAdjacentWalls = true;
-    
+
+    /** When this option is true, ICollidableMesh keeps its ITriangleWall in a bounding volume hierarchy checked by one ITriangleWallCollider agent instead of registering one dynamics per triangle. Default is true.*/
+    public static boolean collidableMeshBVH = true;
+
+    /** maximum number of triangles in a leaf node of ITriangleBVH */
+    public static int triangleBVHLeafSize = 4;
+
     
     /*****************************
      * mouse properties in INavigator
@@ -379,6 +414,18 @@ public /*interface*/ class IConfig{
     public static boolean checkValidControlPoint=true;
 
 
+    /*************************************************************************************
+     * Reference parameters
+     ************************************************************************************/
+    
+    /** values of operators in IVecR and IDoubleR are evaluated once and reused in the drawing thread during a draw pass (between IParameterObject.beginCache() and endCache())
+	until IParameterObject.invalidateCache() is called or reference parameters are updated. changes of leaf values like IVec.set() in the draw pass are not detected.
+	operators composed while this is false are not wrapped with cache nodes; set this before building reference parameters. */
+    public static boolean cacheReferenceParameters=false;
+    /** number of threads of IParameterProgram.run(double[][]). If zero or negative, number of available processors is used. */
+    public static int parameterProgramThreadNum = 0;
+    
+    
     /*************************************************************************************
      * AI Export
      ************************************************************************************/
@@ -213,6 +213,11 @@ public class ICurve extends IGeometry implements ICurveI{
     synchronized public IVec tan(IDoubleI u){ return curve.tan(u); }
     synchronized public IVec tan(double u){ return curve.tan(u); }
     //synchronized public void tan(double u, IVec retval){ curve.tan(u,retval); }
+    
+    /** evaluating points at parameters us into outXYZ as sequence of x,y,z. outXYZ is created if null */
+    synchronized public double[] pts(double[] us, double[] outXYZ){ return curve.pts(us,outXYZ); }
+    /** evaluating tangents at parameters us into outXYZ as sequence of x,y,z. outXYZ is created if null */
+    synchronized public double[] tans(double[] us, double[] outXYZ){ return curve.tans(us,outXYZ); }
 
     /** getting i-th control point */
     synchronized public IVec cp(int i){ return curve.cp(i).get(); }
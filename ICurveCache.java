@@ -34,6 +34,9 @@ public class ICurveCache{
     public int deg;
     public IVec[] pts; // for 3d search
     public IVec2[] pts2; // for 2d search
+    /** k-d trees of pts and pts2 for closest point search, built lazily and cleared by init() and init2().
+	pts of degree 1 curve are control points themselves; call ICurveGeo.updateCache() after moving them. */
+    public volatile IKdTree tree, tree2;
     
     public ICurveCache(ICurveGeo crv, int resolution){
 	curve = crv;
@@ -46,6 +49,7 @@ public class ICurveCache{
     }
     
     public void init(){
+	tree=null;
 	if(deg==1){
 	    pts = new IVec[curve.cpNum()];
 	    for(int i=0; i<pts.length; i++){ pts[i] = curve.cp(i).get(); }
@@ -66,6 +70,7 @@ public class ICurveCache{
     
     
     public void init2(){
+	tree2=null;
 	if(deg==1){
 	    pts2 = new IVec2[curve.cpNum()];
 	    for(int i=0; i<pts2.length; i++){ pts2[i] = curve.cp(i).get().to2d(); }
@@ -266,6 +271,19 @@ public class ICurveCache{
     
         
     public int closest(IVec pt){
+	IKdTree t = tree;
+	if(t==null){ t = new IKdTree(pts); tree = t; }
+	return t.closest(pt);
+    }
+    
+    public int closest(IVec2 pt){
+	IKdTree t = tree2;
+	if(t==null){ t = new IKdTree(pts2); tree2 = t; }
+	return t.closest(pt);
+    }
+    
+    /** linear search of closest point without tree */
+    public int closestByScan(IVec pt){
 	int minIdx=-1;
 	double dist=0, minDist=0;
 	for(int i=0; i<pts.length; i++){
@@ -275,7 +293,8 @@ public class ICurveCache{
 	return minIdx;
     }
     
-    public int closest(IVec2 pt){
+    /** linear search of closest point without tree */
+    public int closestByScan(IVec2 pt){
 	int minIdx=-1;
 	double dist=0, minDist=0;
 	for(int i=0; i<pts2.length; i++){
@@ -44,14 +44,9 @@ public class ICurveFieldGeo extends IFieldGeo implements I3DFieldI{
     public IVecI get(IVecI v){
 	double u = curve.u(v);
 	double r = intensity;
-	if(decay == Decay.Linear){
-	    double dist = curve.pt(u).dist(v);
-	    if(dist >= threshold) return new IVec(); // zero
-	    if(threshold>0) r *= (threshold-dist)/threshold;
-	}
-	else if(decay == Decay.Gaussian){
-	    double dist = curve.pt(u).dist(v);
-	    if(threshold>0) r *= Math.exp(-2*dist*dist/(threshold*threshold));
+	if(decay != Decay.None){
+	    r = decayIntensity(curve.pt(u).dist(v));
+	    if(r==0) return new IVec(); // zero
 	}
 	
 	IVecI vec = get(v,u);
@@ -101,6 +96,28 @@ public class ICurveFieldGeo extends IFieldGeo implements I3DFieldI{
 	*/
     }
     
+    /** get 3D vector field values at count of locations in xyzIn as x,y,z sequence into xyzOut */
+    public void get(double[] xyzIn, double[] xyzOut, int count){
+	IVec v = new IVec();
+	for(int i=0; i<count; i++){
+	    v.set(xyzIn[i*3], xyzIn[i*3+1], xyzIn[i*3+2]);
+	    double u = curve.u(v);
+	    double r = intensity;
+	    if(decay != Decay.None){
+		r = decayIntensity(curve.pt(u).dist(v));
+		if(r==0){ xyzOut[i*3]=xyzOut[i*3+1]=xyzOut[i*3+2]=0; continue; } // zero
+	    }
+	    IVec vec = get(v,u).get();
+	    if(constantIntensity){
+		double len = vec.len();
+		if(len<IConfig.tolerance){ r=0; } else{ r/=len; }
+	    }
+	    xyzOut[i*3] = vec.x*r;
+	    xyzOut[i*3+1] = vec.y*r;
+	    xyzOut[i*3+2] = vec.z*r;
+	}
+    }
+    
     /** if output vector is besed on constant length (intensity) or variable depending geometry when curve or surface tangent is used */
     public ICurveFieldGeo constantIntensity(boolean b){ super.constantIntensity(b); return this; }
     
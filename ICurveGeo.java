@@ -291,20 +291,22 @@ public class ICurveGeo extends INurbsGeo implements ICurveI, IEntityParameter{
     public void pt(double u, IVec retval){
 	//IOut.p("u="+u); //
         int index = basisFunction.index(u);
-        double n[] = basisFunction.eval(index, u);
-        double weight=0;
+	IBSplineBasisFunction.Buffer buf = IBSplineBasisFunction.buffer(degree);
+	basisFunction.eval(index, u, buf);
+	double[] n = buf.n;
+        double x=0, y=0, z=0, weight=0;
         for(int i=0; i<=degree; i++){
             IVec cpt=controlPoints[index-degree+i].get();
-	    double w=1.;
-	    if(!defaultWeights[index-degree+i]) w=((IVec4)cpt).w;
-            retval.x += cpt.x*w*n[i];
-            retval.y += cpt.y*w*n[i];
-            retval.z += cpt.z*w*n[i];
-            weight += w*n[i];
+	    double w=n[i];
+	    if(!defaultWeights[index-degree+i]) w*=((IVec4)cpt).w;
+            x += cpt.x*w;
+            y += cpt.y*w;
+            z += cpt.z*w;
+            weight += w;
         }
-        retval.x/=weight;
-        retval.y/=weight;
-        retval.z/=weight;
+        retval.x = x/weight;
+        retval.y = y/weight;
+        retval.z = z/weight;
     }
     
     public IVec tan(IDoubleI u){ return tan(u.x()); }
@@ -314,17 +316,14 @@ public class ICurveGeo extends INurbsGeo implements ICurveI, IEntityParameter{
 	return retval;
     }
     public void tan(double u, IVec retval){
-	if(derivativeFunction==null){
-            derivativeFunction=new IBSplineBasisFunction(basisFunction);
-            derivativeFunction.differentiate();
-        }
-        int index = derivativeFunction.index(u);
+        int index = basisFunction.index(u);
+	IBSplineBasisFunction.Buffer buf = IBSplineBasisFunction.buffer(degree);
+	basisFunction.evalWithDerivative(index, u, buf);
+	double[] n = buf.n;
+	double[] dn = buf.dn;
 	
-        double dn[] = derivativeFunction.eval(index, u);
-        double n[] = basisFunction.eval(index, u);
-        
-        IVec4 val1 = new IVec4();
-        IVec4 val2 = new IVec4();
+	double x1=0, y1=0, z1=0, w1=0;
+	double x2=0, y2=0, z2=0, w2=0;
         
         for(int i=0; i<=degree; i++){
             IVec cpt=controlPoints[index-degree+i].get();
@@ -332,29 +331,47 @@ public class ICurveGeo extends INurbsGeo implements ICurveI, IEntityParameter{
             double w=1.;
             if(!defaultWeights[index-degree+i]) w=((IVec4)cpt).w;
             
-            val1.x += cpt.x*w*n[i];
-            val1.y += cpt.y*w*n[i];
-            val1.z += cpt.z*w*n[i];
-            val1.w += w*n[i];
+            x1 += cpt.x*w*n[i];
+            y1 += cpt.y*w*n[i];
+            z1 += cpt.z*w*n[i];
+            w1 += w*n[i];
 	    
-	    val2.x += cpt.x*w*dn[i];
-            val2.y += cpt.y*w*dn[i];
-            val2.z += cpt.z*w*dn[i];
-            val2.w += w*dn[i];
+	    x2 += cpt.x*w*dn[i];
+            y2 += cpt.y*w*dn[i];
+            z2 += cpt.z*w*dn[i];
+            w2 += w*dn[i];
         }
-        val1.x*=val2.w;
-        val1.y*=val2.w;
-        val1.z*=val2.w;
-        
-        val2.x*=val1.w;
-        val2.y*=val1.w;
-        val2.z*=val1.w;
-        
-        val1.w*=val1.w;
-        
-        retval.x = (val2.x-val1.x)/val1.w;
-        retval.y = (val2.y-val1.y)/val1.w;
-        retval.z = (val2.z-val1.z)/val1.w;
+	// quotient rule
+	double ww = w1*w1;
+        retval.x = (x2*w1-x1*w2)/ww;
+        retval.y = (y2*w1-y1*w2)/ww;
+        retval.z = (z2*w1-z1*w2)/ww;
+    }
+    
+    /** evaluating points at parameters us into outXYZ as sequence of x,y,z. outXYZ is created if null */
+    public double[] pts(double[] us, double[] outXYZ){
+	if(outXYZ==null) outXYZ = new double[us.length*3];
+	IVec pt = new IVec();
+	for(int i=0; i<us.length; i++){
+	    pt(us[i], pt);
+	    outXYZ[i*3] = pt.x;
+	    outXYZ[i*3+1] = pt.y;
+	    outXYZ[i*3+2] = pt.z;
+	}
+	return outXYZ;
+    }
+    
+    /** evaluating tangents at parameters us into outXYZ as sequence of x,y,z. outXYZ is created if null */
+    public double[] tans(double[] us, double[] outXYZ){
+	if(outXYZ==null) outXYZ = new double[us.length*3];
+	IVec tan = new IVec();
+	for(int i=0; i<us.length; i++){
+	    tan(us[i], tan);
+	    outXYZ[i*3] = tan.x;
+	    outXYZ[i*3+1] = tan.y;
+	    outXYZ[i*3+2] = tan.z;
+	}
+	return outXYZ;
     }
     
     /** getting i-th control point */
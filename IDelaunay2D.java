@@ -50,6 +50,54 @@ public class IDelaunay2D {
 	    for(int i=0; i<edgePts.length; i++) edgePtsNum+=edgePts[i].length;
 	}
 	
+	IVec2[] pts = new IVec2[innerPtsNum+edgePtsNum];
+	if(innerPts!=null){
+	    for(int i=0; i<innerPts.length; i++) pts[i] = innerPts[i];
+	}
+	
+	int[][] edgePtIdx = new int[0][];
+	if(edgePts!=null){
+	    edgePtIdx = new int[edgePts.length][];
+	    int ptIdx = innerPtsNum;
+	    for(int i=0; i<edgePts.length; i++){
+		edgePtIdx[i] = new int[edgePts[i].length];
+		for(int j=0; j<edgePts[i].length; j++){
+		    pts[ptIdx] = edgePts[i][j];
+		    edgePtIdx[i][j] = ptIdx;
+		    ptIdx++;
+		}
+	    }
+	}
+	
+	if(pts.length==3){
+	    if(isClockwise(pts[0],pts[1],pts[2]))
+		return new IVec2[][]{ new IVec2[]{ pts[0],pts[2],pts[1] } };
+	    return new IVec2[][]{ new IVec2[]{ pts[0],pts[1],pts[2] } };
+	}
+	
+	IDelaunayTriangulation2D triangulation = new IDelaunayTriangulation2D(pts);
+	triangulation.constrainLoops(edgePtIdx);
+	triangulation.removeOutside();
+	return triangulation.getTriangles();
+    }
+    
+    /**
+       Calculates Delaunay triangles out of array of 2D points by checking all combinations of points. This is slow (O(n^4)) and kept for comparison.
+       
+       @param innerPts points inside edges defined by edgePts
+       @param edgePts points on the edge (the edge should be naked having only one triangle touching); order of edge points needs to be counter clockwise for outer trim loop, clockwise for inner hole trim loop.
+       @return array of triangles, which consist of array of 3 points of IVec2
+       
+    */
+    public static IVec2[][] getTrianglesBruteForce(IVec2[] innerPts, IVec2[][] edgePts){
+	
+	int innerPtsNum = 0;
+	int edgePtsNum = 0;
+	if(innerPts!=null) innerPtsNum=innerPts.length;
+	if(edgePts!=null){
+	    for(int i=0; i<edgePts.length; i++) edgePtsNum+=edgePts[i].length;
+	}
+	
 	IVec2[] pts = new IVec2[innerPtsNum+edgePtsNum];
 	if(innerPts!=null){
 	    for(int i=0; i<innerPts.length; i++){
@@ -212,6 +260,20 @@ public class IDelaunay2D {
     */
     public static IVec2[][] getTriangles(IVec2[] pts){
 	
+	if(pts.length==3){
+	    if(isClockwise(pts[0],pts[1],pts[2]))
+		return new IVec2[][]{ new IVec2[]{ pts[0],pts[2],pts[1] } };
+	    return new IVec2[][]{ new IVec2[]{ pts[0],pts[1],pts[2] } };
+	}
+	return new IDelaunayTriangulation2D(pts).getTriangles();
+    }
+    
+    /**
+       Getting delaunay triangles out of array of 2D points by checking all combinations of points. This is slow (O(n^4)) and kept for comparison.
+       @return array of triangles, which consist of array of 3 points of IVec2
+    */
+    public static IVec2[][] getTrianglesBruteForce(IVec2[] pts){
+	
 	if(pts.length==3){
 	    if(isClockwise(pts[0],pts[1],pts[2]))
 		return new IVec2[][]{ new IVec2[]{ pts[0],pts[2],pts[1] } };
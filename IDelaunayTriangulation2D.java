@@ -0,0 +1,646 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+package igeo;
+
+import java.util.*;
+
+/**
+   Incremental Delaunay triangulation of 2D points (Bowyer-Watson with spatially sorted insertion)
+   with triangle adjacency. Edges can be constrained afterwards to triangulate trimmed domains.
+   <p>
+   Vertex indices are indices of the input points. Triangles are counter-clockwise and
+   neighbor of k-th edge (from k-th vertex to (k+1)-th vertex) is -1 on the boundary.
+   
+   @author Satoru Sugihara
+*/
+public class IDelaunayTriangulation2D{
+    
+    /** input points */
+    public IVec2[] pts;
+    public double[] x, y;
+    /** index of the vertex which each input point is merged into. duplicated points are merged into the first one */
+    public int[] vertexId;
+    
+    /** three vertex indices per triangle */
+    public int[] triangles;
+    /** neighbor triangle across each edge of triangles */
+    public int[] neighbors;
+    /** flag of constrained edge per edge of triangles */
+    public boolean[] constrained;
+    public int triangleNum;
+    
+    /** one of triangles touching each vertex. -1 if the vertex isn't used. */
+    public int[] vertexTriangle;
+    
+    /** directed constraint edges actually inserted; their left side is inside of the domain */
+    public ArrayList<int[]> constraintEdges;
+    
+    /** index of the vertex at infinity of ghost triangles used while inserting points */
+    int inf;
+    /** triangles removed in insertion to be reused */
+    int[] freeTriangles;
+    int freeNum;
+    int lastTriangle;
+    int[] mark;
+    int markStamp;
+    
+    
+    public IDelaunayTriangulation2D(IVec2[] pts){
+	this.pts = pts;
+	int num = pts.length;
+	x = new double[num];
+	y = new double[num];
+	vertexId = new int[num];
+	vertexTriangle = new int[num];
+	for(int i=0; i<num; i++){
+	    x[i]=pts[i].x; y[i]=pts[i].y; vertexId[i]=i; vertexTriangle[i]=-1;
+	}
+	constraintEdges = new ArrayList<int[]>();
+	triangulate();
+    }
+    
+    
+    public int triangleNum(){ return triangleNum; }
+    
+    /** index of k-th vertex of i-th triangle */
+    public int vertex(int i, int k){ return triangles[i*3+k]; }
+    
+    /** index of triangle across k-th edge of i-th triangle. -1 if the edge is on boundary. */
+    public int neighbor(int i, int k){ return neighbors[i*3+k]; }
+    
+    /** counter-clockwise triangles out of input points */
+    public IVec2[][] getTriangles(){
+	IVec2[][] tri = new IVec2[triangleNum][];
+	for(int i=0; i<triangleNum; i++){
+	    tri[i] = new IVec2[]{ pts[triangles[i*3]], pts[triangles[i*3+1]], pts[triangles[i*3+2]] };
+	}
+	return tri;
+    }
+    
+    
+    /*****************************
+     * insertion
+     *****************************/
+    
+    void triangulate(){
+	int num = pts.length;
+	inf = num;
+	int cap = num*3+16;
+	triangles = new int[cap*3];
+	neighbors = new int[cap*3];
+	mark = new int[cap];
+	freeTriangles = new int[16];
+	triangleNum=0;
+	freeNum=0;
+	if(num<3) return;
+	
+	int[] order = spatialOrder();
+	
+	// first triangle out of non-collinear points
+	int a=order[0], b=-1, c=-1;
+	int bi=-1, ci=-1;
+	for(int i=1; i<num && b<0; i++){
+	    if(x[order[i]]!=x[a] || y[order[i]]!=y[a]){ b=order[i]; bi=i; }
+	}
+	for(int i=bi+1; bi>0 && i<num && c<0; i++){
+	    if(orient(a,b,order[i])!=0){ c=order[i]; ci=i; }
+	}
+	if(c<0){ // all collinear
+	    triangleNum=0;
+	    return;
+	}
+	if(orient(a,b,c)<0){ int tmp=b; b=c; c=tmp; }
+	
+	int t0 = newTriangle(a,b,c);
+	int g0 = newTriangle(b,a,inf);
+	int g1 = newTriangle(c,b,inf);
+	int g2 = newTriangle(a,c,inf);
+	setNeighbors(t0, g0, g1, g2);
+	setNeighbors(g0, t0, g2, g1);
+	setNeighbors(g1, t0, g0, g2);
+	setNeighbors(g2, t0, g1, g0);
+	lastTriangle = t0;
+	
+	int[] work = new int[64];
+	for(int i=1; i<num; i++){
+	    if(i==bi || i==ci) continue;
+	    work = insert(order[i], work);
+	}
+	
+	compact();
+    }
+    
+    /** order of insertion along Hilbert curve to keep the walk in locate() short */
+    int[] spatialOrder(){
+	int num = pts.length;
+	double minx=x[0], miny=y[0], maxx=x[0], maxy=y[0];
+	for(int i=1; i<num; i++){
+	    if(x[i]<minx) minx=x[i]; else if(x[i]>maxx) maxx=x[i];
+	    if(y[i]<miny) miny=y[i]; else if(y[i]>maxy) maxy=y[i];
+	}
+	double w = Math.max(maxx-minx, maxy-miny);
+	if(w<=0) w=1;
+	long[] key = new long[num];
+	for(int i=0; i<num; i++){
+	    int hx = (int)((x[i]-minx)/w*65535);
+	    int hy = (int)((y[i]-miny)/w*65535);
+	    key[i] = (hilbert(hx,hy)<<32) | i;
+	}
+	Arrays.sort(key);
+	int[] order = new int[num];
+	for(int i=0; i<num; i++) order[i] = (int)(key[i]&0xFFFFFFFFL);
+	return order;
+    }
+    
+    static long hilbert(int hx, int hy){
+	long d=0;
+	for(int s=1<<15; s>0; s>>=1){
+	    int rx = (hx&s)>0?1:0;
+	    int ry = (hy&s)>0?1:0;
+	    d += (long)s*s*((3*rx)^ry);
+	    if(ry==0){
+		if(rx==1){ hx = s-1-hx; hy = s-1-hy; }
+		int tmp=hx; hx=hy; hy=tmp;
+	    }
+	}
+	return d;
+    }
+    
+    /** insert point p re-triangulating cavity of triangles whose circumcircle contains p.
+	@return work buffer (possibly enlarged)
+    */
+    int[] insert(int p, int[] work){
+	int t = locate(p);
+	
+	for(int k=0; k<3; k++){
+	    int v = triangles[t*3+k];
+	    if(v!=inf && x[v]==x[p] && y[v]==y[p]){ vertexId[p]=v; return work; }
+	}
+	
+	markStamp++;
+	// collect cavity and its boundary edges as (triangle, edge index) in work
+	int cavityNum=0, boundaryNum=0;
+	int[] stack = new int[16];
+	int stackNum=0;
+	stack[stackNum++]=t;
+	mark[t]=markStamp;
+	int[] cavity = new int[16];
+	while(stackNum>0){
+	    int c = stack[--stackNum];
+	    if(cavityNum==cavity.length) cavity = Arrays.copyOf(cavity, cavityNum*2);
+	    cavity[cavityNum++]=c;
+	    for(int k=0; k<3; k++){
+		int nb = neighbors[c*3+k];
+		if(mark[nb]==markStamp) continue;
+		if(conflict(nb,p)){
+		    mark[nb]=markStamp;
+		    if(stackNum==stack.length) stack = Arrays.copyOf(stack, stackNum*2);
+		    stack[stackNum++]=nb;
+		}
+		else{
+		    if(boundaryNum*3+3>work.length) work = Arrays.copyOf(work, work.length*2);
+		    work[boundaryNum*3] = triangles[c*3+k];
+		    work[boundaryNum*3+1] = triangles[c*3+(k+1)%3];
+		    work[boundaryNum*3+2] = nb;
+		    boundaryNum++;
+		}
+	    }
+	}
+	
+	for(int i=0; i<cavityNum; i++) freeTriangle(cavity[i]);
+	
+	// new triangles connecting boundary edges and p
+	// first[v] and second[v] are new triangles whose first/second vertex is v
+	int[] first = new int[boundaryNum];
+	for(int i=0; i<boundaryNum; i++){
+	    int u = work[i*3], v = work[i*3+1], nb = work[i*3+2];
+	    int nt = newTriangle(u,v,p);
+	    first[i]=nt;
+	    neighbors[nt*3]=nb;
+	    for(int k=0; k<3; k++){
+		if(triangles[nb*3+k]==v && triangles[nb*3+(k+1)%3]==u){ neighbors[nb*3+k]=nt; break; }
+	    }
+	}
+	// boundary is a loop; link each new triangle with the ones sharing edges to p
+	HashMap<Integer,Integer> byFirst = null;
+	if(boundaryNum>8) byFirst = new HashMap<Integer,Integer>(boundaryNum*2);
+	if(byFirst!=null) for(int i=0; i<boundaryNum; i++) byFirst.put(work[i*3], first[i]);
+	for(int i=0; i<boundaryNum; i++){
+	    int nt = first[i];
+	    int v = work[i*3+1];
+	    int next=-1;
+	    if(byFirst!=null) next = byFirst.get(v);
+	    else for(int j=0; j<boundaryNum && next<0; j++) if(work[j*3]==v) next=first[j];
+	    neighbors[nt*3+1]=next; // edge v->p
+	    neighbors[next*3+2]=nt; // edge p->v of the next
+	}
+	lastTriangle = first[0];
+	for(int i=0; i<boundaryNum; i++){
+	    if(triangles[first[i]*3]!=inf && triangles[first[i]*3+1]!=inf){ lastTriangle=first[i]; break; }
+	}
+	return work;
+    }
+    
+    /** find a triangle containing p or a ghost triangle visible from p when p is outside of the convex hull */
+    int locate(int p){
+	int t = lastTriangle;
+	if(isGhost(t)) t = neighbors[t*3+finiteEdge(t)];
+	int maxStep = triangleNum*2+16;
+	int r=0;
+	for(int step=0; step<maxStep; step++){
+	    if(isGhost(t)) return t;
+	    boolean moved=false;
+	    r = (r+1)%3;
+	    for(int i=0; i<3 && !moved; i++){
+		int k = (r+i)%3;
+		if(orient(triangles[t*3+k], triangles[t*3+(k+1)%3], p)<0){
+		    t = neighbors[t*3+k]; moved=true;
+		}
+	    }
+	    if(!moved) return t;
+	}
+	// fallback
+	for(int i=0; i<triangleNum; i++){
+	    if(mark[i]>=0 && conflict(i,p)) return i;
+	}
+	return lastTriangle;
+    }
+    
+    boolean isGhost(int t){
+	return triangles[t*3]==inf || triangles[t*3+1]==inf || triangles[t*3+2]==inf;
+    }
+    
+    int finiteEdge(int t){
+	for(int k=0; k<3; k++){
+	    if(triangles[t*3+k]!=inf && triangles[t*3+(k+1)%3]!=inf) return k;
+	}
+	return 0;
+    }
+    
+    /** check if p is inside of circumcircle of t. for ghost triangles, if p is outside of the hull edge */
+    boolean conflict(int t, int p){
+	int a = triangles[t*3], b = triangles[t*3+1], c = triangles[t*3+2];
+	if(a==inf||b==inf||c==inf){
+	    int u,v;
+	    if(c==inf){ u=a; v=b; }
+	    else if(a==inf){ u=b; v=c; }
+	    else{ u=c; v=a; }
+	    double o = orient(u,v,p);
+	    if(o>0) return true;
+	    if(o<0) return false;
+	    // on the line of the hull edge
+	    double dot = (x[p]-x[u])*(x[v]-x[u]) + (y[p]-y[u])*(y[v]-y[u]);
+	    double len2 = (x[v]-x[u])*(x[v]-x[u]) + (y[v]-y[u])*(y[v]-y[u]);
+	    return dot > 0 && dot < len2;
+	}
+	return inCircle(a,b,c,p) > 0;
+    }
+    
+    int newTriangle(int a, int b, int c){
+	int t;
+	if(freeNum>0){ t = freeTriangles[--freeNum]; }
+	else{
+	    if(triangleNum*3+3 > triangles.length){
+		int len = triangles.length*2;
+		triangles = Arrays.copyOf(triangles, len);
+		neighbors = Arrays.copyOf(neighbors, len);
+		mark = Arrays.copyOf(mark, len/3);
+	    }
+	    t = triangleNum++;
+	}
+	triangles[t*3]=a; triangles[t*3+1]=b; triangles[t*3+2]=c;
+	neighbors[t*3]=neighbors[t*3+1]=neighbors[t*3+2]=-1;
+	mark[t]=0;
+	return t;
+    }
+    
+    void freeTriangle(int t){
+	if(freeNum==freeTriangles.length) freeTriangles = Arrays.copyOf(freeTriangles, freeNum*2);
+	freeTriangles[freeNum++]=t;
+	mark[t]=-1;
+    }
+    
+    void setNeighbors(int t, int n0, int n1, int n2){
+	neighbors[t*3]=n0; neighbors[t*3+1]=n1; neighbors[t*3+2]=n2;
+    }
+    
+    /** remove free and ghost triangles and renumber */
+    void compact(){
+	int[] newIndex = new int[triangleNum];
+	int num=0;
+	for(int i=0; i<triangleNum; i++){
+	    if(mark[i]<0 || isGhost(i)) newIndex[i]=-1;
+	    else newIndex[i]=num++;
+	}
+	int[] tri = new int[num*3];
+	int[] nbr = new int[num*3];
+	for(int i=0; i<triangleNum; i++){
+	    int j = newIndex[i];
+	    if(j<0) continue;
+	    for(int k=0; k<3; k++){
+		tri[j*3+k] = triangles[i*3+k];
+		nbr[j*3+k] = newIndex[neighbors[i*3+k]];
+		vertexTriangle[tri[j*3+k]] = j;
+	    }
+	}
+	triangles = tri;
+	neighbors = nbr;
+	constrained = new boolean[num*3];
+	triangleNum = num;
+	freeTriangles=null;
+	mark=null;
+    }
+    
+    
+    /*****************************
+     * constraints
+     *****************************/
+    
+    /** force the edge between two input points to be in the triangulation by flipping crossing edges.
+	the left side of the edge from pointIndex1 to pointIndex2 is regarded as inside of the domain in removeOutside().
+	points on the edge split it.
+	@return false if the edge crosses other constrained edges
+    */
+    public boolean constrain(int pointIndex1, int pointIndex2){
+	int a = vertexId[pointIndex1], b = vertexId[pointIndex2];
+	if(a==b || vertexTriangle[a]<0 || vertexTriangle[b]<0) return true;
+	
+	if(findEdge(a,b)>=0 || findEdge(b,a)>=0){
+	    setConstrained(a,b);
+	    return true;
+	}
+	
+	// find the triangle around a through which the edge goes out
+	ArrayList<Integer> fan = fan(a);
+	int r=-1, l=-1, t=-1;
+	for(int i=0; i<fan.size() && t<0; i++){
+	    int ft = fan.get(i);
+	    int k = indexOf(ft,a);
+	    int v1 = triangles[ft*3+(k+1)%3], v2 = triangles[ft*3+(k+2)%3];
+	    if(isOnEdge(a,b,v1)) return constrain(a,v1) & constrain(v1,b);
+	    if(isOnEdge(a,b,v2)) return constrain(a,v2) & constrain(v2,b);
+	    if(orient(a,b,v1)<0 && orient(a,b,v2)>0){ r=v1; l=v2; t=ft; }
+	}
+	if(t<0){
+	    IOut.err("edge <"+pointIndex1+","+pointIndex2+"> is not found in triangulation");
+	    return false;
+	}
+	
+	// walk to b collecting crossing edges
+	LinkedList<int[]> crossing = new LinkedList<int[]>();
+	int split=-1;
+	while(true){
+	    int k = indexOf(t,r);
+	    if(constrained[t*3+k]){
+		IOut.err("edge <"+pointIndex1+","+pointIndex2+"> crosses another constrained edge");
+		return false;
+	    }
+	    crossing.add(new int[]{ r,l });
+	    t = neighbors[t*3+k];
+	    int w = triangles[t*3+(indexOf(t,l)+2)%3];
+	    if(w==b) break;
+	    double o = orient(a,b,w);
+	    if(o==0){ split=w; break; }
+	    if(o<0) r=w;
+	    else l=w;
+	}
+	if(split>=0) b=split;
+	
+	// flip crossing edges until none crosses
+	ArrayList<int[]> newEdges = new ArrayList<int[]>();
+	int maxIteration = crossing.size()*crossing.size()*4+16;
+	for(int it=0; !crossing.isEmpty() && it<maxIteration; it++){
+	    int[] e = crossing.removeFirst();
+	    int h = findEdge(e[0],e[1]);
+	    int t1 = h/3, k1 = h%3;
+	    int t2 = neighbors[h];
+	    int c = triangles[t1*3+(k1+2)%3];
+	    int d = triangles[t2*3+(indexOf(t2,e[1])+2)%3];
+	    if(orient(c,e[0],d)>0 && orient(d,e[1],c)>0){
+		flip(t1,k1);
+		if(isCrossing(c,d,a,b)) crossing.addLast(new int[]{ c,d });
+		else newEdges.add(new int[]{ c,d });
+	    }
+	    else crossing.addLast(e);
+	}
+	if(!crossing.isEmpty()){
+	    IOut.err("failed to insert edge <"+pointIndex1+","+pointIndex2+">");
+	    return false;
+	}
+	setConstrained(a,b);
+	
+	// restore Delaunay property around new edges
+	boolean flipped=true;
+	for(int it=0; flipped && it<newEdges.size()*4+16; it++){
+	    flipped=false;
+	    for(int i=0; i<newEdges.size(); i++){
+		int[] e = newEdges.get(i);
+		int h = findEdge(e[0],e[1]);
+		if(h<0 || constrained[h]) continue;
+		int t1=h/3, k1=h%3, t2 = neighbors[h];
+		int c = triangles[t1*3+(k1+2)%3];
+		int d = triangles[t2*3+(indexOf(t2,e[1])+2)%3];
+		if(inCircle(e[0],e[1],c,d)>0){
+		    flip(t1,k1);
+		    newEdges.set(i, new int[]{ c,d });
+		    flipped=true;
+		}
+	    }
+	}
+	
+	if(split>=0) return constrain(split, pointIndex2);
+	return true;
+    }
+    
+    /** constrain edges of closed loops of point indices.
+	outer loops need to be counter-clockwise and inner hole loops clockwise.
+    */
+    public void constrainLoops(int[][] loops){
+	for(int i=0; i<loops.length; i++){
+	    for(int j=0; j<loops[i].length; j++){
+		constrain(loops[i][j], loops[i][(j+1)%loops[i].length]);
+	    }
+	}
+    }
+    
+    /** remove triangles on the right side of constrained edges and ones connected to them without crossing constrained edges */
+    public void removeOutside(){
+	if(constraintEdges.size()==0) return;
+	int[] side = new int[triangleNum]; // 0: unknown, 1: inside, 2: outside
+	LinkedList<Integer> queue = new LinkedList<Integer>();
+	for(int i=0; i<constraintEdges.size(); i++){
+	    int[] e = constraintEdges.get(i);
+	    int h = findEdge(e[0],e[1]);
+	    if(h>=0 && side[h/3]==0){ side[h/3]=1; queue.add(h/3); }
+	    h = findEdge(e[1],e[0]);
+	    if(h>=0 && side[h/3]==0){ side[h/3]=2; queue.add(h/3); }
+	}
+	while(!queue.isEmpty()){
+	    int t = queue.removeFirst();
+	    for(int k=0; k<3; k++){
+		int nb = neighbors[t*3+k];
+		if(nb>=0 && side[nb]==0 && !constrained[t*3+k]){
+		    side[nb]=side[t];
+		    queue.add(nb);
+		}
+	    }
+	}
+	
+	int[] newIndex = new int[triangleNum];
+	int num=0;
+	for(int i=0; i<triangleNum; i++) newIndex[i] = side[i]==1? num++ : -1;
+	int[] tri = new int[num*3];
+	int[] nbr = new int[num*3];
+	boolean[] con = new boolean[num*3];
+	for(int i=0; i<vertexTriangle.length; i++) vertexTriangle[i]=-1;
+	for(int i=0; i<triangleNum; i++){
+	    int j = newIndex[i];
+	    if(j<0) continue;
+	    for(int k=0; k<3; k++){
+		tri[j*3+k] = triangles[i*3+k];
+		int nb = neighbors[i*3+k];
+		nbr[j*3+k] = nb<0? -1 : newIndex[nb];
+		con[j*3+k] = constrained[i*3+k];
+		vertexTriangle[tri[j*3+k]] = j;
+	    }
+	}
+	triangles=tri;
+	neighbors=nbr;
+	constrained=con;
+	triangleNum=num;
+    }
+    
+    void setConstrained(int a, int b){
+	int h = findEdge(a,b);
+	if(h>=0) constrained[h]=true;
+	h = findEdge(b,a);
+	if(h>=0) constrained[h]=true;
+	constraintEdges.add(new int[]{ a,b });
+    }
+    
+    /** flip k-th edge of triangle t1. t1=(a,b,c) and t2=(b,a,d) become (c,a,d) and (d,b,c). */
+    void flip(int t1, int k1){
+	int t2 = neighbors[t1*3+k1];
+	int a = triangles[t1*3+k1], b = triangles[t1*3+(k1+1)%3], c = triangles[t1*3+(k1+2)%3];
+	int k2 = indexOf(t2,b);
+	int d = triangles[t2*3+(k2+2)%3];
+	int n1 = neighbors[t1*3+(k1+1)%3], n2 = neighbors[t1*3+(k1+2)%3];
+	int n3 = neighbors[t2*3+(k2+1)%3], n4 = neighbors[t2*3+(k2+2)%3];
+	boolean c1 = constrained[t1*3+(k1+1)%3], c2 = constrained[t1*3+(k1+2)%3];
+	boolean c3 = constrained[t2*3+(k2+1)%3], c4 = constrained[t2*3+(k2+2)%3];
+	
+	triangles[t1*3]=c; triangles[t1*3+1]=a; triangles[t1*3+2]=d;
+	neighbors[t1*3]=n2; neighbors[t1*3+1]=n3; neighbors[t1*3+2]=t2;
+	constrained[t1*3]=c2; constrained[t1*3+1]=c3; constrained[t1*3+2]=false;
+	
+	triangles[t2*3]=d; triangles[t2*3+1]=b; triangles[t2*3+2]=c;
+	neighbors[t2*3]=n4; neighbors[t2*3+1]=n1; neighbors[t2*3+2]=t1;
+	constrained[t2*3]=c4; constrained[t2*3+1]=c1; constrained[t2*3+2]=false;
+	
+	replaceNeighbor(n3, t2, t1);
+	replaceNeighbor(n1, t1, t2);
+	vertexTriangle[a]=t1; vertexTriangle[c]=t1; vertexTriangle[d]=t1;
+	vertexTriangle[b]=t2;
+    }
+    
+    void replaceNeighbor(int t, int oldNeighbor, int newNeighbor){
+	if(t<0) return;
+	for(int k=0; k<3; k++) if(neighbors[t*3+k]==oldNeighbor){ neighbors[t*3+k]=newNeighbor; return; }
+    }
+    
+    int indexOf(int t, int v){
+	if(triangles[t*3]==v) return 0;
+	if(triangles[t*3+1]==v) return 1;
+	return 2;
+    }
+    
+    /** find directed edge from a to b.
+	@return triangle index * 3 + edge index, or -1 if not found
+    */
+    public int findEdge(int a, int b){
+	ArrayList<Integer> fan = fan(a);
+	for(int i=0; i<fan.size(); i++){
+	    int t = fan.get(i);
+	    int k = indexOf(t,a);
+	    if(triangles[t*3+(k+1)%3]==b) return t*3+k;
+	}
+	return -1;
+    }
+    
+    /** triangles around vertex v in counter-clockwise order. if v is on boundary, it starts from the boundary. */
+    public ArrayList<Integer> fan(int v){
+	ArrayList<Integer> fan = new ArrayList<Integer>();
+	int start = vertexTriangle[v];
+	if(start<0) return fan;
+	// rotate clockwise to boundary
+	int t = start;
+	while(true){
+	    int nb = neighbors[t*3+indexOf(t,v)];
+	    if(nb<0 || nb==start) break;
+	    t = nb;
+	}
+	if(neighbors[t*3+indexOf(t,v)]==start){ t=start; }
+	int first = t;
+	do{
+	    fan.add(t);
+	    t = neighbors[t*3+(indexOf(t,v)+2)%3];
+	}while(t>=0 && t!=first);
+	return fan;
+    }
+    
+    
+    /*****************************
+     * predicates
+     *****************************/
+    
+    /** positive if c is on the left of a->b */
+    public double orient(int a, int b, int c){
+	return (x[b]-x[a])*(y[c]-y[a]) - (y[b]-y[a])*(x[c]-x[a]);
+    }
+    
+    /** positive if d is inside of circumcircle of counter-clockwise a,b,c */
+    public double inCircle(int a, int b, int c, int d){
+	double adx=x[a]-x[d], ady=y[a]-y[d];
+	double bdx=x[b]-x[d], bdy=y[b]-y[d];
+	double cdx=x[c]-x[d], cdy=y[c]-y[d];
+	return (adx*adx+ady*ady)*(bdx*cdy-cdx*bdy)
+	    + (bdx*bdx+bdy*bdy)*(cdx*ady-adx*cdy)
+	    + (cdx*cdx+cdy*cdy)*(adx*bdy-bdx*ady);
+    }
+    
+    /** check if p is on the open segment a-b */
+    boolean isOnEdge(int a, int b, int p){
+	if(orient(a,b,p)!=0) return false;
+	double dot = (x[p]-x[a])*(x[b]-x[a]) + (y[p]-y[a])*(y[b]-y[a]);
+	double len2 = (x[b]-x[a])*(x[b]-x[a]) + (y[b]-y[a])*(y[b]-y[a]);
+	return dot>0 && dot<len2;
+    }
+    
+    /** check if segment a-b and c-d cross at their interior */
+    boolean isCrossing(int a, int b, int c, int d){
+	if(a==c||a==d||b==c||b==d) return false;
+	double o1 = orient(a,b,c), o2 = orient(a,b,d);
+	double o3 = orient(c,d,a), o4 = orient(c,d,b);
+	return (o1>0&&o2<0 || o1<0&&o2>0) && (o3>0&&o4<0 || o3<0&&o4>0);
+    }
+    
+}
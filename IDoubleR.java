@@ -39,13 +39,42 @@ public class IDoubleR extends IParameterObject implements IDoubleI, IReferencePa
     public IDoubleR(IServerI s, IDoubleOp v){ super(s); op=v; }
     public IDoubleR(IServerI s, IIntegerI v){ super(s); op=new FromInt(v); }
     
-    public double x(){ return op.x(); }
-    public IDouble get(){ return op.get(); }
+    public double x(){
+	if(op instanceof IDouble || !IParameterObject.isCaching()) return op.x();
+	return cacheNode().x();
+    }
+    public IDouble get(){
+	if(op instanceof IDouble) return op.get();
+	if(!IParameterObject.isCaching()) return new IDouble(op.x());
+	return cacheNode().get();
+    }
     public IDoubleR getX(){ return this; }
     
     public IDoubleOp operator(){ return op; } // for viewer
     
-    public IDoubleR dup(){ return new IDoubleR(op); }
+    /** wraps the operator with Cache to share its value in the current epoch */
+    protected Cache cacheNode(){
+	IDoubleOp o = op;
+	if(o instanceof Cache) return (Cache)o;
+	Cache c = new Cache(o);
+	op = c;
+	return c;
+    }
+    
+    /** operator to be an input of another operator. it's wrapped with Cache if IConfig.cacheReferenceParameters is true
+	or if it's a leaf like IDouble, which Cache copies so that the consumer doesn't modify it. */
+    protected IDoubleOp cache(){
+	if(!IConfig.cacheReferenceParameters && Cache.isOperator(op)) return op;
+	return cacheNode();
+    }
+    
+    /** input of a new operator replacing the current one. values cached by all reference parameters are invalidated as this is updated. */
+    protected IDoubleOp cacheForUpdate(){
+	IParameterObject.invalidateCache();
+	return cache();
+    }
+    
+    public IDoubleR dup(){ return new IDoubleR(cache()); }
     
     /** alias of dup() */
     public IDoubleR cp(){ return dup(); }
@@ -56,59 +85,82 @@ public class IDoubleR extends IParameterObject implements IDoubleI, IReferencePa
     public IDoubleR cp(IDoubleI v){ return dup().add(v); }
     
     
-    public IDoubleR set(double u){ op=new IDouble(u); return this; }
-    public IDoubleR set(IDoubleI u){ op=u; return this; }
-    public IDoubleR set(IIntegerI u){ op=new FromInt(u); return this; }
+    public IDoubleR set(double u){ op=new IDouble(u); IParameterObject.invalidateCache(); return this; }
+    public IDoubleR set(IDoubleI u){ op=u; IParameterObject.invalidateCache(); return this; }
+    public IDoubleR set(IIntegerI u){ op=new FromInt(u); IParameterObject.invalidateCache(); return this; }
     
-    public IDoubleR add(IDoubleI u){ op = new Add(op,u); return this; }
-    public IDoubleR add(double u){ op = new Add(op, new IDouble(u)); return this; }
-    public IDoubleR sub(IDoubleI u){ op = new Sub(op,u); return this; }
-    public IDoubleR sub(double u){ op = new Sub(op, new IDouble(u)); return this; }
-    public IDoubleR mul(IDoubleI u){ op = new Mul(op,u); return this; }
-    public IDoubleR mul(double u){ op = new Mul(op, new IDouble(u)); return this; }
-    public IDoubleR div(IDoubleI u){ op = new Div(op,u); return this; }
-    public IDoubleR div(double u){ op = new Div(op, new IDouble(u)); return this; }
-    public IDoubleR neg(){ op = new Neg(op); return this; }
+    public IDoubleR add(IDoubleI u){ op = new Add(cacheForUpdate(),u); return this; }
+    public IDoubleR add(double u){ op = new Add(cacheForUpdate(), new IDouble(u)); return this; }
+    public IDoubleR sub(IDoubleI u){ op = new Sub(cacheForUpdate(),u); return this; }
+    public IDoubleR sub(double u){ op = new Sub(cacheForUpdate(), new IDouble(u)); return this; }
+    public IDoubleR mul(IDoubleI u){ op = new Mul(cacheForUpdate(),u); return this; }
+    public IDoubleR mul(double u){ op = new Mul(cacheForUpdate(), new IDouble(u)); return this; }
+    public IDoubleR div(IDoubleI u){ op = new Div(cacheForUpdate(),u); return this; }
+    public IDoubleR div(double u){ op = new Div(cacheForUpdate(), new IDouble(u)); return this; }
+    public IDoubleR neg(){ op = new Neg(cacheForUpdate()); return this; }
     
-    public IDoubleR inv(){ op = new Inv(op); return this; }
+    public IDoubleR inv(){ op = new Inv(cacheForUpdate()); return this; }
     
-    public IDoubleI abs(){ op = new Abs(op); return this; }
+    public IDoubleI abs(){ op = new Abs(cacheForUpdate()); return this; }
     
-    public IDoubleI pow(double n){ op = new Pow(op,new IDouble(n)); return this; }
-    public IDoubleI pow(IDoubleI n){ op = new Pow(op,n); return this; }
+    public IDoubleI pow(double n){ op = new Pow(cacheForUpdate(),new IDouble(n)); return this; }
+    public IDoubleI pow(IDoubleI n){ op = new Pow(cacheForUpdate(),n); return this; }
     
-    public IDoubleI sq(){ op = new Sq(op); return this; }
-    public IDoubleI sqrt(){ op = new Sqrt(op); return this; }
+    public IDoubleI sq(){ op = new Sq(cacheForUpdate()); return this; }
+    public IDoubleI sqrt(){ op = new Sqrt(cacheForUpdate()); return this; }
     
-    public IDoubleI exp(){ op = new Exp(op); return this; }
-    public IDoubleI log(){ op = new Log(op); return this; }
+    public IDoubleI exp(){ op = new Exp(cacheForUpdate()); return this; }
+    public IDoubleI log(){ op = new Log(cacheForUpdate()); return this; }
     
-    public IDoubleI sin(){ op = new Sin(op); return this; }
-    public IDoubleI cos(){ op = new Cos(op); return this; }
-    public IDoubleI tan(){ op = new Tan(op); return this; }
+    public IDoubleI sin(){ op = new Sin(cacheForUpdate()); return this; }
+    public IDoubleI cos(){ op = new Cos(cacheForUpdate()); return this; }
+    public IDoubleI tan(){ op = new Tan(cacheForUpdate()); return this; }
     
-    public IDoubleI asin(){ op = new ASin(op); return this; }
-    public IDoubleI acos(){ op = new ACos(op); return this; }
-    public IDoubleI atan(){ op = new ATan(op); return this; }
-    public IDoubleI atan2(double x2){ op = new ATan2(op,new IDouble(x2)); return this; }
-    public IDoubleI atan2(IDoubleI x2){ op = new ATan2(op,x2); return this; }
+    public IDoubleI asin(){ op = new ASin(cacheForUpdate()); return this; }
+    public IDoubleI acos(){ op = new ACos(cacheForUpdate()); return this; }
+    public IDoubleI atan(){ op = new ATan(cacheForUpdate()); return this; }
+    public IDoubleI atan2(double x2){ op = new ATan2(cacheForUpdate(),new IDouble(x2)); return this; }
+    public IDoubleI atan2(IDoubleI x2){ op = new ATan2(cacheForUpdate(),x2); return this; }
     
-    public IDoubleI deg(){ op = new Deg(op); return this; }
-    public IDoubleI rad(){ op = new Rad(op); return this; }
+    public IDoubleI deg(){ op = new Deg(cacheForUpdate()); return this; }
+    public IDoubleI rad(){ op = new Rad(cacheForUpdate()); return this; }
     
     public boolean eq(double v){ return get().eq(v); }
     public boolean eq(IDoubleI v){ return get().eq(v); }
-    //public IBoolR eqR(IDoubleI v){ return new IBoolR(new Eq(op,v)); }
+    //public IBoolR eqR(IDoubleI v){ return new IBoolR(new Eq(cache(),v)); }
     public boolean eq(ISwitchE e, IDoubleI v){ return eq(v); }
-    public IBoolR eq(ISwitchR r, IDoubleI v){ return new IBoolR(new Eq(op,v)); }
+    public IBoolR eq(ISwitchR r, IDoubleI v){ return new IBoolR(new Eq(cache(),v)); }
     
     public boolean eq(double v, double resolution){ return get().eq(v,resolution); }
     public boolean eq(IDoubleI v, double resolution){ return get().eq(v,resolution); }
-    //public IBoolR eqR(IDoubleI v, IDoubleI resolution){ return new IBoolR(new Eq(op,v,resolution)); }
+    //public IBoolR eqR(IDoubleI v, IDoubleI resolution){ return new IBoolR(new Eq(cache(),v,resolution)); }
     public boolean eq(ISwitchE e, IDoubleI v, double resolution){ return eq(v,resolution); }
-    public IBoolR eq(ISwitchR r, IDoubleI v, IDoubleI resolution){ return new IBoolR(new Eq(op,v,resolution)); }
+    public IBoolR eq(ISwitchR r, IDoubleI v, IDoubleI resolution){ return new IBoolR(new Eq(cache(),v,resolution)); }
+    
     
     
+    /**
+       operator to evaluate the input operator once in each epoch of IParameterObject.cacheEpoch.
+       an operator shared by multiple reference parameters is evaluated once while their values are read.
+    */
+    public static class Cache extends IParameterObject implements IDoubleOp{
+	public IDoubleOp v;
+	protected double value;
+	protected volatile int epoch;
+	public Cache(IDoubleOp v){ this.v=v; epoch=IParameterObject.cacheEpoch-1; }
+	public double x(){
+	    if(!IParameterObject.isCaching()) return v.x();
+	    int e = IParameterObject.cacheEpoch;
+	    if(epoch==e) return value;
+	    double val = v.x();
+	    value = val;
+	    epoch = e;
+	    return val;
+	}
+	public IDouble get(){ return new IDouble(x()); }
+	/** true if v is an operator of IDoubleR, which returns a new instance at every get() */
+	static boolean isOperator(IDoubleOp v){ return v.getClass().getEnclosingClass()==IDoubleR.class; }
+    }
     
     public static class Add extends IParameterObject implements IDoubleOp{
 	public IDoubleOp v1,v2;
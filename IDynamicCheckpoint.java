@@ -0,0 +1,529 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+   Periodic checkpoint of dynamics in IDynamicServer written into an append-only log file.
+   Every interval time steps, state of each dynamics (position, velocity, force, mass, friction and fixed flag of a particle,
+   time, duration and alive flag of an agent and custom fields of ICheckpointable) is encoded and
+   only records changed since the previous checkpoint are appended as one frame.
+   Frames are written by a background thread while the server keeps stepping.
+   <br/>
+   restore() replays the log onto dynamics created by the same setup code and keeps appending to the log.
+   Dynamics existing when the checkpoint is created are matched by their order in the server.
+   Dynamics added later are recreated by public constructors without arguments.
+   
+   @author Satoru Sugihara
+*/
+public class IDynamicCheckpoint{
+    
+    public static final byte[] magic = { 'i','G','e','o','C','k','p','t' };
+    public static final int version = 1;
+    public static final int frameMark = 0x46524d31; // "FRM1"
+    
+    public static final int headerSize = 16;
+    /** frame mark, time, record number and payload length. payload is followed by its hash. */
+    public static final int frameHeaderSize = 16;
+    
+    /** record kind bits */
+    public static final int recordNew = 1, recordRemoved = 2;
+    /** state content bits */
+    public static final int stateAgent = 1, stateParticle = 2, stateCustom = 4;
+    
+    static final Charset utf8 = Charset.forName("UTF-8");
+    static final byte[] removedState = new byte[0];
+    
+    public IDynamicServer server;
+    public File file;
+    /** number of time steps between checkpoints */
+    public int interval;
+    /** number of dynamics in the server when the checkpoint is created */
+    public int initialNum;
+    
+    /** number of changed records in the last checkpoint */
+    public int lastRecordNum;
+    
+    IdentityHashMap<IDynamics,Integer> ids;
+    /** dynamics by id. null after removal */
+    ArrayList<IDynamics> dynamics;
+    long[] stateHash;
+    boolean[] present;
+    int[] seen;
+    int checkpointCount;
+    
+    ByteBuffer buffer, writingBuffer;
+    Bytes customBytes;
+    DataOutputStream customOut;
+    
+    FileChannel channel;
+    ExecutorService writer;
+    Future<?> pendingWrite;
+    
+    public IDynamicCheckpoint(IDynamicServer server, File file, int interval){
+	this.server = server;
+	this.file = file;
+	this.interval = interval;
+	
+	ids = new IdentityHashMap<IDynamics,Integer>();
+	dynamics = new ArrayList<IDynamics>();
+	stateHash = new long[64];
+	present = new boolean[64];
+	seen = new int[64];
+	
+	buffer = ByteBuffer.allocate(1<<16);
+	customBytes = new Bytes();
+	customOut = new DataOutputStream(customBytes);
+	
+	synchronized(server){
+	    for(int i=0; i<server.dynamics.size(); i++) register(server.dynamics.get(i));
+	    for(int i=0; i<server.addingDynamics.size(); i++) register(server.addingDynamics.get(i));
+	}
+	initialNum = dynamics.size();
+    }
+    
+    /** start a new log. existing file is overwritten. */
+    public boolean open(){
+	try{
+	    openChannel();
+	    writeHeader();
+	    return true;
+	}catch(IOException e){ e.printStackTrace(); }
+	return false;
+    }
+    
+    /**
+       restore state of dynamics and time of the server from the log and continue appending to it.
+       an incomplete frame at the end of the log left by a crash is discarded.
+       if the file doesn't contain a valid log, a new log is started.
+    */
+    public boolean restore(){
+	synchronized(server){
+	    try{
+		openChannel();
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		if(size<headerSize || !read(header, 0) || !validHeader(header)){
+		    IOut.err("no valid checkpoint in "+file);
+		    writeHeader();
+		    return false;
+		}
+		if(header.getInt(12)!=initialNum){
+		    IOut.err("number of dynamics ("+initialNum+") differs from the checkpoint ("+header.getInt(12)+")");
+		}
+		
+		ArrayList<byte[]> states = new ArrayList<byte[]>();
+		ArrayList<String> classNames = new ArrayList<String>();
+		
+		long pos = headerSize;
+		int time = -1;
+		ByteBuffer frameHeader = ByteBuffer.allocate(frameHeaderSize);
+		ByteBuffer payload = ByteBuffer.allocate(0);
+		while(pos+frameHeaderSize+8 <= size){
+		    frameHeader.clear();
+		    if(!read(frameHeader, pos) || frameHeader.getInt(0)!=frameMark) break;
+		    int recordNum = frameHeader.getInt(8);
+		    int len = frameHeader.getInt(12);
+		    if(len<0 || pos+frameHeaderSize+len+8 > size) break;
+		    if(payload.capacity()<len+8) payload = ByteBuffer.allocate(len+8);
+		    payload.clear(); payload.limit(len+8);
+		    if(!read(payload, pos+frameHeaderSize) ||
+		       hash(payload.array(), 0, len)!=payload.getLong(len)) break;
+		    
+		    payload.position(0);
+		    for(int i=0; i<recordNum; i++){
+			int id = payload.getInt();
+			int kind = payload.get();
+			String className = null;
+			if((kind&recordNew)!=0){
+			    byte[] b = new byte[payload.getShort()&0xffff];
+			    payload.get(b);
+			    className = new String(b, utf8);
+			}
+			while(states.size()<=id){ states.add(null); classNames.add(null); }
+			if((kind&recordRemoved)!=0){ states.set(id, removedState); }
+			else{
+			    byte[] s = new byte[payload.getInt()];
+			    payload.get(s);
+			    states.set(id, s);
+			}
+			if(className!=null) classNames.set(id, className);
+		    }
+		    time = frameHeader.getInt(4);
+		    pos += frameHeaderSize+len+8;
+		}
+		if(pos<size){
+		    IOut.err("discarding incomplete checkpoint data at "+pos+" in "+file);
+		    channel.truncate(pos);
+		}
+		channel.position(pos);
+		
+		for(int id=0; id<states.size(); id++){
+		    byte[] s = states.get(id);
+		    if(s==null) continue;
+		    IDynamics d = id<dynamics.size()?dynamics.get(id):null;
+		    if(s==removedState){
+			if(d!=null) remove(d, id);
+			continue;
+		    }
+		    if(d==null){
+			d = create(classNames.get(id));
+			if(d==null) continue;
+			register(d, id);
+		    }
+		    applyState(d, s, time);
+		    stateHash[id] = hash(s, 0, s.length);
+		    present[id] = true;
+		}
+		
+		if(time>=0){
+		    server.time = time;
+		    server.startTime = time;
+		}
+		IOut.debug(0, "restored checkpoint at time "+time);
+		return true;
+	    }catch(IOException e){ e.printStackTrace(); }
+	    return false;
+	}
+    }
+    
+    /** called by IDynamicServer after each time step */
+    public void stepped(int time){
+	if(interval>0 && channel!=null && time%interval==0) checkpoint();
+    }
+    
+    /** encode changed dynamics and pass the frame to the background writer */
+    public void checkpoint(){
+	if(channel==null) return;
+	synchronized(server){
+	    checkpointCount++;
+	    buffer.clear();
+	    buffer.position(frameHeaderSize);
+	    int recordNum=0;
+	    // dynamics waiting to be removed in the next step are recorded as removed
+	    IdentityHashMap<IDynamics,Boolean> removing = null;
+	    if(server.removingDynamics.size()>0){
+		removing = new IdentityHashMap<IDynamics,Boolean>();
+		for(int i=0; i<server.removingDynamics.size(); i++) removing.put(server.removingDynamics.get(i), Boolean.TRUE);
+	    }
+	    for(int i=0; i<server.dynamics.size(); i++){
+		IDynamics d = server.dynamics.get(i);
+		if((removing==null || !removing.containsKey(d)) && writeRecord(d)) recordNum++;
+	    }
+	    for(int i=0; i<server.addingDynamics.size(); i++){
+		IDynamics d = server.addingDynamics.get(i);
+		if((removing==null || !removing.containsKey(d)) && writeRecord(d)) recordNum++;
+	    }
+	    for(int id=0; id<dynamics.size(); id++){
+		if(present[id] && seen[id]!=checkpointCount){
+		    ensure(5);
+		    buffer.putInt(id);
+		    buffer.put((byte)recordRemoved);
+		    remove(null, id);
+		    recordNum++;
+		}
+	    }
+	    int len = buffer.position()-frameHeaderSize;
+	    ensure(8);
+	    buffer.putLong(hash(buffer.array(), frameHeaderSize, frameHeaderSize+len));
+	    buffer.putInt(0, frameMark);
+	    buffer.putInt(4, server.time);
+	    buffer.putInt(8, recordNum);
+	    buffer.putInt(12, len);
+	    buffer.flip();
+	    lastRecordNum = recordNum;
+	}
+	
+	flush();
+	ByteBuffer b = buffer;
+	buffer = writingBuffer!=null?writingBuffer:ByteBuffer.allocate(b.capacity());
+	writingBuffer = b;
+	pendingWrite = writer.submit(new FrameWriter(channel, b));
+    }
+    
+    /** wait until the last frame is written */
+    public void flush(){
+	if(pendingWrite==null) return;
+	try{ pendingWrite.get(); }
+	catch(Exception e){ e.printStackTrace(); }
+	pendingWrite=null;
+    }
+    
+    public void close(){
+	flush();
+	if(writer!=null){ writer.shutdown(); writer=null; }
+	if(channel!=null){
+	    try{ channel.close(); }catch(IOException e){ e.printStackTrace(); }
+	    channel=null;
+	}
+    }
+    
+    
+    void openChannel() throws IOException{
+	channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				   StandardOpenOption.READ, StandardOpenOption.WRITE);
+	if(writer==null){
+	    writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		    public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "checkpoint writer");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	}
+    }
+    
+    void writeHeader() throws IOException{
+	channel.truncate(0);
+	ByteBuffer header = ByteBuffer.allocate(headerSize);
+	header.put(magic);
+	header.putInt(version);
+	header.putInt(initialNum);
+	header.flip();
+	channel.position(0);
+	while(header.hasRemaining()) channel.write(header);
+    }
+    
+    boolean validHeader(ByteBuffer header){
+	for(int i=0; i<magic.length; i++) if(header.get(i)!=magic[i]) return false;
+	if(header.getInt(8)!=version){
+	    IOut.err("unsupported checkpoint version "+header.getInt(8));
+	    return false;
+	}
+	return true;
+    }
+    
+    /** read until the buffer is filled. returns false at the end of the file */
+    boolean read(ByteBuffer b, long pos) throws IOException{
+	while(b.hasRemaining()){
+	    int n = channel.read(b, pos);
+	    if(n<0) return false;
+	    pos += n;
+	}
+	return true;
+    }
+    
+    
+    int register(IDynamics d){
+	int id = dynamics.size();
+	register(d, id);
+	return id;
+    }
+    
+    void register(IDynamics d, int id){
+	while(dynamics.size()<=id) dynamics.add(null);
+	dynamics.set(id, d);
+	ids.put(d, id);
+	if(id>=present.length){
+	    int len = Math.max(present.length*2, id+1);
+	    long[] h = new long[len]; System.arraycopy(stateHash,0,h,0,stateHash.length); stateHash=h;
+	    boolean[] p = new boolean[len]; System.arraycopy(present,0,p,0,present.length); present=p;
+	    int[] s = new int[len]; System.arraycopy(seen,0,s,0,seen.length); seen=s;
+	}
+    }
+    
+    /** forget dynamics of the id. d is deleted from the server when it's not null */
+    void remove(IDynamics d, int id){
+	IDynamics reg = dynamics.get(id);
+	if(reg!=null) ids.remove(reg);
+	dynamics.set(id, null);
+	present[id]=false;
+	if(d!=null){
+	    if(d instanceof IObject) ((IObject)d).del();
+	    else server.remove(d);
+	}
+    }
+    
+    IDynamics create(String className){
+	if(className!=null){
+	    try{
+		Object obj = Class.forName(className).getConstructor().newInstance();
+		if(obj instanceof IDynamics){
+		    IDynamics d = (IDynamics)obj;
+		    if(!(obj instanceof IObject)) server.add(d); // IObject is added to the server by its constructor
+		    return d;
+		}
+	    }catch(Exception e){}
+	}
+	IOut.err("cannot recreate "+className+" without a public constructor with no argument");
+	return null;
+    }
+    
+    
+    boolean writeRecord(IDynamics d){
+	Integer idObj = ids.get(d);
+	int id = idObj==null?register(d):idObj.intValue();
+	seen[id] = checkpointCount;
+	
+	int start = buffer.position();
+	ensure(9);
+	buffer.putInt(id);
+	if(present[id]) buffer.put((byte)0);
+	else{
+	    buffer.put((byte)recordNew);
+	    byte[] name = d.getClass().getName().getBytes(utf8);
+	    ensure(2+name.length+4);
+	    buffer.putShort((short)name.length);
+	    buffer.put(name);
+	}
+	int lenPos = buffer.position();
+	buffer.putInt(0);
+	writeState(d);
+	int stateLen = buffer.position()-lenPos-4;
+	buffer.putInt(lenPos, stateLen);
+	
+	long h = hash(buffer.array(), lenPos+4, lenPos+4+stateLen);
+	if(present[id] && h==stateHash[id]){ // unchanged
+	    buffer.position(start);
+	    return false;
+	}
+	stateHash[id] = h;
+	present[id] = true;
+	return true;
+    }
+    
+    void writeState(IDynamics d){
+	IAgent agent = d instanceof IAgent?(IAgent)d:null;
+	IParticleGeo ptcl = null;
+	if(d instanceof IParticleGeo) ptcl = (IParticleGeo)d;
+	else if(d instanceof IParticle) ptcl = ((IParticle)d).particle;
+	
+	int flags = 0;
+	if(agent!=null) flags |= stateAgent;
+	if(ptcl!=null) flags |= stateParticle;
+	if(d instanceof ICheckpointable) flags |= stateCustom;
+	
+	ensure(1+9+90);
+	buffer.put((byte)flags);
+	if(agent!=null){
+	    // agent time advances with the server time. the difference stays same and doesn't make the record changed
+	    buffer.putInt(server.time-agent.time);
+	    buffer.putInt(agent.duration);
+	    buffer.put((byte)(agent.alive?1:0));
+	}
+	if(ptcl!=null){
+	    putVec(ptcl.pos);
+	    putVec(ptcl.vel);
+	    putVec(ptcl.frc);
+	    buffer.putDouble(ptcl.mass);
+	    buffer.putDouble(ptcl.friction);
+	    buffer.put((byte)(ptcl.fixed?1:0));
+	    buffer.put((byte)(ptcl.skipUpdateOnce?1:0));
+	}
+	if(d instanceof ICheckpointable){
+	    customBytes.reset();
+	    try{
+		((ICheckpointable)d).writeCheckpoint(customOut);
+		customOut.flush();
+	    }catch(IOException e){ e.printStackTrace(); }
+	    ensure(4+customBytes.size());
+	    buffer.putInt(customBytes.size());
+	    buffer.put(customBytes.array(), 0, customBytes.size());
+	}
+    }
+    
+    void putVec(IVec v){
+	buffer.putDouble(v.x);
+	buffer.putDouble(v.y);
+	buffer.putDouble(v.z);
+    }
+    
+    void applyState(IDynamics d, byte[] state, int serverTime) throws IOException{
+	ByteBuffer b = ByteBuffer.wrap(state);
+	int flags = b.get();
+	if((flags&stateAgent)!=0){
+	    int time = serverTime-b.getInt(), duration = b.getInt();
+	    boolean alive = b.get()!=0;
+	    if(d instanceof IAgent){
+		IAgent agent = (IAgent)d;
+		agent.time = time;
+		agent.duration = duration;
+		agent.alive = alive;
+	    }
+	}
+	if((flags&stateParticle)!=0){
+	    IParticleGeo ptcl = null;
+	    if(d instanceof IParticleGeo) ptcl = (IParticleGeo)d;
+	    else if(d instanceof IParticle) ptcl = ((IParticle)d).particle;
+	    if(ptcl!=null){
+		ptcl.pos.set(b.getDouble(), b.getDouble(), b.getDouble());
+		ptcl.vel.set(b.getDouble(), b.getDouble(), b.getDouble());
+		ptcl.frc.set(b.getDouble(), b.getDouble(), b.getDouble());
+		ptcl.mass = b.getDouble();
+		ptcl.friction = b.getDouble();
+		ptcl.fixed = b.get()!=0;
+		ptcl.skipUpdateOnce = b.get()!=0;
+	    }
+	    else b.position(b.position()+90);
+	}
+	if((flags&stateCustom)!=0 && d instanceof ICheckpointable){
+	    int len = b.getInt();
+	    ((ICheckpointable)d).readCheckpoint(new DataInputStream(new ByteArrayInputStream(state, b.position(), len)));
+	}
+	if(d instanceof IObject) ((IObject)d).updateGraphic();
+    }
+    
+    void ensure(int n){
+	if(buffer.remaining()>=n) return;
+	ByteBuffer b = ByteBuffer.allocate(Math.max(buffer.capacity()*2, buffer.position()+n));
+	buffer.flip();
+	b.put(buffer);
+	buffer = b;
+    }
+    
+    /** 64 bit FNV-1a hash */
+    static long hash(byte[] b, int from, int to){
+	long h = 0xcbf29ce484222325L;
+	for(int i=from; i<to; i++){ h ^= (b[i]&0xff); h *= 0x100000001b3L; }
+	return h;
+    }
+    
+    /** ByteArrayOutputStream exposing its array to copy custom fields without allocation */
+    static class Bytes extends ByteArrayOutputStream{
+	byte[] array(){ return buf; }
+    }
+    
+    static class FrameWriter implements Runnable{
+	FileChannel channel;
+	ByteBuffer frame;
+	FrameWriter(FileChannel ch, ByteBuffer frm){ channel=ch; frame=frm; }
+	public void run(){
+	    try{
+		while(frame.hasRemaining()) channel.write(frame);
+	    }catch(IOException e){
+		IOut.err("failed to write checkpoint: "+e.getMessage());
+	    }
+	}
+    }
+}
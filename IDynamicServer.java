@@ -22,7 +22,10 @@
 
 package igeo;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
    A server to take care of all IDynamicObject. It runs as separate thread.
@@ -47,13 +50,33 @@ public class IDynamicServer implements Runnable{
     
     public int duration = -1;
     public int time;
+    /** time set at start. non zero when dynamics are restored from a checkpoint */
+    public int startTime=0;
+    
+    /** phases of IDynamics executed in each time step */
+    static public enum Phase{ Preinteract, Interact, Postinteract, Preupdate, Update, Postupdate };
+    
+    /** thread pool to run dynamics when IConfig.parallelDynamics is true. created at the first parallel step */
+    public ForkJoinPool pool;
+    /** true while phases are executed by parallelStep() without holding the lock of this server */
+    public volatile boolean steppingParallel=false;
+    
+    /** spatial index of positions of IParticleI in dynamics */
+    public INeighborIndex neighborIndex;
+    /** false when dynamics or their positions might have changed since the last build of neighborIndex */
+    public volatile boolean neighborIndexUpdated=false;
+    
+    /** periodic checkpoint of dynamics. null when it's not enabled */
+    public IDynamicCheckpoint checkpoint;
     
     public IDynamicServer(IServerI s){
 	server = s.server();
-	dynamics = new ArrayList<IDynamics>();
+	dynamics = new IIdentityList<IDynamics>();
+	
+	addingDynamics = new IIdentityList<IDynamics>();
+	removingDynamics = new IIdentityList<IDynamics>();
 	
-	addingDynamics = new ArrayList<IDynamics>();
-	removingDynamics = new ArrayList<IDynamics>();
+	neighborIndex = new INeighborIndex();
     }
     
     public synchronized void add(IObject e){
@@ -63,13 +86,13 @@ public class IDynamicServer implements Runnable{
     public synchronized void add(IDynamics e){
 	
 	// when not running, simply adding
-	if(!runningDynamics){
-	    if(!dynamics.contains(e)){ dynamics.add(e); }
+	if(!runningDynamics && !steppingParallel){
+	    if(!dynamics.contains(e)){ dynamics.add(e); neighborIndexUpdated=false; }
 	}
 	else{
 	    // added object is once buffered in addingDynamics and actually added in the update cycle
 	    if(!addingDynamics.contains(e) &&
-	       !dynamics.contains(e) ){ // isn't this heavy?
+	       !dynamics.contains(e) ){ // constant time with IIdentityList
 		
 		addingDynamics.add(e);
 		if(removingDynamics.contains(e)){ removingDynamics.remove(e); }
@@ -138,7 +161,33 @@ public class IDynamicServer implements Runnable{
     public synchronized void clear(){
 	addingDynamics.clear();
 	removingDynamics.clear();
-	dynamics.clear();
+	if(steppingParallel){ removingDynamics.addAll(dynamics); } // dynamics is being iterated by worker threads
+	else{ dynamics.clear(); neighborIndexUpdated=false; }
+    }
+    
+    /** get spatial index of IParticleI in dynamics. it's rebuilt at the first call in each time step
+	with positions at the beginning of the interact phase and again at the beginning of the update phase. */
+    public INeighborIndex neighborIndex(){
+	if(!neighborIndexUpdated){
+	    synchronized(neighborIndex){
+		if(!neighborIndexUpdated){
+		    neighborIndex.cellSize(IConfig.neighborIndexCellSize);
+		    neighborIndex.build(dynamics);
+		    neighborIndexUpdated=true;
+		}
+	    }
+	}
+	return neighborIndex;
+    }
+    
+    /** find IParticleI in dynamics whose position is within radius from pos */
+    public ArrayList<IDynamics> neighbors(IVecI pos, double radius){
+	return neighborIndex().neighbors(pos, radius);
+    }
+    
+    /** find IParticleI in dynamics whose position is within radius from pos and add them to result */
+    public ArrayList<IDynamics> neighbors(IVecI pos, double radius, ArrayList<IDynamics> result){
+	return neighborIndex().neighbors(pos, radius, result);
     }
     
     public IDynamicServer duration(int dur){ duration = dur; return this; }
@@ -147,6 +196,23 @@ public class IDynamicServer implements Runnable{
     public IDynamicServer time(int tm){ time = tm; return this; }
     public int time(){ return time; }
     
+    /** write checkpoints of dynamics into a new log file every interval time steps */
+    public IDynamicCheckpoint checkpoint(File file, int interval){
+	if(checkpoint!=null) checkpoint.close();
+	checkpoint = new IDynamicCheckpoint(this, file, interval);
+	checkpoint.open();
+	return checkpoint;
+    }
+    
+    /** restore dynamics from the latest checkpoint in the log file and keep writing checkpoints into it every interval time steps.
+	dynamics need to be created in the same order as the run which wrote the log before this is called. */
+    public IDynamicCheckpoint resumeCheckpoint(File file, int interval){
+	if(checkpoint!=null) checkpoint.close();
+	checkpoint = new IDynamicCheckpoint(this, file, interval);
+	checkpoint.restore();
+	return checkpoint;
+    }
+    
     public void pause(){ runningDynamics=false; }
     public void resume(){ runningDynamics=true; }
     public boolean isRunning(){ return runningDynamics; }
@@ -157,7 +223,7 @@ public class IDynamicServer implements Runnable{
 	    thread = new Thread(this);
 	    runningDynamics=true;
 	    startedOnce=true;
-	    time=0;
+	    time=startTime;
 	    thread.start();
 	    IOut.debug(0,"dynamic server started");
 	}
@@ -166,13 +232,15 @@ public class IDynamicServer implements Runnable{
     public void startWithoutThread(){
 	runningDynamics=true;
 	startedOnce=true;
-	time=0;
+	time=startTime;
 	IOut.debug(0,"dynamic server started");
     }
     
     public void stop(){
 	runningDynamics=false;
 	thread=null;
+	if(pool!=null){ pool.shutdown(); pool=null; }
+	if(checkpoint!=null) checkpoint.flush();
 	IOut.debug(0,"dynamic server stopped");
     }
     
@@ -184,6 +252,13 @@ public class IDynamicServer implements Runnable{
 	
 	if(runningDynamics){
 	    if(duration>=0 && time>=duration){ stop(); }
+	    else if(IConfig.parallelDynamics){
+		parallelStep();
+		time++;
+		IParameterObject.invalidateCache();
+		if(checkpoint!=null) checkpoint.stepped(time);
+		IOut.debug(20,"time="+time); //
+	    }
 	    else{
 		synchronized(this){
 		    // adding objects
@@ -198,6 +273,8 @@ public class IDynamicServer implements Runnable{
 			removingDynamics.clear();
 		    }
 		    
+		    neighborIndexUpdated=false;
+		    
 		    // preinteract
 		    if(IConfig.loopPreinteract&&IConfig.enablePreinteract){
 			for(int i=0; i<dynamics.size(); i++){
@@ -280,6 +357,7 @@ public class IDynamicServer implements Runnable{
 			removingDynamics.clear();
 		    }
 		    
+		    neighborIndexUpdated=false;
 		    
 		    //for(IDynamics d:dynamics){ d.update(); }
 		    for(int i=0; i<dynamics.size(); i++){
@@ -329,12 +407,179 @@ public class IDynamicServer implements Runnable{
 		    }
 		}
 		time++;
+		IParameterObject.invalidateCache();
+		if(checkpoint!=null) checkpoint.stepped(time);
 		IOut.debug(20,"time="+time); //
 	    }
 	}
     }
     
     
+    /**
+       executes one time step distributing each phase over threads in the pool.
+       the phases are grouped and ordered in the same way as the sequential loop in step()
+       and the next group doesn't start until all dynamics finish the previous one.
+       the lock of this server is released while phases run so that dynamics can add or remove other dynamics.
+    */
+    public void parallelStep(){
+	synchronized(this){
+	    if(addingDynamics.size()>0){
+		dynamics.addAll(addingDynamics);
+		addingDynamics.clear();
+	    }
+	    if(removingDynamics.size()>0){
+		dynamics.removeAll(removingDynamics);
+		removingDynamics.clear();
+	    }
+	    steppingParallel=true;
+	    neighborIndexUpdated=false;
+	}
+	
+	try{
+	    // preinteract
+	    if(IConfig.loopPreinteract&&IConfig.enablePreinteract){
+		parallelStage(Phase.Preinteract);
+	    }
+	    
+	    // preinteract, interact, postinteract
+	    parallelStage(!IConfig.loopPreinteract&&IConfig.enablePreinteract?Phase.Preinteract:null,
+			  Phase.Interact,
+			  !IConfig.loopPostinteract&&IConfig.enablePostinteract?Phase.Postinteract:null);
+	    
+	    // preupdate
+	    if(IConfig.loopPreupdate&&IConfig.enablePreupdate){
+		parallelStage(Phase.Preupdate);
+	    }
+	    
+	    // postinteract
+	    if(IConfig.loopPostinteract&&IConfig.enablePostinteract){
+		parallelStage(Phase.Postinteract);
+	    }
+	    
+	    synchronized(this){
+		if(removingDynamics.size()>0){
+		    dynamics.removeAll(removingDynamics);
+		    removingDynamics.clear();
+		}
+		neighborIndexUpdated=false;
+	    }
+	    
+	    // preupdate, update, postupdate
+	    parallelStage(!IConfig.loopPreupdate&&IConfig.enablePreupdate?Phase.Preupdate:null,
+			  Phase.Update,
+			  !IConfig.loopPostupdate&&IConfig.enablePostupdate?Phase.Postupdate:null);
+	    
+	    // postupdate
+	    if(IConfig.loopPostupdate&&IConfig.enablePostupdate){
+		parallelStage(Phase.Postupdate);
+	    }
+	}
+	finally{
+	    synchronized(this){ steppingParallel=false; }
+	}
+    }
+    
+    /** number of threads used in parallelStep() */
+    public int threadNum(){
+	if(IConfig.parallelDynamicsThreadNum>0) return IConfig.parallelDynamicsThreadNum;
+	return Runtime.getRuntime().availableProcessors();
+    }
+    
+    /** thread pool used in parallelStep(). re-created when the thread number in IConfig changes. */
+    public ForkJoinPool pool(){
+	int num = threadNum();
+	if(pool==null || pool.getParallelism()!=num){
+	    if(pool!=null) pool.shutdown();
+	    pool = new ForkJoinPool(num);
+	}
+	return pool;
+    }
+    
+    /** executes phases on all dynamics in parallel and waits until all of them finish. null in phases is skipped. */
+    public void parallelStage(Phase... phases){
+	int num = dynamics.size();
+	if(num==0) return;
+	ForkJoinPool p = pool();
+	int threadNum = p.getParallelism();
+	if(IConfig.deterministicParallelDynamics){
+	    // one fixed block per thread
+	    p.invoke(new StageTask(dynamics, phases, 0, num, (num+threadNum-1)/threadNum, true));
+	}
+	else{
+	    // smaller chunks to be stolen by idle threads
+	    int grain = num/(threadNum*8);
+	    if(grain<1) grain=1;
+	    p.invoke(new StageTask(dynamics, phases, 0, num, grain, false));
+	}
+    }
+    
+    /** executes phases on a dynamic object and its local dynamics in the same order as the sequential loop in step() */
+    public static void execute(IDynamics d, Phase[] phases, ArrayList<IDynamics> dynamics){
+	for(int i=0; i<phases.length; i++){
+	    if(phases[i]==null) continue;
+	    execute(d, phases[i], dynamics);
+	    ArrayList<IDynamics> localDynamics = d.localDynamics();
+	    if(localDynamics!=null){
+		for(int j=0; j<localDynamics.size(); j++){
+		    execute(localDynamics.get(j), phases[i], dynamics);
+		}
+	    }
+	}
+    }
+    
+    /** executes one phase on a dynamic object */
+    public static void execute(IDynamics d, Phase phase, ArrayList<IDynamics> dynamics){
+	switch(phase){
+	case Preinteract: d.preinteract(dynamics); break;
+	case Interact: d.interact(dynamics); break;
+	case Postinteract: d.postinteract(dynamics); break;
+	case Preupdate: d.preupdate(); break;
+	case Update: d.update(); break;
+	case Postupdate: d.postupdate(); break;
+	}
+    }
+    
+    /**
+       task to execute phases on a range of dynamics.
+       in fixed mode, the range is divided into blocks of the grain size at once and each block is executed sequentially.
+       otherwise the range is recursively halved down to the grain size.
+    */
+    static class StageTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	ArrayList<IDynamics> dynamics;
+	Phase[] phases;
+	int from, to, grain;
+	boolean fixed;
+	
+	StageTask(ArrayList<IDynamics> dynamics, Phase[] phases, int from, int to, int grain, boolean fixed){
+	    this.dynamics=dynamics;
+	    this.phases=phases;
+	    this.from=from;
+	    this.to=to;
+	    this.grain=grain;
+	    this.fixed=fixed;
+	}
+	
+	protected void compute(){
+	    if(to-from<=grain){
+		for(int i=from; i<to; i++){ execute(dynamics.get(i), phases, dynamics); }
+	    }
+	    else if(fixed){
+		ArrayList<StageTask> blocks = new ArrayList<StageTask>();
+		for(int i=from; i<to; i+=grain){
+		    blocks.add(new StageTask(dynamics, phases, i, Math.min(i+grain,to), grain, true));
+		}
+		invokeAll(blocks);
+	    }
+	    else{
+		int mid = (from+to)>>>1;
+		invokeAll(new StageTask(dynamics, phases, from, mid, grain, false),
+			  new StageTask(dynamics, phases, mid, to, grain, false));
+	    }
+	}
+    }
+    
+    
     public void run(){
 	Thread thisThread = Thread.currentThread();
 	while(thread==thisThread){
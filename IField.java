@@ -67,17 +67,24 @@ abstract public class IField extends IAgent implements IFieldI{
     
     public void interact(ArrayList<IDynamics> agents){
 	super.interact(agents); // in case of interact(IDynamics) in child class
-
+	
+	ArrayList<IParticleI> particles = new ArrayList<IParticleI>();
 	for(int i=0; i<agents.size(); i++){
 	    if(targetClasses==null && agents.get(i) instanceof IParticleI ||
 	       targetClasses!=null && isTargetClass(agents.get(i))){
-		applyField((IParticleI)agents.get(i));
+		particles.add((IParticleI)agents.get(i));
 	    }
 	}
+	applyField(particles);
     }
     
     abstract public void applyField(IParticleI particle);
     
+    /** apply field to all target particles. this can be overridden for batch evaluation */
+    public void applyField(ArrayList<IParticleI> particles){
+	for(int i=0; i<particles.size(); i++) applyField(particles.get(i));
+    }
+    
     
     /**************************************
      * methods of IObject
@@ -48,6 +48,18 @@ abstract public class IFieldGeo implements IFieldI{
     //public IFieldGeo(){}
     
     
+    /** intensity decayed at distance dist from the field geometry. zero when dist reaches threshold of linear decay. */
+    public double decayIntensity(double dist){
+	if(decay == Decay.Linear){
+	    if(dist >= threshold) return 0;
+	    if(threshold>0) return intensity*((threshold-dist)/threshold);
+	}
+	else if(decay == Decay.Gaussian){
+	    if(threshold>0) return intensity*Math.exp(-2*dist*dist/(threshold*threshold));
+	}
+	return intensity;
+    }
+    
     /** set no decay */
     public IFieldGeo noDecay(){ decay = Decay.None; return this; }
     
@@ -23,6 +23,8 @@
 package igeo;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
    create polygon mesh as sampled interface of equal intensity of fields
@@ -40,7 +42,10 @@ public class IFieldMesh{
     /** sample field at the given intensity and create polygon mesh */
     public static IMesh create(IG ig, double intensity, IVecI minPos, IVecI maxPos,
 			       int xnum, int ynum, int znum){
-	
+	return create(fields(ig), intensity, minPos, maxPos, xnum, ynum, znum);
+    }
+    /** fields in dynamics of the server */
+    static ArrayList<IFieldI> fields(IG ig){
 	ArrayList<IFieldI> fields = new ArrayList<IFieldI>();
 	
 	for(int i=0; i<ig.dynamicServer().dynamics.size(); i++){
@@ -48,12 +53,29 @@ public class IFieldMesh{
 		fields.add((IFieldI)ig.dynamicServer().dynamics.get(i));
 	    }
 	}
-	return create(fields, intensity, minPos, maxPos, xnum, ynum, znum);
+	return fields;
     }
-    /** sample field at the given intensity and create polygon mesh */
+    /** sample field at the given intensity and create polygon mesh.
+	The volume is streamed slab by slab on multiple threads (see createBuffer).
+	If IConfig.parallelFieldMesh is false, the whole lattice is sampled at once by createSequential. */
     public static IMesh create(ArrayList<IFieldI> fields,
 			       double intensity, IVecI minPos, IVecI maxPos,
 			       int xnum, int ynum, int znum){
+	if(IConfig.adaptiveFieldMesh){
+	    return createAdaptive(fields, intensity, minPos, maxPos, xnum, ynum, znum);
+	}
+	if(!IConfig.parallelFieldMesh){
+	    return createSequential(fields, intensity, minPos, maxPos, xnum, ynum, znum);
+	}
+	IMeshBuffer buf = createBuffer(fields, intensity, minPos, maxPos, xnum, ynum, znum);
+	if(buf.faceNum>0) return new IMesh(buf.toMeshGeo());
+	return null;
+    }
+    
+    /** sample field at the given intensity and create polygon mesh sampling all lattice points at once */
+    public static IMesh createSequential(ArrayList<IFieldI> fields,
+					 double intensity, IVecI minPos, IVecI maxPos,
+					 int xnum, int ynum, int znum){
 	
 	double[][][] intensities = new double[xnum+1][ynum+1][znum+1];
 	//IVertex[][][] xpt = new IVertex[xnum][ynum+1][znum+1];
@@ -486,6 +508,683 @@ public class IFieldMesh{
 	return null;
     }
 
+    /** sample field at the given intensity and create polygon mesh in compact buffer.
+	The lattice is cut into chunks of z-slabs which are processed in parallel.
+	Each chunk holds intensities of only two z-slices and vertex indices of one slab at a time
+	and emits faces directly into primitive arrays. Chunks are joined at the end
+	sharing vertices on their boundary slices.
+	Each cube is split into the same five tetrahedra as createSequential. */
+    public static IMeshBuffer createBuffer(ArrayList<IFieldI> fields,
+					   double intensity, IVecI minPos, IVecI maxPos,
+					   int xnum, int ynum, int znum){
+	IVec min = minPos.get().cp();
+	IVec dif = maxPos.get().dif(min);
+	dif.x /= xnum;
+	dif.y /= ynum;
+	dif.z /= znum;
+	
+	FieldSampler sampler = new FieldSampler(fields);
+	
+	int threadNum = IConfig.fieldMeshThreadNum;
+	if(threadNum<=0) threadNum = Runtime.getRuntime().availableProcessors();
+	int chunkNum = Math.max(1, Math.min(znum, threadNum*4));
+	
+	SlabChunk[] chunks = new SlabChunk[chunkNum];
+	for(int i=0; i<chunkNum; i++){
+	    chunks[i] = new SlabChunk(sampler, intensity, min, dif, xnum, ynum,
+				      (int)((long)znum*i/chunkNum), (int)((long)znum*(i+1)/chunkNum));
+	}
+	
+	if(threadNum>1 && chunkNum>1){
+	    ForkJoinPool pool = new ForkJoinPool(threadNum);
+	    try{ pool.invoke(new ChunkTask(chunks, 0, chunkNum)); }
+	    finally{ pool.shutdown(); }
+	}
+	else{
+	    for(int i=0; i<chunkNum; i++) chunks[i].run();
+	}
+	return join(chunks);
+    }
+    
+    /** sample field at the given intensity only around the interface with octree and create polygon mesh */
+    public static IMesh createAdaptive(double intensity, IVecI minPos, IVecI maxPos,
+				       int xnum, int ynum, int znum){
+	return createAdaptive(IG.cur(), intensity, minPos, maxPos, xnum, ynum, znum);
+    }
+    /** sample field at the given intensity only around the interface with octree and create polygon mesh */
+    public static IMesh createAdaptive(IG ig, double intensity, IVecI minPos, IVecI maxPos,
+				       int xnum, int ynum, int znum){
+	return createAdaptive(fields(ig), intensity, minPos, maxPos, xnum, ynum, znum);
+    }
+    /** sample field at the given intensity only around the interface with octree and create polygon mesh */
+    public static IMesh createAdaptive(ArrayList<IFieldI> fields,
+				       double intensity, IVecI minPos, IVecI maxPos,
+				       int xnum, int ynum, int znum){
+	IMeshBuffer buf = createAdaptiveBuffer(fields, intensity, minPos, maxPos, xnum, ynum, znum);
+	if(buf.faceNum>0) return new IMesh(buf.toMeshGeo());
+	return null;
+    }
+    
+    /** sample field at the given intensity and create polygon mesh in compact buffer with octree.
+	xnum, ynum and znum are the resolution of the finest level.
+	Boxes of the octree in which the sum of field magnitude cannot cross the intensity are skipped
+	by bounds estimated from decay of IPointFieldGeo and IAttractorGeo and only cells which may
+	cross are sampled. The mesh is the same as createBuffer because all cells containing the interface
+	are polygonized at the finest level. If fields contain other types of fields, no box is skipped. */
+    public static IMeshBuffer createAdaptiveBuffer(ArrayList<IFieldI> fields,
+						   double intensity, IVecI minPos, IVecI maxPos,
+						   int xnum, int ynum, int znum){
+	IVec min = minPos.get().cp();
+	IVec dif = maxPos.get().dif(min);
+	dif.x /= xnum;
+	dif.y /= ynum;
+	dif.z /= znum;
+	
+	AdaptiveOctree octree = new AdaptiveOctree(fields, intensity, min, dif, xnum, ynum, znum);
+	octree.run();
+	
+	double[] positions = new double[octree.vertexNum*3];
+	System.arraycopy(octree.positions, 0, positions, 0, positions.length);
+	int[] faceVertices = new int[octree.cornerNum];
+	System.arraycopy(octree.faceVertices, 0, faceVertices, 0, faceVertices.length);
+	int[] faceOffsets = new int[octree.faceNum+1];
+	System.arraycopy(octree.faceOffsets, 0, faceOffsets, 0, octree.faceNum);
+	faceOffsets[octree.faceNum] = octree.cornerNum;
+	octree.release();
+	return new IMeshBuffer(positions, faceVertices, faceOffsets);
+    }
+    
+    /** concatenate chunks merging vertices on shared slices */
+    static IMeshBuffer join(SlabChunk[] chunks){
+	int vnum=0, cnum=0, fnum=0;
+	for(int i=0; i<chunks.length; i++){
+	    vnum += chunks[i].vertexNum;
+	    cnum += chunks[i].cornerNum;
+	    fnum += chunks[i].faceNum;
+	}
+	double[] positions = new double[vnum*3];
+	int[] faceVertices = new int[cnum];
+	int[] faceOffsets = new int[fnum+1];
+	
+	int[] prevIndex = null;
+	vnum=0; cnum=0; fnum=0;
+	for(int i=0; i<chunks.length; i++){
+	    SlabChunk c = chunks[i];
+	    int[] index = new int[c.vertexNum];
+	    java.util.Arrays.fill(index, -1);
+	    if(i>0){
+		IMeshWelder.LongIntMap prevTop = chunks[i-1].topMap;
+		IMeshWelder.LongIntMap bottom = c.bottomMap;
+		for(int j=0; j<bottom.keys.length; j++){
+		    if(bottom.values[j]>=0){
+			int prev = prevTop.get(bottom.keys[j]);
+			if(prev>=0) index[bottom.values[j]] = prevIndex[prev];
+		    }
+		}
+	    }
+	    for(int j=0; j<c.vertexNum; j++){
+		if(index[j]<0){
+		    System.arraycopy(c.positions, j*3, positions, vnum*3, 3);
+		    index[j] = vnum++;
+		}
+	    }
+	    for(int j=0; j<c.faceNum; j++){
+		faceOffsets[fnum++] = cnum + c.faceOffsets[j];
+	    }
+	    for(int j=0; j<c.cornerNum; j++){
+		faceVertices[cnum+j] = index[c.faceVertices[j]];
+	    }
+	    cnum += c.cornerNum;
+	    prevIndex = index;
+	    c.release(); // topMap is kept for the next chunk
+	    if(i>0) chunks[i-1].topMap = null;
+	}
+	faceOffsets[fnum] = cnum;
+	
+	if(vnum*3 < positions.length){
+	    double[] p = new double[vnum*3];
+	    System.arraycopy(positions, 0, p, 0, vnum*3);
+	    positions = p;
+	}
+	return new IMeshBuffer(positions, faceVertices, faceOffsets);
+    }
+    
+    /** sum of magnitude of fields at sampling points */
+    static class FieldSampler{
+	ArrayList<IFieldI> fields;
+	
+	FieldSampler(ArrayList<IFieldI> fields){ this.fields = fields; }
+	
+	/** xyz: x,y,z of count points, val: output, buf: temporary array as long as xyz */
+	void sample(double[] xyz, double[] val, int count, double[] buf){
+	    java.util.Arrays.fill(val, 0, count, 0);
+	    IVec pos = new IVec();
+	    for(int l=0; l<fields.size(); l++){
+		IFieldI field = fields.get(l);
+		
+		// remove the case when pos is exactly at the center of attractor
+		IAttractorGeo center = null;
+		if(field instanceof IAttractor &&
+		   ((IAttractorGeo)((IAttractor)field).field).constantIntensity){
+		    center = (IAttractorGeo)((IAttractor)field).field;
+		}
+		
+		if(IConfig.batchFieldEvaluation && field instanceof I3DField &&
+		   ((I3DField)field).isBatchApplicable()){
+		    ((I3DField)field).get(xyz, buf, count);
+		    for(int i=0; i<count; i++){
+			if(center!=null && center.pos.eq(pos.set(xyz[i*3],xyz[i*3+1],xyz[i*3+2]))){
+			    val[i] += field.intensity();
+			}
+			else{
+			    double x=buf[i*3], y=buf[i*3+1], z=buf[i*3+2];
+			    val[i] += Math.sqrt(x*x+y*y+z*z);
+			}
+		    }
+		}
+		else{
+		    for(int i=0; i<count; i++){
+			pos.set(xyz[i*3],xyz[i*3+1],xyz[i*3+2]);
+			if(center!=null && center.pos.eq(pos)){
+			    val[i] += field.intensity();
+			}
+			else{
+			    IVal v = field.get(pos);
+			    if(v instanceof IVecOp){ val[i] += ((IVecOp)v).get().len(); }
+			    else if(v instanceof IDoubleOp){ val[i] += ((IDoubleOp)v).x(); }
+			    else if(v instanceof IIntegerOp){ val[i] += ((IIntegerOp)v).x(); }
+			}
+		    }
+		}
+	    }
+	}
+    }
+    
+    static class ChunkTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	SlabChunk[] chunks;
+	int from, to;
+	
+	ChunkTask(SlabChunk[] chunks, int from, int to){
+	    this.chunks=chunks;
+	    this.from=from;
+	    this.to=to;
+	}
+	
+	protected void compute(){
+	    if(to-from==1){ chunks[from].run(); return; }
+	    int mid = (from+to)>>>1;
+	    invokeAll(new ChunkTask(chunks, from, mid), new ChunkTask(chunks, mid, to));
+	}
+    }
+    
+    /** corner offsets of a cube in the same numbering as createSequential */
+    static final int[] cornerX = { -1, 0, 0, -1, -1, 0, 0, -1 };
+    static final int[] cornerY = { -1, -1, 0, 0, -1, -1, 0, 0 };
+    static final int[] cornerZ = { -1, -1, -1, -1, 0, 0, 0, 0 };
+    
+    /** tetrahedra of a cube when i+j+k is even */
+    static final int[][] evenTetrahedra = { {0,1,3,4}, {2,3,1,6}, {6,5,4,1}, {4,7,6,3}, {1,3,6,4} };
+    /** tetrahedra of a cube when i+j+k is odd */
+    static final int[][] oddTetrahedra = { {0,1,2,5}, {2,3,0,7}, {4,5,7,0}, {6,7,5,2}, {0,2,5,7} };
+    
+    /** cube cells polygonized with tetrahedra into primitive arrays.
+	Subclasses set intensity differences at cube corners in dif before calling cube(). */
+    static abstract class Polygonizer{
+	double minx, miny, minz, xinc, yinc, zinc;
+	int xnum, ynum;
+	
+	/** output */
+	double[] positions;
+	int vertexNum;
+	int[] faceVertices;
+	int cornerNum;
+	int[] faceOffsets;
+	int faceNum;
+	
+	/** difference from the intensity at cube corners */
+	double[] dif = new double[8];
+	int[] face = new int[4];
+	
+	Polygonizer(IVec min, IVec inc, int xnum, int ynum){
+	    minx=min.x; miny=min.y; minz=min.z;
+	    xinc=inc.x; yinc=inc.y; zinc=inc.z;
+	    this.xnum=xnum;
+	    this.ynum=ynum;
+	}
+	
+	/** map of vertex indices on lattice edges between z-slice k1 and k2 */
+	abstract IMeshWelder.LongIntMap vertexMap(int k1, int k2);
+	
+	void initOutput(int capacity){
+	    positions = new double[capacity*3];
+	    faceVertices = new int[capacity*4];
+	    faceOffsets = new int[capacity];
+	}
+	
+	void release(){
+	    positions = null;
+	    faceVertices = null;
+	    faceOffsets = null;
+	}
+	
+	/** cube between (i-1,j-1,k-1) and (i,j,k) */
+	void cube(int i, int j, int k){
+	    boolean allPositive=true, allNegative=true;
+	    for(int c=0; c<8; c++){
+		if(dif[c]>=0) allNegative=false; else allPositive=false;
+	    }
+	    if(allPositive || allNegative) return;
+	    
+	    int[][] tetrahedra = (i+j+k)%2==0?evenTetrahedra:oddTetrahedra;
+	    for(int t=0; t<tetrahedra.length; t++){ tetrahedron(tetrahedra[t], i, j, k); }
+	}
+	
+	void tetrahedron(int[] tet, int i, int j, int k){
+	    int positiveNum=0;
+	    for(int c=0; c<4; c++){ if(dif[tet[c]]>=0) positiveNum++; }
+	    if(positiveNum==0 || positiveNum==4) return;
+	    
+	    int num;
+	    if(positiveNum==2){
+		int p0=-1, p1=-1, n0=-1, n1=-1;
+		for(int c=0; c<4; c++){
+		    if(dif[tet[c]]>=0){ if(p0<0) p0=tet[c]; else p1=tet[c]; }
+		    else{ if(n0<0) n0=tet[c]; else n1=tet[c]; }
+		}
+		face[0] = vertex(p0,n0,i,j,k);
+		face[1] = vertex(p0,n1,i,j,k);
+		face[2] = vertex(p1,n1,i,j,k);
+		face[3] = vertex(p1,n0,i,j,k);
+		num=4;
+	    }
+	    else{
+		boolean lonePositive = positiveNum==1;
+		int lone=-1;
+		for(int c=0; c<4 && lone<0; c++){
+		    if((dif[tet[c]]>=0) == lonePositive) lone=tet[c];
+		}
+		num=0;
+		for(int c=0; c<4; c++){
+		    if(tet[c]!=lone) face[num++] = vertex(lone,tet[c],i,j,k);
+		}
+	    }
+	    
+	    // remove duplicated vertex at corners exactly on the intensity
+	    int n=0;
+	    for(int c=0; c<num; c++){
+		if(face[c]!=face[(c+num-1)%num]) face[n++]=face[c];
+	    }
+	    if(n<3) return;
+	    
+	    // orient normal towards lower intensity like createSequential
+	    int ref=tet[0];
+	    for(int c=1; c<4; c++){ if(Math.abs(dif[tet[c]])>Math.abs(dif[ref])) ref=tet[c]; }
+	    double[] p = positions;
+	    int a=face[0]*3, b=face[1]*3, c=face[2]*3, d=face[n-1]*3;
+	    double ax, ay, az, bx, by, bz;
+	    if(n==3){
+		ax=p[b]-p[a]; ay=p[b+1]-p[a+1]; az=p[b+2]-p[a+2];
+		bx=p[c]-p[a]; by=p[c+1]-p[a+1]; bz=p[c+2]-p[a+2];
+	    }
+	    else{
+		ax=p[c]-p[a]; ay=p[c+1]-p[a+1]; az=p[c+2]-p[a+2];
+		bx=p[d]-p[b]; by=p[d+1]-p[b+1]; bz=p[d+2]-p[b+2];
+	    }
+	    double nx=ay*bz-az*by, ny=az*bx-ax*bz, nz=ax*by-ay*bx;
+	    double rx = (i+cornerX[ref])*xinc + minx - p[a];
+	    double ry = (j+cornerY[ref])*yinc + miny - p[a+1];
+	    double rz = (k+cornerZ[ref])*zinc + minz - p[a+2];
+	    double s = nx*rx + ny*ry + nz*rz;
+	    boolean flip = dif[ref]>0 ? s>0 : s<0;
+	    
+	    addFace(face, n, flip);
+	}
+	
+	/** vertex at crossing on the edge between two corners; one is at or above the intensity and the other is below */
+	int vertex(int corner1, int corner2, int i, int j, int k){
+	    int pos=corner1, neg=corner2;
+	    if(dif[pos]<0){ pos=corner2; neg=corner1; }
+	    
+	    int pi=i+cornerX[pos], pj=j+cornerY[pos], pk=k+cornerZ[pos];
+	    int ni=i+cornerX[neg], nj=j+cornerY[neg], nk=k+cornerZ[neg];
+	    double t = dif[pos]/(dif[pos]-dif[neg]);
+	    
+	    long pid = pointId(pi,pj,pk), nid = pointId(ni,nj,nk);
+	    long key;
+	    IMeshWelder.LongIntMap map;
+	    if(t==0){ // exact value at the corner
+		key = (pid<<32)|pid;
+		map = vertexMap(pk,pk);
+	    }
+	    else{
+		key = pid<nid? (pid<<32)|nid : (nid<<32)|pid;
+		map = vertexMap(pk,nk);
+	    }
+	    
+	    int idx = map.get(key);
+	    if(idx>=0) return idx;
+	    
+	    if(vertexNum*3 == positions.length){
+		double[] p = new double[positions.length*2];
+		System.arraycopy(positions, 0, p, 0, positions.length);
+		positions = p;
+	    }
+	    positions[vertexNum*3] = (pi + t*(ni-pi))*xinc + minx;
+	    positions[vertexNum*3+1] = (pj + t*(nj-pj))*yinc + miny;
+	    positions[vertexNum*3+2] = (pk + t*(nk-pk))*zinc + minz;
+	    map.put(key, vertexNum);
+	    return vertexNum++;
+	}
+	
+	long pointId(int i, int j, int k){
+	    return ((long)k*(ynum+1) + j)*(xnum+1) + i;
+	}
+	
+	void addFace(int[] vtx, int num, boolean flip){
+	    if(faceNum == faceOffsets.length){
+		int[] o = new int[faceOffsets.length*2];
+		System.arraycopy(faceOffsets, 0, o, 0, faceNum);
+		faceOffsets = o;
+	    }
+	    if(cornerNum+num > faceVertices.length){
+		int[] f = new int[faceVertices.length*2];
+		System.arraycopy(faceVertices, 0, f, 0, cornerNum);
+		faceVertices = f;
+	    }
+	    faceOffsets[faceNum++] = cornerNum;
+	    for(int c=0; c<num; c++){ faceVertices[cornerNum++] = vtx[flip?num-1-c:c]; }
+	}
+    }
+    
+    /** range of z-slabs polygonized by one thread */
+    static class SlabChunk extends Polygonizer implements Runnable{
+	FieldSampler sampler;
+	double intensity;
+	/** slices from kstart to kend */
+	int kstart, kend;
+	
+	/** vertex indices on the first and the last slice to be shared with neighbor chunks */
+	IMeshWelder.LongIntMap bottomMap, topMap;
+	
+	/** vertex indices on the lower slice, the upper slice and between them in the current slab */
+	IMeshWelder.LongIntMap map0, map1, mapBetween;
+	double[] val0, val1;
+	/** upper slice of the current slab */
+	int slab;
+	
+	SlabChunk(FieldSampler sampler, double intensity, IVec min, IVec inc, int xnum, int ynum, int kstart, int kend){
+	    super(min, inc, xnum, ynum);
+	    this.sampler=sampler;
+	    this.intensity=intensity;
+	    this.kstart=kstart;
+	    this.kend=kend;
+	}
+	
+	IMeshWelder.LongIntMap vertexMap(int k1, int k2){
+	    if(k1!=k2) return mapBetween;
+	    return k1<slab?map0:map1;
+	}
+	
+	public void run(){
+	    int sliceSize = (xnum+1)*(ynum+1);
+	    double[] xyz = new double[sliceSize*3];
+	    double[] buf = new double[sliceSize*3];
+	    val0 = new double[sliceSize];
+	    val1 = new double[sliceSize];
+	    initOutput(sliceSize);
+	    
+	    sampleSlice(kstart, xyz, val0, buf);
+	    map0 = bottomMap = new IMeshWelder.LongIntMap(xnum+ynum);
+	    for(slab=kstart+1; slab<=kend; slab++){
+		sampleSlice(slab, xyz, val1, buf);
+		map1 = new IMeshWelder.LongIntMap(xnum+ynum);
+		mapBetween = new IMeshWelder.LongIntMap(xnum+ynum);
+		for(int j=1; j<=ynum; j++){
+		    for(int i=1; i<=xnum; i++){
+			for(int c=0; c<8; c++){
+			    int idx = (j+cornerY[c])*(xnum+1) + i+cornerX[c];
+			    dif[c] = (cornerZ[c]<0?val0[idx]:val1[idx]) - intensity;
+			}
+			cube(i,j,slab);
+		    }
+		}
+		double[] v = val0; val0 = val1; val1 = v;
+		map0 = map1;
+	    }
+	    topMap = map0;
+	    map0 = map1 = mapBetween = null;
+	    val0 = val1 = null;
+	}
+	
+	void release(){
+	    super.release();
+	    bottomMap = null;
+	}
+	
+	void sampleSlice(int k, double[] xyz, double[] val, double[] buf){
+	    double z = zinc*k + minz;
+	    int idx=0;
+	    for(int j=0; j<=ynum; j++){
+		double y = yinc*j + miny;
+		for(int i=0; i<=xnum; i++){
+		    xyz[idx++] = xinc*i + minx;
+		    xyz[idx++] = y;
+		    xyz[idx++] = z;
+		}
+	    }
+	    sampler.sample(xyz, val, (xnum+1)*(ynum+1), buf);
+	}
+    }
+    
+    /** bounds of the sum of field magnitude sampled in a box, estimated from decay of point fields */
+    static class FieldBound{
+	/** false if any field is not a point field whose magnitude is known from distance */
+	boolean bounded=true;
+	double[] px, py, pz, intensity, threshold, dirLen;
+	IFieldGeo.Decay[] decay;
+	boolean[] constantIntensity, attractor;
+	
+	FieldBound(ArrayList<IFieldI> fields){
+	    int num = fields.size();
+	    px = new double[num]; py = new double[num]; pz = new double[num];
+	    intensity = new double[num]; threshold = new double[num]; dirLen = new double[num];
+	    decay = new IFieldGeo.Decay[num];
+	    constantIntensity = new boolean[num];
+	    attractor = new boolean[num];
+	    for(int i=0; i<num && bounded; i++){
+		IFieldI field = fields.get(i);
+		if(!(field instanceof I3DField) || !((I3DField)field).isBatchApplicable()){ bounded=false; break; }
+		I3DFieldI geo = ((I3DField)field).field;
+		if(geo==null ||
+		   geo.getClass()!=IPointFieldGeo.class && geo.getClass()!=IAttractorGeo.class ||
+		   ((IPointFieldGeo)geo).pos==null){
+		    bounded=false;
+		    break;
+		}
+		IPointFieldGeo pgeo = (IPointFieldGeo)geo;
+		IVec p = pgeo.pos.get();
+		px[i]=p.x; py[i]=p.y; pz[i]=p.z;
+		intensity[i] = pgeo.intensity;
+		threshold[i] = pgeo.threshold;
+		decay[i] = pgeo.decay;
+		constantIntensity[i] = pgeo.constantIntensity;
+		attractor[i] = geo instanceof IAttractorGeo;
+		if(!attractor[i]){
+		    if(pgeo.dir==null){ bounded=false; break; }
+		    dirLen[i] = pgeo.dir.len();
+		}
+	    }
+	}
+	
+	/** ratio of decay at distance; it decreases as distance increases */
+	double decay(int i, double dist){
+	    if(decay[i]==IFieldGeo.Decay.Linear){
+		if(dist >= threshold[i]) return 0;
+		return threshold[i]>0? (threshold[i]-dist)/threshold[i] : 1;
+	    }
+	    if(decay[i]==IFieldGeo.Decay.Gaussian && threshold[i]>0){
+		return Math.exp(-2*dist*dist/(threshold[i]*threshold[i]));
+	    }
+	    return 1;
+	}
+	
+	/** false if the sampled value is surely below or surely at or above the target intensity everywhere in the box */
+	boolean mayCross(double x1, double y1, double z1, double x2, double y2, double z2, double target){
+	    if(!bounded) return true;
+	    double lo=0, hi=0;
+	    for(int i=0; i<px.length; i++){
+		double dx1 = px[i]-x1, dx2 = px[i]-x2;
+		double dy1 = py[i]-y1, dy2 = py[i]-y2;
+		double dz1 = pz[i]-z1, dz2 = pz[i]-z2;
+		double nx = dx1*dx2<=0?0:Math.min(Math.abs(dx1),Math.abs(dx2));
+		double ny = dy1*dy2<=0?0:Math.min(Math.abs(dy1),Math.abs(dy2));
+		double nz = dz1*dz2<=0?0:Math.min(Math.abs(dz1),Math.abs(dz2));
+		double fx = Math.max(Math.abs(dx1),Math.abs(dx2));
+		double fy = Math.max(Math.abs(dy1),Math.abs(dy2));
+		double fz = Math.max(Math.abs(dz1),Math.abs(dz2));
+		double dmin = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		double dmax = Math.sqrt(fx*fx+fy*fy+fz*fz);
+		
+		double amp = Math.abs(intensity[i]);
+		double min = amp*decay(i,dmax), max = amp*decay(i,dmin);
+		if(constantIntensity[i]){
+		    if(!attractor[i]){
+			if(dirLen[i]<IConfig.tolerance){ min=max=0; }
+		    }
+		    else if(dmin<IConfig.tolerance){ // zero vector or exactly at the center
+			min = Math.min(Math.min(min, 0), intensity[i]);
+			max = Math.max(max, intensity[i]);
+		    }
+		}
+		else if(attractor[i]){ min*=dmin; max*=dmax; }
+		else{ min*=dirLen[i]; max*=dirLen[i]; }
+		lo+=min;
+		hi+=max;
+	    }
+	    double tol = (Math.abs(target)+1)*1e-6; // margin for rounding error
+	    return hi >= target-tol && lo < target+tol;
+	}
+    }
+    
+    /** octree over the lattice skipping boxes which cannot cross the intensity.
+	Only the cells which may cross are sampled and polygonized at the lattice resolution
+	and sampled points and vertices are shared through hash maps. */
+    static class AdaptiveOctree extends Polygonizer{
+	/** size of octree leaf in cells sampled in one batch */
+	static final int leafSize = 8;
+	
+	FieldSampler sampler;
+	FieldBound bound;
+	double intensity;
+	int znum;
+	
+	IMeshWelder.LongIntMap vertices;
+	/** index in values of sampled lattice points */
+	IMeshWelder.LongIntMap points;
+	double[] values;
+	int pointNum;
+	
+	/** batch buffers */
+	int[] cells = new int[leafSize*leafSize*leafSize*3];
+	double[] xyz = new double[(leafSize+1)*(leafSize+1)*(leafSize+1)*3];
+	double[] buf = new double[xyz.length];
+	double[] val = new double[xyz.length/3];
+	
+	AdaptiveOctree(ArrayList<IFieldI> fields, double intensity, IVec min, IVec inc, int xnum, int ynum, int znum){
+	    super(min, inc, xnum, ynum);
+	    sampler = new FieldSampler(fields);
+	    bound = new FieldBound(fields);
+	    this.intensity=intensity;
+	    this.znum=znum;
+	}
+	
+	IMeshWelder.LongIntMap vertexMap(int k1, int k2){ return vertices; }
+	
+	void run(){
+	    initOutput(1024);
+	    vertices = new IMeshWelder.LongIntMap(1024);
+	    points = new IMeshWelder.LongIntMap(1024);
+	    values = new double[1024];
+	    node(0, 0, 0, xnum, ynum, znum);
+	    points = null;
+	    values = null;
+	    vertices = null;
+	}
+	
+	boolean mayCross(int i1, int j1, int k1, int i2, int j2, int k2){
+	    return bound.mayCross(xinc*i1+minx, yinc*j1+miny, zinc*k1+minz,
+				  xinc*i2+minx, yinc*j2+miny, zinc*k2+minz, intensity);
+	}
+	
+	/** box from lattice point (i1,j1,k1) to (i2,j2,k2) */
+	void node(int i1, int j1, int k1, int i2, int j2, int k2){
+	    if(!mayCross(i1,j1,k1,i2,j2,k2)) return;
+	    if(i2-i1<=leafSize && j2-j1<=leafSize && k2-k1<=leafSize){
+		leaf(i1,j1,k1,i2,j2,k2);
+		return;
+	    }
+	    int im = i2-i1>leafSize? (i1+i2)>>>1 : i2;
+	    int jm = j2-j1>leafSize? (j1+j2)>>>1 : j2;
+	    int km = k2-k1>leafSize? (k1+k2)>>>1 : k2;
+	    for(int c=0; c<8; c++){
+		int ia = (c&1)==0?i1:im, ib = (c&1)==0?im:i2;
+		int ja = (c&2)==0?j1:jm, jb = (c&2)==0?jm:j2;
+		int ka = (c&4)==0?k1:km, kb = (c&4)==0?km:k2;
+		if(ia<ib && ja<jb && ka<kb) node(ia,ja,ka,ib,jb,kb);
+	    }
+	}
+	
+	void leaf(int i1, int j1, int k1, int i2, int j2, int k2){
+	    int cellNum=0;
+	    for(int k=k1+1; k<=k2; k++){
+		for(int j=j1+1; j<=j2; j++){
+		    for(int i=i1+1; i<=i2; i++){
+			if(mayCross(i-1,j-1,k-1,i,j,k)){
+			    cells[cellNum*3]=i; cells[cellNum*3+1]=j; cells[cellNum*3+2]=k;
+			    cellNum++;
+			}
+		    }
+		}
+	    }
+	    if(cellNum==0) return;
+	    
+	    // sample corners not sampled yet in one batch
+	    int num=0;
+	    for(int c=0; c<cellNum; c++){
+		for(int l=0; l<8; l++){
+		    int i = cells[c*3]+cornerX[l], j = cells[c*3+1]+cornerY[l], k = cells[c*3+2]+cornerZ[l];
+		    long id = pointId(i,j,k);
+		    if(points.get(id)<0){
+			points.put(id, pointNum+num);
+			xyz[num*3] = xinc*i+minx;
+			xyz[num*3+1] = yinc*j+miny;
+			xyz[num*3+2] = zinc*k+minz;
+			num++;
+		    }
+		}
+	    }
+	    if(num>0){
+		sampler.sample(xyz, val, num, buf);
+		if(pointNum+num > values.length){
+		    double[] v = new double[Math.max(values.length*2, pointNum+num)];
+		    System.arraycopy(values, 0, v, 0, pointNum);
+		    values = v;
+		}
+		System.arraycopy(val, 0, values, pointNum, num);
+		pointNum += num;
+	    }
+	    
+	    for(int c=0; c<cellNum; c++){
+		int i = cells[c*3], j = cells[c*3+1], k = cells[c*3+2];
+		for(int l=0; l<8; l++){
+		    dif[l] = values[points.get(pointId(i+cornerX[l], j+cornerY[l], k+cornerZ[l]))] - intensity;
+		}
+		cube(i,j,k);
+	    }
+	}
+    }
+    
     public static class VertexGrid{
 	public IVertex[][][] xpt;
 	public IVertex[][][] ypt;
@@ -272,6 +272,12 @@ public class IG implements IServerI{
     /** get current time count of dynamics update */
     public static int time(){ IG ig=cur(); return ig==null?-1:ig.getTime(); }
     
+    /** write checkpoints of dynamics into a log file every interval time steps */
+    public static void checkpoint(String file, int interval){ IG ig=cur(); if(ig!=null) ig.dynamicServer().checkpoint(new File(file), interval); }
+    /** restore dynamics from the latest checkpoint in the log file written by checkpoint() and keep writing checkpoints.
+	dynamics need to be created in the same way as the run which wrote the log before this is called. */
+    public static void resumeCheckpoint(String file, int interval){ IG ig=cur(); if(ig!=null) ig.dynamicServer().resumeCheckpoint(new File(file), interval); }
+    
     /** pause dynamics update. */
     public static void pause(){ IG ig=cur(); if(ig!=null) ig.pauseDynamics(); }
     /** resume dynamics update. */
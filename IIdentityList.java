@@ -0,0 +1,245 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.*;
+
+/**
+   ArrayList with constant time contains and remove by object identity, keeping insertion order.
+   Membership is kept in an identity hash map. remove(Object) only marks the element and
+   the storage is compacted in one pass when the list is read or modified by index next time,
+   so removing k elements between reads costs O(n + k) instead of O(n * k).
+   Modifying methods and compaction are synchronized on the list. Reading methods take the lock
+   only when there are marked elements to compact, so concurrent readers do not race on compaction.
+   Used for objects in IServer and ILayer and dynamics in IDynamicServer.
+   Unlike IIndexedList, indexOf() is not indexed; IIndexedList suits mesh lists looked up by index.
+   Methods added to ArrayList in Java 8 work on the storage directly and are not overridden to keep
+   the source compatible with Java 7. Call compact() before forEach, sort, spliterator or stream so that
+   they don't see removed elements. removeIf and replaceAll bypass the membership; use removeAll and set instead.
+   
+   @author Satoru Sugihara
+*/
+public class IIdentityList<T> extends ArrayList<T>{
+    
+    static final long serialVersionUID = 1;
+    
+    /** number of occurrences of each live element */
+    IdentityHashMap<Object,Integer> members;
+    /** elements removed but still in storage until compact() */
+    IdentityHashMap<Object,Boolean> removed;
+    /** size of removed. read without lock to check if compaction is needed */
+    volatile int removedNum=0;
+    
+    public IIdentityList(){
+	super();
+	members = new IdentityHashMap<Object,Integer>();
+	removed = new IdentityHashMap<Object,Boolean>();
+    }
+    
+    public IIdentityList(int initialCapacity){
+	super(initialCapacity);
+	members = new IdentityHashMap<Object,Integer>(initialCapacity);
+	removed = new IdentityHashMap<Object,Boolean>();
+    }
+    
+    public IIdentityList(Collection<? extends T> c){
+	super(c);
+	members = new IdentityHashMap<Object,Integer>(c.size());
+	removed = new IdentityHashMap<Object,Boolean>();
+	recount();
+    }
+    
+    
+    void count(Object e){
+	Integer n = members.get(e);
+	members.put(e, n==null?1:n+1);
+    }
+    
+    void uncount(Object e){
+	Integer n = members.get(e);
+	if(n==null) return;
+	if(n<=1) members.remove(e);
+	else members.put(e, n-1);
+    }
+    
+    void recount(){
+	members.clear();
+	for(int i=0; i<super.size(); i++){ count(super.get(i)); }
+    }
+    
+    void mark(Object o){
+	removed.put(o, Boolean.TRUE);
+	removedNum = removed.size();
+    }
+    
+    /** compact if any element is marked. the lock is taken only when it's needed */
+    void compactIfRemoved(){ if(removedNum>0) compact(); }
+    
+    /** remove marked elements from storage keeping order of the rest */
+    public synchronized void compact(){
+	if(removed.isEmpty()) return;
+	int num = super.size();
+	int w=0;
+	for(int r=0; r<num; r++){
+	    T e = super.get(r);
+	    if(!removed.containsKey(e)){
+		if(w!=r) super.set(w, e);
+		w++;
+	    }
+	}
+	super.removeRange(w, num);
+	removed.clear();
+	removedNum = 0; // published after storage is compacted
+    }
+    
+    
+    public synchronized boolean add(T e){
+	if(removed.containsKey(e)) compact(); // removed element goes to the end
+	super.add(e);
+	count(e);
+	return true;
+    }
+    
+    public synchronized void add(int index, T e){
+	compact();
+	super.add(index, e);
+	count(e);
+    }
+    
+    public synchronized boolean addAll(Collection<? extends T> c){
+	boolean changed=false;
+	for(T e : c){ add(e); changed=true; }
+	return changed;
+    }
+    
+    public synchronized boolean addAll(int index, Collection<? extends T> c){
+	compact();
+	boolean changed = super.addAll(index, c);
+	for(T e : c){ count(e); }
+	return changed;
+    }
+    
+    public synchronized T set(int index, T e){
+	compact();
+	T old = super.set(index, e);
+	uncount(old);
+	count(e);
+	return old;
+    }
+    
+    public synchronized boolean remove(Object o){
+	Integer n = members.get(o);
+	if(n==null) return false;
+	if(n>1){ // duplicated element; remove the first one
+	    compact();
+	    super.remove(o);
+	    uncount(o);
+	    return true;
+	}
+	members.remove(o);
+	mark(o);
+	return true;
+    }
+    
+    public synchronized T remove(int index){
+	compact();
+	T e = super.remove(index);
+	uncount(e);
+	return e;
+    }
+    
+    public synchronized boolean removeAll(Collection<?> c){
+	if(c==this){
+	    boolean changed = !isEmpty();
+	    clear();
+	    return changed;
+	}
+	boolean changed=false;
+	for(Object o : c){
+	    if(members.remove(o)!=null){
+		mark(o);
+		changed=true;
+	    }
+	}
+	compact();
+	return changed;
+    }
+    
+    public synchronized boolean retainAll(Collection<?> c){
+	compact();
+	boolean changed = super.retainAll(c);
+	if(changed) recount();
+	return changed;
+    }
+    
+    protected synchronized void removeRange(int fromIndex, int toIndex){
+	compact();
+	for(int i=fromIndex; i<toIndex; i++){ uncount(super.get(i)); }
+	super.removeRange(fromIndex, toIndex);
+    }
+    
+    public synchronized void clear(){
+	super.clear();
+	members.clear();
+	removed.clear();
+	removedNum = 0;
+    }
+    
+    
+    public boolean contains(Object o){ return members.containsKey(o); }
+    
+    public int indexOf(Object o){
+	if(!members.containsKey(o)) return -1;
+	compactIfRemoved();
+	return super.indexOf(o);
+    }
+    
+    public int lastIndexOf(Object o){
+	if(!members.containsKey(o)) return -1;
+	compactIfRemoved();
+	return super.lastIndexOf(o);
+    }
+    
+    public boolean isEmpty(){ return members.isEmpty(); }
+    
+    public int size(){
+	compactIfRemoved();
+	return super.size();
+    }
+    
+    public T get(int index){
+	compactIfRemoved();
+	return super.get(index);
+    }
+    
+    public Iterator<T> iterator(){ compactIfRemoved(); return super.iterator(); }
+    public ListIterator<T> listIterator(){ compactIfRemoved(); return super.listIterator(); }
+    public ListIterator<T> listIterator(int index){ compactIfRemoved(); return super.listIterator(index); }
+    public List<T> subList(int fromIndex, int toIndex){ compactIfRemoved(); return super.subList(fromIndex, toIndex); }
+    public Object[] toArray(){ compactIfRemoved(); return super.toArray(); }
+    public <E> E[] toArray(E[] a){ compactIfRemoved(); return super.toArray(a); }
+    public boolean equals(Object o){ compactIfRemoved(); return super.equals(o); }
+    public int hashCode(){ compactIfRemoved(); return super.hashCode(); }
+    
+    public Object clone(){ compact(); return new IIdentityList<T>(this); }
+}
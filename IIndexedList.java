@@ -0,0 +1,171 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+   ArrayList with an identity hash index to make contains() and indexOf() O(1).
+   Elements are compared by identity, which is same with equals() for mesh elements.
+   The index is updated on add(T), set(int,T) and remove(int) and rebuilt lazily when the list is modified in other ways.
+   subList() returns a view writing through this list's methods so that the index is kept.
+   Methods touching the index are synchronized so that concurrent readers like the drawing thread
+   and the dynamics thread do not race on rebuilding it.
+   
+   @author Satoru Sugihara
+*/
+public class IIndexedList<T> extends ArrayList<T>{
+    
+    static final long serialVersionUID = 1;
+    
+    /** index of the first occurrence of each element */
+    IdentityHashMap<Object,Integer> index;
+    /** modCount when index was last synchronized */
+    int indexedModCount = -1;
+    
+    public IIndexedList(){ super(); }
+    public IIndexedList(int initialCapacity){ super(initialCapacity); }
+    public IIndexedList(Collection<? extends T> c){ super(c); }
+    
+    
+    /** it should be called inside synchronized(this) */
+    void updateIndex(){
+	if(index!=null && indexedModCount==modCount) return;
+	if(index==null) index = new IdentityHashMap<Object,Integer>(size()*2);
+	else index.clear();
+	for(int i=size()-1; i>=0; i--) index.put(get(i), i);
+	indexedModCount = modCount;
+    }
+    
+    synchronized public boolean add(T e){
+	boolean indexed = index!=null && indexedModCount==modCount;
+	super.add(e);
+	if(indexed){
+	    if(!index.containsKey(e)) index.put(e, size()-1);
+	    indexedModCount = modCount;
+	}
+	return true;
+    }
+    
+    synchronized public T set(int i, T e){
+	T old = super.set(i,e);
+	if(old!=e) indexedModCount = -1;
+	return old;
+    }
+    
+    /**
+       shifted indices are adjusted in place instead of rebuilding the whole index,
+       which costs the same as the shift of the array itself.
+    */
+    synchronized public T remove(int i){
+	boolean indexed = index!=null && indexedModCount==modCount;
+	T old = super.remove(i);
+	if(indexed){
+	    int num = size();
+	    Integer idx = index.get(old);
+	    if(idx!=null && idx==i){ // first occurrence removed; find next one
+		index.remove(old);
+		for(int j=i; j<num; j++){
+		    if(get(j)==old){ index.put(old, j); break; }
+		}
+	    }
+	    for(int j=i; j<num; j++){
+		T e = get(j);
+		if(e==old) continue;
+		idx = index.get(e);
+		if(idx!=null && idx==j+1) index.put(e, j);
+	    }
+	    indexedModCount = modCount;
+	}
+	return old;
+    }
+    
+    synchronized public boolean remove(Object o){
+	int i = indexOf(o);
+	if(i<0) return false;
+	remove(i);
+	return true;
+    }
+    
+    synchronized public int indexOf(Object o){
+	updateIndex();
+	Integer i = index.get(o);
+	if(i==null) return -1;
+	return i;
+    }
+    
+    public boolean contains(Object o){ return indexOf(o)>=0; }
+    
+    synchronized public void clear(){
+	super.clear();
+	if(index!=null){
+	    index.clear();
+	    indexedModCount = modCount;
+	}
+    }
+    
+    public List<T> subList(int fromIndex, int toIndex){
+	if(fromIndex<0 || toIndex>size() || fromIndex>toIndex)
+	    throw new IndexOutOfBoundsException("fromIndex: "+fromIndex+", toIndex: "+toIndex+", size: "+size());
+	return new SubList(fromIndex, toIndex);
+    }
+    
+    /** view of a range writing through get/set/add/remove of the list to keep the index */
+    class SubList extends AbstractList<T> implements RandomAccess{
+	int offset, size, expectedModCount;
+	SubList(int fromIndex, int toIndex){
+	    offset = fromIndex; size = toIndex-fromIndex; expectedModCount = IIndexedList.this.modCount;
+	}
+	void checkMod(){
+	    if(IIndexedList.this.modCount!=expectedModCount) throw new ConcurrentModificationException();
+	}
+	void checkIndex(int i, int max){
+	    if(i<0 || i>=max) throw new IndexOutOfBoundsException("index: "+i+", size: "+size);
+	}
+	public int size(){ checkMod(); return size; }
+	public T get(int i){ checkMod(); checkIndex(i,size); return IIndexedList.this.get(offset+i); }
+	public T set(int i, T e){ checkMod(); checkIndex(i,size); return IIndexedList.this.set(offset+i,e); }
+	public void add(int i, T e){
+	    checkMod(); checkIndex(i,size+1);
+	    IIndexedList.this.add(offset+i,e);
+	    expectedModCount = IIndexedList.this.modCount; size++; modCount++;
+	}
+	public T remove(int i){
+	    checkMod(); checkIndex(i,size);
+	    T old = IIndexedList.this.remove(offset+i);
+	    expectedModCount = IIndexedList.this.modCount; size--; modCount++;
+	    return old;
+	}
+	protected void removeRange(int fromIndex, int toIndex){
+	    checkMod();
+	    IIndexedList.this.removeRange(offset+fromIndex, offset+toIndex);
+	    expectedModCount = IIndexedList.this.modCount; size -= toIndex-fromIndex; modCount++;
+	}
+    }
+}
@@ -0,0 +1,184 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+/**
+   Static k-d tree of points for nearest point search.
+   Points are reordered into a balanced implicit tree; the node of range [start,end)
+   is the median at (start+end)/2 split on the axis of the largest extent of the range.
+   
+   @author Satoru Sugihara
+*/
+public class IKdTree{
+    
+    /** coordinates in tree order */
+    public double[] x, y, z;
+    /** original index of each point in tree order */
+    public int[] index;
+    /** split axis of each node. 0:x, 1:y, 2:z */
+    public byte[] axis;
+    public int num;
+    
+    public IKdTree(IVec[] pts){
+	num = pts.length;
+	x = new double[num]; y = new double[num]; z = new double[num];
+	for(int i=0; i<num; i++){ x[i]=pts[i].x; y[i]=pts[i].y; z[i]=pts[i].z; }
+	build();
+    }
+    
+    public IKdTree(IVec2[] pts){
+	num = pts.length;
+	x = new double[num]; y = new double[num]; z = new double[num];
+	for(int i=0; i<num; i++){ x[i]=pts[i].x; y[i]=pts[i].y; }
+	build();
+    }
+    
+    /** points are indexed as i*pts[0].length+j */
+    public IKdTree(IVec[][] pts){
+	num = 0;
+	for(int i=0; i<pts.length; i++) num += pts[i].length;
+	x = new double[num]; y = new double[num]; z = new double[num];
+	int idx=0;
+	for(int i=0; i<pts.length; i++){
+	    for(int j=0; j<pts[i].length; j++){ x[idx]=pts[i][j].x; y[idx]=pts[i][j].y; z[idx]=pts[i][j].z; idx++; }
+	}
+	build();
+    }
+    
+    /** points are indexed as i*pts[0].length+j */
+    public IKdTree(IVec2[][] pts){
+	num = 0;
+	for(int i=0; i<pts.length; i++) num += pts[i].length;
+	x = new double[num]; y = new double[num]; z = new double[num];
+	int idx=0;
+	for(int i=0; i<pts.length; i++){
+	    for(int j=0; j<pts[i].length; j++){ x[idx]=pts[i][j].x; y[idx]=pts[i][j].y; idx++; }
+	}
+	build();
+    }
+    
+    
+    void build(){
+	index = new int[num];
+	for(int i=0; i<num; i++) index[i]=i;
+	axis = new byte[num];
+	build(0, num);
+    }
+    
+    void build(int start, int end){
+	if(end-start<=0) return;
+	int mid = (start+end)/2;
+	if(end-start>1){
+	    double minx=x[start], maxx=minx, miny=y[start], maxy=miny, minz=z[start], maxz=minz;
+	    for(int i=start+1; i<end; i++){
+		if(x[i]<minx) minx=x[i]; else if(x[i]>maxx) maxx=x[i];
+		if(y[i]<miny) miny=y[i]; else if(y[i]>maxy) maxy=y[i];
+		if(z[i]<minz) minz=z[i]; else if(z[i]>maxz) maxz=z[i];
+	    }
+	    byte ax = 0;
+	    double width = maxx-minx;
+	    if(maxy-miny > width){ ax=1; width=maxy-miny; }
+	    if(maxz-minz > width){ ax=2; }
+	    select(start, end-1, mid, coord(ax));
+	    axis[mid]=ax;
+	}
+	build(start, mid);
+	build(mid+1, end);
+    }
+    
+    double[] coord(int ax){
+	if(ax==0) return x;
+	if(ax==1) return y;
+	return z;
+    }
+    
+    /** quickselect to put k-th element at k with smaller ones before and larger ones after */
+    void select(int left, int right, int k, double[] c){
+	while(right>left){
+	    double pivot = c[(left+right)/2];
+	    int i=left, j=right;
+	    while(i<=j){
+		while(c[i]<pivot) i++;
+		while(c[j]>pivot) j--;
+		if(i<=j){ swap(i,j); i++; j--; }
+	    }
+	    if(k<=j) right=j;
+	    else if(k>=i) left=i;
+	    else return;
+	}
+    }
+    
+    void swap(int i, int j){
+	double t=x[i]; x[i]=x[j]; x[j]=t;
+	t=y[i]; y[i]=y[j]; y[j]=t;
+	t=z[i]; z[i]=z[j]; z[j]=t;
+	int ti=index[i]; index[i]=index[j]; index[j]=ti;
+    }
+    
+    
+    /** original index of the closest point. the smallest index is returned among equidistant points */
+    public int closest(IVec pt){ return closest(pt.x, pt.y, pt.z); }
+    
+    /** original index of the closest point. the smallest index is returned among equidistant points */
+    public int closest(IVec2 pt){ return closest(pt.x, pt.y, 0); }
+    
+    /** original index of the closest point. the smallest index is returned among equidistant points */
+    public int closest(double px, double py, double pz){
+	if(num==0) return -1;
+	Query q = new Query(px,py,pz);
+	search(0, num, q);
+	return q.index;
+    }
+    
+    void search(int start, int end, Query q){
+	while(end-start>0){
+	    int mid = (start+end)/2;
+	    double dx = x[mid]-q.x, dy = y[mid]-q.y, dz = z[mid]-q.z;
+	    double d2 = dx*dx+dy*dy+dz*dz;
+	    if(q.index<0 || d2<q.dist2 || d2==q.dist2 && index[mid]<q.index){
+		q.dist2 = d2; q.index = index[mid];
+	    }
+	    if(end-start==1) return;
+	    double diff = 0;
+	    if(axis[mid]==0) diff = q.x-x[mid];
+	    else if(axis[mid]==1) diff = q.y-y[mid];
+	    else diff = q.z-z[mid];
+	    // equal coordinates can be on either side of the median
+	    if(diff<0){
+		search(start, mid, q);
+		if(diff*diff<=q.dist2){ start = mid+1; } else return;
+	    }
+	    else{
+		search(mid+1, end, q);
+		if(diff*diff<=q.dist2){ end = mid; } else return;
+	    }
+	}
+    }
+    
+    static class Query{
+	double x,y,z;
+	double dist2;
+	int index=-1;
+	Query(double x, double y, double z){ this.x=x; this.y=y; this.z=z; }
+    }
+}
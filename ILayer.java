@@ -23,6 +23,7 @@
 package igeo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.awt.Color;
 
 /**
@@ -35,6 +36,8 @@ import java.awt.Color;
 public class ILayer extends IObject{
     
     public ArrayList<IObject> objects;
+    /** objects partitioned by type. built at the first typed query */
+    public ITypeIndex typeIndex;
     //public ILayer parentLayer = null;
     //public Color color;
     //public IMaterial material;
@@ -42,13 +45,13 @@ public class ILayer extends IObject{
     
     public ILayer(){
 	attribute = new IAttribute();
-	objects = new ArrayList<IObject>();
+	objects = new IIdentityList<IObject>();
     }
     public ILayer(String name){ this(); attribute.name = name; }
     public ILayer(IServerI s){
 	super(s);
 	attribute = new IAttribute();
-	objects = new ArrayList<IObject>();
+	objects = new IIdentityList<IObject>();
     }
     public ILayer(IServerI s, String name){ this(s); attribute.name = name; }
     
@@ -58,6 +61,7 @@ public class ILayer extends IObject{
     public synchronized ILayer add(IObject e){
 	if(!objects.contains(e)){
 	    objects.add(e);
+	    if(typeIndex!=null) typeIndex.add(e);
 	    if(e.layer()!=this) e.layer(this);
 	    //e.layer = this;
 	    // if e is ILayer, e.layer means parent layer
@@ -65,8 +69,21 @@ public class ILayer extends IObject{
 	//if(e instanceof ILayer){ ((ILayer)e).parentLayer = this; }
 	return this;
     }
-    public synchronized ILayer remove(int i){ objects.remove(i); return this; }
-    public synchronized ILayer remove(IObject e){ objects.remove(e); return this; }
+    public synchronized ILayer remove(int i){
+	IObject e = objects.remove(i);
+	if(typeIndex!=null) typeIndex.remove(e);
+	return this;
+    }
+    public synchronized ILayer remove(IObject e){
+	if(objects.remove(e) && typeIndex!=null) typeIndex.remove(e);
+	return this;
+    }
+    
+    /** index of objects by type. built from current objects when first called */
+    public synchronized ITypeIndex typeIndex(){
+	if(typeIndex==null) typeIndex = new ITypeIndex(objects);
+	return typeIndex;
+    }
     
     public boolean contains(IObject e){ return objects.contains(e); }
     
@@ -81,13 +98,7 @@ public class ILayer extends IObject{
         IPointR objects are not included.
      */
     public IPoint[] points(){
-        ArrayList<IPoint> points = new ArrayList<IPoint>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof IPoint)
-                    points.add((IPoint)objects.get(i));
-        }
-        return points.toArray(new IPoint[points.size()]);
+	return typeIndex().points();
     }
     /** alias of points() */
     public IPoint[] getPoints(){ return points(); }
@@ -99,13 +110,7 @@ public class ILayer extends IObject{
         ICurveR objects are not included.
     */
     public ICurve[] curves(){
-        ArrayList<ICurve> curves = new ArrayList<ICurve>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof ICurve)
-                    curves.add((ICurve)objects.get(i));
-        }
-        return curves.toArray(new ICurve[curves.size()]);
+	return typeIndex().curves();
     }
     /** alias of curves() */
     public ICurve[] getCurves(){ return curves(); }
@@ -116,13 +121,7 @@ public class ILayer extends IObject{
         ISurfaceR objects are not included.
     */
     public ISurface[] surfaces(){
-        ArrayList<ISurface> surfaces = new ArrayList<ISurface>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof ISurface)
-                    surfaces.add((ISurface)objects.get(i));
-        }
-        return surfaces.toArray(new ISurface[surfaces.size()]);
+	return typeIndex().surfaces();
     }
     /** alias of surfaces() */
     public ISurface[] getSurfaces(){ return surfaces(); }
@@ -134,13 +133,7 @@ public class ILayer extends IObject{
         IMeshR objects are not included.
     */
     public IMesh[] meshes(){
-        ArrayList<IMesh> meshes = new ArrayList<IMesh>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof IMesh)
-                    meshes.add((IMesh)objects.get(i));
-        }
-        return meshes.toArray(new IMesh[meshes.size()]);
+	return typeIndex().meshes();
     }
     /** alias of meshes() */
     public IMesh[] getMeshes(){ return meshes(); }
@@ -148,13 +141,7 @@ public class ILayer extends IObject{
     /** Returns all brep objects contained in a layer.
      */
     public IBrep[] breps(){
-        ArrayList<IBrep> breps = new ArrayList<IBrep>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof IBrep)
-                    breps.add((IBrep)objects.get(i));
-        }
-        return breps.toArray(new IBrep[breps.size()]);
+	return typeIndex().breps();
     }
     /** alias of breps() */
     public IBrep[] getBreps(){ return breps(); }
@@ -162,13 +149,7 @@ public class ILayer extends IObject{
     /** Returns all brep objects contained in a layer.
      */
     public IGeometry[] geometries(){
-        ArrayList<IGeometry> geos = new ArrayList<IGeometry>();
-        synchronized(server){
-            for(int i=0; i<objects.size(); i++)
-                if(objects.get(i) instanceof IGeometry)
-                    geos.add((IGeometry)objects.get(i));
-        }
-        return geos.toArray(new IGeometry[geos.size()]);
+	return typeIndex().geometries();
     }
     /** alias of geometries() */
     public IGeometry[] getGeometries(){ return geometries(); }
@@ -178,9 +159,14 @@ public class ILayer extends IObject{
     /** Returns all objects of specified class contained in a layer.
      */
     public IObject[] objects(Class cls){
+	ITypeIndex.Bucket bucket = typeIndex().bucket(cls);
+	if(bucket!=null){
+	    IObject[] snap = bucket.snapshot();
+	    return Arrays.copyOf(snap, snap.length, IObject[].class);
+	}
         ArrayList<IObject> objs = new ArrayList<IObject>();
         synchronized(server){
-            for(int i=0; i<objs.size(); i++)
+            for(int i=0; i<objects.size(); i++)
                 if(cls.isInstance(objects.get(i))) objs.add(objects.get(i));
         }
         return objs.toArray(new IObject[objs.size()]);
@@ -205,12 +191,8 @@ public class ILayer extends IObject{
     /** Returns i-th IPoint object contained in objects or null if not found.
         IPointR objects are not included.
     */
-    public synchronized IPoint point(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof IPoint)
-		if(i==curIdx++) return (IPoint)objects.get(j);
-        return null;
+    public IPoint point(int i){
+	return typeIndex().point(i);
     }
     /** alias of point(int) */
     public IPoint getPoint(int i){ return point(i); }
@@ -221,12 +203,8 @@ public class ILayer extends IObject{
     /** Returns i-th ICurve object contained in objects or null if not found.
         ICurveR objects are not included.
     */
-    public synchronized ICurve curve(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof ICurve)
-		if(i==curIdx++) return (ICurve)objects.get(j);
-        return null;
+    public ICurve curve(int i){
+	return typeIndex().curve(i);
     }
     /** alias of curve(int) */
     public ICurve getCurve(int i){ return curve(i); }
@@ -236,12 +214,8 @@ public class ILayer extends IObject{
     /** Returns i-th ISurface object contained in objects or null if not found.
         ISurfaceR objects are not included.
     */
-    public synchronized ISurface surface(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof ISurface)
-		if(i==curIdx++) return (ISurface)objects.get(j);
-	return null;
+    public ISurface surface(int i){
+	return typeIndex().surface(i);
     }
     /** alias of surface(int) */
     public ISurface getSurface(int i){ return surface(i); }
@@ -252,36 +226,24 @@ public class ILayer extends IObject{
     /** Returns i-th IMesh object contained in objects or null if not found.
         IMeshR objects are not included.
     */
-    public synchronized IMesh mesh(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof IMesh)
-		if(i==curIdx++) return (IMesh)objects.get(j);
-        return null;
+    public IMesh mesh(int i){
+	return typeIndex().mesh(i);
     }
     /** alias of mesh(int) */
     public IMesh getMesh(int i){ return mesh(i); }
     
     /** Returns i-th IBrep object contained in objects or null if not found.
     */
-    public synchronized IBrep brep(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof IBrep)
-		if(i==curIdx++) return (IBrep)objects.get(j);
-        return null;
+    public IBrep brep(int i){
+	return typeIndex().brep(i);
     }
     /** alias of brep(int) */
     public IBrep getBrep(int i){ return brep(i); }
     
     /** Returns i-th IGeometries object contained in objects or null if not found.
     */
-    public synchronized IGeometry geometry(int i){
-        int curIdx=0;
-	for(int j=0; j<objects.size(); j++)
-	    if(objects.get(j) instanceof IGeometry)
-		if(i==curIdx++) return (IGeometry)objects.get(j);
-        return null;
+    public IGeometry geometry(int i){
+	return typeIndex().geometry(i);
     }
     /** alias of geometry(int) */
     public IGeometry getGeometry(int i){ return geometry(i); }
@@ -290,6 +252,8 @@ public class ILayer extends IObject{
     /** Returns i-th object contained in objects or null if not found.
     */
     public synchronized IObject object(Class cls, int i){
+	ITypeIndex.Bucket bucket = typeIndex().bucket(cls);
+	if(bucket!=null) return bucket.get(i);
         int curIdx=0;
 	for(int j=0; j<objects.size(); j++)
 	    if(cls.isInstance(objects.get(j))) 
@@ -314,11 +278,8 @@ public class ILayer extends IObject{
     
     
     /** number of IPoint in objects */
-    public synchronized int pointNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof IPoint) num++;
-        return num;
+    public int pointNum(){
+	return typeIndex().pointNum();
     }
     /** alias of pointsNum() */
     public int getPointNum(){ return pointNum(); }
@@ -326,11 +287,8 @@ public class ILayer extends IObject{
     public int ptNum(){ return pointNum(); }
     
     /** number of ICurve in objects */
-    public synchronized int curveNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof ICurve) num++;
-        return num;
+    public int curveNum(){
+	return typeIndex().curveNum();
     }
     /** alias of curveNum() */
     public int getCurveNum(){ return curveNum(); }
@@ -339,11 +297,8 @@ public class ILayer extends IObject{
     
     
     /** number of ISurface in objects */
-    public synchronized int surfaceNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof ISurface) num++;
-        return num;
+    public int surfaceNum(){
+	return typeIndex().surfaceNum();
     }
     /** alias of surfaceNum() */
     public int getSurfaceNum(){ return surfaceNum(); }
@@ -351,31 +306,22 @@ public class ILayer extends IObject{
     public int srfNum(){ return surfaceNum(); }
     
     /** number of IMesh in objects */
-    public synchronized int meshNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof IMesh) num++;
-        return num;
+    public int meshNum(){
+	return typeIndex().meshNum();
     }
     /** alias of meshNum() */
     public int getMeshNum(){ return meshNum(); }
     
     /** number of IBrep in objects */
-    public synchronized int brepNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof IBrep) num++;
-        return num;
+    public int brepNum(){
+	return typeIndex().brepNum();
     }
     /** alias of brepNum() */
     public int getBrepNum(){ return brepNum(); }
     
     /** number of IBrep in objects */
-    public synchronized int geometryNum(){
-        int num=0;
-	for(int i=0; i<objects.size(); i++)
-	    if(objects.get(i) instanceof IGeometry) num++;
-        return num;
+    public int geometryNum(){
+	return typeIndex().geometryNum();
     }
     /** alias of geometryNum() */
     public int getGeometryNum(){ return geometryNum(); }
@@ -384,6 +330,8 @@ public class ILayer extends IObject{
     
     /** number of the specified class in objects */
     public synchronized int objectNum(Class cls){
+	ITypeIndex.Bucket bucket = typeIndex().bucket(cls);
+	if(bucket!=null) return bucket.num();
         int num=0;
 	for(int i=0; i<objects.size(); i++)
 	    if(cls.isInstance(objects.get(i))) num++;
@@ -0,0 +1,363 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.ArrayList;
+
+/**
+   Compact storage of polygon mesh in primitive arrays.
+   Vertex positions are stored in a flat double array and faces in a flat index array
+   with offsets. Adjacency is kept as half-edges; half-edge h starts at faceVertices[h]
+   and goes to the next corner of the same face.
+   IVertex, IEdge and IFace objects are created lazily as views for existing APIs.
+   
+   @author Satoru Sugihara
+*/
+public class IMeshBuffer{
+    
+    /** x,y,z of each vertex */
+    public double[] positions;
+    public int vertexNum;
+    
+    /** vertex index of each face corner. index of corner is also index of half-edge */
+    public int[] faceVertices;
+    /** start of each face in faceVertices. length is faceNum+1 */
+    public int[] faceOffsets;
+    public int faceNum;
+    
+    /** opposite half-edge or -1 on naked edge */
+    public int[] halfEdgeTwin;
+    /** face index of each half-edge */
+    public int[] halfEdgeFace;
+    /** one of outgoing half-edges of each vertex. naked one is chosen if any */
+    public int[] vertexHalfEdge;
+    
+    /** lazily created views */
+    IVertex[] vertexViews;
+    IEdge[] edgeViews;
+    IFace[] faceViews;
+    
+    
+    /** triangle mesh */
+    public IMeshBuffer(double[] positions, int[] triangles){
+	this(positions, triangles, triangleOffsets(triangles.length/3));
+    }
+    
+    public IMeshBuffer(double[] positions, int[] faceVertices, int[] faceOffsets){
+	this.positions = positions;
+	this.faceVertices = faceVertices;
+	this.faceOffsets = faceOffsets;
+	vertexNum = positions.length/3;
+	faceNum = faceOffsets.length-1;
+	initAdjacency();
+    }
+    
+    /** copying positions and connectivity of IMeshGeo */
+    public IMeshBuffer(IMeshGeo mesh){
+	IIndexedList<IVertex> vtx = new IIndexedList<IVertex>(mesh.vertices);
+	int cornerNum=0;
+	for(int i=0; i<mesh.faces.size(); i++) cornerNum += mesh.faces.get(i).vertices.length;
+	for(int i=0; i<mesh.faces.size(); i++){ // vertices not in the list
+	    IFace f = mesh.faces.get(i);
+	    for(int j=0; j<f.vertices.length; j++) if(!vtx.contains(f.vertices[j])) vtx.add(f.vertices[j]);
+	}
+	
+	vertexNum = vtx.size();
+	positions = new double[vertexNum*3];
+	for(int i=0; i<vertexNum; i++){
+	    IVec p = vtx.get(i).pos.get();
+	    positions[i*3] = p.x;
+	    positions[i*3+1] = p.y;
+	    positions[i*3+2] = p.z;
+	}
+	
+	faceNum = mesh.faces.size();
+	faceVertices = new int[cornerNum];
+	faceOffsets = new int[faceNum+1];
+	int idx=0;
+	for(int i=0; i<faceNum; i++){
+	    IFace f = mesh.faces.get(i);
+	    faceOffsets[i] = idx;
+	    for(int j=0; j<f.vertices.length; j++) faceVertices[idx++] = vtx.indexOf(f.vertices[j]);
+	}
+	faceOffsets[faceNum] = idx;
+	initAdjacency();
+    }
+    
+    
+    static int[] triangleOffsets(int triangleNum){
+	int[] offsets = new int[triangleNum+1];
+	for(int i=0; i<=triangleNum; i++) offsets[i] = i*3;
+	return offsets;
+    }
+    
+    
+    /** building half-edge adjacency by hashing directed vertex pairs */
+    public void initAdjacency(){
+	int num = faceOffsets[faceNum];
+	halfEdgeTwin = new int[num];
+	halfEdgeFace = new int[num];
+	vertexHalfEdge = new int[vertexNum];
+	java.util.Arrays.fill(vertexHalfEdge, -1);
+	
+	IMeshWelder.LongIntMap directed = new IMeshWelder.LongIntMap(num);
+	for(int f=0; f<faceNum; f++){
+	    for(int h=faceOffsets[f]; h<faceOffsets[f+1]; h++){
+		halfEdgeFace[h] = f;
+		directed.put(key(faceVertices[h], target(h)), h);
+	    }
+	}
+	for(int h=0; h<num; h++){
+	    halfEdgeTwin[h] = directed.get(key(target(h), faceVertices[h]));
+	    int v = faceVertices[h];
+	    if(vertexHalfEdge[v]<0 || halfEdgeTwin[h]<0 && halfEdgeTwin[vertexHalfEdge[v]]>=0){
+		vertexHalfEdge[v] = h;
+	    }
+	}
+	vertexViews=null;
+	edgeViews=null;
+	faceViews=null;
+    }
+    
+    static long key(int v1, int v2){ return ((long)v1<<32)|(v2&0xFFFFFFFFL); }
+    
+    
+    public int vertexNum(){ return vertexNum; }
+    public int faceNum(){ return faceNum; }
+    public int halfEdgeNum(){ return faceOffsets[faceNum]; }
+    
+    public int faceVertexNum(int f){ return faceOffsets[f+1]-faceOffsets[f]; }
+    public int faceVertex(int f, int i){ return faceVertices[faceOffsets[f]+i]; }
+    
+    public double x(int i){ return positions[i*3]; }
+    public double y(int i){ return positions[i*3+1]; }
+    public double z(int i){ return positions[i*3+2]; }
+    public IVec pos(int i){ return new IVec(positions[i*3], positions[i*3+1], positions[i*3+2]); }
+    
+    public IMeshBuffer pos(int i, double x, double y, double z){
+	positions[i*3] = x;
+	positions[i*3+1] = y;
+	positions[i*3+2] = z;
+	if(vertexViews!=null && vertexViews[i]!=null) vertexViews[i].pos.set(x,y,z);
+	return this;
+    }
+    
+    
+    /*************************************************
+     * half-edge navigation
+     ************************************************/
+    
+    public int next(int h){
+	int f = halfEdgeFace[h];
+	if(h+1==faceOffsets[f+1]) return faceOffsets[f];
+	return h+1;
+    }
+    
+    public int prev(int h){
+	int f = halfEdgeFace[h];
+	if(h==faceOffsets[f]) return faceOffsets[f+1]-1;
+	return h-1;
+    }
+    
+    public int twin(int h){ return halfEdgeTwin[h]; }
+    public int origin(int h){ return faceVertices[h]; }
+    public int target(int h){ return faceVertices[next(h)]; }
+    public int face(int h){ return halfEdgeFace[h]; }
+    public boolean isNaked(int h){ return halfEdgeTwin[h]<0; }
+    
+    /** indices of vertices connected to vertex v by edges */
+    public int[] linkedVertices(int v){
+	int h0 = vertexHalfEdge[v];
+	if(h0<0) return new int[0];
+	ArrayList<Integer> linked = new ArrayList<Integer>();
+	int h = h0;
+	do{
+	    linked.add(target(h));
+	    int p = prev(h);
+	    h = halfEdgeTwin[p];
+	    if(h<0){ linked.add(faceVertices[p]); break; } // naked edge
+	}while(h!=h0);
+	int[] ret = new int[linked.size()];
+	for(int i=0; i<ret.length; i++) ret[i] = linked.get(i);
+	return ret;
+    }
+    
+    
+    /*************************************************
+     * lazy views
+     ************************************************/
+    
+    public IVertex vertex(int i){
+	if(vertexViews==null) vertexViews = new IVertex[vertexNum];
+	if(vertexViews[i]==null) vertexViews[i] = new IVertex(positions[i*3], positions[i*3+1], positions[i*3+2]);
+	return vertexViews[i];
+    }
+    
+    /** edge view of half-edge h, shared with its twin */
+    public IEdge edge(int h){
+	int t = halfEdgeTwin[h];
+	if(t>=0 && t<h) h = t;
+	if(edgeViews==null) edgeViews = new IEdge[halfEdgeNum()];
+	if(edgeViews[h]==null) edgeViews[h] = new IEdge(vertex(origin(h)), vertex(target(h)));
+	return edgeViews[h];
+    }
+    
+    public IFace faceView(int f){
+	if(faceViews==null) faceViews = new IFace[faceNum];
+	if(faceViews[f]==null){
+	    IEdge[] e = new IEdge[faceVertexNum(f)];
+	    for(int i=0; i<e.length; i++) e[i] = edge(faceOffsets[f]+i);
+	    faceViews[f] = new IFace(e);
+	}
+	return faceViews[f];
+    }
+    
+    /** copying positions edited through vertex views back to the buffer */
+    public IMeshBuffer updateFromViews(){
+	if(vertexViews==null) return this;
+	for(int i=0; i<vertexNum; i++){
+	    if(vertexViews[i]!=null){
+		positions[i*3] = vertexViews[i].x();
+		positions[i*3+1] = vertexViews[i].y();
+		positions[i*3+2] = vertexViews[i].z();
+	    }
+	}
+	return this;
+    }
+    
+    void updateViews(){
+	if(vertexViews==null) return;
+	for(int i=0; i<vertexNum; i++){
+	    if(vertexViews[i]!=null) vertexViews[i].pos.set(positions[i*3], positions[i*3+1], positions[i*3+2]);
+	}
+    }
+    
+    /** IMeshGeo made of the views of all faces */
+    public IMeshGeo toMeshGeo(){
+	IFace[] fcs = new IFace[faceNum];
+	for(int i=0; i<faceNum; i++) fcs[i] = faceView(i);
+	return new IMeshGeo(fcs);
+    }
+    
+    
+    public IBounds bounds(){
+	if(vertexNum==0) return null;
+	double minx=positions[0], miny=positions[1], minz=positions[2];
+	double maxx=minx, maxy=miny, maxz=minz;
+	for(int i=3; i<vertexNum*3; i+=3){
+	    if(positions[i]<minx) minx=positions[i]; else if(positions[i]>maxx) maxx=positions[i];
+	    if(positions[i+1]<miny) miny=positions[i+1]; else if(positions[i+1]>maxy) maxy=positions[i+1];
+	    if(positions[i+2]<minz) minz=positions[i+2]; else if(positions[i+2]>maxz) maxz=positions[i+2];
+	}
+	return new IBounds(new IVec(minx,miny,minz), new IVec(maxx,maxy,maxz));
+    }
+    
+    
+    /*************************************************
+     * transformation over the buffer
+     ************************************************/
+    
+    public IMeshBuffer add(double x, double y, double z){
+	for(int i=0; i<vertexNum*3; i+=3){
+	    positions[i] += x;
+	    positions[i+1] += y;
+	    positions[i+2] += z;
+	}
+	updateViews();
+	return this;
+    }
+    public IMeshBuffer add(IVecI v){ IVec p = v.get(); return add(p.x,p.y,p.z); }
+    public IMeshBuffer sub(double x, double y, double z){ return add(-x,-y,-z); }
+    public IMeshBuffer sub(IVecI v){ IVec p = v.get(); return add(-p.x,-p.y,-p.z); }
+    /** alias of add() */
+    public IMeshBuffer mv(double x, double y, double z){ return add(x,y,z); }
+    /** alias of add() */
+    public IMeshBuffer mv(IVecI v){ return add(v); }
+    
+    public IMeshBuffer mul(double v){
+	for(int i=0; i<vertexNum*3; i++) positions[i] *= v;
+	updateViews();
+	return this;
+    }
+    public IMeshBuffer div(double v){ return mul(1.0/v); }
+    
+    /** scale from the origin */
+    public IMeshBuffer scale(double f){ return mul(f); }
+    /** scale from the center */
+    public IMeshBuffer scale(IVecI center, double f){
+	IVec c = center.get();
+	return transform(f,0,0,c.x*(1-f),
+			 0,f,0,c.y*(1-f),
+			 0,0,f,c.z*(1-f));
+    }
+    
+    /** rotation around axis through the origin */
+    public IMeshBuffer rot(IVecI axis, double angle){ return rot(null, axis, angle); }
+    
+    /** rotation around axis through the center. right-handed coordinates as IVec.rot */
+    public IMeshBuffer rot(IVecI center, IVecI axis, double angle){
+	IVec ax = axis.get().dup().unit();
+	double sin = Math.sin(angle);
+	double cos = Math.cos(angle);
+	double icos = 1-cos;
+	double m00 = ax.x*ax.x*icos + cos;
+	double m01 = ax.x*ax.y*icos - ax.z*sin;
+	double m02 = ax.x*ax.z*icos + ax.y*sin;
+	double m10 = ax.y*ax.x*icos + ax.z*sin;
+	double m11 = ax.y*ax.y*icos + cos;
+	double m12 = ax.y*ax.z*icos - ax.x*sin;
+	double m20 = ax.z*ax.x*icos - ax.y*sin;
+	double m21 = ax.z*ax.y*icos + ax.x*sin;
+	double m22 = ax.z*ax.z*icos + cos;
+	double tx=0, ty=0, tz=0;
+	if(center!=null){ // p' = M(p-c)+c
+	    IVec c = center.get();
+	    tx = c.x - (m00*c.x + m01*c.y + m02*c.z);
+	    ty = c.y - (m10*c.x + m11*c.y + m12*c.z);
+	    tz = c.z - (m20*c.x + m21*c.y + m22*c.z);
+	}
+	return transform(m00,m01,m02,tx, m10,m11,m12,ty, m20,m21,m22,tz);
+    }
+    
+    public IMeshBuffer transform(IMatrix4I mat){
+	IMatrix4 m = mat.get();
+	return transform(m.get(0,0), m.get(0,1), m.get(0,2), m.get(0,3),
+			 m.get(1,0), m.get(1,1), m.get(1,2), m.get(1,3),
+			 m.get(2,0), m.get(2,1), m.get(2,2), m.get(2,3));
+    }
+    
+    /** affine transformation by rows of 3x4 matrix */
+    public IMeshBuffer transform(double m00, double m01, double m02, double m03,
+				 double m10, double m11, double m12, double m13,
+				 double m20, double m21, double m22, double m23){
+	for(int i=0; i<vertexNum*3; i+=3){
+	    double x = positions[i], y = positions[i+1], z = positions[i+2];
+	    positions[i] = m00*x + m01*y + m02*z + m03;
+	    positions[i+1] = m10*x + m11*y + m12*z + m13;
+	    positions[i+2] = m20*x + m21*y + m22*z + m23;
+	}
+	updateViews();
+	return this;
+    }
+    
+}
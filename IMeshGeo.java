@@ -23,6 +23,7 @@
 package igeo;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
 /**
    Geometry of polygon mesh containing lists of vertices, edges and faces.
@@ -58,9 +59,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
 	this(matrix,triangulateDir,new IMeshType());
     }
     public IMeshGeo(IVec[][] matrix, boolean triangulateDir, IMeshType creator){
-        vertices = new ArrayList<IVertex>();
-        faces = new ArrayList<IFace>();
-        edges = new ArrayList<IEdge>();
+        vertices = new IIndexedList<IVertex>();
+        faces = new IIndexedList<IFace>();
+        edges = new IIndexedList<IEdge>();
 	initWithPointMatrix(matrix,matrix.length,matrix[0].length,triangulateDir,creator);
     }
     
@@ -69,17 +70,17 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     }
     public IMeshGeo(IVec[][] matrix, int unum, int vnum, boolean triangulateDir,
 		    IMeshType creator){
-        vertices = new ArrayList<IVertex>();
-        faces = new ArrayList<IFace>();
-        edges = new ArrayList<IEdge>();
+        vertices = new IIndexedList<IVertex>();
+        faces = new IIndexedList<IFace>();
+        edges = new IIndexedList<IEdge>();
 	initWithPointMatrix(matrix,unum,vnum,triangulateDir,creator);
     }
     
     public IMeshGeo(){
 	super();
-        vertices = new ArrayList<IVertex>();
-        faces = new ArrayList<IFace>();
-        edges = new ArrayList<IEdge>();
+        vertices = new IIndexedList<IVertex>();
+        faces = new IIndexedList<IFace>();
+        edges = new IIndexedList<IEdge>();
     }
     
     public IMeshGeo(ArrayList<IVertex> v, ArrayList<IEdge> e, ArrayList<IFace> f){
@@ -91,9 +92,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     
     public IMeshGeo(IVertex[] vtx, IEdge[] edg,IFace[] fcs){
 	super();
-        vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-        faces = new ArrayList<IFace>();
+        vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+        faces = new IIndexedList<IFace>();
 	for(int i=0; i<vtx.length; i++) vertices.add(vtx[i]);
 	for(int i=0; i<edg.length; i++) edges.add(edg[i]);
 	for(int i=0; i<fcs.length; i++) faces.add(fcs[i]);
@@ -101,9 +102,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     
     
     public IMeshGeo(IVec[] vert){ // single face mesh
-	vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-        faces = new ArrayList<IFace>();
+	vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+        faces = new IIndexedList<IFace>();
 	for(int i=0; i<vert.length; i++) vertices.add(new IVertex(vert[i]));
 	for(int i=0; i<vert.length; i++)
 	    edges.add(new IEdge(vertices.get(i), vertices.get((i+1)%vertices.size())));
@@ -113,9 +114,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     }
     
     public IMeshGeo(IVertex[] vert){ // single face mesh
-	vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-        faces = new ArrayList<IFace>();
+	vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+        faces = new IIndexedList<IFace>();
 	for(int i=0; i<vert.length; i++) vertices.add(vert[i]);
 	for(int i=0; i<vert.length; i++)
 	    edges.add(new IEdge(vertices.get(i), vertices.get((i+1)%vertices.size())));
@@ -154,9 +155,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     
     
     public IMeshGeo(IFace[] fcs){
-	vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-        faces = new ArrayList<IFace>();
+	vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+        faces = new IIndexedList<IFace>();
 	for(IFace f : fcs){
 	    faces.add(f);
 	    for(IVertex v : f.vertices) if(!vertices.contains(v)) vertices.add(v);
@@ -166,9 +167,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     
     public IMeshGeo(IMeshGeo m){
 	// deep copy
-	vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-        faces = new ArrayList<IFace>();
+	vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+        faces = new IIndexedList<IFace>();
 	
 	for(int i=0; i<m.vertices.size(); i++) vertices.add(m.vertices.get(i).dup());
 	for(int i=0; i<m.edges.size(); i++) edges.add(m.edges.get(i).dup());
@@ -205,8 +206,8 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
 	//boolean fixAllPoints=true; //false;
 	
         // pick all points
-        vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
+        vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
         for(int i=0; i<lines.length; i++){
             //synchronized(IG.lock){
 	    ICurveI link = lines[i];
@@ -246,7 +247,7 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
         //for(int i=0; i<vertices.size(); i++) vertices.get(i).setIndex(i);
 	
         // creating faces
-        faces = new ArrayList<IFace>();
+        faces = new IIndexedList<IFace>();
         for(int i=0; i<edges.size(); i++){
             IEdge e = edges.get(i);
             IFace[] fcs = e.createFace(creator);
@@ -332,9 +333,9 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
 	// should open lines removed?
 	
         // pick all points
-        vertices = new ArrayList<IVertex>();
-        edges = new ArrayList<IEdge>();
-	faces = new ArrayList<IFace>();
+        vertices = new IIndexedList<IVertex>();
+        edges = new IIndexedList<IEdge>();
+	faces = new IIndexedList<IFace>();
         for(int i=0; i<linePts.length; i++){
 	    int num = linePts[i].length;
 	    IVertex[] vtx = new IVertex[num];
@@ -474,7 +475,7 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
         //for(int i=0; i<vertices.size(); i++) vertices.get(i).setIndex(i);
 	
 	
-	faces = new ArrayList<IFace>();
+	faces = new IIndexedList<IFace>();
         for(int i=0; i<edges.size(); i++){
             IEdge e = edges.get(i);
 	    
@@ -696,20 +697,14 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     public IMeshGeo deleteFace(IIntegerI i){ return deleteFace(i.x()); }
     
     
-    public int getIndex(IVertex v){
-        for(int i=0; i<vertices.size(); i++) if(vertices.get(i) == v) return i; 
-        return -1;
-    }
+    /** O(1) when vertices is IIndexedList. vertices are compared by identity */
+    public int getIndex(IVertex v){ return vertices.indexOf(v); }
     
-    public int getIndex(IEdge e){
-        for(int i=0; i<edges.size(); i++) if(edges.get(i) ==e) return i; 
-        return -1;
-    }
+    /** O(1) when edges is IIndexedList. edges are compared by identity */
+    public int getIndex(IEdge e){ return edges.indexOf(e); }
     
-    public int getIndex(IFace f){
-        for(int i=0; i<faces.size(); i++) if(faces.get(i)==f) return i; 
-        return -1;
-    }
+    /** O(1) when faces is IIndexedList. faces are compared by identity */
+    public int getIndex(IFace f){ return faces.indexOf(f); }
     
     
     public void addFace(IFace f){
@@ -1663,6 +1658,10 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     
     
     
+    /** copy of positions and connectivity in primitive arrays with half-edge adjacency */
+    public IMeshBuffer compact(){ return new IMeshBuffer(this); }
+    
+    
     public static IMeshGeo joinMesh(IMeshGeo[] meshes){
 	ArrayList<IFace> faces = new ArrayList<IFace>();
 	for(int i=0; i<meshes.length; i++){
@@ -1679,15 +1678,19 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     /** join other meshes into the current one and remove duplicated edges and vertices */
     public IMeshGeo join(IMeshGeo[] meshes, double tolerance){
 	synchronized(IG.lock){ // IG.lock or IG.dynamicServer() ?
+	    IdentityHashMap<Object,Object> added = new IdentityHashMap<Object,Object>();
+	    for(int i=0; i<vertices.size(); i++) added.put(vertices.get(i), vertices.get(i));
+	    for(int i=0; i<edges.size(); i++) added.put(edges.get(i), edges.get(i));
+	    for(int i=0; i<faces.size(); i++) added.put(faces.get(i), faces.get(i));
 	    for(int i=0; i<meshes.length; i++){
 		for(int j=0; j<meshes[i].vertexNum(); j++){
-		    if(!vertices.contains(meshes[i].vertex(j))) vertices.add(meshes[i].vertex(j));
+		    if(added.put(meshes[i].vertex(j), meshes[i].vertex(j))==null) vertices.add(meshes[i].vertex(j));
 		}
 		for(int j=0; j<meshes[i].edgeNum(); j++){
-		    if(!edges.contains(meshes[i].edge(j))) edges.add(meshes[i].edge(j));
+		    if(added.put(meshes[i].edge(j), meshes[i].edge(j))==null) edges.add(meshes[i].edge(j));
 		}
 		for(int j=0; j<meshes[i].faceNum(); j++){
-		    if(!faces.contains(meshes[i].face(j))) faces.add(meshes[i].face(j));
+		    if(added.put(meshes[i].face(j), meshes[i].face(j))==null) faces.add(meshes[i].face(j));
 		}
 	    }
 	    removeDuplicates(tolerance);
@@ -1700,173 +1703,47 @@ public class IMeshGeo extends IParameterObject implements IMeshI{
     /** remove duplicated vertices and edges */
     public IMeshGeo removeDuplicates(){ return removeDuplicates(IConfig.tolerance); }
     
-    /** remove duplicated vertices and edges */
+    /** remove duplicated vertices and edges.
+	vertices are welded with a spatial hash of tolerance-sized cells and
+	edges and faces are remapped through the index tables of IMeshWelder.
+    */
     public IMeshGeo removeDuplicates(double tolerance){
 	
-	ArrayList<IVertex> vertices2 = new ArrayList<IVertex>(this.vertices);
-	ArrayList<IVertex> removedVertex = new ArrayList<IVertex>();
-	ArrayList<IVertex> replacingVertex = new ArrayList<IVertex>();
-	
-	for(int i=0; i<vertices2.size()-1; i++){
-	    IVertex v1 = vertices2.get(i);
-	    for(int j=i+1; j<vertices2.size(); j++){
-		IVertex v2 = vertices2.get(j);
-		if(v1.eq(v2, tolerance)){
-		    //v2.replaceVertex(v1); // this is buggy
-		    vertices2.remove(j);
-		    j--;
-		    removedVertex.add(v2);
-		    replacingVertex.add(v1);
-		}
-	    }
-	}
-	
-	for(int i=0; i<vertices2.size(); i++){
-	    vertices2.get(i).edges.clear();
-	    vertices2.get(i).faces.clear();
-	    vertices2.get(i).linkedVertices.clear();
-	}
-	
-	ArrayList<IEdge> edges2 = new ArrayList<IEdge>(this.edges);
-	ArrayList<IEdge> removedEdge = new ArrayList<IEdge>();
-	ArrayList<IEdge> replacingEdge = new ArrayList<IEdge>();
-	for(int i=0; i<edges2.size()-1; i++){
-	    IEdge e1 = edges2.get(i);
-	    for(int j=i+1; j<edges2.size(); j++){
-		IEdge e2 = edges2.get(j);
-		
-		if(e1.eq(e2, tolerance)){
-		    edges2.remove(j);
-		    j--;
-		    removedEdge.add(e2);
-		    replacingEdge.add(e1);
-		}
-	    }
-	}
+	IMeshWelder welder = new IMeshWelder(vertices, edges, tolerance);
 	
-	if(removedVertex.size()==0 && removedEdge.size()==0){
+	if(!welder.hasDuplicates()){
 	    return this; // no duplicates
 	}
 	
-	for(int i=0; i<edges2.size(); i++){
-	    if( removedVertex.contains( edges2.get(i).vertices[0] ) ){
-		edges2.get(i).vertices[0] = replacingVertex.get(removedVertex.indexOf( edges2.get(i).vertices[0] ));
-	    }
-	    if( removedVertex.contains( edges2.get(i).vertices[1] ) ){
-		edges2.get(i).vertices[1] = replacingVertex.get(removedVertex.indexOf( edges2.get(i).vertices[1] ));
-	    }
-	    edges2.get(i).faces.clear();
-	    
-	    edges2.get(i).vertices[0].addEdge(edges2.get(i));
-	    edges2.get(i).vertices[1].addEdge(edges2.get(i));
-	}
-	
-	ArrayList<IFace> faces2 = new ArrayList<IFace>();
-	for(int i=0; i<faces.size(); i++){
-	    IEdge[] faceEdges = new IEdge[faces.get(i).edgeNum()];
-	    for(int j=0; j<faces.get(i).edgeNum(); j++){
-		if(removedEdge.contains(faces.get(i).edges[j])){
-		    faceEdges[j] = replacingEdge.get(removedEdge.indexOf(faces.get(i).edges[j]));
-		}
-		else{ faceEdges[j] =faces.get(i).edges[j]; }
-		//IG.err("face "+i+", "+j+": "+faceEdges[j].vertices[0].pos+" - "+faceEdges[j].vertices[1].pos);
-	    }
-	    faces2.add(new IFace(faceEdges));
-	}
+	ArrayList<IFace> faces2 = welder.rebuild(faces);
+	ArrayList<IVertex> vertices2 = IMeshWelder.collectVertices(faces2);
+	ArrayList<IEdge> edges2 = IMeshWelder.collectEdges(faces2);
 	
 	synchronized(IG.lock){ // IG.lock or IG.dynamicServer() ?
 	    vertices.clear();
+	    vertices.addAll(vertices2);
 	    edges.clear();
-	    faces = faces2;
-	    for(int i=0; i<faces2.size(); i++){
-		IFace f = faces2.get(i);
-		for(int j=0; j<f.vertices.length; j++){
-		    if(!vertices.contains(f.vertices[j])) vertices.add(f.vertices[j]);
-		}
-		for(int j=0; j<f.edges.length; j++){
-		    if(!edges.contains(f.edges[j])) edges.add(f.edges[j]);
-		}
-	    }
+	    edges.addAll(edges2);
+	    faces.clear();
+	    faces.addAll(faces2);
 	}
 	return this;
     }
     
     
     /** remove duplicated vertices and edges */
-    //public static IMeshGeo unify(IMeshGeo mesh){ return unify(mesh, IConfig.tolerance); }
+    public static IMeshGeo unify(IMeshGeo mesh){ return unify(mesh, IConfig.tolerance); }
     
-    /** remove duplicated vertices and edges */
-    /*
+    /** create a new mesh out of faces of the input mesh removing duplicated vertices and edges.
+	vertices and edges are shared with the input mesh and relinked. */
     public static IMeshGeo unify(IMeshGeo mesh, double tolerance){
-	ArrayList<IVertex> vertices = new ArrayList<IVertex>(mesh.vertices);
-	ArrayList<IEdge> edges = new ArrayList<IEdge>(mesh.edges);
-	ArrayList<IFace> faces = new ArrayList<IFace>(mesh.faces);
-
-	ArrayList<IVertex> removedVertex = new ArrayList<IVertex>();
-	ArrayList<IVertex> replacingVertex = new ArrayList<IVertex>();
-
-	for(int i=0; i<vertices.size()-1; i++){
-	    IVertex v1 = vertices.get(i);
-	    for(int j=i+1; j<vertices.size(); j++){
-		IVertex v2 = vertices.get(j);
-		if(v1.eq(v2, tolerance)){
-		    //v2.replaceVertex(v1); // this is buggy
-		    vertices.remove(j);
-		    j--;
-		    removedVertex.add(v2);
-		    replacingVertex.add(v1);
-		    //IG.err("replacing v2="+v2.pos+", v1="+v1.pos); //
-		}
-	    }
-	}
-	
-	for(int i=0; i<vertices.size(); i++){
-	    vertices.get(i).edges.clear();
-	    vertices.get(i).faces.clear();
-	    vertices.get(i).linkedVertices.clear();
-	}
-	
-	ArrayList<IEdge> removedEdge = new ArrayList<IEdge>();
-	ArrayList<IEdge> replacingEdge = new ArrayList<IEdge>();
-	for(int i=0; i<edges.size()-1; i++){
-	    IEdge e1 = edges.get(i);
-	    for(int j=i+1; j<edges.size(); j++){
-		IEdge e2 = edges.get(j);
-		if(e1.eq(e2, tolerance)){
-		    edges.remove(j);
-		    j--;
-		    removedEdge.add(e2);
-		    replacingEdge.add(e1);
-		}
-	    }
-	}
-	for(int i=0; i<edges.size(); i++){
-	    if( removedVertex.contains( edges.get(i).vertices[0] ) ){
-		edges.get(i).vertices[0] = replacingVertex.get(removedVertex.indexOf( edges.get(i).vertices[0] ));
-	    }
-	    if( removedVertex.contains( edges.get(i).vertices[1] ) ){
-		edges.get(i).vertices[1] = replacingVertex.get(removedVertex.indexOf( edges.get(i).vertices[1] ));
-	    }
-	    edges.get(i).faces.clear();
-	    edges.get(i).vertices[0].addEdge(edges.get(i));
-	    edges.get(i).vertices[1].addEdge(edges.get(i));
-	}
-	
-	IFace[] newFaces = new IFace[faces.size()];
-	for(int i=0; i<faces.size(); i++){
-	    IEdge[] faceEdges = new IEdge[faces.get(i).edgeNum()];
-	    for(int j=0; j<faces.get(i).edgeNum(); j++){
-		if(removedEdge.contains(faces.get(i).edges[j])){
-		    faceEdges[j] = replacingEdge.get(removedEdge.indexOf(faces.get(i).edges[j]));
-		}
-		else{ faceEdges[j] =faces.get(i).edges[j]; }
-		//IG.err("face "+i+", "+j+": "+faceEdges[j].vertices[0].pos+" - "+faceEdges[j].vertices[1].pos);
-	    }
-	    newFaces[i] = new IFace(faceEdges);
-	}
-	return new IMeshGeo(newFaces);
+	IMeshGeo m = new IMeshGeo(new IIndexedList<IVertex>(mesh.vertices),
+				  new IIndexedList<IEdge>(mesh.edges),
+				  new IIndexedList<IFace>(mesh.faces));
+	return m.removeDuplicates(tolerance);
     }
-    */
+    
+    
     
     
     /*************************************************
@@ -0,0 +1,320 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+   Spatial hash welder to merge vertices of a mesh within tolerance and
+   remap edges and faces through index tables.
+   Vertices are processed in the order of the input list and each vertex
+   is merged into the earliest preceding representative vertex within tolerance,
+   checking only the 27 hash cells around it.
+   
+   @author Satoru Sugihara
+*/
+public class IMeshWelder{
+    
+    public double tolerance;
+    
+    /** vertices to be welded. vertices referred only by edges are appended at the end */
+    public ArrayList<IVertex> vertices;
+    public ArrayList<IEdge> edges;
+    
+    /** index of representative vertex for each vertex */
+    public int[] vertexMap;
+    /** index of representative edge for each edge */
+    public int[] edgeMap;
+    
+    public int removedVertexNum=0;
+    public int removedEdgeNum=0;
+    
+    public IdentityHashMap<IVertex,Integer> vertexIndex;
+    public IdentityHashMap<IEdge,Integer> edgeIndex;
+    
+    
+    public IMeshWelder(ArrayList<IVertex> vertices, ArrayList<IEdge> edges, double tolerance){
+	this.tolerance = tolerance;
+	this.vertices = new ArrayList<IVertex>(vertices);
+	this.edges = edges;
+	
+	vertexIndex = new IdentityHashMap<IVertex,Integer>(this.vertices.size()*2);
+	for(int i=0; i<this.vertices.size(); i++){
+	    IVertex v = this.vertices.get(i);
+	    if(!vertexIndex.containsKey(v)) vertexIndex.put(v, i);
+	}
+	for(int i=0; i<edges.size(); i++){
+	    for(int j=0; j<edges.get(i).vertices.length; j++){
+		IVertex v = edges.get(i).vertices[j];
+		if(!vertexIndex.containsKey(v)){
+		    vertexIndex.put(v, this.vertices.size());
+		    this.vertices.add(v);
+		}
+	    }
+	}
+	
+	weldVertices();
+	weldEdges();
+    }
+    
+    
+    public boolean hasDuplicates(){ return removedVertexNum>0 || removedEdgeNum>0; }
+    
+    
+    public IVertex getVertex(IVertex v){
+	Integer idx = vertexIndex.get(v);
+	if(idx==null) return v;
+	return vertices.get(vertexMap[idx]);
+    }
+    
+    public IEdge getEdge(IEdge e){
+	Integer idx = edgeIndex.get(e);
+	if(idx==null) return e;
+	return edges.get(edgeMap[idx]);
+    }
+    
+    
+    void weldVertices(){
+	int num = vertices.size();
+	vertexMap = new int[num];
+	
+	double[] x = new double[num];
+	double[] y = new double[num];
+	double[] z = new double[num];
+	for(int i=0; i<num; i++){
+	    IVec p = vertices.get(i).pos.get();
+	    x[i] = p.x; y[i] = p.y; z[i] = p.z;
+	}
+	
+	LongIntMap cells = new LongIntMap(num);
+	int[] next = new int[num]; // chain of representatives in the same cell
+	double tol2 = tolerance*tolerance;
+	
+	for(int i=0; i<num; i++){
+	    int found = -1;
+	    if(tolerance>0){
+		long cx = (long)Math.floor(x[i]/tolerance);
+		long cy = (long)Math.floor(y[i]/tolerance);
+		long cz = (long)Math.floor(z[i]/tolerance);
+		for(long ix=cx-1; ix<=cx+1; ix++){
+		    for(long iy=cy-1; iy<=cy+1; iy++){
+			for(long iz=cz-1; iz<=cz+1; iz++){
+			    for(int j=cells.get(cellKey(ix,iy,iz)); j>=0; j=next[j]){
+				if((found<0 || j<found) &&
+				   dist2(x,y,z,i,j) <= tol2) found = j;
+			    }
+			}
+		    }
+		}
+		if(found<0){
+		    long key = cellKey(cx,cy,cz);
+		    next[i] = cells.get(key);
+		    cells.put(key, i);
+		}
+	    }
+	    else{ // exact match only
+		long key = exactKey(x[i],y[i],z[i]);
+		for(int j=cells.get(key); j>=0; j=next[j]){
+		    if((found<0 || j<found) &&
+		       x[i]==x[j] && y[i]==y[j] && z[i]==z[j]) found = j;
+		}
+		if(found<0){
+		    next[i] = cells.get(key);
+		    cells.put(key, i);
+		}
+	    }
+	    if(found<0) vertexMap[i] = i;
+	    else{
+		vertexMap[i] = found;
+		removedVertexNum++;
+	    }
+	}
+    }
+    
+    
+    void weldEdges(){
+	int num = edges.size();
+	edgeMap = new int[num];
+	edgeIndex = new IdentityHashMap<IEdge,Integer>(num*2);
+	LongIntMap edgeKeys = new LongIntMap(num);
+	for(int i=0; i<num; i++){
+	    IEdge e = edges.get(i);
+	    if(edgeIndex.containsKey(e)){ // same instance listed twice
+		edgeMap[i] = edgeMap[edgeIndex.get(e)];
+		removedEdgeNum++;
+		continue;
+	    }
+	    edgeIndex.put(e, i);
+	    
+	    int v1 = vertexMap[vertexIndex.get(e.vertices[0])];
+	    int v2 = vertexMap[vertexIndex.get(e.vertices[1])];
+	    long key = v1<v2 ? ((long)v1<<32)|v2 : ((long)v2<<32)|v1;
+	    int found = edgeKeys.get(key);
+	    if(found<0){
+		edgeKeys.put(key, i);
+		edgeMap[i] = i;
+	    }
+	    else{
+		edgeMap[i] = found;
+		removedEdgeNum++;
+	    }
+	}
+    }
+    
+    
+    /**
+       relinks representative vertices and edges and rebuilds faces through the index tables.
+       @return rebuilt faces
+    */
+    public ArrayList<IFace> rebuild(ArrayList<IFace> faces){
+	
+	for(int i=0; i<vertices.size(); i++){
+	    if(vertexMap[i]==i){
+		IVertex v = vertices.get(i);
+		v.edges.clear();
+		v.faces.clear();
+		v.linkedVertices.clear();
+	    }
+	}
+	
+	for(int i=0; i<edges.size(); i++){
+	    if(edgeMap[i]==i){
+		IEdge e = edges.get(i);
+		e.vertices[0] = getVertex(e.vertices[0]);
+		e.vertices[1] = getVertex(e.vertices[1]);
+		e.faces.clear();
+		e.vertices[0].addEdge(e);
+		e.vertices[1].addEdge(e);
+	    }
+	}
+	
+	ArrayList<IFace> faces2 = new ArrayList<IFace>(faces.size());
+	for(int i=0; i<faces.size(); i++){
+	    IFace f = faces.get(i);
+	    IEdge[] faceEdges = new IEdge[f.edgeNum()];
+	    for(int j=0; j<faceEdges.length; j++) faceEdges[j] = getEdge(f.edges[j]);
+	    faces2.add(new IFace(faceEdges));
+	}
+	return faces2;
+    }
+    
+    
+    /** collect vertices of faces in order without duplication */
+    public static ArrayList<IVertex> collectVertices(ArrayList<IFace> faces){
+	ArrayList<IVertex> vertices = new ArrayList<IVertex>();
+	IdentityHashMap<IVertex,IVertex> added = new IdentityHashMap<IVertex,IVertex>();
+	for(int i=0; i<faces.size(); i++){
+	    IFace f = faces.get(i);
+	    for(int j=0; j<f.vertices.length; j++){
+		if(added.put(f.vertices[j], f.vertices[j])==null) vertices.add(f.vertices[j]);
+	    }
+	}
+	return vertices;
+    }
+    
+    /** collect edges of faces in order without duplication */
+    public static ArrayList<IEdge> collectEdges(ArrayList<IFace> faces){
+	ArrayList<IEdge> edges = new ArrayList<IEdge>();
+	IdentityHashMap<IEdge,IEdge> added = new IdentityHashMap<IEdge,IEdge>();
+	for(int i=0; i<faces.size(); i++){
+	    IFace f = faces.get(i);
+	    for(int j=0; j<f.edges.length; j++){
+		if(added.put(f.edges[j], f.edges[j])==null) edges.add(f.edges[j]);
+	    }
+	}
+	return edges;
+    }
+    
+    
+    static double dist2(double[] x, double[] y, double[] z, int i, int j){
+	double dx = x[i]-x[j], dy = y[i]-y[j], dz = z[i]-z[j];
+	return dx*dx + dy*dy + dz*dz;
+    }
+    
+    /** packing 21 bits of each cell index. wrapped cells only add candidates to be checked by distance */
+    static long cellKey(long cx, long cy, long cz){
+	return ((cx&0x1FFFFFL)<<42) | ((cy&0x1FFFFFL)<<21) | (cz&0x1FFFFFL);
+    }
+    
+    static long exactKey(double x, double y, double z){
+	long h = Double.doubleToLongBits(x+0.0); // +0.0 to unify -0.0
+	h = h*31 + Double.doubleToLongBits(y+0.0);
+	h = h*31 + Double.doubleToLongBits(z+0.0);
+	return h;
+    }
+    
+    
+    /**
+       open addressing hash map from long key to non-negative int value. get returns -1 if not found.
+    */
+    static class LongIntMap{
+	long[] keys;
+	int[] values;
+	int size=0;
+	int mask;
+	
+	LongIntMap(int capacity){
+	    int n = 16;
+	    while(n < capacity*2) n<<=1;
+	    keys = new long[n];
+	    values = new int[n];
+	    java.util.Arrays.fill(values, -1);
+	    mask = n-1;
+	}
+	
+	int slot(long key){
+	    long h = key*0x9E3779B97F4A7C15L;
+	    return (int)(h^(h>>>32)) & mask;
+	}
+	
+	int get(long key){
+	    for(int i=slot(key); values[i]>=0; i=(i+1)&mask){
+		if(keys[i]==key) return values[i];
+	    }
+	    return -1;
+	}
+	
+	void put(long key, int value){
+	    int i=slot(key);
+	    for(; values[i]>=0; i=(i+1)&mask){
+		if(keys[i]==key){ values[i]=value; return; }
+	    }
+	    keys[i]=key;
+	    values[i]=value;
+	    size++;
+	    if(size*2 > keys.length) grow();
+	}
+	
+	void grow(){
+	    long[] keys2 = keys;
+	    int[] values2 = values;
+	    keys = new long[keys2.length*2];
+	    values = new int[keys2.length*2];
+	    java.util.Arrays.fill(values, -1);
+	    mask = keys.length-1;
+	    size=0;
+	    for(int i=0; i<keys2.length; i++) if(values2[i]>=0) put(keys2[i], values2[i]);
+	}
+    }
+}
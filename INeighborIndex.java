@@ -0,0 +1,178 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+package igeo;
+
+import java.util.ArrayList;
+
+/**
+   Uniform grid index of positions of IParticleI dynamics to find neighbors within a radius
+   without checking all pairs. Cells are stored in a hash table which is rebuilt in linear time.
+   
+   @author Satoru Sugihara
+*/
+public class INeighborIndex{
+    
+    /** size of a cubic cell. if zero or negative, it's decided by the number and the extent of positions */
+    public double cellSize;
+    
+    /** indexed dynamics; only IParticleI are indexed */
+    public IDynamics[] items;
+    /** copy of positions of items at the time of build */
+    public double[] x, y, z;
+    /** cell coordinates of items */
+    public int[] cx, cy, cz;
+    /** number of indexed items */
+    public int num;
+    
+    /** item indices sorted by hash bucket */
+    public int[] bucketItems;
+    /** start index in bucketItems of each bucket. length is bucket number + 1 */
+    public int[] bucketStart;
+    public int bucketMask;
+    
+    /** cell size used in the last build */
+    public double currentCellSize;
+    /** largest radius queried since the last build; used to decide cell size in the next build */
+    public double maxQueryRadius=0;
+    
+    public INeighborIndex(){ cellSize=-1; }
+    public INeighborIndex(double cellSize){ this.cellSize=cellSize; }
+    
+    public INeighborIndex cellSize(double size){ cellSize=size; return this; }
+    public double cellSize(){ return cellSize; }
+    
+    public int num(){ return num; }
+    
+    /** build index out of IParticleI in the list. other dynamics are ignored. */
+    public synchronized INeighborIndex build(ArrayList<IDynamics> dynamics){
+	int n = dynamics.size();
+	if(items==null || items.length<n){
+	    items = new IDynamics[n];
+	    x = new double[n]; y = new double[n]; z = new double[n];
+	    cx = new int[n]; cy = new int[n]; cz = new int[n];
+	}
+	
+	num=0;
+	double minx=0,miny=0,minz=0,maxx=0,maxy=0,maxz=0;
+	for(int i=0; i<n; i++){
+	    IDynamics d = dynamics.get(i);
+	    if(d instanceof IParticleI){
+		IVec p = ((IParticleI)d).pos();
+		items[num]=d; x[num]=p.x; y[num]=p.y; z[num]=p.z;
+		if(num==0){ minx=maxx=p.x; miny=maxy=p.y; minz=maxz=p.z; }
+		else{
+		    if(p.x<minx) minx=p.x; else if(p.x>maxx) maxx=p.x;
+		    if(p.y<miny) miny=p.y; else if(p.y>maxy) maxy=p.y;
+		    if(p.z<minz) minz=p.z; else if(p.z>maxz) maxz=p.z;
+		}
+		num++;
+	    }
+	}
+	for(int i=num; i<n; i++) items[i]=null; // release old references
+	
+	// cell size
+	if(cellSize>0){ currentCellSize=cellSize; }
+	else if(maxQueryRadius>0){ currentCellSize=maxQueryRadius; }
+	else{
+	    // about one item per cell over the bounding box
+	    double ext = Math.max(maxx-minx, Math.max(maxy-miny, maxz-minz));
+	    currentCellSize = num>0? ext/Math.cbrt(num) : 0;
+	}
+	if(!(currentCellSize>IConfig.tolerance)) currentCellSize = IConfig.tolerance;
+	maxQueryRadius=0;
+	
+	// bucket number is power of 2 larger than 2 * item number
+	int bnum=16;
+	while(bnum < num*2) bnum<<=1;
+	bucketMask=bnum-1;
+	if(bucketStart==null || bucketStart.length!=bnum+1) bucketStart = new int[bnum+1];
+	else for(int i=0; i<=bnum; i++) bucketStart[i]=0;
+	if(bucketItems==null || bucketItems.length<num) bucketItems = new int[num];
+	
+	// counting sort by bucket
+	for(int i=0; i<num; i++){
+	    cx[i] = cell(x[i]); cy[i] = cell(y[i]); cz[i] = cell(z[i]);
+	    bucketStart[bucket(cx[i],cy[i],cz[i])+1]++;
+	}
+	for(int i=0; i<bnum; i++) bucketStart[i+1]+=bucketStart[i];
+	int[] fill = new int[bnum];
+	for(int i=0; i<num; i++){
+	    int b = bucket(cx[i],cy[i],cz[i]);
+	    bucketItems[bucketStart[b]+fill[b]] = i;
+	    fill[b]++;
+	}
+	return this;
+    }
+    
+    public int cell(double v){ return (int)Math.floor(v/currentCellSize); }
+    
+    public int bucket(int i, int j, int k){
+	return (i*73856093 ^ j*19349663 ^ k*83492791) & bucketMask;
+    }
+    
+    /** find indexed dynamics whose position is within radius from pos. */
+    public ArrayList<IDynamics> neighbors(IVecI pos, double radius){
+	return neighbors(pos, radius, new ArrayList<IDynamics>());
+    }
+    
+    /** find indexed dynamics whose position is within radius from pos and add them to result.
+	@return result
+    */
+    public ArrayList<IDynamics> neighbors(IVecI pos, double radius, ArrayList<IDynamics> result){
+	if(radius > maxQueryRadius){
+	    synchronized(this){ if(radius > maxQueryRadius) maxQueryRadius=radius; }
+	}
+	if(num==0 || radius<0) return result;
+	
+	IVec p = pos.get();
+	double r2 = radius*radius;
+	int minx = cell(p.x-radius), maxx = cell(p.x+radius);
+	int miny = cell(p.y-radius), maxy = cell(p.y+radius);
+	int minz = cell(p.z-radius), maxz = cell(p.z+radius);
+	
+	// too many cells to visit. checking all items is faster
+	if((double)(maxx-minx+1)*(maxy-miny+1)*(maxz-minz+1) > num){
+	    for(int i=0; i<num; i++){
+		double dx=x[i]-p.x, dy=y[i]-p.y, dz=z[i]-p.z;
+		if(dx*dx+dy*dy+dz*dz <= r2) result.add(items[i]);
+	    }
+	    return result;
+	}
+	
+	for(int i=minx; i<=maxx; i++){
+	    for(int j=miny; j<=maxy; j++){
+		for(int k=minz; k<=maxz; k++){
+		    int b = bucket(i,j,k);
+		    for(int l=bucketStart[b]; l<bucketStart[b+1]; l++){
+			int idx = bucketItems[l];
+			// other cells can share the same bucket
+			if(cx[idx]!=i || cy[idx]!=j || cz[idx]!=k) continue;
+			double dx=x[idx]-p.x, dy=y[idx]-p.y, dz=z[idx]-p.z;
+			if(dx*dx+dy*dy+dz*dz <= r2) result.add(items[idx]);
+		    }
+		}
+	    }
+	}
+	return result;
+    }
+    
+}
@@ -31,6 +31,26 @@ public class IParameterObject /*extends*/ implements ISubobject{
     
     public IObject parent;
     
+    /** epoch of values cached by reference parameters (IVecR and IDoubleR). cached values are valid while this is unchanged. */
+    public static volatile int cacheEpoch=0;
+    
+    /** thread in which values of reference parameters are cached. null when not caching */
+    static volatile Thread cacheThread;
+    
+    /** invalidates values cached by reference parameters. called at redraw, dynamics update and update of reference parameters.
+	this needs to be called when a leaf parameter (like IVec or IDouble) referred by reference parameters is changed directly while caching. */
+    public static void invalidateCache(){ cacheEpoch++; }
+    
+    /** start caching values of reference parameters in the current thread when IConfig.cacheReferenceParameters is true.
+	called at the beginning of a draw pass. leaf parameters should not be changed until endCache() without invalidateCache(). */
+    public static void beginCache(){ cacheEpoch++; cacheThread = Thread.currentThread(); }
+    
+    /** stop caching values of reference parameters */
+    public static void endCache(){ cacheThread = null; cacheEpoch++; }
+    
+    /** true if values of reference parameters are cached in the current thread */
+    public static boolean isCaching(){ return IConfig.cacheReferenceParameters && cacheThread==Thread.currentThread(); }
+    
     /**
        default constractor doesn't instantiate parent IObject
     */
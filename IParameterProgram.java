@@ -0,0 +1,471 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+   Reference parameter graph (IVecR, IDoubleR and their operators) compiled into a linear program over registers in double[].
+   Operators are sorted so that each is executed after its inputs and every operator shared in the graph is executed once.
+   Each leaf IVec or IDouble is an input whose value is loaded into registers by load()
+   and can be replaced in the register array to evaluate the graph with another parameter set.
+   Operators the compiler doesn't know are evaluated by their own get() or x().
+   A program is not changed by run() and the same program can run on multiple threads with separate register arrays.
+   <pre>
+   IParameterProgram prog = new IParameterProgram();
+   int out = prog.compile(vecR); // register of x of vecR. y and z follow
+   int in = prog.input(leafVec); // register of x of leafVec
+   double[] reg = prog.registers();
+   reg[in] = 10;
+   prog.run(reg);
+   double x = reg[out];
+   </pre>
+   
+   @author Satoru Sugihara
+*/
+public class IParameterProgram{
+    
+    /** vector operations. operands are first registers of vectors except scalar operands */
+    public static final int VecAdd=1, VecSub=2, VecMul=3, VecDiv=4, VecNeg=5, VecXYZ=6, VecFromX=7, VecFromY=8, VecFromZ=9,
+	VecCross=10, VecRot=11, VecRot2=12, VecUnit=13, VecSetLen=14, VecOperator=15;
+    /** scalar operations */
+    public static final int Add=20, Sub=21, Mul=22, Div=23, Neg=24, Inv=25, Abs=26, Pow=27, Sq=28, Sqrt=29,
+	Exp=30, Log=31, Sin=32, Cos=33, Tan=34, ASin=35, ACos=36, ATan=37, ATan2=38, Deg=39, Rad=40,
+	Dot=41, Len=42, Len2=43, Dist=44, Dist2=45, DoubleOperator=46;
+    
+    /** number of ints of one instruction: opcode, destination and three operands */
+    public static final int instructionSize = 5;
+    
+    public int[] code;
+    public int codeLength;
+    public int registerNum;
+    
+    public ArrayList<IVec> vecInputs;
+    public ArrayList<Integer> vecInputRegisters;
+    public ArrayList<IDouble> doubleInputs;
+    public ArrayList<Integer> doubleInputRegisters;
+    
+    /** operators not compiled. evaluated by get() or x() at run */
+    public ArrayList<IVecOp> vecOperators;
+    public ArrayList<IDoubleOp> doubleOperators;
+    
+    /** register of each compiled node */
+    IdentityHashMap<Object,Integer> registers;
+    
+    public IParameterProgram(){
+	code = new int[instructionSize*16];
+	vecInputs = new ArrayList<IVec>();
+	vecInputRegisters = new ArrayList<Integer>();
+	doubleInputs = new ArrayList<IDouble>();
+	doubleInputRegisters = new ArrayList<Integer>();
+	vecOperators = new ArrayList<IVecOp>();
+	doubleOperators = new ArrayList<IDoubleOp>();
+	registers = new IdentityHashMap<Object,Integer>();
+    }
+    
+    /** compile the vector operator. returns the register of x. y and z are in the next two registers */
+    public int compile(IVecOp op){ return compileNode(op); }
+    
+    /** compile the scalar operator. returns its register */
+    public int compile(IDoubleOp op){ return compileNode(op); }
+    
+    /** compile nodes in the graph in post order with an explicit stack as the graph can be deeper than the call stack */
+    int compileNode(Object root){
+	Integer r = registers.get(root);
+	if(r!=null) return r;
+	ArrayList<Object> stack = new ArrayList<Object>();
+	IdentityHashMap<Object,Boolean> expanded = new IdentityHashMap<Object,Boolean>();
+	stack.add(root);
+	while(stack.size()>0){
+	    Object node = stack.get(stack.size()-1);
+	    if(registers.containsKey(node)){ stack.remove(stack.size()-1); continue; }
+	    Object[] in = inputs(node);
+	    if(!expanded.containsKey(node)){
+		expanded.put(node, Boolean.TRUE);
+		for(int i=in.length-1; i>=0; i--){
+		    if(!registers.containsKey(in[i])) stack.add(in[i]);
+		}
+		continue;
+	    }
+	    boolean cyclic=false;
+	    for(int i=0; i<in.length && !cyclic; i++) if(!registers.containsKey(in[i])) cyclic=true;
+	    stack.remove(stack.size()-1);
+	    if(cyclic){
+		IOut.err("cyclic reference in "+node);
+		registers.put(node, emitOperator(node));
+	    }
+	    else registers.put(node, emitNode(node));
+	}
+	return registers.get(root);
+    }
+    
+    /** input nodes of the node. empty for leaves and operators not compiled */
+    static Object[] inputs(Object op){
+	if(op instanceof IVecR) return new Object[]{ ((IVecR)op).operator() };
+	if(op instanceof IVecR.Cache) return new Object[]{ ((IVecR.Cache)op).v };
+	if(op instanceof IVecR.Add) return new Object[]{ ((IVecR.Add)op).v1, ((IVecR.Add)op).v2 };
+	if(op instanceof IVecR.Sub) return new Object[]{ ((IVecR.Sub)op).v1, ((IVecR.Sub)op).v2 };
+	if(op instanceof IVecR.Mul) return new Object[]{ ((IVecR.Mul)op).v, ((IVecR.Mul)op).d };
+	if(op instanceof IVecR.Div) return new Object[]{ ((IVecR.Div)op).v, ((IVecR.Div)op).d };
+	if(op instanceof IVecR.Neg) return new Object[]{ ((IVecR.Neg)op).v };
+	if(op instanceof IVecR.FromXYZ) return new Object[]{ ((IVecR.FromXYZ)op).x, ((IVecR.FromXYZ)op).y, ((IVecR.FromXYZ)op).z };
+	if(op instanceof IVecR.FromX) return new Object[]{ ((IVecR.FromX)op).v, ((IVecR.FromX)op).x };
+	if(op instanceof IVecR.FromY) return new Object[]{ ((IVecR.FromY)op).v, ((IVecR.FromY)op).y };
+	if(op instanceof IVecR.FromZ) return new Object[]{ ((IVecR.FromZ)op).v, ((IVecR.FromZ)op).z };
+	if(op instanceof IVecR.Cross) return new Object[]{ ((IVecR.Cross)op).v1, ((IVecR.Cross)op).v2 };
+	if(op instanceof IVecR.Rot) return new Object[]{ ((IVecR.Rot)op).v, ((IVecR.Rot)op).axis, ((IVecR.Rot)op).angle };
+	if(op instanceof IVecR.Rot2) return new Object[]{ ((IVecR.Rot2)op).v, ((IVecR.Rot2)op).angle };
+	if(op instanceof IVecR.Unit) return new Object[]{ ((IVecR.Unit)op).v };
+	if(op instanceof IVecR.SetLen) return new Object[]{ ((IVecR.SetLen)op).v, ((IVecR.SetLen)op).l };
+	if(op instanceof IVecR.X) return new Object[]{ ((IVecR.X)op).v };
+	if(op instanceof IVecR.Y) return new Object[]{ ((IVecR.Y)op).v };
+	if(op instanceof IVecR.Z) return new Object[]{ ((IVecR.Z)op).v };
+	if(op instanceof IVecR.Dot) return new Object[]{ ((IVecR.Dot)op).v1, ((IVecR.Dot)op).v2 };
+	if(op instanceof IVecR.Len) return new Object[]{ ((IVecR.Len)op).v };
+	if(op instanceof IVecR.Len2) return new Object[]{ ((IVecR.Len2)op).v };
+	if(op instanceof IVecR.Dist) return new Object[]{ ((IVecR.Dist)op).v1, ((IVecR.Dist)op).v2 };
+	if(op instanceof IVecR.Dist2) return new Object[]{ ((IVecR.Dist2)op).v1, ((IVecR.Dist2)op).v2 };
+	
+	if(op instanceof IDoubleR) return new Object[]{ ((IDoubleR)op).operator() };
+	if(op instanceof IDoubleR.Cache) return new Object[]{ ((IDoubleR.Cache)op).v };
+	if(op instanceof IDoubleR.Add) return new Object[]{ ((IDoubleR.Add)op).v1, ((IDoubleR.Add)op).v2 };
+	if(op instanceof IDoubleR.Sub) return new Object[]{ ((IDoubleR.Sub)op).v1, ((IDoubleR.Sub)op).v2 };
+	if(op instanceof IDoubleR.Mul) return new Object[]{ ((IDoubleR.Mul)op).v1, ((IDoubleR.Mul)op).v2 };
+	if(op instanceof IDoubleR.Div) return new Object[]{ ((IDoubleR.Div)op).v1, ((IDoubleR.Div)op).v2 };
+	if(op instanceof IDoubleR.Pow) return new Object[]{ ((IDoubleR.Pow)op).v1, ((IDoubleR.Pow)op).v2 };
+	if(op instanceof IDoubleR.ATan2) return new Object[]{ ((IDoubleR.ATan2)op).y, ((IDoubleR.ATan2)op).x };
+	if(op instanceof IDoubleR.Neg) return new Object[]{ ((IDoubleR.Neg)op).v };
+	if(op instanceof IDoubleR.Inv) return new Object[]{ ((IDoubleR.Inv)op).v };
+	if(op instanceof IDoubleR.Abs) return new Object[]{ ((IDoubleR.Abs)op).v };
+	if(op instanceof IDoubleR.Sq) return new Object[]{ ((IDoubleR.Sq)op).v };
+	if(op instanceof IDoubleR.Sqrt) return new Object[]{ ((IDoubleR.Sqrt)op).v };
+	if(op instanceof IDoubleR.Exp) return new Object[]{ ((IDoubleR.Exp)op).v };
+	if(op instanceof IDoubleR.Log) return new Object[]{ ((IDoubleR.Log)op).v };
+	if(op instanceof IDoubleR.Sin) return new Object[]{ ((IDoubleR.Sin)op).v };
+	if(op instanceof IDoubleR.Cos) return new Object[]{ ((IDoubleR.Cos)op).v };
+	if(op instanceof IDoubleR.Tan) return new Object[]{ ((IDoubleR.Tan)op).v };
+	if(op instanceof IDoubleR.ASin) return new Object[]{ ((IDoubleR.ASin)op).v };
+	if(op instanceof IDoubleR.ACos) return new Object[]{ ((IDoubleR.ACos)op).v };
+	if(op instanceof IDoubleR.ATan) return new Object[]{ ((IDoubleR.ATan)op).v };
+	if(op instanceof IDoubleR.Deg) return new Object[]{ ((IDoubleR.Deg)op).v };
+	if(op instanceof IDoubleR.Rad) return new Object[]{ ((IDoubleR.Rad)op).v };
+	return new Object[0];
+    }
+    
+    /** emit instruction of the node whose inputs are already compiled. returns its register */
+    int emitNode(Object op){
+	Object[] in = inputs(op);
+	int a = in.length>0?registers.get(in[0]):0;
+	int b = in.length>1?registers.get(in[1]):0;
+	int c = in.length>2?registers.get(in[2]):0;
+	
+	if(op instanceof IVecR || op instanceof IVecR.Cache ||
+	   op instanceof IDoubleR || op instanceof IDoubleR.Cache || op instanceof IVecR.X) return a;
+	if(op instanceof IVecR.Y) return a+1;
+	if(op instanceof IVecR.Z) return a+2;
+	if(op instanceof IVec){
+	    int reg = alloc(3);
+	    vecInputs.add((IVec)op);
+	    vecInputRegisters.add(reg);
+	    return reg;
+	}
+	if(op instanceof IDouble){
+	    int reg = alloc(1);
+	    doubleInputs.add((IDouble)op);
+	    doubleInputRegisters.add(reg);
+	    return reg;
+	}
+	
+	if(op instanceof IVecR.Add) return emit(VecAdd, 3, a, b, c);
+	if(op instanceof IVecR.Sub) return emit(VecSub, 3, a, b, c);
+	if(op instanceof IVecR.Mul) return emit(VecMul, 3, a, b, c);
+	if(op instanceof IVecR.Div) return emit(VecDiv, 3, a, b, c);
+	if(op instanceof IVecR.Neg) return emit(VecNeg, 3, a, b, c);
+	if(op instanceof IVecR.FromXYZ) return emit(VecXYZ, 3, a, b, c);
+	if(op instanceof IVecR.FromX) return emit(VecFromX, 3, a, b, c);
+	if(op instanceof IVecR.FromY) return emit(VecFromY, 3, a, b, c);
+	if(op instanceof IVecR.FromZ) return emit(VecFromZ, 3, a, b, c);
+	if(op instanceof IVecR.Cross) return emit(VecCross, 3, a, b, c);
+	if(op instanceof IVecR.Rot) return emit(VecRot, 3, a, b, c);
+	if(op instanceof IVecR.Rot2) return emit(VecRot2, 3, a, b, c);
+	if(op instanceof IVecR.Unit) return emit(VecUnit, 3, a, b, c);
+	if(op instanceof IVecR.SetLen) return emit(VecSetLen, 3, a, b, c);
+	if(op instanceof IVecR.Dot) return emit(Dot, 1, a, b, c);
+	if(op instanceof IVecR.Len) return emit(Len, 1, a, b, c);
+	if(op instanceof IVecR.Len2) return emit(Len2, 1, a, b, c);
+	if(op instanceof IVecR.Dist) return emit(Dist, 1, a, b, c);
+	if(op instanceof IVecR.Dist2) return emit(Dist2, 1, a, b, c);
+	
+	if(op instanceof IDoubleR.Add) return emit(Add, 1, a, b, c);
+	if(op instanceof IDoubleR.Sub) return emit(Sub, 1, a, b, c);
+	if(op instanceof IDoubleR.Mul) return emit(Mul, 1, a, b, c);
+	if(op instanceof IDoubleR.Div) return emit(Div, 1, a, b, c);
+	if(op instanceof IDoubleR.Pow) return emit(Pow, 1, a, b, c);
+	if(op instanceof IDoubleR.ATan2) return emit(ATan2, 1, a, b, c);
+	if(op instanceof IDoubleR.Neg) return emit(Neg, 1, a, b, c);
+	if(op instanceof IDoubleR.Inv) return emit(Inv, 1, a, b, c);
+	if(op instanceof IDoubleR.Abs) return emit(Abs, 1, a, b, c);
+	if(op instanceof IDoubleR.Sq) return emit(Sq, 1, a, b, c);
+	if(op instanceof IDoubleR.Sqrt) return emit(Sqrt, 1, a, b, c);
+	if(op instanceof IDoubleR.Exp) return emit(Exp, 1, a, b, c);
+	if(op instanceof IDoubleR.Log) return emit(Log, 1, a, b, c);
+	if(op instanceof IDoubleR.Sin) return emit(Sin, 1, a, b, c);
+	if(op instanceof IDoubleR.Cos) return emit(Cos, 1, a, b, c);
+	if(op instanceof IDoubleR.Tan) return emit(Tan, 1, a, b, c);
+	if(op instanceof IDoubleR.ASin) return emit(ASin, 1, a, b, c);
+	if(op instanceof IDoubleR.ACos) return emit(ACos, 1, a, b, c);
+	if(op instanceof IDoubleR.ATan) return emit(ATan, 1, a, b, c);
+	if(op instanceof IDoubleR.Deg) return emit(Deg, 1, a, b, c);
+	if(op instanceof IDoubleR.Rad) return emit(Rad, 1, a, b, c);
+	
+	return emitOperator(op);
+    }
+    
+    /** emit instruction to evaluate the operator by itself */
+    int emitOperator(Object op){
+	if(op instanceof IVecOp){
+	    vecOperators.add((IVecOp)op);
+	    return emit(VecOperator, 3, vecOperators.size()-1, 0, 0);
+	}
+	doubleOperators.add((IDoubleOp)op);
+	return emit(DoubleOperator, 1, doubleOperators.size()-1, 0, 0);
+    }
+    
+    /** register of x of the leaf vector of the parameter. -1 if it's not an input of the program */
+    public int input(IVecOp v){
+	while(true){
+	    if(v instanceof IVecR) v = ((IVecR)v).operator();
+	    else if(v instanceof IVecR.Cache) v = ((IVecR.Cache)v).v;
+	    else break;
+	}
+	int i = vecInputs.indexOf(v);
+	if(i<0) return -1;
+	return vecInputRegisters.get(i);
+    }
+    
+    /** register of the leaf scalar of the parameter. -1 if it's not an input of the program */
+    public int input(IDoubleOp d){
+	while(true){
+	    if(d instanceof IDoubleR) d = ((IDoubleR)d).operator();
+	    else if(d instanceof IDoubleR.Cache) d = ((IDoubleR.Cache)d).v;
+	    else break;
+	}
+	int i = doubleInputs.indexOf(d);
+	if(i<0) return -1;
+	return doubleInputRegisters.get(i);
+    }
+    
+    /** new register array with current values of inputs */
+    public double[] registers(){
+	double[] reg = new double[registerNum];
+	load(reg);
+	return reg;
+    }
+    
+    /** copy current values of input leaves into registers */
+    public void load(double[] reg){
+	for(int i=0; i<vecInputs.size(); i++){
+	    IVec v = vecInputs.get(i);
+	    int r = vecInputRegisters.get(i);
+	    reg[r] = v.x;
+	    reg[r+1] = v.y;
+	    reg[r+2] = v.z;
+	}
+	for(int i=0; i<doubleInputs.size(); i++){
+	    reg[doubleInputRegisters.get(i)] = doubleInputs.get(i).x;
+	}
+    }
+    
+    /** execute the program on the registers. results are written into registers of operators */
+    public void run(double[] reg){
+	final int[] code = this.code;
+	final int len = codeLength;
+	for(int pc=0; pc<len; pc+=instructionSize){
+	    int d = code[pc+1], a = code[pc+2], b = code[pc+3], c = code[pc+4];
+	    switch(code[pc]){
+	    case VecAdd:
+		reg[d] = reg[a]+reg[b]; reg[d+1] = reg[a+1]+reg[b+1]; reg[d+2] = reg[a+2]+reg[b+2];
+		break;
+	    case VecSub:
+		reg[d] = reg[a]-reg[b]; reg[d+1] = reg[a+1]-reg[b+1]; reg[d+2] = reg[a+2]-reg[b+2];
+		break;
+	    case VecMul:
+		reg[d] = reg[a]*reg[b]; reg[d+1] = reg[a+1]*reg[b]; reg[d+2] = reg[a+2]*reg[b];
+		break;
+	    case VecDiv:
+		reg[d] = reg[a]/reg[b]; reg[d+1] = reg[a+1]/reg[b]; reg[d+2] = reg[a+2]/reg[b];
+		break;
+	    case VecNeg:
+		reg[d] = -reg[a]; reg[d+1] = -reg[a+1]; reg[d+2] = -reg[a+2];
+		break;
+	    case VecXYZ:
+		reg[d] = reg[a]; reg[d+1] = reg[b]; reg[d+2] = reg[c];
+		break;
+	    case VecFromX:
+		reg[d] = reg[b]; reg[d+1] = reg[a+1]; reg[d+2] = reg[a+2];
+		break;
+	    case VecFromY:
+		reg[d] = reg[a]; reg[d+1] = reg[b]; reg[d+2] = reg[a+2];
+		break;
+	    case VecFromZ:
+		reg[d] = reg[a]; reg[d+1] = reg[a+1]; reg[d+2] = reg[b];
+		break;
+	    case VecCross:
+		reg[d] = reg[a+1]*reg[b+2] - reg[a+2]*reg[b+1];
+		reg[d+1] = reg[a+2]*reg[b] - reg[a]*reg[b+2];
+		reg[d+2] = reg[a]*reg[b+1] - reg[a+1]*reg[b];
+		break;
+	    case VecRot: rot(reg, d, a, b, reg[c]); break;
+	    case VecRot2:{
+		double sin = Math.sin(reg[b]), cos = Math.cos(reg[b]);
+		reg[d] = cos*reg[a] -sin*reg[a+1];
+		reg[d+1] = sin*reg[a] + cos*reg[a+1];
+		reg[d+2] = reg[a+2];
+		break;
+	    }
+	    case VecUnit:{
+		double l = Math.sqrt(reg[a]*reg[a]+reg[a+1]*reg[a+1]+reg[a+2]*reg[a+2]);
+		reg[d] = reg[a]/l; reg[d+1] = reg[a+1]/l; reg[d+2] = reg[a+2]/l;
+		break;
+	    }
+	    case VecSetLen:{
+		double l = reg[b]/Math.sqrt(reg[a]*reg[a]+reg[a+1]*reg[a+1]+reg[a+2]*reg[a+2]);
+		reg[d] = reg[a]*l; reg[d+1] = reg[a+1]*l; reg[d+2] = reg[a+2]*l;
+		break;
+	    }
+	    case VecOperator:{
+		IVec v = vecOperators.get(a).get();
+		reg[d] = v.x; reg[d+1] = v.y; reg[d+2] = v.z;
+		break;
+	    }
+	    case Add: reg[d] = reg[a]+reg[b]; break;
+	    case Sub: reg[d] = reg[a]-reg[b]; break;
+	    case Mul: reg[d] = reg[a]*reg[b]; break;
+	    case Div: reg[d] = reg[a]/reg[b]; break;
+	    case Neg: reg[d] = -reg[a]; break;
+	    case Inv: reg[d] = 1./reg[a]; break;
+	    case Abs: reg[d] = Math.abs(reg[a]); break;
+	    case Pow: reg[d] = Math.pow(reg[a],reg[b]); break;
+	    case Sq: reg[d] = reg[a]*reg[a]; break;
+	    case Sqrt: reg[d] = Math.sqrt(reg[a]); break;
+	    case Exp: reg[d] = Math.exp(reg[a]); break;
+	    case Log: reg[d] = Math.log(reg[a]); break;
+	    case Sin: reg[d] = Math.sin(reg[a]); break;
+	    case Cos: reg[d] = Math.cos(reg[a]); break;
+	    case Tan: reg[d] = Math.tan(reg[a]); break;
+	    case ASin: reg[d] = Math.asin(reg[a]); break;
+	    case ACos: reg[d] = Math.acos(reg[a]); break;
+	    case ATan: reg[d] = Math.atan(reg[a]); break;
+	    case ATan2: reg[d] = Math.atan2(reg[a],reg[b]); break;
+	    case Deg: reg[d] = Math.toDegrees(reg[a]); break;
+	    case Rad: reg[d] = Math.toRadians(reg[a]); break;
+	    case Dot: reg[d] = reg[a]*reg[b]+reg[a+1]*reg[b+1]+reg[a+2]*reg[b+2]; break;
+	    case Len: reg[d] = Math.sqrt(reg[a]*reg[a]+reg[a+1]*reg[a+1]+reg[a+2]*reg[a+2]); break;
+	    case Len2: reg[d] = reg[a]*reg[a]+reg[a+1]*reg[a+1]+reg[a+2]*reg[a+2]; break;
+	    case Dist:{
+		double dx=reg[a]-reg[b], dy=reg[a+1]-reg[b+1], dz=reg[a+2]-reg[b+2];
+		reg[d] = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		break;
+	    }
+	    case Dist2:{
+		double dx=reg[a]-reg[b], dy=reg[a+1]-reg[b+1], dz=reg[a+2]-reg[b+2];
+		reg[d] = dx*dx + dy*dy + dz*dz;
+		break;
+	    }
+	    case DoubleOperator: reg[d] = doubleOperators.get(a).x(); break;
+	    }
+	}
+    }
+    
+    /** run the program on each register array in parallel */
+    public void run(double[][] regs){
+	int threadNum = IConfig.parameterProgramThreadNum;
+	if(threadNum<=0) threadNum = Runtime.getRuntime().availableProcessors();
+	if(threadNum>1 && regs.length>1){
+	    ForkJoinPool pool = new ForkJoinPool(threadNum);
+	    try{ pool.invoke(new RunTask(this, regs, 0, regs.length, Math.max(1, regs.length/(threadNum*4)))); }
+	    finally{ pool.shutdown(); }
+	}
+	else{
+	    for(int i=0; i<regs.length; i++) run(regs[i]);
+	}
+    }
+    
+    /** same arithmetic with IVec.rot(IVec axis, double angle) */
+    static void rot(double[] reg, int d, int v, int axis, double angle){
+	double l = Math.sqrt(reg[axis]*reg[axis]+reg[axis+1]*reg[axis+1]+reg[axis+2]*reg[axis+2]);
+	double ax = reg[axis]/l, ay = reg[axis+1]/l, az = reg[axis+2]/l;
+	double sin = Math.sin(angle);
+	double cos = Math.cos(angle);
+	double icos = 1-cos;
+	double x = reg[v], y = reg[v+1], z = reg[v+2];
+	reg[d] = (ax*ax*icos + cos)*x + (ax*ay*icos - az*sin)*y + (ax*az*icos + ay*sin)*z;
+	reg[d+1] = (ay*ax*icos + az*sin)*x + (ay*ay*icos + cos)*y + (ay*az*icos - ax*sin)*z;
+	reg[d+2] = (az*ax*icos - ay*sin)*x + (az*ay*icos + ax*sin)*y + (az*az*icos + cos)*z;
+    }
+    
+    int alloc(int n){
+	int reg = registerNum;
+	registerNum += n;
+	return reg;
+    }
+    
+    /** append an instruction writing into newly allocated registers and returns the first of them */
+    int emit(int opcode, int size, int a, int b, int c){
+	if(codeLength+instructionSize > code.length){
+	    int[] code2 = new int[code.length*2];
+	    System.arraycopy(code,0,code2,0,codeLength);
+	    code = code2;
+	}
+	int d = alloc(size);
+	code[codeLength++] = opcode;
+	code[codeLength++] = d;
+	code[codeLength++] = a;
+	code[codeLength++] = b;
+	code[codeLength++] = c;
+	return d;
+    }
+    
+    static class RunTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	IParameterProgram program;
+	double[][] regs;
+	int from, to, grain;
+	RunTask(IParameterProgram program, double[][] regs, int from, int to, int grain){
+	    this.program=program; this.regs=regs; this.from=from; this.to=to; this.grain=grain;
+	}
+	protected void compute(){
+	    if(to-from<=grain){
+		for(int i=from; i<to; i++) program.run(regs[i]);
+	    }
+	    else{
+		int mid = (from+to)>>>1;
+		invokeAll(new RunTask(program, regs, from, mid, grain),
+			  new RunTask(program, regs, mid, to, grain));
+	    }
+	}
+    }
+}
@@ -40,16 +40,9 @@ public class IPointFieldGeo extends IFieldGeo implements I3DFieldI{
     /** get 3D vector field value */
     public IVecI get(IVecI v){
 	double r = intensity;
-	if(pos!=null){
-	    if(decay == Decay.Linear){
-		double dist = pos.dist(v);
-		if(dist >= threshold) return new IVec(); // zero
-		if(threshold>0) r *= (threshold-dist)/threshold;
-	    }
-	    else if(decay == Decay.Gaussian){
-		double dist = pos.dist(v);
-		if(threshold>0) r *= Math.exp(-2*dist*dist/(threshold*threshold));
-	    }
+	if(pos!=null && decay != Decay.None){
+	    r = decayIntensity(pos.dist(v));
+	    if(r==0) return new IVec(); // zero
 	}
 	IVecI vec = get(v,pos);
 	if(constantIntensity){
@@ -60,6 +53,30 @@ public class IPointFieldGeo extends IFieldGeo implements I3DFieldI{
 	return vec.mul(r);
     }
     
+    /** get 3D vector field values at count of locations in xyzIn as x,y,z sequence into xyzOut */
+    public void get(double[] xyzIn, double[] xyzOut, int count){
+	IVec p = pos==null?null:pos.get();
+	IVec v = new IVec();
+	for(int i=0; i<count; i++){
+	    double x = xyzIn[i*3], y = xyzIn[i*3+1], z = xyzIn[i*3+2];
+	    double r = intensity;
+	    if(p!=null && decay != Decay.None){
+		double dx = x-p.x, dy = y-p.y, dz = z-p.z;
+		r = decayIntensity(Math.sqrt(dx*dx+dy*dy+dz*dz));
+		if(r==0){ xyzOut[i*3]=xyzOut[i*3+1]=xyzOut[i*3+2]=0; continue; } // zero
+	    }
+	    v.set(x,y,z);
+	    IVec vec = get(v,pos).get();
+	    if(constantIntensity){
+		double len = vec.len();
+		if(len<IConfig.tolerance){ r=0; } else{ r/=len; }
+	    }
+	    xyzOut[i*3] = vec.x*r;
+	    xyzOut[i*3+1] = vec.y*r;
+	    xyzOut[i*3+2] = vec.z*r;
+	}
+    }
+    
     public IVec pos(){ return pos.get(); }
     public IVec dir(){ return dir.get(); }
     
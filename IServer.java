@@ -23,6 +23,7 @@
 package igeo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.awt.Color;
 import igeo.gui.*;
 
@@ -37,6 +38,8 @@ import igeo.gui.*;
 public class IServer implements IServerI{
     
     public ArrayList<IObject> objects; // elements
+    /** objects partitioned by type for typed queries */
+    public ITypeIndex typeIndex;
     //ArrayList<IGraphicObject> graphics;
     //public ArrayList<IDynamicObject> dynamics;
     
@@ -58,7 +61,8 @@ public class IServer implements IServerI{
     // non graphic mode
     public IServer(IG ig){
 	this.ig =ig;
-	objects = new ArrayList<IObject>();
+	objects = new IIdentityList<IObject>();
+	typeIndex = new ITypeIndex();
 	//graphics = new ArrayList<IGraphicObject>();
 	//dynamics = new ArrayList<IDynamicObject>();
 	//graphicServer = new IGraphicServer(this);
@@ -71,7 +75,8 @@ public class IServer implements IServerI{
     // graphic mode
     public IServer(IG ig, IPanelI panel){
 	this.ig =ig;
-	objects = new ArrayList<IObject>();
+	objects = new IIdentityList<IObject>();
+	typeIndex = new ITypeIndex();
 	//graphics = new ArrayList<IGraphicObject>();
 	//dynamics = new ArrayList<IDynamicObject>();
 	//graphicServer = new IGraphicServer(this);
@@ -96,7 +101,7 @@ public class IServer implements IServerI{
     public void add(IObject e){
 	//synchronized(IG.lock){
 	synchronized(ig){
-	    if(!objects.contains(e)) objects.add(e);
+	    if(!objects.contains(e)){ objects.add(e); typeIndex.add(e); }
 	    e.server = this;
 	    if(e instanceof ILayer){ layers.add((ILayer)e); }
 	    //if(isGraphicMode()) graphicServer.add(e);
@@ -172,6 +177,7 @@ public class IServer implements IServerI{
 		IObject e = objects.get(i);
 		for(int j=0; j<e.dynamics.size(); j++) dynamicServer.remove(e.dynamics.get(j)); //removeDynamicObject(e.dynamics.get(j));
 	    }
+	    typeIndex.remove(objects.get(i));
 	    objects.remove(i);
 	    updateState();
 	}
@@ -189,7 +195,7 @@ public class IServer implements IServerI{
 	    if(e.attribute!=null && e.attribute.layer!=null){
 		e.attribute.layer.remove(e); // 20111217
 	    }
-	    objects.remove(e);
+	    if(objects.remove(e)){ typeIndex.remove(e); }
 	    if(e instanceof ILayer){ layers.remove(e); }
 	    updateState();
 	}
@@ -219,6 +225,7 @@ public class IServer implements IServerI{
     //public void delete(){ objects.clear(); }
     public void clear(){
 	objects.clear();
+	typeIndex.clear();
 	//dynamics.clear();
 	if(graphicServer!=null) graphicServer.clearObjects();
 	if(dynamicServer!=null) dynamicServer.clear();
@@ -266,13 +273,7 @@ public class IServer implements IServerI{
 	IPointR objects are not included.
     */
     public IPoint[] points(){
-	ArrayList<IPoint> points = new ArrayList<IPoint>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IPoint)
-		    points.add((IPoint)objects.get(i));
-	}
-	return points.toArray(new IPoint[points.size()]);
+	return typeIndex.points();
     }
     /** alias of points() */
     public IPoint[] getPoints(){ return points(); }
@@ -281,13 +282,7 @@ public class IServer implements IServerI{
 	ICurveR objects are not included.
     */
     public ICurve[] curves(){
-	ArrayList<ICurve> curves = new ArrayList<ICurve>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof ICurve)
-		    curves.add((ICurve)objects.get(i));
-	}
-	return curves.toArray(new ICurve[curves.size()]);
+	return typeIndex.curves();
     }
     /** alias of curves() */
     public ICurve[] getCurves(){ return curves(); }
@@ -296,13 +291,7 @@ public class IServer implements IServerI{
 	ISurfaceR objects are not included.
     */
     public ISurface[] surfaces(){
-	ArrayList<ISurface> surfaces = new ArrayList<ISurface>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof ISurface)
-		    surfaces.add((ISurface)objects.get(i));
-	}
-	return surfaces.toArray(new ISurface[surfaces.size()]);
+	return typeIndex.surfaces();
     }
     /** alias of surfaces() */
     public ISurface[] getSurfaces(){ return surfaces(); }
@@ -311,13 +300,7 @@ public class IServer implements IServerI{
 	IMeshR objects are not included.
     */
     public IMesh[] meshes(){
-	ArrayList<IMesh> meshes = new ArrayList<IMesh>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IMesh)
-		    meshes.add((IMesh)objects.get(i));
-	}
-	return meshes.toArray(new IMesh[meshes.size()]);
+	return typeIndex.meshes();
     }
     /** alias of meshes() */
     public IMesh[] getMeshes(){ return meshes(); }
@@ -326,26 +309,14 @@ public class IServer implements IServerI{
 	IMeshR objects are not included.
     */
     public IBrep[] breps(){
-	ArrayList<IBrep> breps = new ArrayList<IBrep>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IBrep)
-		    breps.add((IBrep)objects.get(i));
-	}
-	return breps.toArray(new IBrep[breps.size()]);
+	return typeIndex.breps();
     }
     /** alias of breps */
     public IBrep[] getBreps(){ return breps(); }
     
     /** Returns all geometry objects contained in objects. */
     public IGeometry[] geometries(){
-	ArrayList<IGeometry> geoms = new ArrayList<IGeometry>();
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IGeometry)
-		    geoms.add((IGeometry)objects.get(i));
-	}
-	return geoms.toArray(new IGeometry[geoms.size()]);
+	return typeIndex.geometries();
     }
     /** alias of breps */
     public IGeometry[] getGeometries(){ return breps(); }
@@ -353,6 +324,11 @@ public class IServer implements IServerI{
     /** Returns all objects of specified class contained in objects.
      */
     public IObject[] objects(Class cls){
+	ITypeIndex.Bucket bucket = typeIndex.bucket(cls);
+	if(bucket!=null){
+	    IObject[] snap = bucket.snapshot();
+	    return Arrays.copyOf(snap, snap.length, IObject[].class);
+	}
 	ArrayList<IObject> objs = new ArrayList<IObject>();
 	synchronized(ig){
 	    for(int i=0; i<objects.size(); i++)
@@ -373,13 +349,7 @@ public class IServer implements IServerI{
 	IPointR objects are not included.
     */
     public IPoint point(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof IPoint)
-		    if(i==curIdx++) return (IPoint)objects.get(j);
-	}
-	return null;
+	return typeIndex.point(i);
     }
     /** alias of point(int) */
     public IPoint getPoint(int i){ return point(i); }
@@ -389,13 +359,7 @@ public class IServer implements IServerI{
 	ICurveR objects are not included.
     */
     public ICurve curve(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof ICurve)
-		    if(i==curIdx++) return (ICurve)objects.get(j);
-	}
-	return null;
+	return typeIndex.curve(i);
     }
     /** alias of curve(int) */
     public ICurve getCurve(int i){ return curve(i); }
@@ -405,13 +369,7 @@ public class IServer implements IServerI{
 	ISurfaceR objects are not included.
     */
     public ISurface surface(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof ISurface)
-		    if(i==curIdx++) return (ISurface)objects.get(j);
-	}
-	return null;
+	return typeIndex.surface(i);
     }
     /** alias of surface(int) */
     public ISurface getSurface(int i){ return surface(i); }
@@ -421,13 +379,7 @@ public class IServer implements IServerI{
 	IMeshR objects are not included.
     */
     public IMesh mesh(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof IMesh)
-		    if(i==curIdx++) return (IMesh)objects.get(j);
-	}
-	return null;
+	return typeIndex.mesh(i);
     }
     /** alias of mesh(int) */
     public IMesh getMesh(int i){ return mesh(i); }
@@ -435,13 +387,7 @@ public class IServer implements IServerI{
     /** Returns i-th IBrep object contained in objects or null if not found.
     */
     public IBrep brep(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof IBrep)
-		    if(i==curIdx++) return (IBrep)objects.get(j);
-	}
-	return null;
+	return typeIndex.brep(i);
     }
     /** alias of brep(int) */
     public IBrep getBrep(int i){ return brep(i); }
@@ -450,13 +396,7 @@ public class IServer implements IServerI{
     /** Returns i-th IGeometry object contained in objects or null if not found.
     */
     public IGeometry geometry(int i){
-	int curIdx=0;
-	synchronized(ig){
-	    for(int j=0; j<objects.size(); j++)
-		if(objects.get(j) instanceof IGeometry)
-		    if(i==curIdx++) return (IGeometry)objects.get(j);
-	}
-	return null;
+	return typeIndex.geometry(i);
     }
     /** alias of geometry(int) */
     public IGeometry getGeometry(int i){ return geometry(i); }
@@ -464,6 +404,8 @@ public class IServer implements IServerI{
     /** Returns i-th object contained in objects or null if not found.
     */
     public IObject object(Class cls, int i){
+	ITypeIndex.Bucket bucket = typeIndex.bucket(cls);
+	if(bucket!=null) return bucket.get(i);
 	int curIdx=0;
 	synchronized(ig){
 	    for(int j=0; j<objects.size(); j++)
@@ -479,36 +421,21 @@ public class IServer implements IServerI{
     
     /** number of IPoint in objects */
     public int pointNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IPoint) num++;
-	}
-	return num;
+	return typeIndex.pointNum();
     }
     /** alias of pointsNum() */
     public int getPointNum(){ return pointNum(); }
     
     /** number of ICurve in objects */
     public int curveNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof ICurve) num++;
-	}
-	return num;
+	return typeIndex.curveNum();
     }
     /** alias of curveNum() */
     public int getCurveNum(){ return curveNum(); }
     
     /** number of ISurface in objects */
     public int surfaceNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof ISurface) num++;
-	}
-	return num;
+	return typeIndex.surfaceNum();
     }
     /** alias of surfaceNum() */
     public int getSurfaceNum(){ return surfaceNum(); }
@@ -516,12 +443,7 @@ public class IServer implements IServerI{
     
     /** number of IMesh in objects */
     public int meshNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IMesh) num++;
-	}
-	return num;
+	return typeIndex.meshNum();
     }
     /** alias of meshNum() */
     public int getMeshNum(){ return meshNum(); }
@@ -529,30 +451,22 @@ public class IServer implements IServerI{
     
     /** number of IBrep in objects */
     public int brepNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IBrep) num++;
-	}
-	return num;
+	return typeIndex.brepNum();
     }
     /** alias of brepNum() */
     public int getBrepNum(){ return brepNum(); }
     
     /** number of the IGeometry in objects */
     public int geometryNum(){
-	int num=0;
-	synchronized(ig){
-	    for(int i=0; i<objects.size(); i++)
-		if(objects.get(i) instanceof IGeometry) num++;
-	}
-	return num;
+	return typeIndex.geometryNum();
     }
     /** alias of geometryNum() */
     public int getGeometryNum(){ return geometryNum(); }
     
     /** number of the specified class in objects */
     public int objectNum(Class cls){
+	ITypeIndex.Bucket bucket = typeIndex.bucket(cls);
+	if(bucket!=null) return bucket.num();
 	int num=0;
 	synchronized(ig){
 	    for(int i=0; i<objects.size(); i++)
@@ -34,6 +34,8 @@ public class ISurfaceCache{
     public int udeg, vdeg;
     public IVec[][] pts;
     public IVec2[][] pts2;
+    /** k-d trees of pts and pts2 for closest point search */
+    public IKdTree tree, tree2;
     
     public ISurfaceCache(ISurfaceGeo surf, int resolution){
 	surface = surf;
@@ -48,52 +50,32 @@ public class ISurfaceCache{
     }
     
     public void init(){
+	tree=null;
 	//if(udeg==1){ uresolution=1; }
 	//if(vdeg==1){ vresolution=1; }
-	int unum = (surface.uepNum()-1)*uresolution + 1;
-	int vnum = (surface.vepNum()-1)*vresolution + 1;
-	pts = new IVec[unum][vnum];
-	int uepnum = surface.uepNum();
-	int vepnum = surface.vepNum();
-	for(int i=0; i<uepnum; i++){
-	    for(int j=0; j<uresolution; j++){
-		if(i<uepnum-1 || j==0){
-		    for(int k=0; k<vepnum; k++){
-			for(int l=0; l<vresolution; l++){
-			    if(k<vepnum-1 || l==0){
-				pts[i*uresolution+j][k*vresolution+l] =
-				    surface.pt(surface.u(i, (double)j/uresolution),
-					       surface.v(k, (double)l/vresolution));
-			    }
-			}
-		    }
-		}
-	    }
-	}
+	pts = gridEvaluator().pts();
     }
     
     public void init2(){
+	tree2=null;
+	IVec[][] p = gridEvaluator().pts();
+	pts2 = new IVec2[p.length][];
+	for(int i=0; i<p.length; i++){
+	    pts2[i] = new IVec2[p[i].length];
+	    for(int j=0; j<p[i].length; j++){ pts2[i][j] = p[i][j].to2d(); }
+	}
+    }
+    
+    /** evaluator on the cache grid; uresolution samples per u span and vresolution per v span */
+    public ISurfaceGridEvaluator gridEvaluator(){
 	int unum = (surface.uepNum()-1)*uresolution + 1;
 	int vnum = (surface.vepNum()-1)*vresolution + 1;
-	pts2 = new IVec2[unum][vnum];
-	int uepnum = surface.uepNum();
-	int vepnum = surface.vepNum();
-	for(int i=0; i<uepnum; i++){
-	    for(int j=0; j<uresolution; j++){
-		if(i<uepnum-1 || j==0){
-		    for(int k=0; k<vepnum; k++){
-			for(int l=0; l<vresolution; l++){
-			    if(k<vepnum-1 || l==0){
-				pts2[i*uresolution+j][k*vresolution+l] =
-				    surface.pt(surface.u(i, (double)j/uresolution),
-					       surface.v(k, (double)l/vresolution)).to2d();
-			    }
-			}
-		    }
-		}
-	    }
-	}
-    }    
+	double[] uval = new double[unum];
+	double[] vval = new double[vnum];
+	for(int i=0; i<unum; i++){ uval[i] = u(i); }
+	for(int i=0; i<vnum; i++){ vval[i] = v(i); }
+	return surface.gridEvaluator(uval, vval);
+    }
     
     
     public double u(int uindex){
@@ -370,6 +352,19 @@ public class ISurfaceCache{
     
     
     public int[] closest(IVec pt){
+	if(tree==null || tree.num!=pts.length*pts[0].length) tree = new IKdTree(pts);
+	int idx = tree.closest(pt);
+	return new int[]{ idx/pts[0].length, idx%pts[0].length };
+    }
+    
+    public int[] closest(IVec2 pt){
+	if(tree2==null || tree2.num!=pts2.length*pts2[0].length) tree2 = new IKdTree(pts2);
+	int idx = tree2.closest(pt);
+	return new int[]{ idx/pts2[0].length, idx%pts2[0].length };
+    }
+    
+    /** linear search of closest point without tree */
+    public int[] closestByScan(IVec pt){
 	int minIdxU=-1, minIdxV=-1;
 	double dist=0, minDist=0;
 	for(int i=0; i<pts.length; i++){
@@ -385,7 +380,8 @@ public class ISurfaceCache{
 	return new int[]{ minIdxU, minIdxV };
     }
     
-    public int[] closest(IVec2 pt){
+    /** linear search of closest point without tree */
+    public int[] closestByScan(IVec2 pt){
 	int minIdxU=-1, minIdxV=-1;
 	double dist=0, minDist=0;
 	for(int i=0; i<pts2.length; i++){
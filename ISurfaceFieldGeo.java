@@ -43,14 +43,9 @@ public class ISurfaceFieldGeo extends IFieldGeo implements I3DFieldI{ //extends
     public IVecI get(IVecI v){
 	IVec2I uv = surface.uv(v);
 	double r = intensity;
-	if(decay == Decay.Linear){
-	    double dist = surface.pt(uv).dist(v);
-	    if(dist >= threshold) return new IVec(); // zero
-	    if(threshold>0) r *= (threshold-dist)/threshold;
-	}
-	else if(decay == Decay.Gaussian){
-	    double dist = surface.pt(uv).dist(v);
-	    if(threshold>0) r *= Math.exp(-2*dist*dist/(threshold*threshold));
+	if(decay != Decay.None){
+	    r = decayIntensity(surface.pt(uv).dist(v));
+	    if(r==0) return new IVec(); // zero
 	}
 	
 	IVecI vec = get(v,uv);
@@ -100,6 +95,28 @@ public class ISurfaceFieldGeo extends IFieldGeo implements I3DFieldI{ //extends
 	*/
     }
     
+    /** get 3D vector field values at count of locations in xyzIn as x,y,z sequence into xyzOut */
+    public void get(double[] xyzIn, double[] xyzOut, int count){
+	IVec v = new IVec();
+	for(int i=0; i<count; i++){
+	    v.set(xyzIn[i*3], xyzIn[i*3+1], xyzIn[i*3+2]);
+	    IVec2I uv = surface.uv(v);
+	    double r = intensity;
+	    if(decay != Decay.None){
+		r = decayIntensity(surface.pt(uv).dist(v));
+		if(r==0){ xyzOut[i*3]=xyzOut[i*3+1]=xyzOut[i*3+2]=0; continue; } // zero
+	    }
+	    IVec vec = get(v,uv).get();
+	    if(constantIntensity){
+		double len = vec.len();
+		if(len<IConfig.tolerance){ r=0; } else{ r/=len; }
+	    }
+	    xyzOut[i*3] = vec.x*r;
+	    xyzOut[i*3+1] = vec.y*r;
+	    xyzOut[i*3+2] = vec.z*r;
+	}
+    }
+    
     /** if output vector is besed on constant length (intensity) or variable depending geometry when curve or surface tangent is used */
     public ISurfaceFieldGeo constantIntensity(boolean b){ super.constantIntensity(b); return this; }
     
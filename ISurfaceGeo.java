@@ -928,6 +928,11 @@ public class ISurfaceGeo extends INurbsGeo implements ISurfaceI, IEntityParamete
 	else IOut.debug(10,"normal is zero"); //
     }
     
+    /** evaluator of points and normals on a grid of u and v. see ISurfaceGridEvaluator */
+    public ISurfaceGridEvaluator gridEvaluator(double[] u, double[] v){
+	return new ISurfaceGridEvaluator(this, u, v);
+    }
+    
     public IVec nrml(IVec2I v){ IVec2 vec=v.get(); return nml(vec.x,vec.y); }
     public IVec nrml(IDoubleI u, IDoubleI v){ return nml(u.x(),v.x()); }
     public IVec nrml(double u, double v){
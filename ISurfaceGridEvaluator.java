@@ -0,0 +1,205 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.Arrays;
+
+/**
+   Evaluator of points and normals of ISurfaceGeo on a grid of u and v parameters.
+   Basis functions and their first derivatives are computed once per u row and v column
+   and kept while the knots stay same, so the grid can be evaluated again after control points move.
+   Control points are blended along u first for each row and then along v,
+   which costs (udeg+1) + (vdeg+1) instead of (udeg+1)*(vdeg+1) per grid point.
+   
+   @author Satoru Sugihara
+*/
+public class ISurfaceGridEvaluator{
+    
+    public ISurfaceGeo surface;
+    /** grid parameters. u index is outer and v index is inner in output arrays */
+    public double[] u, v;
+    
+    public int udeg, vdeg;
+    /** knots used to compute basis. compared to surface knots in isValid() */
+    double[] uknots, vknots;
+    
+    int[] uspan, vspan;
+    /** basis and derivative per u row; (udeg+1) values for each u */
+    double[] nu, dnu;
+    /** basis and derivative per v column; (vdeg+1) values for each v */
+    double[] nv, dnv;
+    
+    /** weighted control points as x*w, y*w, z*w, w */
+    double[] cpts;
+    /** one row of control points blended along u and its u derivative */
+    double[] row, rowU;
+    
+    public ISurfaceGridEvaluator(ISurfaceGeo surf, double[] u, double[] v){
+	surface = surf;
+	this.u = u;
+	this.v = v;
+	init();
+    }
+    
+    public int unum(){ return u.length; }
+    public int vnum(){ return v.length; }
+    
+    public void init(){
+	udeg = surface.udegree;
+	vdeg = surface.vdegree;
+	uknots = surface.uknots.clone();
+	vknots = surface.vknots.clone();
+	
+	uspan = new int[u.length];
+	nu = new double[u.length*(udeg+1)];
+	dnu = new double[u.length*(udeg+1)];
+	initBasis(surface.basisFunctionU, u, udeg, uspan, nu, dnu);
+	
+	vspan = new int[v.length];
+	nv = new double[v.length*(vdeg+1)];
+	dnv = new double[v.length*(vdeg+1)];
+	initBasis(surface.basisFunctionV, v, vdeg, vspan, nv, dnv);
+    }
+    
+    static void initBasis(IBSplineBasisFunction basis, double[] param, int deg, int[] span,
+			  double[] n, double[] dn){
+	IBSplineBasisFunction.Buffer buf = IBSplineBasisFunction.buffer(deg);
+	for(int i=0; i<param.length; i++){
+	    span[i] = basis.index(param[i]);
+	    basis.evalWithDerivative(span[i], param[i], buf);
+	    System.arraycopy(buf.n, 0, n, i*(deg+1), deg+1);
+	    System.arraycopy(buf.dn, 0, dn, i*(deg+1), deg+1);
+	}
+    }
+    
+    /** check if degree and knots of the surface are same with the ones basis was computed with */
+    public boolean isValid(){
+	return surface.udegree==udeg && surface.vdegree==vdeg &&
+	    Arrays.equals(surface.uknots, uknots) && Arrays.equals(surface.vknots, vknots);
+    }
+    
+    /** check if the evaluator can be reused for the surface and the parameters */
+    public boolean isValid(ISurfaceGeo surf, double[] u, double[] v){
+	return surface==surf && this.u==u && this.v==v && isValid();
+    }
+    
+    void loadControlPoints(){
+	IVecI[][] cp = surface.controlPoints;
+	int ucnum = cp.length, vcnum = cp[0].length;
+	if(cpts==null || cpts.length!=ucnum*vcnum*4){
+	    cpts = new double[ucnum*vcnum*4];
+	    row = new double[vcnum*4];
+	    rowU = new double[vcnum*4];
+	}
+	for(int i=0, idx=0; i<ucnum; i++){
+	    for(int j=0; j<vcnum; j++, idx+=4){
+		IVec pt = cp[i][j].get();
+		double w=1.;
+		if(!surface.defaultWeights[i][j]) w=((IVec4)pt).w;
+		cpts[idx] = pt.x*w;
+		cpts[idx+1] = pt.y*w;
+		cpts[idx+2] = pt.z*w;
+		cpts[idx+3] = w;
+	    }
+	}
+    }
+    
+    /**
+       evaluate points and normals at every (u[i], v[j]) into pts and nmls
+       at index (i*vnum()+j)*3 as x, y, z. pts or nmls can be null.
+       normals are not unitized, same with ISurfaceGeo.nml(u,v).
+    */
+    public void eval(double[] pts, double[] nmls){
+	loadControlPoints();
+	int vcnum = surface.controlPoints[0].length;
+	int ud1 = udeg+1, vd1 = vdeg+1;
+	IVec deg = null; // for degenerated normal
+	
+	for(int i=0; i<u.length; i++){
+	    // blend control points along u for this row
+	    Arrays.fill(row, 0);
+	    Arrays.fill(rowU, 0);
+	    int ustart = uspan[i]-udeg;
+	    for(int a=0; a<ud1; a++){
+		double n = nu[i*ud1+a];
+		double dn = dnu[i*ud1+a];
+		int base = (ustart+a)*vcnum*4;
+		for(int k=0; k<vcnum*4; k++){
+		    double c = cpts[base+k];
+		    row[k] += n*c;
+		    rowU[k] += dn*c;
+		}
+	    }
+	    
+	    for(int j=0; j<v.length; j++){
+		int vstart = (vspan[j]-vdeg)*4;
+		double x=0, y=0, z=0, w=0;
+		double xu=0, yu=0, zu=0, wu=0;
+		double xv=0, yv=0, zv=0, wv=0;
+		for(int b=0; b<vd1; b++){
+		    double n = nv[j*vd1+b];
+		    double dn = dnv[j*vd1+b];
+		    int k = vstart+b*4;
+		    x += n*row[k]; y += n*row[k+1]; z += n*row[k+2]; w += n*row[k+3];
+		    xu += n*rowU[k]; yu += n*rowU[k+1]; zu += n*rowU[k+2]; wu += n*rowU[k+3];
+		    xv += dn*row[k]; yv += dn*row[k+1]; zv += dn*row[k+2]; wv += dn*row[k+3];
+		}
+		int idx = (i*v.length+j)*3;
+		if(pts!=null){
+		    pts[idx] = x/w;
+		    pts[idx+1] = y/w;
+		    pts[idx+2] = z/w;
+		}
+		if(nmls!=null){
+		    double w2 = w*w;
+		    double utx = (xu*w - x*wu)/w2, uty = (yu*w - y*wu)/w2, utz = (zu*w - z*wu)/w2;
+		    double vtx = (xv*w - x*wv)/w2, vty = (yv*w - y*wv)/w2, vtz = (zv*w - z*wv)/w2;
+		    if((utx!=0||uty!=0||utz!=0) && (vtx!=0||vty!=0||vtz!=0)){
+			nmls[idx] = uty*vtz - utz*vty;
+			nmls[idx+1] = utz*vtx - utx*vtz;
+			nmls[idx+2] = utx*vty - uty*vtx;
+		    }
+		    else{ // degenerated edge; same fallback with ISurfaceGeo.nml
+			if(deg==null) deg = new IVec();
+			else deg.zero();
+			surface.nml(u[i], v[j], deg);
+			nmls[idx] = deg.x;
+			nmls[idx+1] = deg.y;
+			nmls[idx+2] = deg.z;
+		    }
+		}
+	    }
+	}
+    }
+    
+    /** evaluate points into a new matrix of IVec */
+    public IVec[][] pts(){
+	double[] p = new double[u.length*v.length*3];
+	eval(p, null);
+	IVec[][] retval = new IVec[u.length][v.length];
+	for(int i=0, idx=0; i<u.length; i++){
+	    for(int j=0; j<v.length; j++, idx+=3){ retval[i][j] = new IVec(p[idx],p[idx+1],p[idx+2]); }
+	}
+	return retval;
+    }
+}
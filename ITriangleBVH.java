@@ -0,0 +1,346 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+/**
+   Bounding volume hierarchy of triangles stored in flat arrays.
+   Nodes are laid out in depth first order; the left child of an inner node i is i+1.
+   Triangle vertices are kept as references and refit() updates the boxes to their current positions.
+   
+   @author Satoru Sugihara
+*/
+public class ITriangleBVH{
+    
+    /** triangle vertices. each entry has 3 points */
+    public IVecI[][] triangles;
+    
+    /** triangle indices ordered by leaf nodes */
+    public int[] order;
+    
+    /** node bounding box; minx, miny, minz, maxx, maxy, maxz per node */
+    public double[] bounds;
+    /** index of right child of inner node. -1 for leaf node */
+    public int[] right;
+    /** first position in order of leaf node */
+    public int[] start;
+    /** number of triangles in leaf node */
+    public int[] count;
+    public int nodeNum;
+    
+    /** triangle bounding box; minx, miny, minz, maxx, maxy, maxz per triangle */
+    public double[] triBounds;
+    
+    public int leafSize;
+    
+    
+    public ITriangleBVH(IVecI[][] triangles){ this(triangles, IConfig.triangleBVHLeafSize); }
+    
+    public ITriangleBVH(IVecI[][] triangles, int leafSize){
+	this.triangles = triangles;
+	this.leafSize = leafSize<1?1:leafSize;
+	build();
+    }
+    
+    public int triangleNum(){ return triangles.length; }
+    
+    
+    /** build tree by splitting triangles at median of centroid along the longest axis of node box */
+    public void build(){
+	int num = triangles.length;
+	order = new int[num];
+	for(int i=0; i<num; i++){ order[i]=i; }
+	triBounds = new double[num*6];
+	updateTriangleBounds();
+	
+	int leafNum = (num+leafSize-1)/leafSize;
+	int len = leafNum<1?1:leafNum*4;
+	bounds = new double[len*6];
+	right = new int[len];
+	start = new int[len];
+	count = new int[len];
+	nodeNum=0;
+	
+	if(num==0){ // one empty leaf
+	    newNode(); right[0]=-1; start[0]=0; count[0]=0;
+	    return;
+	}
+	
+	double[] centers = new double[num*3];
+	for(int i=0; i<num; i++){
+	    for(int j=0; j<3; j++){ centers[i*3+j] = (triBounds[i*6+j]+triBounds[i*6+j+3])*0.5; }
+	}
+	
+	// stack of (parent, start, end). parent>=0 is a right child to be allocated. -1 is root
+	int[] stack = new int[96];
+	int sp=0;
+	stack[sp++]=-1; stack[sp++]=0; stack[sp++]=num;
+	while(sp>0){
+	    int end = stack[--sp];
+	    int st = stack[--sp];
+	    int parent = stack[--sp];
+	    
+	    // nodes are allocated in popping order and the left child is pushed last,
+	    // so a left child always comes right after its parent
+	    int node = newNode();
+	    if(parent>=0) right[parent] = node;
+	    
+	    setBounds(node, st, end);
+	    start[node]=st;
+	    count[node]=end-st;
+	    right[node]=-1;
+	    
+	    if(end-st<=leafSize) continue;
+	    
+	    int axis=0;
+	    double ext = bounds[node*6+3]-bounds[node*6];
+	    for(int j=1; j<3; j++){
+		double e = bounds[node*6+3+j]-bounds[node*6+j];
+		if(e>ext){ ext=e; axis=j; }
+	    }
+	    int mid = (st+end)/2;
+	    select(centers, axis, st, end-1, mid);
+	    
+	    right[node]=0; // inner node. set when right child is allocated
+	    
+	    if(sp+6>stack.length){
+		int[] stack2 = new int[stack.length*2];
+		System.arraycopy(stack,0,stack2,0,sp);
+		stack=stack2;
+	    }
+	    stack[sp++]=node; stack[sp++]=mid; stack[sp++]=end; // right child
+	    stack[sp++]=-2; stack[sp++]=st; stack[sp++]=mid; // left child
+	}
+    }
+    
+    int newNode(){
+	if(nodeNum>=right.length){
+	    int len = right.length*2;
+	    double[] bounds2 = new double[len*6];
+	    System.arraycopy(bounds,0,bounds2,0,nodeNum*6);
+	    bounds=bounds2;
+	    int[] right2 = new int[len]; System.arraycopy(right,0,right2,0,nodeNum); right=right2;
+	    int[] start2 = new int[len]; System.arraycopy(start,0,start2,0,nodeNum); start=start2;
+	    int[] count2 = new int[len]; System.arraycopy(count,0,count2,0,nodeNum); count=count2;
+	}
+	return nodeNum++;
+    }
+    
+    /** partial sort of order between lo and hi (inclusive) to put the k-th centroid along axis at k */
+    void select(double[] centers, int axis, int lo, int hi, int k){
+	while(hi>lo){
+	    double pivot = centers[order[(lo+hi)>>>1]*3+axis];
+	    int i=lo, j=hi;
+	    while(i<=j){
+		while(centers[order[i]*3+axis]<pivot) i++;
+		while(centers[order[j]*3+axis]>pivot) j--;
+		if(i<=j){
+		    int tmp=order[i]; order[i]=order[j]; order[j]=tmp;
+		    i++; j--;
+		}
+	    }
+	    if(k<=j) hi=j;
+	    else if(k>=i) lo=i;
+	    else return;
+	}
+    }
+    
+    void updateTriangleBounds(){
+	for(int i=0; i<triangles.length; i++){
+	    IVecI[] tri = triangles[i];
+	    IVec p = tri[0].get();
+	    double minx=p.x, miny=p.y, minz=p.z, maxx=p.x, maxy=p.y, maxz=p.z;
+	    for(int j=1; j<3; j++){
+		p = tri[j].get();
+		if(p.x<minx) minx=p.x; else if(p.x>maxx) maxx=p.x;
+		if(p.y<miny) miny=p.y; else if(p.y>maxy) maxy=p.y;
+		if(p.z<minz) minz=p.z; else if(p.z>maxz) maxz=p.z;
+	    }
+	    int idx=i*6;
+	    triBounds[idx]=minx; triBounds[idx+1]=miny; triBounds[idx+2]=minz;
+	    triBounds[idx+3]=maxx; triBounds[idx+4]=maxy; triBounds[idx+5]=maxz;
+	}
+    }
+    
+    /** set node box as union of triangle boxes in order from st to end (exclusive) */
+    void setBounds(int node, int st, int end){
+	int n=node*6;
+	bounds[n]=bounds[n+1]=bounds[n+2]=Double.POSITIVE_INFINITY;
+	bounds[n+3]=bounds[n+4]=bounds[n+5]=Double.NEGATIVE_INFINITY;
+	for(int i=st; i<end; i++){
+	    int t=order[i]*6;
+	    for(int j=0; j<3; j++){
+		if(triBounds[t+j]<bounds[n+j]) bounds[n+j]=triBounds[t+j];
+		if(triBounds[t+3+j]>bounds[n+3+j]) bounds[n+3+j]=triBounds[t+3+j];
+	    }
+	}
+    }
+    
+    /** update boxes to current triangle vertex positions keeping the tree topology */
+    public void refit(){
+	updateTriangleBounds();
+	// children have larger index than parent
+	for(int node=nodeNum-1; node>=0; node--){
+	    if(right[node]<0){ setBounds(node, start[node], start[node]+count[node]); }
+	    else{
+		int n=node*6, l=(node+1)*6, r=right[node]*6;
+		for(int j=0; j<3; j++){
+		    bounds[n+j] = Math.min(bounds[l+j], bounds[r+j]);
+		    bounds[n+3+j] = Math.max(bounds[l+3+j], bounds[r+3+j]);
+		}
+	    }
+	}
+    }
+    
+    
+    /**
+       collect triangles whose box is crossed by the line segment from pt1 to pt2.
+       boxes are enlarged by margin.
+       @return number of triangle indices put in hits
+    */
+    public int querySegment(IVec pt1, IVec pt2, double margin, Hits hits){
+	hits.num=0;
+	double ox=pt1.x, oy=pt1.y, oz=pt1.z;
+	double dx=pt2.x-ox, dy=pt2.y-oy, dz=pt2.z-oz;
+	int[] stack = hits.stack;
+	int sp=0;
+	stack[sp++]=0;
+	while(sp>0){
+	    int node=stack[--sp];
+	    int n=node*6;
+	    if(!segmentOverlap(ox,oy,oz,dx,dy,dz,
+			       bounds[n]-margin,bounds[n+1]-margin,bounds[n+2]-margin,
+			       bounds[n+3]+margin,bounds[n+4]+margin,bounds[n+5]+margin)) continue;
+	    if(right[node]<0){
+		for(int i=start[node]; i<start[node]+count[node]; i++){
+		    int t=order[i]*6;
+		    if(segmentOverlap(ox,oy,oz,dx,dy,dz,
+				      triBounds[t]-margin,triBounds[t+1]-margin,triBounds[t+2]-margin,
+				      triBounds[t+3]+margin,triBounds[t+4]+margin,triBounds[t+5]+margin)){
+			hits.add(order[i]);
+		    }
+		}
+	    }
+	    else{
+		if(sp+2>stack.length) stack = hits.growStack();
+		stack[sp++]=right[node];
+		stack[sp++]=node+1;
+	    }
+	}
+	return hits.num;
+    }
+    
+    /**
+       collect triangles whose box overlaps with the box from min to max.
+       @return number of triangle indices put in hits
+    */
+    public int queryBox(double minx, double miny, double minz, double maxx, double maxy, double maxz,
+			Hits hits){
+	hits.num=0;
+	int[] stack = hits.stack;
+	int sp=0;
+	stack[sp++]=0;
+	while(sp>0){
+	    int node=stack[--sp];
+	    int n=node*6;
+	    if(bounds[n]>maxx || bounds[n+3]<minx ||
+	       bounds[n+1]>maxy || bounds[n+4]<miny ||
+	       bounds[n+2]>maxz || bounds[n+5]<minz) continue;
+	    if(right[node]<0){
+		for(int i=start[node]; i<start[node]+count[node]; i++){
+		    int t=order[i]*6;
+		    if(triBounds[t]<=maxx && triBounds[t+3]>=minx &&
+		       triBounds[t+1]<=maxy && triBounds[t+4]>=miny &&
+		       triBounds[t+2]<=maxz && triBounds[t+5]>=minz){
+			hits.add(order[i]);
+		    }
+		}
+	    }
+	    else{
+		if(sp+2>stack.length) stack = hits.growStack();
+		stack[sp++]=right[node];
+		stack[sp++]=node+1;
+	    }
+	}
+	return hits.num;
+    }
+    
+    /** slab test of segment o + t*d (0<=t<=1) against box */
+    static boolean segmentOverlap(double ox, double oy, double oz, double dx, double dy, double dz,
+				  double minx, double miny, double minz,
+				  double maxx, double maxy, double maxz){
+	double tmin=0, tmax=1;
+	if(dx==0){ if(ox<minx || ox>maxx) return false; }
+	else{
+	    double t1=(minx-ox)/dx, t2=(maxx-ox)/dx;
+	    if(t1>t2){ double t=t1; t1=t2; t2=t; }
+	    if(t1>tmin) tmin=t1;
+	    if(t2<tmax) tmax=t2;
+	    if(tmin>tmax) return false;
+	}
+	if(dy==0){ if(oy<miny || oy>maxy) return false; }
+	else{
+	    double t1=(miny-oy)/dy, t2=(maxy-oy)/dy;
+	    if(t1>t2){ double t=t1; t1=t2; t2=t; }
+	    if(t1>tmin) tmin=t1;
+	    if(t2<tmax) tmax=t2;
+	    if(tmin>tmax) return false;
+	}
+	if(dz==0){ if(oz<minz || oz>maxz) return false; }
+	else{
+	    double t1=(minz-oz)/dz, t2=(maxz-oz)/dz;
+	    if(t1>t2){ double t=t1; t1=t2; t2=t; }
+	    if(t1>tmin) tmin=t1;
+	    if(t2<tmax) tmax=t2;
+	    if(tmin>tmax) return false;
+	}
+	return true;
+    }
+    
+    
+    /** buffer of query result and traversal stack. one instance per querying thread */
+    public static class Hits{
+	public int[] index;
+	public int num;
+	int[] stack;
+	
+	public Hits(){ index = new int[32]; stack = new int[64]; }
+	
+	public int get(int i){ return index[i]; }
+	
+	void add(int i){
+	    if(num>=index.length){
+		int[] index2 = new int[index.length*2];
+		System.arraycopy(index,0,index2,0,num);
+		index=index2;
+	    }
+	    index[num++]=i;
+	}
+	
+	int[] growStack(){
+	    int[] stack2 = new int[stack.length*2];
+	    System.arraycopy(stack,0,stack2,0,stack.length);
+	    stack=stack2;
+	    return stack;
+	}
+    }
+}
@@ -155,6 +155,16 @@ public class ITriangleWall extends IWall{
        IWall inserts an intersection point into the trajectory curve.
     */
     public void bounce(IParticleI particle, ArrayList<IDynamics> agents){
+	bounce(particle, agents, false);
+    }
+    
+    /**
+       Calculate bouncing behavior of particle.
+       @param nearest true when the caller already found this wall as the first crossing of the particle
+       (ITriangleWallCollider) and checking distance to other walls is skipped.
+       agents are still used to find closer intersection after bouncing with IConfig.checkAdjacentWalls.
+    */
+    public void bounce(IParticleI particle, ArrayList<IDynamics> agents, boolean nearest){
 	
 	double vlen2=particle.vel().len2();
 	
@@ -170,7 +180,7 @@ public class ITriangleWall extends IWall{
 		IVec isct = IVec.intersectPlaneAndLine(planeDir.get(),nextPos.dif(curPos),curPos);
 		if(isInsideLocal(isct)){
 		    
-		    if(IConfig.checkAdjacentWalls){
+		    if(IConfig.checkAdjacentWalls && !nearest){
 			//double dist = dist(particle);
 			double dist = distToCrossing(particle);
 			for(int i=0; i<agents.size(); i++){
@@ -180,6 +190,12 @@ public class ITriangleWall extends IWall{
 				    return; // particle bounce with other
 				}
 			    }
+			    else if(agents.get(i) instanceof ITriangleWallCollider){
+				double dist2 = ((ITriangleWallCollider)agents.get(i)).distToCrossing(particle);
+				if(dist2 >= 0 && dist2 < dist){
+				    return; // particle bounce with a wall in the collider
+				}
+			    }
 			}
 		    }
 		    
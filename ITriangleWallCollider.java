@@ -0,0 +1,174 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.util.ArrayList;
+
+/**
+   Single agent to bounce particles on a group of ITriangleWall.
+   Walls are kept in ITriangleBVH and each particle is only checked against triangles
+   near its swept segment from pos to pos + vel * IConfig.updateRate.
+   Walls in the group are not registered as dynamics by themselves.
+   With IConfig.checkAdjacentWalls, the first crossing wall is compared with other IWall and ITriangleWallCollider
+   in the dynamics and the particle is bounced only by the nearest one as walls registered one by one.
+   
+   @author Satoru Sugihara
+*/
+public class ITriangleWallCollider extends IAgent{
+    
+    public ArrayList<ITriangleWall> walls;
+    public ITriangleBVH bvh;
+    
+    ITriangleBVH.Hits hits;
+    ArrayList<IDynamics> candidates;
+    /** other walls and colliders in the dynamics to compare distance to crossing */
+    ArrayList<IDynamics> others;
+    
+    public ITriangleWallCollider(ArrayList<ITriangleWall> walls){
+	super();
+	initCollider(walls);
+    }
+    
+    public ITriangleWallCollider(IObject parent, ArrayList<ITriangleWall> walls){
+	super(parent);
+	initCollider(walls);
+    }
+    
+    public void initCollider(ArrayList<ITriangleWall> walls){
+	this.walls = walls;
+	IVecI[][] tris = new IVecI[walls.size()][];
+	for(int i=0; i<walls.size(); i++){
+	    ITriangleWall wall = walls.get(i);
+	    tris[i] = wall.pts;
+	    // the wall is checked through this agent
+	    if(wall.server!=null) wall.server.remove(wall);
+	}
+	bvh = new ITriangleBVH(tris);
+	hits = new ITriangleBVH.Hits();
+	candidates = new ArrayList<IDynamics>();
+	others = new ArrayList<IDynamics>();
+    }
+    
+    /** update wall normals and BVH in case triangles are moved */
+    public void refit(){
+	for(int i=0; i<walls.size(); i++){
+	    ITriangleWall wall = walls.get(i);
+	    wall.planeDir = wall.pts[0].get().nml(wall.pts[1],wall.pts[2]);
+	    wall.dir1=null;
+	    wall.dir2=null;
+	    wall.planeDirCache=null;
+	}
+	bvh.refit();
+    }
+    
+    public boolean isTarget(ITriangleWall wall, IParticleI particle){
+	return wall.targetClasses==null || wall.isTargetClass(particle);
+    }
+    
+    /** find the wall the particle crosses first within one update. null if nothing is crossed. */
+    public ITriangleWall firstCrossing(IParticleI particle){ return firstCrossing(particle, hits); }
+    
+    public ITriangleWall firstCrossing(IParticleI particle, ITriangleBVH.Hits hits){
+	IVec vel = particle.vel();
+	if(vel.len2()==0) return null;
+	IVec curPos = particle.pos().dup();
+	IVec nextPos = curPos.dup().add(vel, IConfig.updateRate);
+	
+	int num = bvh.querySegment(curPos, nextPos, IConfig.tolerance, hits);
+	ITriangleWall first=null;
+	double firstRatio=0;
+	for(int i=0; i<num; i++){
+	    ITriangleWall wall = walls.get(hits.get(i));
+	    if(!isTarget(wall, particle)) continue;
+	    double curDot = curPos.dif(wall.planePt).dot(wall.planeDir);
+	    double nextDot = nextPos.dif(wall.planePt).dot(wall.planeDir);
+	    if(curDot==0 || curDot*nextDot < 0){ // same condition with ITriangleWall.bounce
+		if(wall.intersect(curPos, nextPos)!=null){
+		    double ratio = curDot==0?0:curDot/(curDot-nextDot);
+		    if(first==null || ratio<firstRatio){ first=wall; firstRatio=ratio; }
+		}
+	    }
+	}
+	return first;
+    }
+    
+    /** distance to the first wall the particle crosses within one update. -1 if nothing is crossed.
+	it can be called by other walls and colliders during their update. */
+    public double distToCrossing(IParticleI particle){
+	ITriangleWall wall = firstCrossing(particle, new ITriangleBVH.Hits());
+	if(wall==null) return -1;
+	return wall.distToCrossing(particle);
+    }
+    
+    /** true if the particle crosses any of other walls or colliders closer than dist */
+    public boolean crossesOtherCloser(IParticleI particle, double dist){
+	for(int i=0; i<others.size(); i++){
+	    double dist2;
+	    if(others.get(i) instanceof IWall) dist2 = ((IWall)others.get(i)).distToCrossing(particle);
+	    else dist2 = ((ITriangleWallCollider)others.get(i)).distToCrossing(particle);
+	    if(dist2 >= 0 && dist2 < dist) return true;
+	}
+	return false;
+    }
+    
+    /** walls near the particle's path including after bouncing to check closer intersection */
+    public ArrayList<IDynamics> adjacentWalls(IParticleI particle, ITriangleWall wall){
+	candidates.clear();
+	IVec curPos = particle.pos();
+	IVec vel = particle.vel();
+	double reach = vel.len()*IConfig.updateRate*Math.max(1.0, wall.elasticity) + IConfig.tolerance;
+	double x2 = curPos.x+vel.x*IConfig.updateRate;
+	double y2 = curPos.y+vel.y*IConfig.updateRate;
+	double z2 = curPos.z+vel.z*IConfig.updateRate;
+	int num = bvh.queryBox(Math.min(curPos.x,x2)-reach, Math.min(curPos.y,y2)-reach,
+			       Math.min(curPos.z,z2)-reach, Math.max(curPos.x,x2)+reach,
+			       Math.max(curPos.y,y2)+reach, Math.max(curPos.z,z2)+reach, hits);
+	for(int i=0; i<num; i++){ candidates.add(walls.get(hits.get(i))); }
+	return candidates;
+    }
+    
+    public void postinteract(ArrayList<IDynamics> agents){
+	refit();
+	others.clear();
+	if(IConfig.checkAdjacentWalls){
+	    for(int i=0; i<agents.size(); i++){
+		IDynamics d = agents.get(i);
+		if(d instanceof IWall || d instanceof ITriangleWallCollider && d!=this) others.add(d);
+	    }
+	}
+	for(int i=0; i<agents.size(); i++){
+	    if(agents.get(i) instanceof IParticleI){
+		IParticleI particle = (IParticleI)agents.get(i);
+		ITriangleWall wall = firstCrossing(particle);
+		if(wall!=null){
+		    if(IConfig.checkAdjacentWalls){
+			if(others.size()>0 && crossesOtherCloser(particle, wall.distToCrossing(particle))) continue; // particle bounce with other
+			wall.bounce(particle, adjacentWalls(particle, wall), true);
+		    }
+		    else{ wall.bounce(particle, candidates, true); }
+		    wall.planeDirCache=null;
+		}
+	    }
+	}
+    }
+}
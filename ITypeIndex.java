@@ -0,0 +1,157 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo;
+
+import java.lang.reflect.Array;
+
+/**
+   Index of objects partitioned by geometry type, kept by IServer and ILayer.
+   Each type has a bucket in insertion order, updated on add and remove.
+   Queries read an immutable snapshot array rebuilt only after the bucket changes,
+   so they don't need to hold the server lock.
+   
+   @author Satoru Sugihara
+*/
+public class ITypeIndex{
+    
+    /** indexed types. an object is put in every bucket of types it is an instance of */
+    public static final Class<?>[] types = new Class<?>[]{
+	IPoint.class, ICurve.class, ISurface.class, IMesh.class, IBrep.class, IGeometry.class
+    };
+    
+    public static final int point=0, curve=1, surface=2, mesh=3, brep=4, geometry=5;
+    
+    
+    public static class Bucket{
+	public Class<?> type;
+	IIdentityList<IObject> objects;
+	/** snapshot of objects as an array of type. null when bucket is changed */
+	volatile IObject[] snapshot;
+	
+	public Bucket(Class<?> type){
+	    this.type=type;
+	    objects = new IIdentityList<IObject>();
+	}
+	
+	public synchronized void add(IObject e){
+	    if(!objects.contains(e)){ objects.add(e); snapshot=null; }
+	}
+	public synchronized void remove(IObject e){
+	    if(objects.remove(e)){ snapshot=null; }
+	}
+	public synchronized void clear(){ objects.clear(); snapshot=null; }
+	
+	/** shared snapshot. the returned array should not be modified */
+	public IObject[] snapshot(){
+	    IObject[] snap = snapshot;
+	    if(snap!=null) return snap;
+	    synchronized(this){
+		if(snapshot==null){
+		    IObject[] arr = (IObject[])Array.newInstance(type, objects.size());
+		    snapshot = objects.toArray(arr);
+		}
+		return snapshot;
+	    }
+	}
+	
+	public int num(){
+	    IObject[] snap = snapshot;
+	    if(snap!=null) return snap.length;
+	    synchronized(this){ return objects.size(); }
+	}
+	
+	public IObject get(int i){
+	    IObject[] snap = snapshot;
+	    if(snap!=null){
+		if(i<0 || i>=snap.length) return null;
+		return snap[i];
+	    }
+	    synchronized(this){
+		if(i<0 || i>=objects.size()) return null;
+		return objects.get(i);
+	    }
+	}
+	
+	/** copy of snapshot which the caller can modify */
+	public IObject[] array(){ return snapshot().clone(); }
+    }
+    
+    
+    public Bucket[] buckets;
+    
+    public ITypeIndex(){
+	buckets = new Bucket[types.length];
+	for(int i=0; i<types.length; i++){ buckets[i] = new Bucket(types[i]); }
+    }
+    
+    /** build index of existing objects */
+    public ITypeIndex(java.util.List<IObject> objects){
+	this();
+	for(int i=0; i<objects.size(); i++){ add(objects.get(i)); }
+    }
+    
+    public void add(IObject e){
+	for(int i=0; i<buckets.length; i++){
+	    if(buckets[i].type.isInstance(e)) buckets[i].add(e);
+	}
+    }
+    
+    public void remove(IObject e){
+	for(int i=0; i<buckets.length; i++){
+	    if(buckets[i].type.isInstance(e)) buckets[i].remove(e);
+	}
+    }
+    
+    public void clear(){
+	for(int i=0; i<buckets.length; i++){ buckets[i].clear(); }
+    }
+    
+    /** bucket of the type or null if the type is not indexed */
+    public Bucket bucket(Class<?> type){
+	for(int i=0; i<types.length; i++){ if(types[i]==type) return buckets[i]; }
+	return null;
+    }
+    
+    public Bucket bucket(int typeIndex){ return buckets[typeIndex]; }
+    
+    public IPoint[] points(){ return (IPoint[])buckets[point].array(); }
+    public ICurve[] curves(){ return (ICurve[])buckets[curve].array(); }
+    public ISurface[] surfaces(){ return (ISurface[])buckets[surface].array(); }
+    public IMesh[] meshes(){ return (IMesh[])buckets[mesh].array(); }
+    public IBrep[] breps(){ return (IBrep[])buckets[brep].array(); }
+    public IGeometry[] geometries(){ return (IGeometry[])buckets[geometry].array(); }
+    
+    public IPoint point(int i){ return (IPoint)buckets[point].get(i); }
+    public ICurve curve(int i){ return (ICurve)buckets[curve].get(i); }
+    public ISurface surface(int i){ return (ISurface)buckets[surface].get(i); }
+    public IMesh mesh(int i){ return (IMesh)buckets[mesh].get(i); }
+    public IBrep brep(int i){ return (IBrep)buckets[brep].get(i); }
+    public IGeometry geometry(int i){ return (IGeometry)buckets[geometry].get(i); }
+    
+    public int pointNum(){ return buckets[point].num(); }
+    public int curveNum(){ return buckets[curve].num(); }
+    public int surfaceNum(){ return buckets[surface].num(); }
+    public int meshNum(){ return buckets[mesh].num(); }
+    public int brepNum(){ return buckets[brep].num(); }
+    public int geometryNum(){ return buckets[geometry].num(); }
+}
@@ -39,25 +39,25 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public IVecR(IServerI s, IDoubleI x, IDoubleI y, IDoubleI z){ super(s); op = new FromXYZ(x,y,z); }
     
     /** getting x component */
-    public double x(){ return op.get().x; }
+    public double x(){ return value().x; }
     /** getting y component */
-    public double y(){ return op.get().y; }
+    public double y(){ return value().y; }
     /** getting z component */
-    public double z(){ return op.get().z; }
+    public double z(){ return value().z; }
     
     /** setting x component */
-    public IVecR x(double vx){ op = new FromX(op,new IDouble(vx)); return this; }
+    public IVecR x(double vx){ op = new FromX(cacheForUpdate(),new IDouble(vx)); return this; }
     /** setting y component */
-    public IVecR y(double vy){ op = new FromY(op,new IDouble(vy)); return this; }
+    public IVecR y(double vy){ op = new FromY(cacheForUpdate(),new IDouble(vy)); return this; }
     /** setting z component */
-    public IVecR z(double vz){ op = new FromZ(op,new IDouble(vz)); return this; }
+    public IVecR z(double vz){ op = new FromZ(cacheForUpdate(),new IDouble(vz)); return this; }
     
     /** setting x component */
-    public IVecR x(IDoubleI vx){ op = new FromX(op,vx); return this; }
+    public IVecR x(IDoubleI vx){ op = new FromX(cacheForUpdate(),vx); return this; }
     /** setting y component */
-    public IVecR y(IDoubleI vy){ op = new FromY(op,vy); return this; }
+    public IVecR y(IDoubleI vy){ op = new FromY(cacheForUpdate(),vy); return this; }
     /** setting z component */
-    public IVecR z(IDoubleI vz){ op = new FromZ(op,vz); return this; }
+    public IVecR z(IDoubleI vz){ op = new FromZ(cacheForUpdate(),vz); return this; }
     
     /** getting x component */
     public double x(ISwitchE e){ return x(); }
@@ -67,16 +67,25 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public double z(ISwitchE e){ return z(); }
     
     /** getting x component */
-    public IDoubleR x(ISwitchR r){ return new IDoubleR(new X(op)); }
+    public IDoubleR x(ISwitchR r){ return new IDoubleR(new X(cache())); }
     /** getting y component */
-    public IDoubleR y(ISwitchR r){ return new IDoubleR(new Y(op)); }
+    public IDoubleR y(ISwitchR r){ return new IDoubleR(new Y(cache())); }
     /** getting z component */
-    public IDoubleR z(ISwitchR r){ return new IDoubleR(new Z(op)); }
+    public IDoubleR z(ISwitchR r){ return new IDoubleR(new Z(cache())); }
     
     
-    public IVec get(){ return op.get(); }
+    public IVec get(){
+	if(op instanceof IVec || !IParameterObject.isCaching()) return op.get();
+	return cacheNode().get();
+    }
+    
+    /** value of the operator cached in the current epoch. it shouldn't be modified */
+    protected IVec value(){
+	if(op instanceof IVec || !IParameterObject.isCaching()) return op.get();
+	return cacheNode().value();
+    }
     
-    public IVecR dup(){ return new IVecR(op); }
+    public IVecR dup(){ return new IVecR(cache()); }
     
     public IVec2R to2d(){ return new IVec2R(new ToVec2(this)); }
     public IVec2R to2d(IVecI projectionDir){
@@ -94,40 +103,62 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public IVec4R to4d(double w){ return new IVec4R(this, w); }
     public IVec4R to4d(IDoubleI w){ return new IVec4R(this, w); }
     
-    public IDoubleR getX(){ return new IDoubleR(new X(op)); }
-    public IDoubleR getY(){ return new IDoubleR(new Y(op)); }
-    public IDoubleR getZ(){ return new IDoubleR(new Z(op)); }
+    public IDoubleR getX(){ return new IDoubleR(new X(cache())); }
+    public IDoubleR getY(){ return new IDoubleR(new Y(cache())); }
+    public IDoubleR getZ(){ return new IDoubleR(new Z(cache())); }
     
     public IVecOp operator(){ return op; } // for viewer
     
+    /** wraps the operator with Cache to share its value in the current epoch */
+    protected Cache cacheNode(){
+	IVecOp o = op;
+	if(o instanceof Cache) return (Cache)o;
+	Cache c = new Cache(o);
+	op = c;
+	return c;
+    }
+    
+    /** operator to be an input of another operator. it's wrapped with Cache if IConfig.cacheReferenceParameters is true
+	or if it's a leaf like IVec, which Cache copies so that the consumer doesn't modify it. */
+    protected IVecOp cache(){
+	if(!IConfig.cacheReferenceParameters && Cache.isOperator(op)) return op;
+	return cacheNode();
+    }
+    
+    /** input of a new operator replacing the current one. values cached by all reference parameters are invalidated as this is updated. */
+    protected IVecOp cacheForUpdate(){
+	IParameterObject.invalidateCache();
+	return cache();
+    }
+    
     
     
-    public IVecR set(IVecI u){ op=u; return this; }
-    public IVecR set(double x, double y, double z){ op = new IVec(x,y,z); return this; }
+    public IVecR set(IVecI u){ op=u; IParameterObject.invalidateCache(); return this; }
+    public IVecR set(double x, double y, double z){ op = new IVec(x,y,z); IParameterObject.invalidateCache(); return this; }
     public IVecR set(IDoubleI x, IDoubleI y, IDoubleI z){
-	op = new FromXYZ(x,y,z); return this;
+	op = new FromXYZ(x,y,z); IParameterObject.invalidateCache(); return this;
     }
     
     public IVecR add(double x, double y, double z){
-	op=new Add(op,new IVec(x,y,z)); return this;
+	op=new Add(cacheForUpdate(),new IVec(x,y,z)); return this;
     }
     public IVecR add(IDoubleI x, IDoubleI y, IDoubleI z){
-	op=new Add(op,new IVecR(x,y,z)); return this;
+	op=new Add(cacheForUpdate(),new IVecR(x,y,z)); return this;
     }
-    public IVecR add(IVecI u){ op=new Add(op,u); return this; }
+    public IVecR add(IVecI u){ op=new Add(cacheForUpdate(),u); return this; }
     
     public IVecR sub(double x, double y, double z){
-	op=new Sub(op,new IVec(x,y,z)); return this;
+	op=new Sub(cacheForUpdate(),new IVec(x,y,z)); return this;
     }
     public IVecR sub(IDoubleI x, IDoubleI y, IDoubleI z){
-	op=new Sub(op,new IVecR(x,y,z)); return this;
-    }
-    public IVecR sub(IVecI u){ op=new Sub(op,u); return this; }
-    public IVecR mul(IDoubleI u){ op=new Mul(op,u); return this; }
-    public IVecR mul(double u){ op=new Mul(op,new IDouble(u)); return this; }
-    public IVecR div(IDoubleI u){ op=new Div(op,u); return this; }
-    public IVecR div(double u){ op=new Div(op,new IDouble(u)); return this; }
-    public IVecR neg(){ op=new Neg(op); return this; }
+	op=new Sub(cacheForUpdate(),new IVecR(x,y,z)); return this;
+    }
+    public IVecR sub(IVecI u){ op=new Sub(cacheForUpdate(),u); return this; }
+    public IVecR mul(IDoubleI u){ op=new Mul(cacheForUpdate(),u); return this; }
+    public IVecR mul(double u){ op=new Mul(cacheForUpdate(),new IDouble(u)); return this; }
+    public IVecR div(IDoubleI u){ op=new Div(cacheForUpdate(),u); return this; }
+    public IVecR div(double u){ op=new Div(cacheForUpdate(),new IDouble(u)); return this; }
+    public IVecR neg(){ op=new Neg(cacheForUpdate()); return this; }
     /** alias of neg() */
     public IVecR rev(){ return neg(); }
     /** alias of neg() */
@@ -147,49 +178,49 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public double dot(IVecI u){ return get().dot(u); }
     public double dot(double ux, double uy, double uz){ return get().dot(ux,uy,uz); }
     public double dot(ISwitchE e, IVecI u){ return dot(u); }
-    public IDoubleR dot(ISwitchR r, IVecI u){ return new IDoubleR(new Dot(op,u)); }
+    public IDoubleR dot(ISwitchR r, IVecI u){ return new IDoubleR(new Dot(cache(),u)); }
     
     
-    //public IVecR cross(IVecI u){ op=new Cross(op,u); return this; }
+    //public IVecR cross(IVecI u){ op=new Cross(cacheForUpdate(),u); return this; }
     /** cross is creating a new instance (2011/08/03) */
-    public IVecR cross(IVecI u){ return new IVecR(new Cross(op,u)); }
+    public IVecR cross(IVecI u){ return new IVecR(new Cross(cache(),u)); }
     public IVecR cross(double ux, double uy, double uz){
-	return new IVecR(new Cross(op,new IVec(ux,uy,uz)));
+	return new IVecR(new Cross(cache(),new IVec(ux,uy,uz)));
     }
     
     public double len(){ return get().len(); }
     public double len(ISwitchE e){ return len(); }
-    public IDoubleR len(ISwitchR r){ return new IDoubleR(new Len(op)); }
+    public IDoubleR len(ISwitchR r){ return new IDoubleR(new Len(cache())); }
     
     public double len2(){ return get().len2(); }
     public double len2(ISwitchE e){ return len2(); }
-    public IDoubleR len2(ISwitchR r){ return new IDoubleR(new Len2(op)); }
+    public IDoubleR len2(ISwitchR r){ return new IDoubleR(new Len2(cache())); }
     
-    public IVecR len(IDoubleI l){ op=new SetLen(op,l); return this; }
-    public IVecR len(double l){ op=new SetLen(op,new IDouble(l)); return this; }
+    public IVecR len(IDoubleI l){ op=new SetLen(cacheForUpdate(),l); return this; }
+    public IVecR len(double l){ op=new SetLen(cacheForUpdate(),new IDouble(l)); return this; }
     
-    public IVecR unit(){ op=new Unit(op); return this; }
+    public IVecR unit(){ op=new Unit(cacheForUpdate()); return this; }
     
     public double dist(IVecI v){ return get().dist(v); }
     public double dist(double vx, double vy, double vz){ return get().dist(vx,vy,vz); }
     public double dist(ISwitchE e, IVecI v){ return dist(v); }
-    public IDoubleR dist(ISwitchR r, IVecI v){ return new IDoubleR(new Dist(op, v)); }
+    public IDoubleR dist(ISwitchR r, IVecI v){ return new IDoubleR(new Dist(cache(), v)); }
     
     public double dist2(IVecI v){ return get().dist2(v); }
     public double dist2(double vx, double vy, double vz){ return get().dist2(vx,vy,vz); }
     public double dist2(ISwitchE e, IVecI v){ return dist2(v); }
-    public IDoubleR dist2(ISwitchR r, IVecI v){ return new IDoubleR(new Dist2(op, v)); }
+    public IDoubleR dist2(ISwitchR r, IVecI v){ return new IDoubleR(new Dist2(cache(), v)); }
     
     public boolean eq(IVecI v){ return get().eq(v); }
     public boolean eq(double vx, double vy, double vz){ return get().eq(vx,vy,vz); }
     public boolean eq(ISwitchE e, IVecI v){ return eq(v); }
-    public IBoolR eq(ISwitchR r, IVecI v){ return new IBoolR(new Eq(op, v)); }
+    public IBoolR eq(ISwitchR r, IVecI v){ return new IBoolR(new Eq(cache(), v)); }
     
     public boolean eq(IVecI v, double tolerance){ return get().eq(v,tolerance); }
     public boolean eq(double vx, double vy, double vz, double tolerance){ return get().eq(vx,vy,vz,tolerance); }
     public boolean eq(ISwitchE e, IVecI v, double tolerance){ return eq(v,tolerance); }
     public IBoolR eq(ISwitchR r, IVecI v, IDoubleI tolerance){
-	return new IBoolR(new Eq(op, v, tolerance));
+	return new IBoolR(new Eq(cache(), v, tolerance));
     }
     
     public boolean eqX(IVecI v){ return get().eqX(v); }
@@ -201,9 +232,9 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public boolean eqX(ISwitchE e, IVecI v){ return eqX(v); }
     public boolean eqY(ISwitchE e, IVecI v){ return eqY(v); }
     public boolean eqZ(ISwitchE e, IVecI v){ return eqZ(v); }
-    public IBoolR eqX(ISwitchR r, IVecI v){ return new IBoolR(new EqX(op, v)); }
-    public IBoolR eqY(ISwitchR r, IVecI v){ return new IBoolR(new EqY(op, v)); }
-    public IBoolR eqZ(ISwitchR r, IVecI v){ return new IBoolR(new EqZ(op, v)); }
+    public IBoolR eqX(ISwitchR r, IVecI v){ return new IBoolR(new EqX(cache(), v)); }
+    public IBoolR eqY(ISwitchR r, IVecI v){ return new IBoolR(new EqY(cache(), v)); }
+    public IBoolR eqZ(ISwitchR r, IVecI v){ return new IBoolR(new EqZ(cache(), v)); }
     
     public boolean eqX(IVecI v, double tolerance){ return get().eqX(v,tolerance); }
     public boolean eqY(IVecI v, double tolerance){ return get().eqY(v,tolerance); }
@@ -214,9 +245,9 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public boolean eqX(ISwitchE e, IVecI v, double tolerance){ return eqX(v,tolerance); }
     public boolean eqY(ISwitchE e, IVecI v, double tolerance){ return eqY(v,tolerance); }
     public boolean eqZ(ISwitchE e, IVecI v, double tolerance){ return eqZ(v,tolerance); }
-    public IBoolR eqX(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqX(op,v,tolerance)); }
-    public IBoolR eqY(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqY(op,v,tolerance)); }
-    public IBoolR eqZ(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqZ(op,v,tolerance)); }
+    public IBoolR eqX(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqX(cache(),v,tolerance)); }
+    public IBoolR eqY(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqY(cache(),v,tolerance)); }
+    public IBoolR eqZ(ISwitchR r, IVecI v, IDoubleI tolerance){ return new IBoolR(new EqZ(cache(),v,tolerance)); }
     
     
     
@@ -224,7 +255,7 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     public double angle(IVecI u){ return get().angle(u); }
     public double angle(double ux, double uy, double uz){ return get().angle(ux,uy,uz); }
     public double angle(ISwitchE e, IVecI u){ return angle(u); }
-    public IDoubleR angle(ISwitchR r, IVecI u){ return new IDoubleR(new Angle(op,u)); }
+    public IDoubleR angle(ISwitchR r, IVecI u){ return new IDoubleR(new Angle(cache(),u)); }
     
     /**
        @param axis axis to determin sign of angle following right-handed screw rule.
@@ -236,14 +267,14 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     }
     public double angle(ISwitchE e, IVecI u, IVecI axis){ return angle(u,axis); }
     public IDoubleR angle(ISwitchR r, IVecI u, IVecI axis){
-	return new IDoubleR(new Angle(op,u,axis));
+	return new IDoubleR(new Angle(cache(),u,axis));
     }
     
-    public IVecR rot(IDoubleI angle){ op=new Rot2(op,angle); return this; }
+    public IVecR rot(IDoubleI angle){ op=new Rot2(cacheForUpdate(),angle); return this; }
     public IVecR rot(double angle){ return rot(new IDouble(angle)); }
     
     public IVecR rot(IVecI axis, IDoubleI angle){
-	op=new Rot(op,axis,angle); return this; 
+	op=new Rot(cacheForUpdate(),axis,angle); return this; 
     }
     public IVecR rot(IVecI axis, double angle){ return rot(axis,new IDouble(angle)); }
     public IVecR rot(double axisX, double axisY, double axisZ, double angle){
@@ -318,7 +349,7 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
 	return scale1d(new IVec(axisX,axisY,axisZ),new IDouble(f));
     }
     public IVecR scale1d(IVecI axis, IDoubleI f){
-	op = new Scale1d(op, axis, f); return this;
+	op = new Scale1d(cacheForUpdate(), axis, f); return this;
     }
     public IVecR scale1d(IVecI center, IVecI axis, double f){
 	return scale1d(center,axis,new IDouble(f));
@@ -337,9 +368,9 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     /**
        reflect (mirror) 3 dimensionally to the other side of the plane
     */
-    public IVecR ref(IVecI planeDir){ op=new Ref(op,planeDir); return this; }
+    public IVecR ref(IVecI planeDir){ op=new Ref(cacheForUpdate(),planeDir); return this; }
     public IVecR ref(double planeX, double planeY, double planeZ){
-	op=new Ref(op,new IVec(planeX,planeY,planeZ)); return this;
+	op=new Ref(cacheForUpdate(),new IVec(planeX,planeY,planeZ)); return this;
     }
     public IVecR ref(IVecI center, IVecI planeDir){
 	if(center==this) return this;
@@ -367,7 +398,7 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     }
     public IVecR shear(IDoubleI sxy, IDoubleI syx, IDoubleI syz,
 		       IDoubleI szy, IDoubleI szx, IDoubleI sxz){
-	op = new Shear(op,sxy,syx,syz,szy,szx,sxz); return this;
+	op = new Shear(cacheForUpdate(),sxy,syx,syz,szy,szx,sxz); return this;
     }
     public IVecR shear(IVecI center, double sxy, double syx, double syz, double szy, double szx, double sxz){
 	if(center==this) return this;
@@ -416,13 +447,13 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     /**
        transform with matrix
     */
-    public IVecR transform(IMatrix3I mat){ op = new Transform3(op,mat); return this; }
-    public IVecR transform(IMatrix4I mat){ op = new Transform4(op,mat); return this; }
+    public IVecR transform(IMatrix3I mat){ op = new Transform3(cacheForUpdate(),mat); return this; }
+    public IVecR transform(IMatrix4I mat){ op = new Transform4(cacheForUpdate(),mat); return this; }
     public IVecR transform(IVecI xvec, IVecI yvec, IVecI zvec){
-	op = new TransformVec3(op,xvec,yvec,zvec); return this;
+	op = new TransformVec3(cacheForUpdate(),xvec,yvec,zvec); return this;
     }
     public IVecR transform(IVecI xvec, IVecI yvec, IVecI zvec, IVecI translate){
-	op = new TransformVec4(op,xvec,yvec,zvec,translate); return this;
+	op = new TransformVec4(cacheForUpdate(),xvec,yvec,zvec,translate); return this;
     }
     
     
@@ -508,6 +539,40 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
     // subclasses
     // /////////////////////////////////
     
+    /**
+       operator to evaluate the input operator once in each epoch of IParameterObject.cacheEpoch.
+       an operator shared by multiple reference parameters is evaluated once while their values are read.
+    */
+    static public class Cache extends IParameterObject implements IVecOp{
+	public IVecOp v;
+	protected IVec value;
+	protected volatile int epoch;
+	/** true if v returns a new instance at every get() */
+	protected boolean fresh;
+	public Cache(IVecOp v){
+	    this.v=v;
+	    epoch=IParameterObject.cacheEpoch-1;
+	    fresh = isOperator(v);
+	}
+	/** true if v is an operator of IVecR, which returns a new instance at every get() */
+	static boolean isOperator(IVecOp v){ return v.getClass().getEnclosingClass()==IVecR.class; }
+	/** cached value. it shouldn't be modified */
+	public IVec value(){
+	    if(!IParameterObject.isCaching()) return v.get();
+	    int e = IParameterObject.cacheEpoch;
+	    if(epoch==e) return value;
+	    IVec val = v.get().dup(); // input operator might return its internal instance
+	    value = val;
+	    epoch = e;
+	    return val;
+	}
+	/** value to be modified by the consumer. a leaf like IVec is copied not to be modified. */
+	public IVec get(){
+	    if(!IParameterObject.isCaching()) return fresh?v.get():v.get().dup();
+	    return value().dup();
+	}
+    }
+    
     static public class Add extends IParameterObject implements IVecOp{
 	public IVecOp v1, v2;
 	public Add(IVecOp v1, IVecOp v2){ this.v1=v1; this.v2=v2; }
@@ -550,21 +615,21 @@ public class IVecR extends IParameterObject implements IVecI, IReferenceParamete
 	public IDoubleOp x;
 	public IVecOp v;
 	public FromX(IVecOp v, IDoubleOp x){ this.v=v; this.x=x; }
-	public IVec get(){ return new IVec(x.x(),v.get().y(),v.get().z()); }
+	public IVec get(){ IVec u = v.get(); return new IVec(x.x(),u.y,u.z); }
     }
     
     static public class FromY extends IParameterObject implements IVecOp{
 	public IDoubleOp y;
 	public IVecOp v;
 	public FromY(IVecOp v, IDoubleOp y){ this.v=v; this.y=y; }
-	public IVec get(){ return new IVec(v.get().x(),y.x(),v.get().z()); }
+	public IVec get(){ IVec u = v.get(); return new IVec(u.x,y.x(),u.z); }
     }
     
     static public class FromZ extends IParameterObject implements IVecOp{
 	public IDoubleOp z;
 	public IVecOp v;
 	public FromZ(IVecOp v, IDoubleOp z){ this.v=v; this.z=z; }
-	public IVec get(){ return new IVec(v.get().x(),v.get().y(),z.x()); }
+	public IVec get(){ IVec u = v.get(); return new IVec(u.x,u.y,z.x()); }
     }
     
     static public class ToVec2 extends IParameterObject implements IVec2Op{
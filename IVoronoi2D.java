@@ -32,51 +32,15 @@ import java.util.*;
 public class IVoronoi2D {
     
     /**
-       Getting voronoi polygons out of array of 2D points
-       @return array of triangles, which consist of array of 3 points of IVec2
+       Getting voronoi polygons out of array of 2D points.
+       Cells of points on the convex hull are open and consist of circumcenters of triangles around the point.
+       @return array of polygons in counter-clockwise order per input point
     */
     public static IVec2[][] getPolygons(IVec2[] pts){
-	
-	IVec2[][] tri = IDelaunay2D.getTriangles(pts);
-	IVec2[] cnt = new IVec2[tri.length];
-	for(int i=0; i<tri.length; i++){
-	    cnt[i] = circumcenter(tri[i]);
-	    /*
-	    // debug
-	    new ICurve(c.to3d(),tri[i][0].mid(tri[i][1]).to3d()).clr(0,1,1.);
-	    new ICurve(c.to3d(),tri[i][1].mid(tri[i][2]).to3d()).clr(0,1,1.);
-	    new ICurve(c.to3d(),tri[i][2].mid(tri[i][0]).to3d()).clr(0,1,1.);
-	    //new ICurve(tri[i],true);
-	    new ICurve(IG.v(tri[i][0].to3d(),tri[i][1].to3d(),tri[i][2].to3d()),true);
-	    */
-	}
-	
-	IVec2[][] cellPts = new IVec2[pts.length][];
-	
-	for(int i=0; i<pts.length; i++){
-	    
-	    ArrayList<IVec2> cpts = new ArrayList<IVec2>();
-	    
-	    for(int j=0; j<tri.length; j++){
-		boolean match = false;
-		for(int k=0; k<tri[j].length && cnt[j]!=null && !match; k++){
-		    if(pts[i]==tri[j][k]){
-			cpts.add(cnt[j]); match=true;
-			/*
-			if(!cpts.contains(tri[j][(k-1+tri[j].length)%tri[j].length])){
-			    cpts.add(tri[j][(k-1+tri[j].length)%tri[j].length]);
-			}
-			if(!cpts.contains(tri[j][(k+1)%tri[j].length])){
-			    cpts.add(tri[j][(k+1)%tri[j].length]);
-			}
-			*/
-		    }
-		}
-	    }
-	    ISort.sort(cpts, new RadialComparator(pts[i]));
-	    cellPts[i] = cpts.toArray(new IVec2[cpts.size()]);
-	}
-	
+	final IVec2[][] cellPts = new IVec2[pts.length][];
+	getPolygons(pts, null, null, new CellVisitor(){
+		public void visit(int index, IVec2 site, IVec2[] cell){ cellPts[index]=cell; }
+	    });
 	return cellPts;
     }
     
@@ -85,98 +49,165 @@ public class IVoronoi2D {
        Getting voronoi polygons out of array of 2D points.
        @param minUV minimum corner of boundary rectangle
        @param maxUV maximum corner of boundary rectangle
-       @return array of polygons and triangles; IVec2[0] is polygons and IVec[1] is triangles.
+       @return array of polygons in counter-clockwise order per input point clipped by the boundary rectangle
     */
     public static IVec2[][] getPolygons(IVec2[] pts,
 					IVec2 minUV, IVec2 maxUV){
 	//IVec2[] boundary){ // irregular boundary will be implemented later.
+	final IVec2[][] cellPts = new IVec2[pts.length][];
+	getPolygons(pts, minUV, maxUV, new CellVisitor(){
+		public void visit(int index, IVec2 site, IVec2[] cell){ cellPts[index]=cell; }
+	    });
+	return cellPts;
+    }
+    
+    /**
+       Calculates voronoi polygons and passes them to the visitor one by one without keeping all of them.
+       Each cell is made by walking triangles around the point in the Delaunay triangulation
+       and circumcenters of triangles are calculated only once.
+       @param minUV minimum corner of boundary rectangle. if null, cells are not clipped and cells on the convex hull are left open.
+       @param maxUV maximum corner of boundary rectangle
+    */
+    public static void getPolygons(IVec2[] pts, IVec2 minUV, IVec2 maxUV, CellVisitor visitor){
+	IDelaunayTriangulation2D triangulation = new IDelaunayTriangulation2D(pts);
+	getPolygons(triangulation, minUV, maxUV, visitor);
+    }
+    
+    /**
+       Calculates voronoi polygons out of Delaunay triangulation and passes them to the visitor.
+       Points merged into others as duplicates get the same cell as the merged one.
+    */
+    public static void getPolygons(IDelaunayTriangulation2D triangulation, IVec2 minUV, IVec2 maxUV, CellVisitor visitor){
+	int tnum = triangulation.triangleNum();
+	double[] cx = new double[tnum], cy = new double[tnum];
+	for(int i=0; i<tnum; i++){
+	    int a = triangulation.vertex(i,0), b = triangulation.vertex(i,1), c = triangulation.vertex(i,2);
+	    double ax = triangulation.x[a], ay = triangulation.y[a];
+	    double bx = triangulation.x[b]-ax, by = triangulation.y[b]-ay;
+	    double qx = triangulation.x[c]-ax, qy = triangulation.y[c]-ay;
+	    double d = 2*(bx*qy-by*qx);
+	    double b2 = bx*bx+by*by, q2 = qx*qx+qy*qy;
+	    cx[i] = ax + (qy*b2-by*q2)/d;
+	    cy[i] = ay + (bx*q2-qx*b2)/d;
+	}
 	
-	IVec2[][] tri = IDelaunay2D.getTriangles(pts);
-	IVec2[] cnt = new IVec2[tri.length];
-	for(int i=0; i<tri.length; i++){ cnt[i] = circumcenter(tri[i]); }
-	
-	IVec2[][] cellPts = new IVec2[pts.length][];
-
-	IVec2[][][] connectedTriangles = new IVec2[pts.length][][];
+	boolean clip = minUV!=null && maxUV!=null;
+	double far = 0;
+	if(clip) far = Math.abs(maxUV.x-minUV.x)+Math.abs(maxUV.y-minUV.y);
 	
+	IVec2[] pts = triangulation.pts;
+	double[] poly = new double[64];
 	for(int i=0; i<pts.length; i++){
+	    int v = triangulation.vertexId[i]; // duplicated points are merged into v
+	    ArrayList<Integer> fan = triangulation.fan(v);
+	    int fnum = fan.size();
+	    if(fnum==0){ visitor.visit(i, pts[i], null); continue; }
+	    
+	    if(poly.length < fnum*2+4) poly = new double[fnum*4+8];
+	    int num=0;
+	    for(int j=0; j<fnum; j++){
+		int t = fan.get(j);
+		poly[num*2]=cx[t]; poly[num*2+1]=cy[t]; num++;
+	    }
 	    
-	    //ArrayList<IVec2> cpts = new ArrayList<IVec2>();
-	    ArrayList<IVec2[]> triangles = new ArrayList<IVec2[]>();
+	    int first = fan.get(0), last = fan.get(fnum-1);
+	    int k0 = indexOf(triangulation,first,v);
+	    boolean open = triangulation.neighbor(first,k0)<0;
 	    
-	    for(int j=0; j<tri.length; j++){
-		boolean match = false;
-		for(int k=0; k<tri[j].length && !match; k++){
-		    if(pts[i]==tri[j][k]){ match=true; }
-		}
-		if(match) triangles.add(tri[j]);
+	    if(open && clip){
+		// rays perpendicular to hull edges are cut by a line beyond the boundary and circumcenters,
+		// perpendicular to the bisector of the rays. the chord between ray ends on the line is outside of the boundary.
+		int v1 = triangulation.vertex(first,(k0+1)%3);
+		int v2 = triangulation.vertex(last,(indexOf(triangulation,last,v)+2)%3);
+		double sx = triangulation.x[v], sy = triangulation.y[v];
+		double d1x = triangulation.y[v1]-sy, d1y = -(triangulation.x[v1]-sx);
+		double d2x = sy-triangulation.y[v2], d2y = -(sx-triangulation.x[v2]);
+		double l1 = Math.sqrt(d1x*d1x+d1y*d1y), l2 = Math.sqrt(d2x*d2x+d2y*d2y);
+		d1x/=l1; d1y/=l1; d2x/=l2; d2y/=l2;
+		double nx = d1x+d2x, ny = d1y+d2y;
+		double nl = Math.sqrt(nx*nx+ny*ny);
+		if(nl>0){ nx/=nl; ny/=nl; }
+		else{ nx=d1x; ny=d1y; }
+		double dist = far;
+		double[] cornerx = { minUV.x, maxUV.x, maxUV.x, minUV.x }, cornery = { minUV.y, minUV.y, maxUV.y, maxUV.y };
+		for(int j=0; j<4; j++) dist = Math.max(dist, (cornerx[j]-sx)*nx+(cornery[j]-sy)*ny + far);
+		for(int j=0; j<num; j++) dist = Math.max(dist, (poly[j*2]-sx)*nx+(poly[j*2+1]-sy)*ny + far);
+		double f1 = (dist-(cx[first]-sx)*nx-(cy[first]-sy)*ny)/(d1x*nx+d1y*ny);
+		double f2 = (dist-(cx[last]-sx)*nx-(cy[last]-sy)*ny)/(d2x*nx+d2y*ny);
+		poly[num*2] = cx[last]+d2x*f2; poly[num*2+1] = cy[last]+d2y*f2; num++;
+		poly[num*2] = cx[first]+d1x*f1; poly[num*2+1] = cy[first]+d1y*f1; num++;
 	    }
 	    
-	    ArrayList<IVec2> edgePts = sortTriangleEdgePoint(pts[i],triangles);
-	    int ednum = edgePts.size();
-	    if(edgePts.get(0)==edgePts.get(ednum-1)){ // closed
-		IVec2[] circumcenters = new IVec2[ednum-1];
-		for(int j=0; j<ednum-1; j++){
-		    circumcenters[j] = circumcenter(pts[i],edgePts.get(j),edgePts.get(j+1));
-		}
-		//cellPts[i] = circumcenters;
-		cellPts[i] = pointsInsideBoundary(circumcenters, minUV, maxUV,true);
-		
-		//cellPts[i] = null; // for debug
+	    if(clip){
+		poly = clip(poly, num, minUV, maxUV);
+		num = poly.length/2;
 	    }
-	    else{ // open
-		if(ednum>=3){
-		IVec2[] circumcenters = new IVec2[ednum-1+2];
-		/*
-		for(int j=0; j<edgePts.size()-1; j++){
-		    circumcenters[j] = circumcenter(pts[i],edgePts.get(j),edgePts.get(j+1));
-		}
-		//cellPts[i] = closeWithBoundary(circumcenters, boundary);
-		//cellPts[i] = closeWithBoundary(circumcenters, minUV,maxUV);
-		cellPts[i]=circumcenters;
-		*/
-		
-		for(int j=0; j<ednum-1; j++){
-		    circumcenters[j+1] = circumcenter(pts[i],edgePts.get(j),edgePts.get(j+1));
-		}
-		
-		
-		//if(insideTriangle(circumcenters[1], pts[i],edgePts.get(0),edgePts.get(1))){
-		IVec2 cdir1 = pts[i].mid(edgePts.get(0)).dif(circumcenters[1]);
-		if(cdir1.dot(edgePts.get(0).dif(edgePts.get(1)))<0) cdir1.rev();
-		circumcenters[0] = circumcenters[1].cp(cdir1);
-		//}
-		//else{
-		//circumcenters[0] = pts[i].mid(edgePts.get(0)).dif(circumcenters[1]).rev().add(circumcenters[1]);
-		//}
-		
-		//if(insideTriangle(circumcenters[ednum-1], pts[i],edgePts.get(ednum-2),edgePts.get(ednum-1))){
-		IVec2 cdir2 = pts[i].mid(edgePts.get(ednum-1)).dif(circumcenters[ednum-1]);
-		if(cdir2.dot(edgePts.get(ednum-1).dif(edgePts.get(ednum-2)))<0) cdir2.rev();
-		circumcenters[ednum] = circumcenters[ednum-1].cp(cdir2);
-		//}
-		//else{
-		//circumcenters[ednum] = pts[i].mid(edgePts.get(ednum-1)).dif(circumcenters[ednum-1]).rev().add(circumcenters[ednum-1]);
-		//}
-		
-		//cellPts[i] = circumcenters;
-		//cellPts[i] = pointsInsideBoundary(circumcenters, minUV, maxUV,false);
-		//cellPts[i] = closeWithBoundary(circumcenters, minUV,maxUV);
-		
-		cellPts[i] = removeDuplicatedPoint(closeWithBoundary(circumcenters, minUV,maxUV),
-						   IConfig.parameterTolerance);
+	    
+	    ArrayList<IVec2> cell = new ArrayList<IVec2>(num);
+	    for(int j=0; j<num; j++){
+		IVec2 p = new IVec2(poly[j*2],poly[j*2+1]);
+		if(cell.size()==0 || !cell.get(cell.size()-1).eq(p,0)) cell.add(p); // duplicates at clipped corners
+	    }
+	    if(cell.size()>1 && (!open||clip) && cell.get(0).eq(cell.get(cell.size()-1),0)){
+		cell.remove(cell.size()-1);
+	    }
+	    visitor.visit(i, pts[i], cell.size()==0? null : cell.toArray(new IVec2[cell.size()]));
+	}
+    }
+    
+    static int indexOf(IDelaunayTriangulation2D triangulation, int t, int v){
+	for(int k=0; k<2; k++) if(triangulation.vertex(t,k)==v) return k;
+	return 2;
+    }
+    
+    /** clip convex polygon in xy array by rectangle (Sutherland-Hodgman)
+	@return clipped polygon in xy array
+    */
+    public static double[] clip(double[] poly, int num, IVec2 minUV, IVec2 maxUV){
+	double[] in = Arrays.copyOf(poly, num*2);
+	for(int side=0; side<4 && num>0; side++){
+	    double[] out = new double[(num+1)*2];
+	    int onum=0;
+	    for(int i=0; i<num; i++){
+		double px = in[i*2], py = in[i*2+1];
+		double qx = in[((i+1)%num)*2], qy = in[((i+1)%num)*2+1];
+		double dp = clipDistance(side, px, py, minUV, maxUV);
+		double dq = clipDistance(side, qx, qy, minUV, maxUV);
+		if(dp>=0){
+		    if(onum*2+4>out.length) out = Arrays.copyOf(out, out.length*2);
+		    out[onum*2]=px; out[onum*2+1]=py; onum++;
 		}
-		else{
-		    cellPts[i]=null;
+		if(dp>=0&&dq<0 || dp<0&&dq>=0){
+		    if(onum*2+4>out.length) out = Arrays.copyOf(out, out.length*2);
+		    double r = dp/(dp-dq);
+		    out[onum*2]=px+(qx-px)*r; out[onum*2+1]=py+(qy-py)*r; onum++;
 		}
 	    }
-	    
-	    //ISort.sort(cpts, new RadialComparator(pts[i]));
-	    //cellPts[i] = cpts.toArray(new IVec2[cpts.size()]);
+	    in = out;
+	    num = onum;
 	}
-	return cellPts;
+	return Arrays.copyOf(in, num*2);
     }
-
+    
+    /** signed distance to a side of the rectangle; positive inside */
+    static double clipDistance(int side, double x, double y, IVec2 minUV, IVec2 maxUV){
+	switch(side){
+	case 0: return x-minUV.x;
+	case 1: return maxUV.x-x;
+	case 2: return y-minUV.y;
+	}
+	return maxUV.y-y;
+    }
+    
+    /** receiver of voronoi cells calculated one by one */
+    public static interface CellVisitor{
+	/** @param index index of the input point
+	    @param site input point
+	    @param cell polygon of the cell. null if the cell cannot be calculated.
+	*/
+	public void visit(int index, IVec2 site, IVec2[] cell);
+    }
+    
     
     public static IVec2[] removeDuplicatedPoint(IVec2[] pts, double tolerance){
 	if(pts==null) return null;
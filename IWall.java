@@ -164,6 +164,10 @@ public class IWall extends IAgent{
 		    if(agents.get(i) instanceof IWall && agents.get(i)!=this){
 			if(((IWall)agents.get(i)).distToCrossing(particle) < dist) return; // particle bounce with other
 		    }
+		    else if(agents.get(i) instanceof ITriangleWallCollider){
+			double dist2 = ((ITriangleWallCollider)agents.get(i)).distToCrossing(particle);
+			if(dist2 >= 0 && dist2 < dist) return; // particle bounce with a wall in the collider
+		    }
 		}
 		bounce(particle);
 	    }
@@ -214,6 +218,10 @@ public class IWall extends IAgent{
 				return; // particle bounce with other
 			    }
 			}
+			else if(agents.get(i) instanceof ITriangleWallCollider){
+			    double dist2 = ((ITriangleWallCollider)agents.get(i)).distToCrossing(particle);
+			    if(dist2 >= 0 && dist2 < dist) return; // particle bounce with a wall in the collider
+			}
 		    }
 		}
 		
@@ -303,6 +311,10 @@ public class IWall extends IAgent{
 				return; // particle bounce with other
 			    }
 			}
+			else if(agents.get(i) instanceof ITriangleWallCollider){
+			    double dist2 = ((ITriangleWallCollider)agents.get(i)).distToCrossing(particle);
+			    if(dist2 >= 0 && dist2 < dist) return; // particle bounce with a wall in the collider
+			}
 		    }
 		}
 		
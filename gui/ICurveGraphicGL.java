@@ -27,11 +27,13 @@ package igeo.gui;
 import igeo.*;
 
 /**
-   Graphic subobject class to draw a curve object by OpenGL
+   Graphic subobject class to draw a curve object by OpenGL.
+   When IConfig.asyncTessellation is true, polyline of a curve with degree more than 1 is computed in background by ITessellator
+   and the control polygon is drawn as placeholder until it's ready.
    
    @author Satoru Sugihara
 */
-public class ICurveGraphicGL extends IGraphicObject{
+public class ICurveGraphicGL extends IGraphicObject implements ITessellator.Job{
     public /*static*/ float weight = IConfig.strokeWeight; //1f;
     
     public ICurveI curve; // parent
@@ -54,12 +56,52 @@ public class ICurveGraphicGL extends IGraphicObject{
     synchronized public void initCurve(){
 	synchronized(parent){
 	    
+	initCurveRef();
+	pts = polyline(pts);
+	
+	if(update) update=false;
+	}
+    }
+    
+    /** view is used to prioritize tessellation in ITessellator. it can be null. */
+    synchronized public void initCurve(IView view){
+	if(!ITessellator.enabled()){ initCurve(); return; }
+	
+	synchronized(parent){
+	    initCurveRef();
+	    if(update) update=false;
+	    if(curve.deg()==1){ pts = polyline(pts); return; }
+	    if(pts==null) pts = controlPolygon(); // placeholder. previous points are drawn while updating
+	}
+	ITessellator.get().request(this, ITessellator.priority(parent, view));
+    }
+    
+    /** tessellation stage without GL. implementation of ITessellator.Job. new points are computed outside of the lock of this graphic object and swapped in. */
+    public void tessellate(){
+	IVec[] p;
+	synchronized(parent){
+	    initCurveRef();
+	    p = polyline(null);
+	}
+	synchronized(this){ pts = p; }
+    }
+    
+    void initCurveRef(){
 	if(curve==null){ // added in 2011/10/18
 	    if(parent instanceof ICurve){ curve = ((ICurve)parent).curve; }
 	    else if(parent instanceof ICurveR){ curve = ((ICurveR)parent).curve; }
 	}
-	
-	//IVec[] pts=null;
+    }
+    
+    IVec[] controlPolygon(){
+	IVec[] cpts = new IVec[curve.num()];
+	for(int i=0; i<cpts.length; i++) cpts[i] = curve.cp(i).get().dup();
+	return cpts;
+    }
+    
+    /** points of polyline to draw the curve. they are set into buf if the length matches. it should be called inside synchronized(parent). */
+    public IVec[] polyline(IVec[] buf){
+	IVec[] pts = buf;
 	
 	if(curve.deg()==1){
 	    int num = curve.num();
@@ -87,9 +129,7 @@ public class ICurveGraphicGL extends IGraphicObject{
 	}
 	
 	//if(polyline==null || polyline.pts != pts){ polyline = new IGLLineStrip(pts); }
-	
-	if(update) update=false;
-	}
+	return pts;
     }
     
     public void setWeight(float w){ weight=w; }
@@ -103,7 +143,7 @@ public class ICurveGraphicGL extends IGraphicObject{
     synchronized public void draw(IGraphics g){
 	
 	if(curve==null || update /*&& curve.deg()>1*/ ) // now need to be updated with deg 1
-	    initCurve(); // not initizlized at the constructor // shouldn't it?
+	    initCurve(g.view()); // not initizlized at the constructor // shouldn't it?
 
 	if(g.type() == IGraphicMode.GraphicType.GL ||
 	   g.type() == IGraphicMode.GraphicType.P3D ){
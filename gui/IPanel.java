@@ -140,11 +140,15 @@ public class IPanel extends IComponent implements IPanelI /*IServerI*/ , MouseLi
 	// some initialization process
 	predraw(g);
 	
-	for(int i=0; i<panes.size(); i++){ 
-	    synchronized(IG.lock){ // shouldnt this be "ig"?
-		if(panes.get(i).isVisible()){ panes.get(i).draw(g); }
+	IParameterObject.beginCache(); // values of reference parameters are cached for one redraw
+	try{
+	    for(int i=0; i<panes.size(); i++){ 
+		synchronized(IG.lock){ // shouldnt this be "ig"?
+		    if(panes.get(i).isVisible()){ panes.get(i).draw(g); }
+		}
 	    }
 	}
+	finally{ IParameterObject.endCache(); }
 	
 	postdraw(g);
     }
@@ -31,10 +31,12 @@ import igeo.*;
 
 /**
    Graphic subobject class to draw filled faces of a surface object by OpenGL.
+   When IConfig.asyncTessellation is true, trimmed surfaces are triangulated in background by ITessellator
+   and coarse quads are drawn as placeholder until the triangles are ready.
    
    @author Satoru Sugihara
 */
-public class ISurfaceGraphicFillGL extends IGraphicObject{
+public class ISurfaceGraphicFillGL extends IGraphicObject implements ITessellator.Job{
     
     public static final boolean insertPointOnDegree1TwistedSurface=true;
     
@@ -52,13 +54,23 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
     public IVec[][] quadsNormal;
     public IVec[][] triangles;
     public IVec[][] trianglesNormal;
+    /** coarse quads within outer trim drawn until triangles are tessellated by ITessellator */
+    public IVec[][] placeholder;
+    public IVec[][] placeholderNormal;
     
     
     // cache to update surface 
     public double[] uvalCache, vvalCache;
     public IVec2[][] triangles2DCache;
+    /** basis cache to evaluate quads on uvalCache and vvalCache */
+    public ISurfaceGridEvaluator gridEvaluator;
+    double[] gridPts, gridNmls;
     
     public boolean initialized=false;
+    /** true when initialized to be drawn with triangles */
+    boolean trimmed=false;
+    /** true when the next tessellation by ITessellator needs to triangulate trims again */
+    boolean triangulate=false;
 
     int uepnum,vepnum; // added 20121111
     
@@ -94,20 +106,105 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	//initSurface();
     }
     
-    public void initSurface(){
+    public void initSurface(){ initSurface(null); }
+    
+    /** view is used to prioritize tessellation of trimmed surface in ITessellator. it can be null. */
+    public void initSurface(IView view){
 	//if(parent instanceof ISurface){ surface = ((ISurface)parent).surface; }
 	//else if(parent instanceof ISurfaceR){ surface = ((ISurfaceR)parent).surface; }
 	
 	uepnum = surface.uepNum();
 	vepnum = surface.vepNum();
 	
-	if(!surface.hasTrim()||!surface.hasInnerTrim()&&surface.hasDefaultTrim())
-	    initWithoutTrim(); // initialize IGLQuadMatrix
+	trimmed = !(!surface.hasTrim()||!surface.hasInnerTrim()&&surface.hasDefaultTrim());
+	
+	if(!trimmed) initWithoutTrim(); // initialize IGLQuadMatrix
+	else if(ITessellator.enabled()){
+	    if(triangles==null) initPlaceholder();
+	    requestTessellation(true, view);
+	}
 	else initWithTrim(); // initialize IGLTriangles
 	
 	initialized=true;
     }
     
+    /** queue this to ITessellator. if retriangulate is false, only points of triangles are evaluated again. */
+    public void requestTessellation(boolean retriangulate, IView view){
+	if(retriangulate){ synchronized(this){ triangulate=true; } }
+	ITessellator.get().request(this, ITessellator.priority(parent, view));
+    }
+    
+    /**
+       tessellation stage of trimmed surface without GL. implementation of ITessellator.Job.
+       new triangles are computed outside of the lock of this graphic object and swapped in at once.
+    */
+    public void tessellate(){
+	boolean retriangulate;
+	IVec2[][] triangles2D;
+	synchronized(this){
+	    retriangulate = triangulate || triangles2DCache==null;
+	    triangulate = false;
+	    triangles2D = triangles2DCache;
+	}
+	IVec[][] triangles3D, trianglesNml;
+	synchronized(parent){
+	    if(retriangulate) triangles2D = triangulateTrim();
+	    triangles3D = new IVec[triangles2D.length][3];
+	    trianglesNml = new IVec[triangles2D.length][3];
+	    evalTriangles(triangles2D, triangles3D, trianglesNml);
+	}
+	synchronized(this){
+	    triangles = triangles3D;
+	    trianglesNormal = trianglesNml;
+	    triangles2DCache = triangles2D;
+	    placeholder = null;
+	    placeholderNormal = null;
+	}
+    }
+    
+    /** set placeholder quads on the uv range of control points of outer trims at edit point resolution */
+    synchronized public void initPlaceholder(){
+	synchronized(parent){
+	    
+	double umin=0, umax=1, vmin=0, vmax=1;
+	if(surface.hasOuterTrim()){
+	    umin=vmin=1; umax=vmax=0;
+	    for(int i=0; i<surface.outerTrimLoopNum(); i++){
+		ITrimCurveI[] loop = surface.outerTrimLoop(i);
+		for(int j=0; j<loop.length; j++){
+		    ITrimCurve crv = loop[j].get();
+		    for(int k=0; k<crv.num(); k++){
+			IVec uv = crv.cp(k).get();
+			if(uv.x<umin) umin=uv.x;
+			if(uv.x>umax) umax=uv.x;
+			if(uv.y<vmin) vmin=uv.y;
+			if(uv.y>vmax) vmax=uv.y;
+		    }
+		}
+	    }
+	    if(umin<0) umin=0;
+	    if(umax>1) umax=1;
+	    if(vmin<0) vmin=0;
+	    if(vmax>1) vmax=1;
+	    if(umin>=umax || vmin>=vmax){ placeholder=null; placeholderNormal=null; return; }
+	}
+	
+	int unum = Math.max(surface.uepNum(), 2);
+	int vnum = Math.max(surface.vepNum(), 2);
+	placeholder = new IVec[unum][vnum];
+	placeholderNormal = new IVec[unum][vnum];
+	for(int i=0; i<unum; i++){
+	    double u = umin + (umax-umin)*i/(unum-1);
+	    for(int j=0; j<vnum; j++){
+		double v = vmin + (vmax-vmin)*j/(vnum-1);
+		placeholder[i][j] = surface.pt(u,v).get();
+		placeholderNormal[i][j] = surface.normal(u,v).get().unit();
+	    }
+	}
+	
+	}
+    }
+    
     synchronized public void initWithoutTrim(){
 	synchronized(parent){
 	
@@ -199,12 +296,7 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	
 	IVec[][] pts = new IVec[uval.length][vval.length];
 	IVec[][] nrm = new IVec[uval.length][vval.length];
-	for(int i=0; i<uval.length; i++){
-	    for(int j=0; j<vval.length; j++){
-		pts[i][j] = surface.pt(uval[i], vval[j]).get();
-		nrm[i][j] = surface.normal(uval[i], vval[j]).get().unit();
-	    }
-	}
+	evalGrid(uval, vval, pts, nrm);
 	
 	//quadMatrix = new IGLQuadMatrix(pts,nrm);
 	quads = pts;
@@ -216,9 +308,49 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	}
     }
     
+    /** evaluate points and unit normals on the grid of uval and vval into pts and nrm */
+    public void evalGrid(double[] uval, double[] vval, IVec[][] pts, IVec[][] nrm){
+	ISurfaceGeo geo = surface.get();
+	if(gridEvaluator==null || !gridEvaluator.isValid(geo, uval, vval)){
+	    gridEvaluator = geo.gridEvaluator(uval, vval);
+	}
+	int num = uval.length*vval.length*3;
+	if(gridPts==null || gridPts.length!=num){
+	    gridPts = new double[num];
+	    gridNmls = new double[num];
+	}
+	gridEvaluator.eval(gridPts, gridNmls);
+	for(int i=0, idx=0; i<uval.length; i++){
+	    for(int j=0; j<vval.length; j++, idx+=3){
+		if(pts[i][j]==null) pts[i][j] = new IVec(gridPts[idx], gridPts[idx+1], gridPts[idx+2]);
+		else pts[i][j].set(gridPts[idx], gridPts[idx+1], gridPts[idx+2]);
+		if(nrm[i][j]==null) nrm[i][j] = new IVec(gridNmls[idx], gridNmls[idx+1], gridNmls[idx+2]);
+		else nrm[i][j].set(gridNmls[idx], gridNmls[idx+1], gridNmls[idx+2]);
+		nrm[i][j].unit();
+	    }
+	}
+    }
+    
     synchronized public void initWithTrim(){
 	synchronized(parent){
-	    
+	
+	IVec2[][] triangles2D = triangulateTrim();
+	IVec[][] triangles3D = new IVec[triangles2D.length][3];
+	IVec[][] trianglesNml = new IVec[triangles2D.length][3];
+	evalTriangles(triangles2D, triangles3D, trianglesNml);
+	
+	//triangles = new IGLTriangles(triangles3D,trianglesNormal);
+	triangles = triangles3D;
+	trianglesNormal = trianglesNml;
+	
+	triangles2DCache = triangles2D;
+	placeholder = null;
+	
+	}
+    }
+    
+    /** triangulate the trimmed surface in uv space. fields are not modified. it should be called inside synchronized(parent). */
+    public IVec2[][] triangulateTrim(){
 	ITrimLoopGraphic[] outtrims = null;
         ITrimLoopGraphic[] intrims = null;
         
@@ -367,24 +499,17 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	    }
 	}
 	
-	IVec2[][] triangles2D = ISurfaceMesh.getTriangles(surfPts,outerPts,innerPts);
-		
-	IVec[][] triangles3D = new IVec[triangles2D.length][3];
-	IVec[][] trianglesNml = new IVec[triangles2D.length][3];
+	return ISurfaceMesh.getTriangles(surfPts,outerPts,innerPts);
+    }
+    
+    /** evaluate points and unit normals at uv vertices of triangles2D into pts and nml. it should be called inside synchronized(parent). */
+    public void evalTriangles(IVec2[][] triangles2D, IVec[][] pts, IVec[][] nml){
 	for(int i=0; i<triangles2D.length; i++){
 	    for(int j=0; j<triangles2D[i].length; j++){
-		triangles3D[i][j] = surface.pt(triangles2D[i][j]).get();
-		trianglesNml[i][j] = surface.normal(triangles2D[i][j]).get().unit();
+		pts[i][j] = surface.pt(triangles2D[i][j]).get();
+		nml[i][j] = surface.normal(triangles2D[i][j]).get().unit();
 	    }
 	}
-	
-	//triangles = new IGLTriangles(triangles3D,trianglesNormal);
-	triangles = triangles3D;
-	trianglesNormal = trianglesNml;
-	
-	triangles2DCache = triangles2D;
-
-	}
     }
     
     synchronized public void updateWithoutTrim(){
@@ -400,12 +525,7 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	    quads = new IVec[uvalCache.length][vvalCache.length];
 	    quadsNormal = new IVec[uvalCache.length][vvalCache.length];
 	}
-	for(int i=0; i<uvalCache.length; i++){
-	    for(int j=0; j<vvalCache.length; j++){
-		quads[i][j] = surface.pt(uvalCache[i], vvalCache[j]).get();
-		quadsNormal[i][j] = surface.normal(uvalCache[i], vvalCache[j]).get().unit();
-	    }
-	}
+	evalGrid(uvalCache, vvalCache, quads, quadsNormal);
 	/*
 	if(quadMatrix!=null &&
 	   quadMatrix.width() == uvalCache.length &&
@@ -446,12 +566,7 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	    triangles = new IVec[triangles2DCache.length][3];
 	    trianglesNormal = new IVec[triangles2DCache.length][3];
 	}
-	for(int i=0; i<triangles2DCache.length; i++){
-	    for(int j=0; j<triangles2DCache[i].length; j++){
-		triangles[i][j] = surface.pt(triangles2DCache[i][j]).get();
-		trianglesNormal[i][j] = surface.normal(triangles2DCache[i][j]).get().unit();
-	    }
-	}
+	evalTriangles(triangles2DCache, triangles, trianglesNormal);
 	
 	/*
 	if(triangles==null || triangles.length!=triangles2DCache.length){
@@ -493,12 +608,18 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	}
     }
     
-    public void updateSurface(){
-
-	if(uepnum!=surface.uepNum() || vepnum!=surface.vepNum()){ initSurface(); return; }
+    public void updateSurface(){ updateSurface(null); }
+    
+    public void updateSurface(IView view){
+	
+	if(uepnum!=surface.uepNum() || vepnum!=surface.vepNum()){ initSurface(view); return; }
 	
 	if(quads!=null) updateWithoutTrim();
-	if(triangles!=null) updateWithTrim();
+	if(trimmed){
+	    if(ITessellator.enabled()) requestTessellation(false, view); // previous triangles are drawn until updated
+	    else if(triangles==null) initWithTrim();
+	    else updateWithTrim();
+	}
 	//if(quadMatrix!=null) updateWithoutTrim();
 	//if(triangles!=null) updateWithTrim();
     }
@@ -514,8 +635,8 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 	
 	
 	//if(surface==null) initSurface(); // not initizlized at the constructor // shouldn't it?
-	if(!initialized) initSurface();
-	else if(update){ updateSurface(); update=false; }
+	if(!initialized) initSurface(g.view());
+	else if(update){ updateSurface(g.view()); update=false; }
 	
 	if(g.type() == IGraphicMode.GraphicType.GL||
 	   g.type() == IGraphicMode.GraphicType.P3D){
@@ -568,6 +689,7 @@ public class ISurfaceGraphicFillGL extends IGraphicObject{
 			g3d.drawTriangles(triangles[i], trianglesNormal[i]);
 		}
 	    }
+	    else if(placeholder!=null){ g3d.drawQuadMatrix(placeholder,placeholderNormal); }
 	    
 	    /*
 	    if(quadMatrix!=null){
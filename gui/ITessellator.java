@@ -0,0 +1,172 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo.gui;
+
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import igeo.*;
+
+/**
+   Worker pool to tessellate trimmed surfaces and curves for graphic objects in background threads.
+   Requested jobs are queued by priority; objects looking larger in the view are tessellated first
+   and objects behind the view are tessellated after all the others.
+   A job is queued only once at a time and a request during its execution runs it again after it finishes.
+   Job.tessellate() computes buffers without GL and swaps them into the graphic object.
+   
+   @author Satoru Sugihara
+*/
+public class ITessellator{
+    
+    /** graphic object whose buffers are computed by ITessellator */
+    public interface Job{
+	/** compute buffers and set them to the graphic object. called in a worker thread without GL context. */
+	public void tessellate();
+    }
+    
+    static ITessellator defaultTessellator;
+    
+    /** shared tessellator of graphic objects, created at the first call */
+    synchronized public static ITessellator get(){
+	if(defaultTessellator==null) defaultTessellator = new ITessellator(IConfig.tessellationThreadNum);
+	return defaultTessellator;
+    }
+    
+    /** true if graphic objects tessellate trimmed surfaces and curves in background */
+    public static boolean enabled(){ return IConfig.asyncTessellation; }
+    
+    
+    ThreadPoolExecutor executor;
+    HashMap<Job,Task> tasks = new HashMap<Job,Task>();
+    long count=0;
+    
+    /** @param threadNum number of worker threads. if zero or negative, number of available processors minus one (at least one) is used. */
+    public ITessellator(int threadNum){
+	if(threadNum<=0) threadNum = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+	executor = new ThreadPoolExecutor(threadNum, threadNum, 0L, TimeUnit.MILLISECONDS,
+					  new PriorityBlockingQueue<Runnable>(),
+					  new ThreadFactory(){
+					      public Thread newThread(Runnable r){
+						  Thread t = new Thread(r, "tessellator");
+						  t.setDaemon(true);
+						  t.setPriority(Thread.NORM_PRIORITY-1);
+						  return t;
+					      }
+					  });
+    }
+    
+    /** queue the job. if it's already queued, the request is ignored. if it's running, it runs again after finishing. */
+    synchronized public void request(Job job, double priority){
+	Task t = tasks.get(job);
+	if(t!=null){
+	    if(t.running) t.again=true;
+	    return;
+	}
+	t = new Task(job, priority, count++);
+	tasks.put(job, t);
+	executor.execute(t);
+    }
+    
+    /** remove the job from the queue if it's not running yet */
+    synchronized public void cancel(Job job){
+	Task t = tasks.get(job);
+	if(t==null) return;
+	if(t.running){ t.again=false; return; }
+	executor.remove(t);
+	tasks.remove(job);
+	if(tasks.isEmpty()) notifyAll();
+    }
+    
+    synchronized public boolean isQueued(Job job){ return tasks.containsKey(job); }
+    
+    /** number of jobs queued or running */
+    synchronized public int num(){ return tasks.size(); }
+    
+    /** wait until all the queued jobs are finished. this should not be called while holding a lock of a graphic object like inside draw method. */
+    synchronized public void waitForAll(){
+	while(!tasks.isEmpty()){
+	    try{ wait(); }
+	    catch(InterruptedException e){ Thread.currentThread().interrupt(); return; }
+	}
+    }
+    
+    public void shutdown(){ executor.shutdownNow(); }
+    
+    synchronized void finish(Task t){
+	if(t.again){
+	    t.again=false;
+	    t.running=false;
+	    executor.execute(t);
+	    return;
+	}
+	tasks.remove(t.job);
+	if(tasks.isEmpty()) notifyAll();
+    }
+    
+    
+    /**
+       priority of an object by its size in the view; the ratio of the radius of the bounding box to the distance from the eye in perspective view.
+       objects entirely behind the eye get negative priority. without view, the radius itself is returned.
+    */
+    public static double priority(IObject obj, IView view){
+	IBounds bounds = new IBounds(obj);
+	if(bounds.min()==null) return 0;
+	double radius = bounds.max().dist(bounds.min())/2;
+	if(view==null || view.isAxonometric()) return radius;
+	IVec dif = bounds.center().dif(view.getLocation());
+	double dist = dif.len();
+	if(dist<=radius) return 1;
+	if(dif.dot(view.frontDirection()) < -radius) return radius/dist - 1;
+	return radius/dist;
+    }
+    
+    
+    class Task implements Runnable, Comparable<Task>{
+	Job job;
+	double priority;
+	long order;
+	boolean running=false, again=false;
+	
+	Task(Job job, double priority, long order){
+	    this.job = job;
+	    this.priority = priority;
+	    this.order = order;
+	}
+	
+	public void run(){
+	    synchronized(ITessellator.this){ running=true; }
+	    try{ job.tessellate(); }
+	    catch(RuntimeException e){ IOut.err("tessellation failed: "+e); e.printStackTrace(); }
+	    finally{ finish(this); }
+	}
+	
+	public int compareTo(Task t){
+	    if(priority > t.priority) return -1;
+	    if(priority < t.priority) return 1;
+	    return order<t.order?-1:order>t.order?1:0;
+	}
+    }
+}
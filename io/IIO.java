@@ -32,12 +32,13 @@ import igeo.*;
 */
 public class IIO{
     
-    public enum FileType{ RHINO, OBJ, _3DXML, AI, OTHER };
+    public enum FileType{ RHINO, OBJ, _3DXML, AI, SNAPSHOT, OTHER };
     
     public static final String extensionObj = "obj";
     public static final String extensionRhino = "3dm";
     public static final String extension3DXML = "3dxml";
     public static final String extensionAI = "ai";
+    public static final String extensionSnapshot = "igeo";
     
     
     public static boolean isExtension(String filename, String extension){
@@ -57,6 +58,7 @@ public class IIO{
 	if(isExtension(filename, extensionObj)) return FileType.OBJ;
 	if(isExtension(filename, extension3DXML)) return FileType._3DXML;
 	if(isExtension(filename, extensionAI)) return FileType.AI;
+	if(isExtension(filename, extensionSnapshot)) return FileType.SNAPSHOT;
 	return FileType.OTHER;
     }
     
@@ -67,6 +69,7 @@ public class IIO{
 	if(type == FileType.OBJ) return openOBJ(new File(filename),server);
 	if(type == FileType.RHINO) return openRhino(new File(filename),server);
 	if(type == FileType._3DXML) return open3DXML(new File(filename),server);
+	if(type == FileType.SNAPSHOT) return openSnapshot(new File(filename),server);
 	IOut.err("file extension ."+getExtension(filename)+" is not supported");
 	return false;
     }
@@ -76,6 +79,7 @@ public class IIO{
 	if(type == FileType.OBJ) return openOBJ(file,server);
 	if(type == FileType.RHINO) return openRhino(file,server);
 	if(type == FileType._3DXML) return open3DXML(file,server);
+	if(type == FileType.SNAPSHOT) return openSnapshot(file,server);
 	IOut.err("file extension ."+getExtension(file.getName())+" is not supported");
 	return false;
     }
@@ -106,6 +110,12 @@ public class IIO{
 	    //open3DXML(filename,server); // InputStream version to be implemented
 	    //return true; // ?
 	}
+	if(type == FileType.SNAPSHOT){
+	    InputStream is = wrapper.getStream(filename);
+	    boolean retval = openSnapshot(is,server);
+	    try{ is.close(); } catch(IOException e){ e.printStackTrace(); }
+	    return retval;
+	}
 	
 	IOut.err("file extension ."+getExtension(filename)+" is not supported");
 	return false;
@@ -187,11 +197,31 @@ public class IIO{
 	return false;
     }
     
+    public static boolean openSnapshot(File file, IServerI server){
+	IOut.debug(0, "opening snapshot file "+file);
+	if(ISnapshotImporter.read(file,server)!=null){
+	    IOut.debug(0,"opening complete");
+	    return true;
+	}
+	IOut.err("error occured in opening file "+file.toString());
+	return false;
+    }
+    
+    public static boolean openSnapshot(InputStream istream, IServerI server){
+	if(ISnapshotImporter.read(istream,server)!=null){
+	    IOut.debug(0,"opening complete");
+	    return true;
+	}
+	IOut.err("error occured in opening snapshot file");
+	return false;
+    }
+    
     public static boolean save(String filename, IServerI server){
 	FileType type = getFileType(filename);
 	if(type == FileType.OBJ) return saveOBJ(new File(filename),server);
 	if(type == FileType.RHINO) return saveRhino(new File(filename),server);
 	if(type == FileType.AI) return saveAI(new File(filename),server);
+	if(type == FileType.SNAPSHOT) return saveSnapshot(new File(filename),server);
 	IOut.err("file extension ."+getExtension(filename)+" is not supported");
 	return false;
     }
@@ -201,6 +231,7 @@ public class IIO{
 	if(type == FileType.OBJ) return saveOBJ(file,server);
 	if(type == FileType.RHINO) return saveRhino(file,server);
 	if(type == FileType.AI) return saveAI(file,server); 
+	if(type == FileType.SNAPSHOT) return saveSnapshot(file,server);
 	IOut.err("file extension ."+getExtension(file.getName())+" is not supported");
 	return false;
     }
@@ -226,6 +257,16 @@ public class IIO{
 	return false;
     }
     
+    public static boolean saveSnapshot(File file, IServerI server){
+	IOut.debug(0,"saving snapshot file: "+file);
+	if(ISnapshotExporter.write(file,server)){
+	    IOut.debug(0,"saving complete"); 
+	    return true;
+	}
+	IOut.err("error occured in saving file "+file.toString());
+	return false;
+    }
+    
     public static boolean saveAI(File file, IServerI server){
 	return saveAI(file,server,IConfig.defaultAIExportScale);
     }
@@ -26,6 +26,9 @@ import java.io.*;
 import java.awt.*;
 import java.util.*;
 import java.text.*;
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import igeo.*;
 import igeo.gui.*;
@@ -45,6 +48,13 @@ public class IObjFileExporter{
     
     protected HashMap<IVertex, int[]> vertexMap;
     
+    /** format lines of large meshes in chunks on multiple threads. Default is true */
+    public static boolean parallelMesh=true;
+    /** number of threads to format meshes. If zero or negative, number of available processors is used. */
+    public static int meshThreadNum=0;
+    /** number of vertex or face lines in a chunk formatted by one thread */
+    public static int linesPerChunk=16384;
+    
     public IObjFileExporter(){}
     
     public void init(){
@@ -54,6 +64,7 @@ public class IObjFileExporter{
         normalVertexNumber=1;
         objectNumber=1;
         curve2DNumber=1;
+	vertexMap=null;
 	
 	f = NumberFormat.getInstance();
 	if(f instanceof DecimalFormat){
@@ -77,7 +88,7 @@ public class IObjFileExporter{
     */
     static public boolean write(String filename, IServerI server){
 	PrintStream ps = null;
-	try{ ps = new PrintStream(new FileOutputStream(filename)); }
+	try{ ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename), 1<<16)); }
 	catch(Exception e){ e.printStackTrace(); }
 	
 	if(ps==null){
@@ -100,7 +111,7 @@ public class IObjFileExporter{
     */
     static public boolean write(File file, IServerI server){
 	PrintStream ps = null;
-	try{ ps = new PrintStream(new FileOutputStream(file)); }
+	try{ ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16)); }
 	catch(Exception e){ e.printStackTrace(); }
 	
 	if(ps==null){
@@ -490,46 +501,124 @@ public class IObjFileExporter{
 	@param mesh Polygon mesh object.
     */
     public void writeMesh(PrintStream ps, IMeshI mesh){
-        for(int i=0; i<mesh.vertexNum(); i++) writeVertex(ps, mesh.vertex(i));
-        for(int i=0; i<mesh.faceNum(); i++) writeFace(ps, mesh.face(i)); 
+	int vnum = mesh.vertexNum();
+	int fnum = mesh.faceNum();
+	IVertex[] vertices = new IVertex[vnum];
+	IFace[] faces = new IFace[fnum];
+	for(int i=0; i<vnum; i++){ vertices[i] = mesh.vertex(i); addVertex(vertices[i]); }
+	for(int i=0; i<fnum; i++){ faces[i] = mesh.face(i); }
+	
+	int threadNum = meshThreadNum>0?meshThreadNum:Runtime.getRuntime().availableProcessors();
+	if(!parallelMesh || threadNum<=1 || vnum+fnum < 2*linesPerChunk){
+	    AsciiBuffer buf = new AsciiBuffer(1<<16);
+	    for(int i=0; i<vnum; i++){
+		appendVertex(buf, vertices[i]);
+		if(buf.length >= 1<<15){ buf.writeTo(ps); buf.clear(); }
+	    }
+	    for(int i=0; i<fnum; i++){
+		appendFace(buf, faces[i]);
+		if(buf.length >= 1<<15){ buf.writeTo(ps); buf.clear(); }
+	    }
+	    buf.writeTo(ps);
+	    return;
+	}
+	
+	// lines are formatted in chunks on multiple threads and written in order
+	ForkJoinPool pool = new ForkJoinPool(threadNum);
+	try{
+	    int chunkNum = (vnum+fnum+linesPerChunk-1)/linesPerChunk;
+	    AsciiBuffer[] bufs = new AsciiBuffer[Math.min(chunkNum, threadNum*2)];
+	    for(int i=0; i<chunkNum; i+=bufs.length){
+		int num = Math.min(bufs.length, chunkNum-i);
+		pool.invoke(new FormatTask(this, vertices, faces, bufs, i, 0, num));
+		for(int j=0; j<num; j++){ bufs[j].writeTo(ps); }
+	    }
+	}
+	finally{ pool.shutdown(); }
+    }
+    
+    /** formatting lines of vertices and faces of a mesh from chunk index (offset+from) to (offset+to) into bufs[from] to bufs[to-1] */
+    static class FormatTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	IObjFileExporter exporter;
+	IVertex[] vertices;
+	IFace[] faces;
+	AsciiBuffer[] bufs;
+	int offset, from, to;
+	
+	FormatTask(IObjFileExporter exporter, IVertex[] vertices, IFace[] faces, AsciiBuffer[] bufs, int offset, int from, int to){
+	    this.exporter=exporter;
+	    this.vertices=vertices;
+	    this.faces=faces;
+	    this.bufs=bufs;
+	    this.offset=offset;
+	    this.from=from;
+	    this.to=to;
+	}
+	
+	protected void compute(){
+	    if(to-from>1){
+		int mid = (from+to)>>>1;
+		invokeAll(new FormatTask(exporter, vertices, faces, bufs, offset, from, mid),
+			  new FormatTask(exporter, vertices, faces, bufs, offset, mid, to));
+		return;
+	    }
+	    if(bufs[from]==null) bufs[from] = new AsciiBuffer(linesPerChunk*32);
+	    AsciiBuffer buf = bufs[from];
+	    buf.clear();
+	    int start = (offset+from)*linesPerChunk;
+	    int end = Math.min(start+linesPerChunk, vertices.length+faces.length);
+	    for(int i=start; i<end; i++){
+		if(i<vertices.length) exporter.appendVertex(buf, vertices[i]);
+		else exporter.appendFace(buf, faces[i-vertices.length]);
+	    }
+	}
     }
     
     public void writeVertex(PrintStream ps, IVertex vertex){
+	addVertex(vertex);
+	AsciiBuffer buf = new AsciiBuffer(128);
+	appendVertex(buf, vertex);
+	buf.writeTo(ps);
+    }
+    
+    /** numbering a vertex and its texture and normal */
+    public void addVertex(IVertex vertex){
 	if(vertexMap==null) vertexMap = new HashMap<IVertex,int[]>();
-	
 	int[] referenceNum = new int[3];
+	referenceNum[0] = vertexNumber++;
+	referenceNum[1] = vertex.texture()!=null ? textureVertexNumber++ : -1;
+	referenceNum[2] = vertex.normal()!=null ? normalVertexNumber++ : -1;
+	vertexMap.put(vertex,referenceNum);
+    }
+    
+    /** appending lines of a vertex added by addVertex */
+    public void appendVertex(AsciiBuffer buf, IVertex vertex){
 	IVec v = vertex.get();
-	ps.println("v "+f.format(v.x)+" "+f.format(v.y)+" "+f.format(v.z));
-	referenceNum[0] = vertexNumber;
-	vertexNumber++;
-	
-        if(vertex.texture()!=null){
+	buf.append("v ").append(v.x).append(' ').append(v.y).append(' ').append(v.z).newLine();
+	if(vertex.texture()!=null){
 	    IVec2 t = vertex.texture().get();
-            ps.println("vt "+f.format(t.x)+" "+f.format(t.y));
-	    referenceNum[1] = textureVertexNumber;
-            textureVertexNumber++;
-        }
-	else{ referenceNum[1] = -1; }
-	
+	    buf.append("vt ").append(t.x).append(' ').append(t.y).newLine();
+	}
 	if(vertex.normal()!=null){
 	    IVec n = vertex.normal().get();
-            ps.println("vn "+f.format(n.x)+" "+f.format(n.y)+" "+f.format(n.z));
-	    referenceNum[2] = normalVertexNumber;
-            normalVertexNumber++;
-        }
-	else{ referenceNum[2] = -1; }
-	
-	vertexMap.put(vertex,referenceNum);
+	    buf.append("vn ").append(n.x).append(' ').append(n.y).append(' ').append(n.z).newLine();
+	}
     }
     
     public void writeFace(PrintStream ps, IFace face){
-        
-        //for(int i=0; i<vertices.length; i++) writer.print(" "+vertices[i].referenceNum);
-        
-        int[][] vertexRef = new int[face.vertexNum()][];
+	AsciiBuffer buf = new AsciiBuffer(64);
+	appendFace(buf, face);
+	buf.writeTo(ps);
+    }
+    
+    public void appendFace(AsciiBuffer buf, IFace face){
+	
+	int num = face.vertexNum();
+	int[][] vertexRef = new int[num][];
 	boolean missingVertex=false;
 	if(vertexMap==null) missingVertex=true; 
-	for(int i=0; i<face.vertexNum()&&!missingVertex; i++){
+	for(int i=0; i<num&&!missingVertex; i++){
 	    vertexRef[i] = vertexMap.get(face.vertex(i));
 	    if(vertexRef[i]==null) missingVertex=true;
 	}
@@ -542,24 +631,148 @@ public class IObjFileExporter{
 	boolean writeNormal=true;
         boolean writeTexture=true;
 	// only when all the vertices have normal / texture, it's saved
-	for(int i=0; i<vertexRef.length&&writeTexture; i++) if(vertexRef[i][1] < 0) writeTexture=false;
-        for(int i=0; i<vertexRef.length&&writeNormal; i++) if(vertexRef[i][2] < 0) writeNormal=false;
+	for(int i=0; i<num&&writeTexture; i++) if(vertexRef[i][1] < 0) writeTexture=false;
+        for(int i=0; i<num&&writeNormal; i++) if(vertexRef[i][2] < 0) writeNormal=false;
         
-	ps.print("f");
-        for(int i=0; i<vertexRef.length; i++){
+	buf.append('f');
+        for(int i=0; i<num; i++){
 	    
 	    // fold line when it's too long?
 	    
-            ps.print(" "+vertexRef[i][0]);
+            buf.append(' ').append(vertexRef[i][0]);
             if(writeNormal||writeTexture){
-                ps.print("/");
-                if(writeTexture) ps.print(vertexRef[i][1]);
-                ps.print("/");
-                if(writeNormal) ps.print(vertexRef[i][2]);
+                buf.append('/');
+                if(writeTexture) buf.append(vertexRef[i][1]);
+                buf.append('/');
+                if(writeNormal) buf.append(vertexRef[i][2]);
             }
         }
-        ps.println();
+        buf.newLine();
     }
     
     
+    /** growing byte buffer of ASCII text with number formatting without creating String */
+    public static class AsciiBuffer{
+	public byte[] buf;
+	public int length;
+	
+	static final double[] pow10 = new double[]{
+	    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+	    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	static final long[] lpow10 = new long[]{
+	    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+	    10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+	    1000000000000000L, 10000000000000000L
+	};
+	/** 2^53 */
+	static final double maxExact = 9007199254740992.;
+	
+	public AsciiBuffer(int capacity){ buf = new byte[capacity]; }
+	
+	void ensure(int len){
+	    if(length+len > buf.length){
+		byte[] b = new byte[Math.max(buf.length*2, length+len)];
+		System.arraycopy(buf, 0, b, 0, length);
+		buf = b;
+	    }
+	}
+	
+	public AsciiBuffer append(char c){
+	    ensure(1);
+	    buf[length++] = (byte)c;
+	    return this;
+	}
+	
+	public AsciiBuffer append(String s){
+	    int len = s.length();
+	    ensure(len);
+	    for(int i=0; i<len; i++) buf[length++] = (byte)s.charAt(i);
+	    return this;
+	}
+	
+	/** line separator of the platform, same with PrintStream.println() */
+	static final String lineSeparator = System.getProperty("line.separator");
+	
+	public AsciiBuffer newLine(){ return append(lineSeparator); }
+	
+	public AsciiBuffer append(long l){
+	    if(l<0){
+		if(l==Long.MIN_VALUE) return append(String.valueOf(l));
+		append('-');
+		l = -l;
+	    }
+	    int digits=1;
+	    for(long d=10; digits<19 && l>=d; d*=10) digits++;
+	    ensure(digits);
+	    for(int i=length+digits-1; i>=length; i--){
+		buf[i] = (byte)('0'+(int)(l%10));
+		l/=10;
+	    }
+	    length+=digits;
+	    return this;
+	}
+	
+	public AsciiBuffer append(int i){ return append((long)i); }
+	
+	/** shortest decimal without exponent which is parsed back to the same double.
+	    When more than 15 digits are needed, it's converted through Double.toString. */
+	public AsciiBuffer append(double d){
+	    if(Double.isNaN(d) || Double.isInfinite(d)) return append(String.valueOf(d));
+	    if(d==0) return append(1/d<0?"-0":"0");
+	    
+	    double a = Math.abs(d);
+	    if(a < maxExact){
+		for(int k=0; k<lpow10.length; k++){
+		    double s = a*pow10[k];
+		    if(s >= maxExact) break;
+		    long m = (long)(s+0.5);
+		    if(m/pow10[k] == a){
+			m = closest(a, k, m);
+			if(d<0) append('-');
+			append(m/lpow10[k]);
+			if(k>0){
+			    long frac = m%lpow10[k];
+			    ensure(k+1);
+			    buf[length++] = '.';
+			    for(int i=length+k-1; i>=length; i--){
+				buf[i] = (byte)('0'+(int)(frac%10));
+				frac/=10;
+			    }
+			    length+=k;
+			}
+			return this;
+		    }
+		}
+	    }
+	    return append(new BigDecimal(Double.toString(d)).stripTrailingZeros().toPlainString());
+	}
+	
+	/** among m-1, m and m+1 which are parsed back to a when divided by 10^k, the closest one to a*10^k.
+	    the product is evaluated exactly as the sum of two doubles by Dekker's algorithm */
+	static long closest(double a, int k, long m){
+	    double p = pow10[k];
+	    double hi = a*p;
+	    double ca = a*134217729., ah = ca-(ca-a), al = a-ah; // 2^27+1
+	    double cp = p*134217729., ph = cp-(cp-p), pl = p-ph;
+	    double lo = ((ah*ph-hi)+ah*pl+al*ph)+al*pl;
+	    long best = m;
+	    double err = Math.abs((hi-m)+lo);
+	    for(long c=m-1; c<=m+1; c+=2){
+		if(c>=0 && c/p == a){
+		    double e = Math.abs((hi-c)+lo);
+		    if(e<err){ best=c; err=e; }
+		}
+	    }
+	    return best;
+	}
+	
+	public void writeTo(OutputStream os){
+	    try{ os.write(buf, 0, length); }
+	    catch(IOException e){ e.printStackTrace(); }
+	}
+	
+	public void clear(){ length=0; }
+    }
+    
 }
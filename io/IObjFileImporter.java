@@ -25,6 +25,9 @@ package igeo.io;
 import java.io.*;
 import java.awt.*;
 import java.util.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import igeo.*;
 import igeo.gui.*;
@@ -45,6 +48,16 @@ public class IObjFileImporter {
     
     public static final boolean ignoreLayers=false; //true; //false; //true; //false; 
     
+    /** read files which contain only polygon meshes (v, vt, vn, f and attribute lines) from bytes into primitive arrays.
+	Files with other entities are read by the line-by-line parser. Default is true */
+    public static boolean fastMeshParsing=true;
+    /** parse chunks of a large file on multiple threads. Default is true */
+    public static boolean parallelParsing=true;
+    /** number of threads to parse a file. If zero or negative, number of available processors is used. */
+    public static int parsingThreadNum=0;
+    /** approximate number of bytes in a chunk parsed by one thread */
+    public static int bytesPerChunk=1<<20;
+    
     public static class Entity{ // pool to keep data
 	public ArrayList<EntityData> data;
 	public ArrayList<Entity> entities; // all other entities
@@ -1228,6 +1241,429 @@ public class IObjFileImporter {
     }
     
 
+    /** labels of entities which only end a run of faces in the fast mesh parser */
+    static final String[] attributeLabels = new String[]{
+	"#", "g", "s", "mg", "o", "bevel", "c_interp", "d_interp", "lod",
+	"usemtl", "mtllib", "shadow_obj", "trace_obj", "ctech", "stech"
+    };
+    /** labels of entities which need the line-by-line parser */
+    static final String[] geometryLabels = new String[]{
+	"vp", "cstype", "deg", "bmat", "step", "p", "l", "curv", "curv2",
+	"surf", "parm", "trim", "hole", "scrv", "sp", "end", "con"
+    };
+    
+    /**
+       Vertex, texture vertex, normal and face records of a range of lines parsed into primitive arrays.
+       Indices of face corners are zero-based. Relative (negative) indices are resolved with counts
+       inside the chunk and their positions are kept to be offset when chunks are joined.
+    */
+    static class MeshChunk{
+	byte[] bytes;
+	int start, end;
+	/** cursor and end of the current line */
+	int pos, lineEnd;
+	
+	double[] v = new double[3*256];
+	double[] vt = new double[2*256];
+	double[] vn = new double[3*256];
+	int vnum, vtnum, vnnum;
+	
+	/** vertex, texture vertex and normal index of each face corner. -1 if not specified */
+	int[] fv = new int[1024], ft = new int[1024], fn = new int[1024];
+	int cornerNum;
+	/** start of each face in corners. length is faceNum+1 */
+	int[] faceOffsets = new int[257];
+	/** whether a face starts a new mesh after other entities */
+	boolean[] newMesh = new boolean[256];
+	int faceNum;
+	
+	/** corner*3 + (0:vertex, 1:texture, 2:normal) of relative indices */
+	int[] relative = new int[16];
+	int relativeNum;
+	
+	/** other entity after the last face */
+	boolean meshEnded;
+	/** the chunk contains lines which need the line-by-line parser */
+	boolean unsupported;
+	
+	MeshChunk(byte[] bytes, int start, int end){
+	    this.bytes=bytes;
+	    this.start=start;
+	    this.end=end;
+	}
+	
+	void parse(){
+	    int i=start;
+	    while(i<end && !unsupported){
+		lineEnd=i;
+		while(lineEnd<end && bytes[lineEnd]!='\n' && bytes[lineEnd]!='\r') lineEnd++;
+		if(lineEnd>i && bytes[lineEnd-1]=='\\'){ unsupported=true; return; } // continued line
+		pos=i;
+		parseLine();
+		i = lineEnd+1;
+	    }
+	}
+	
+	void parseLine(){
+	    skipSpace();
+	    int s = pos;
+	    while(pos<lineEnd && !isSpace(bytes[pos])) pos++;
+	    int len = pos-s;
+	    if(len==0) return;
+	    if(bytes[s]=='v'){
+		if(len==1){ parseVertex(); meshEnded=true; return; }
+		if(len==2 && bytes[s+1]=='t'){ parseTexture(); meshEnded=true; return; }
+		if(len==2 && bytes[s+1]=='n'){ parseNormal(); meshEnded=true; return; }
+	    }
+	    else if(bytes[s]=='f' && len==1){ parseFace(); return; }
+	    
+	    String label = new String(bytes, s, len, StandardCharsets.ISO_8859_1);
+	    for(int i=0; i<attributeLabels.length; i++){
+		if(attributeLabels[i].equals(label)){ meshEnded=true; return; }
+	    }
+	    for(int i=0; i<geometryLabels.length; i++){
+		if(geometryLabels[i].equals(label)){ unsupported=true; return; }
+	    }
+	    // unknown labels are ignored
+	}
+	
+	void parseVertex(){
+	    if(vnum*3+3>v.length) v = Arrays.copyOf(v, v.length*2);
+	    int argNum = parseDoubles(v, vnum*3, 3);
+	    if(argNum!=3 && argNum!=4){ IOut.err("wrong number of arguments ("+(argNum+1)+" )"+lineString()); }
+	    vnum++;
+	}
+	
+	void parseTexture(){
+	    if(vtnum*2+2>vt.length) vt = Arrays.copyOf(vt, vt.length*2);
+	    int argNum = parseDoubles(vt, vtnum*2, 2);
+	    if(argNum!=2 && argNum!=3){ IOut.err("wrong number of arguments ("+(argNum+1)+" )"+lineString()); }
+	    vtnum++;
+	}
+	
+	void parseNormal(){
+	    if(vnnum*3+3>vn.length) vn = Arrays.copyOf(vn, vn.length*2);
+	    int argNum = parseDoubles(vn, vnnum*3, 3);
+	    if(argNum!=3){ IOut.err("wrong number of arguments ("+(argNum+1)+" )"+lineString()); }
+	    vnnum++;
+	}
+	
+	/** parsing numbers of the rest of the line into values from offset. returns number of arguments. */
+	int parseDoubles(double[] values, int offset, int num){
+	    int count=0;
+	    skipSpace();
+	    while(pos<lineEnd){
+		double d = nextDouble();
+		if(count<num) values[offset+count] = d;
+		count++;
+		skipSpace();
+	    }
+	    for(int i=count; i<num; i++) values[offset+i] = 0;
+	    return count;
+	}
+	
+	void parseFace(){
+	    if(faceNum==newMesh.length){
+		newMesh = Arrays.copyOf(newMesh, faceNum*2);
+		faceOffsets = Arrays.copyOf(faceOffsets, faceNum*2+1);
+	    }
+	    faceOffsets[faceNum] = cornerNum;
+	    newMesh[faceNum] = meshEnded;
+	    meshEnded=false;
+	    skipSpace();
+	    while(pos<lineEnd){
+		if(cornerNum==fv.length){
+		    fv = Arrays.copyOf(fv, cornerNum*2);
+		    ft = Arrays.copyOf(ft, cornerNum*2);
+		    fn = Arrays.copyOf(fn, cornerNum*2);
+		}
+		int c = cornerNum;
+		fv[c] = nextIndex(c*3, vnum);
+		ft[c] = -1;
+		fn[c] = -1;
+		if(fv[c]!=Integer.MIN_VALUE){
+		    cornerNum++;
+		    if(pos<lineEnd && bytes[pos]=='/'){
+			pos++;
+			if(pos<lineEnd && bytes[pos]!='/' && !isSpace(bytes[pos])){
+			    ft[c] = nextIndex(c*3+1, vtnum);
+			}
+			if(pos<lineEnd && bytes[pos]=='/'){
+			    pos++;
+			    if(pos<lineEnd && !isSpace(bytes[pos])) fn[c] = nextIndex(c*3+2, vnnum);
+			}
+		    }
+		}
+		while(pos<lineEnd && !isSpace(bytes[pos])) pos++; // rest of a broken corner
+		skipSpace();
+	    }
+	    faceNum++;
+	    faceOffsets[faceNum] = cornerNum;
+	}
+	
+	/** zero-based index. Integer.MIN_VALUE if the number is broken */
+	int nextIndex(int slot, int count){
+	    int s = pos;
+	    boolean negative=false;
+	    if(pos<lineEnd && bytes[pos]=='-'){ negative=true; pos++; }
+	    long n=0;
+	    int digitStart=pos;
+	    while(pos<lineEnd && bytes[pos]>='0' && bytes[pos]<='9' && n<=Integer.MAX_VALUE){
+		n = n*10 + (bytes[pos]-'0');
+		pos++;
+	    }
+	    if(pos==digitStart || n>Integer.MAX_VALUE ||
+	       pos<lineEnd && bytes[pos]!='/' && !isSpace(bytes[pos])){
+		while(pos<lineEnd && bytes[pos]!='/' && !isSpace(bytes[pos])) pos++;
+		IOut.err("wrong index "+new String(bytes, s, pos-s, StandardCharsets.ISO_8859_1));
+		return Integer.MIN_VALUE;
+	    }
+	    if(!negative){ return n>0 ? (int)n-1 : 0; }
+	    if(relativeNum==relative.length) relative = Arrays.copyOf(relative, relativeNum*2);
+	    relative[relativeNum++] = slot;
+	    return count-(int)n;
+	}
+	
+	/**
+	   parsing a decimal number without creating String. Mantissa within 2^53 with exponent
+	   within 10^22 is exactly converted by one multiplication or division. Others are parsed by
+	   Double.parseDouble.
+	*/
+	double nextDouble(){
+	    int s = pos;
+	    int i = pos;
+	    boolean negative=false;
+	    if(i<lineEnd && (bytes[i]=='-' || bytes[i]=='+')){ negative = bytes[i]=='-'; i++; }
+	    long mantissa=0;
+	    int digits=0, exponent=0;
+	    boolean exact=true, valid=false;
+	    for(; i<lineEnd && bytes[i]>='0' && bytes[i]<='9'; i++){
+		valid=true;
+		if(digits<18){
+		    mantissa = mantissa*10 + (bytes[i]-'0');
+		    if(mantissa!=0) digits++;
+		}
+		else{ exponent++; if(bytes[i]!='0') exact=false; }
+	    }
+	    if(i<lineEnd && bytes[i]=='.'){
+		i++;
+		for(; i<lineEnd && bytes[i]>='0' && bytes[i]<='9'; i++){
+		    valid=true;
+		    if(digits<18){
+			mantissa = mantissa*10 + (bytes[i]-'0');
+			if(mantissa!=0) digits++;
+			exponent--;
+		    }
+		    else if(bytes[i]!='0') exact=false;
+		}
+	    }
+	    if(valid && i<lineEnd && (bytes[i]=='e' || bytes[i]=='E')){
+		i++;
+		boolean negativeExponent=false;
+		if(i<lineEnd && (bytes[i]=='-' || bytes[i]=='+')){ negativeExponent = bytes[i]=='-'; i++; }
+		int e=0;
+		valid=false;
+		for(; i<lineEnd && bytes[i]>='0' && bytes[i]<='9'; i++){
+		    valid=true;
+		    if(e<100000) e = e*10 + (bytes[i]-'0');
+		}
+		exponent += negativeExponent?-e:e;
+	    }
+	    if(valid && (i==lineEnd || isSpace(bytes[i])) && exact){
+		double[] pow10 = IObjFileExporter.AsciiBuffer.pow10;
+		if(mantissa==0){ pos=i; return negative?-0.0:0.0; }
+		if(mantissa<=(1L<<53) && exponent>=-22 && exponent<=22){
+		    pos=i;
+		    double d = exponent>=0 ? mantissa*pow10[exponent] : mantissa/pow10[-exponent];
+		    return negative?-d:d;
+		}
+	    }
+	    // other notations and numbers which need rounding
+	    while(i<lineEnd && !isSpace(bytes[i])) i++;
+	    pos=i;
+	    String str = new String(bytes, s, i-s, StandardCharsets.ISO_8859_1);
+	    try{ return Double.parseDouble(str); }
+	    catch(NumberFormatException e){ IOut.err("wrong number "+str); }
+	    return 0;
+	}
+	
+	void skipSpace(){ while(pos<lineEnd && isSpace(bytes[pos])) pos++; }
+	
+	static boolean isSpace(byte b){ return b==' ' || b=='\t'; }
+	
+	String lineString(){
+	    int s=pos;
+	    while(s>start && bytes[s-1]!='\n' && bytes[s-1]!='\r') s--;
+	    return new String(bytes, s, lineEnd-s, StandardCharsets.ISO_8859_1);
+	}
+    }
+    
+    static class ParseTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	MeshChunk[] chunks;
+	int from, to;
+	
+	ParseTask(MeshChunk[] chunks, int from, int to){
+	    this.chunks=chunks;
+	    this.from=from;
+	    this.to=to;
+	}
+	
+	protected void compute(){
+	    if(to-from>1){
+		int mid = (from+to)>>>1;
+		invokeAll(new ParseTask(chunks, from, mid), new ParseTask(chunks, mid, to));
+		return;
+	    }
+	    chunks[from].parse();
+	}
+    }
+    
+    /**
+       Splitting bytes at line boundaries and parsing mesh records of the chunks.
+       @return parsed chunks in the order of the file, or null if the file contains entities other than polygon meshes.
+    */
+    static MeshChunk[] parseMeshChunks(byte[] bytes, int length){
+	int threadNum = parsingThreadNum>0?parsingThreadNum:Runtime.getRuntime().availableProcessors();
+	int chunkNum = 1;
+	if(parallelParsing && threadNum>1 && length >= 2*bytesPerChunk){
+	    chunkNum = (int)(((long)length+bytesPerChunk-1)/bytesPerChunk);
+	}
+	MeshChunk[] chunks = new MeshChunk[chunkNum];
+	int start=0;
+	for(int i=0; i<chunkNum; i++){
+	    int end = (int)((long)length*(i+1)/chunkNum);
+	    if(end<start) end=start;
+	    while(end<length && bytes[end-1]!='\n') end++;
+	    chunks[i] = new MeshChunk(bytes, start, end);
+	    start = end;
+	}
+	
+	if(chunkNum==1) chunks[0].parse();
+	else{
+	    ForkJoinPool pool = new ForkJoinPool(threadNum);
+	    try{ pool.invoke(new ParseTask(chunks, 0, chunkNum)); }
+	    finally{ pool.shutdown(); }
+	}
+	
+	for(int i=0; i<chunkNum; i++) if(chunks[i].unsupported) return null;
+	return chunks;
+    }
+    
+    /**
+       Joining parsed chunks and creating a mesh out of each run of faces in the server.
+       Faces are separated into meshes by other entities in the same way with the line-by-line parser.
+    */
+    static void createMeshes(MeshChunk[] chunks, IServerI server){
+	int vnum=0, vtnum=0, vnnum=0, cornerNum=0, faceNum=0;
+	for(int i=0; i<chunks.length; i++){
+	    vnum += chunks[i].vnum;
+	    vtnum += chunks[i].vtnum;
+	    vnnum += chunks[i].vnnum;
+	    cornerNum += chunks[i].cornerNum;
+	    faceNum += chunks[i].faceNum;
+	}
+	if(faceNum==0) return;
+	
+	double[] v = new double[vnum*3];
+	double[] vt = new double[vtnum*2];
+	double[] vn = new double[vnnum*3];
+	int[] fv = new int[cornerNum], ft = new int[cornerNum], fn = new int[cornerNum];
+	int[] faceOffsets = new int[faceNum+1];
+	boolean[] newMesh = new boolean[faceNum];
+	
+	int vbase=0, vtbase=0, vnbase=0, cbase=0, fbase=0;
+	boolean meshEnded=true;
+	for(int i=0; i<chunks.length; i++){
+	    MeshChunk c = chunks[i];
+	    System.arraycopy(c.v, 0, v, vbase*3, c.vnum*3);
+	    System.arraycopy(c.vt, 0, vt, vtbase*2, c.vtnum*2);
+	    System.arraycopy(c.vn, 0, vn, vnbase*3, c.vnnum*3);
+	    System.arraycopy(c.fv, 0, fv, cbase, c.cornerNum);
+	    System.arraycopy(c.ft, 0, ft, cbase, c.cornerNum);
+	    System.arraycopy(c.fn, 0, fn, cbase, c.cornerNum);
+	    for(int j=0; j<c.relativeNum; j++){
+		int corner = cbase + c.relative[j]/3;
+		int type = c.relative[j]%3;
+		if(type==0) fv[corner] += vbase;
+		else if(type==1) ft[corner] += vtbase;
+		else fn[corner] += vnbase;
+	    }
+	    for(int j=0; j<c.faceNum; j++){
+		faceOffsets[fbase+j] = cbase + c.faceOffsets[j];
+		newMesh[fbase+j] = c.newMesh[j];
+	    }
+	    if(c.faceNum>0){
+		newMesh[fbase] |= meshEnded;
+		meshEnded = c.meshEnded;
+	    }
+	    else if(c.meshEnded) meshEnded=true;
+	    vbase += c.vnum;
+	    vtbase += c.vtnum;
+	    vnbase += c.vnnum;
+	    cbase += c.cornerNum;
+	    fbase += c.faceNum;
+	}
+	faceOffsets[faceNum] = cornerNum;
+	
+	// vertices and edges are shared by faces in the same way with the line-by-line parser
+	IVertex[] vertices = new IVertex[vnum];
+	ArrayList<IFace> faces = new ArrayList<IFace>();
+	for(int f=0; f<faceNum; f++){
+	    if(newMesh[f] && faces.size()>0){
+		new IMesh(server, new IMeshGeo(faces.toArray(new IFace[faces.size()])));
+		faces.clear();
+	    }
+	    int[] corners = new int[faceOffsets[f+1]-faceOffsets[f]];
+	    int num=0;
+	    for(int c=faceOffsets[f]; c<faceOffsets[f+1]; c++){
+		if(fv[c]<0 || fv[c]>=vnum){ IOut.err("vertex index out of range: "+(fv[c]+1)); }
+		else corners[num++] = c;
+	    }
+	    if(num<3){ IOut.err("face with "+num+" vertices is skipped"); continue; }
+	    
+	    // texture and normal are set only when all corners of a face have them
+	    boolean texture=true, normal=true;
+	    for(int i=0; i<num; i++){
+		if(ft[corners[i]]<0 || ft[corners[i]]>=vtnum) texture=false;
+		if(fn[corners[i]]<0 || fn[corners[i]]>=vnnum) normal=false;
+	    }
+	    IVertex[] vtx = new IVertex[num];
+	    for(int i=0; i<num; i++){
+		int c = corners[i], j = fv[c];
+		if(vertices[j]==null) vertices[j] = new IVertex(v[j*3], v[j*3+1], v[j*3+2]);
+		vtx[i] = vertices[j];
+		if(texture) vtx[i].texture(new IVec2(vt[ft[c]*2], vt[ft[c]*2+1]));
+		if(normal) vtx[i].setNormal(new IVec(vn[fn[c]*3], vn[fn[c]*3+1], vn[fn[c]*3+2]));
+	    }
+	    IEdge[] edges = new IEdge[num];
+	    for(int i=0; i<num; i++) edges[i] = vtx[i].createEdgeTo(vtx[(i+1)%num]);
+	    faces.add(new IFace(edges));
+	}
+	if(faces.size()>0) new IMesh(server, new IMeshGeo(faces.toArray(new IFace[faces.size()])));
+    }
+    
+    /**
+       Reading OBJ data in bytes and creating objects in a server.
+       Files of polygon meshes are parsed by the fast mesh parser and others by the line-by-line parser.
+       @param bytes Content of an importing file.
+       @param length Number of bytes of the content.
+       @param server A server interface to put imported objects in. 
+       @return ArrayList of created IObject.
+    */
+    static public ArrayList<IObject> read(byte[] bytes, int length, IServerI server){
+	MeshChunk[] chunks = parseMeshChunks(bytes, length);
+	if(chunks==null){
+	    return IObjFileImporter.read(new InputStreamReader(new ByteArrayInputStream(bytes, 0, length)), server);
+	}
+	ArrayList<IObject> createdObjects = new ArrayList<IObject>();
+	synchronized(IG.lock){
+	    createMeshes(chunks, server);
+	}
+	IOut.debug(0,"reading complete"); //
+	return createdObjects;
+    }
+    
     /**
        Reading an OBJ file and creating objects in a server.
        The main entry of the importer class.
@@ -1236,6 +1672,20 @@ public class IObjFileImporter {
        @return ArrayList of created IObject.
     */
     static public ArrayList<IObject> read(File file, IServerI server){
+	if(fastMeshParsing && file.length() < Integer.MAX_VALUE-8){
+	    try{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		byte[] bytes = null;
+		try{
+		    bytes = new byte[(int)raf.length()];
+		    raf.readFully(bytes);
+		}
+		finally{ raf.close(); }
+		return IObjFileImporter.read(bytes, bytes.length, server);
+	    }
+	    catch(IOException e){ e.printStackTrace(); }
+	    return null;
+	}
         try{ return IObjFileImporter.read(new FileReader(file), server); }
         catch(IOException e){ e.printStackTrace(); }
 	return null; 
@@ -1249,6 +1699,22 @@ public class IObjFileImporter {
        @return ArrayList of created IObject.
     */
     static public ArrayList<IObject> read(InputStream stream, IServerI server){
+	if(fastMeshParsing){
+	    try{
+		byte[] bytes = new byte[1<<16];
+		int length=0, n;
+		try{
+		    while((n = stream.read(bytes, length, bytes.length-length)) >= 0){
+			length += n;
+			if(length==bytes.length) bytes = Arrays.copyOf(bytes, length*2);
+		    }
+		}
+		finally{ stream.close(); }
+		return IObjFileImporter.read(bytes, length, server);
+	    }
+	    catch(IOException e){ e.printStackTrace(); }
+	    return null;
+	}
         return IObjFileImporter.read(new InputStreamReader(stream), server);
     }
     
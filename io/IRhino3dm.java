@@ -41,6 +41,7 @@ import igeo.gui.*;
 import java.io.*;
 import java.util.*;
 import java.util.zip.CRC32;
+import java.nio.ByteBuffer;
 //import java.awt.Color;
 
 import static igeo.io.IRhino3dmImporter.*;
@@ -504,12 +505,19 @@ public class IRhino3dm{
 	
 	public CRC32 crc;
 	
+	/** region of content in a mapped file when the chunk is read from FileChannel.
+	    content is copied out of it only when requested by content(). */
+	public ByteBuffer buffer = null;
+	
 	//boolean enableCRC=true; //false;
 	
 	
 	//public Chunk(byte[] h, byte[] b){
 	public Chunk(int h, int b){ header = h; body = b; }
 	
+	/** chunk whose content is a region of a mapped file */
+	public Chunk(int h, int b, ByteBuffer buf){ header = h; body = b; buffer = buf; }
+	
 	public Chunk(int h, int b, byte[] c, CRC32 crc){
 	    header = h; body = b; content = c; this.crc = crc;
 	}
@@ -601,7 +609,19 @@ public class IRhino3dm{
 	
 	public int getHeader(){ return header; }
 	public int getBody(){ return body; }
-	public byte[] getContent(){ return content; }
+	public byte[] getContent(){ return content(); }
+	
+	/** content bytes. if the chunk is a region of a mapped file, it's copied at the first call */
+	public byte[] content(){
+	    if(content==null && buffer!=null){
+		content = new byte[buffer.remaining()];
+		buffer.duplicate().get(content);
+	    }
+	    return content;
+	}
+	
+	/** content exists either as bytes or as a region of a mapped file */
+	public boolean hasContent(){ return content!=null || buffer!=null; }
 	//public int contentLength(){ return content.length; }
 	public int contentLength(){
 	    if(contents!=null){
@@ -677,7 +697,7 @@ public class IRhino3dm{
 	}
 	//public void print(){ IOut.print(toString()); } // debug
 	
-	public void clear(){ content = null; }
+	public void clear(){ content = null; buffer = null; }
 	
     }
     
@@ -1338,11 +1358,11 @@ public class IRhino3dm{
 		// v4 material
 		
 		Chunk ck = readChunk(is);
-		if(ck.content==null){
+		if(ck.content()==null){
 		    IOut.err("chunk content is null"); //
 		    throw new IOException("chunk content is null");
 		}
-		ByteArrayInputStream bais = new ByteArrayInputStream(ck.content);
+		ByteArrayInputStream bais = new ByteArrayInputStream(ck.content());
 		majorVersion = readInt(bais);
 		minorVersion = readInt(bais);
 		
@@ -1389,11 +1409,11 @@ public class IRhino3dm{
 		
 		
 		Chunk textureChunk = readChunk(bais);
-		if(ck.content==null){
+		if(ck.content()==null){
 		    IOut.err("chunk content is null"); //
 		    throw new IOException("chunk content is null");
 		}
-		ByteArrayInputStream tis = new ByteArrayInputStream(textureChunk.content);
+		ByteArrayInputStream tis = new ByteArrayInputStream(textureChunk.content());
 		
 		int textureMajorVersion = readInt(tis);
 		int textureMinorVersion = readInt(tis);
@@ -1578,11 +1598,11 @@ public class IRhino3dm{
 	
 	public void read(Rhino3dmFile context, InputStream is) throws IOException{
 	    Chunk ck = readChunk(is);
-	    if(ck.content==null){
+	    if(ck.content()==null){
 		IOut.err("chunk content is null"); //
 		throw new IOException("chunk content is null");
 	    }
-	    ByteArrayInputStream bais = new ByteArrayInputStream(ck.content);
+	    ByteArrayInputStream bais = new ByteArrayInputStream(ck.content());
 	    int majorVersion = readInt(bais);
 	    int minorVersion = readInt(bais);
 	    if(majorVersion!=1){
@@ -1636,11 +1656,11 @@ public class IRhino3dm{
 	
 	public void read(Rhino3dmFile context, InputStream is) throws IOException{
 	    Chunk ck = readChunk(is);
-	    if(ck.content==null){
+	    if(ck.content()==null){
 		IOut.err("chunk content is null"); //
 		throw new IOException("chunk content is null");
 	    }
-	    ByteArrayInputStream bais = new ByteArrayInputStream(ck.content);
+	    ByteArrayInputStream bais = new ByteArrayInputStream(ck.content());
 	    int majorVersion = readInt(bais);
 	    int minorVersion = readInt(bais);
 	    if(majorVersion!=1){
@@ -1706,12 +1726,12 @@ public class IRhino3dm{
 	    Chunk chunk = readChunk(is);
 
 	    //if(chunk.content==null){
-	    if(chunk==null || chunk.content==null){ // chunk==null added 20121122
+	    if(chunk==null || chunk.content()==null){ // chunk==null added 20121122
 		IOut.err("no chunk content"); //
 		throw new IOException("no chunk content"); 
 	    }
 	    
-	    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+	    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content());
 	    int majorVersion = readInt(bais);
 	    int minorVersion = readInt(bais);
 	    if(majorVersion!=1)
@@ -1787,11 +1807,11 @@ public class IRhino3dm{
 	public byte[] revisionHistory;
 	
 	public void setOpenNurbsVersion(Chunk c){ openNurbsVersion=c.body; }
-	public void setNotes(Chunk c){ notes=c.content; }
-	public void setPreviewImage(Chunk c){ previewImage=c.content; }
-	public void setApplication(Chunk c){ application=c.content; }
-	public void setCompressedPreviewImage(Chunk c){ compressedPreviewImage=c.content; }
-	public void setRevisionHistory(Chunk c){ revisionHistory=c.content; }
+	public void setNotes(Chunk c){ notes=c.content(); }
+	public void setPreviewImage(Chunk c){ previewImage=c.content(); }
+	public void setApplication(Chunk c){ application=c.content(); }
+	public void setCompressedPreviewImage(Chunk c){ compressedPreviewImage=c.content(); }
+	public void setRevisionHistory(Chunk c){ revisionHistory=c.content(); }
     }
 
 
@@ -2101,7 +2121,7 @@ public class IRhino3dm{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
 	    
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -2251,7 +2271,7 @@ public class IRhino3dm{
 	public void setUnitsAndTols(Rhino3dmFile file, Chunk c) throws IOException{
 	    //IOut.p("setUnitsAndTols: " + c);
 	    
-	    ByteArrayInputStream bais = new ByteArrayInputStream(c.content);
+	    ByteArrayInputStream bais = new ByteArrayInputStream(c.content());
 	    
 	    unitsAndTolerances = new UnitsAndTolerances(file.server.server());
 	    unitsAndTolerances.read(file, bais);
@@ -4096,7 +4116,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -4144,7 +4164,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -4194,7 +4214,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -4230,7 +4250,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -4267,7 +4287,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    int minorVersion = version[1];
@@ -4306,7 +4326,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    if(majorVersion==1){
@@ -4341,7 +4361,7 @@ public class IRhino3dm{
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
 	    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    int[] version = readChunkVersion(is);
 	    int majorVersion = version[0];
 	    if(majorVersion==1){
@@ -5907,7 +5927,7 @@ public class IRhino3dm{
 		if(b>0){
 		    Chunk chunk = readChunk(is);
 		    if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-		    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+		    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content());
 		    
 		    meshParameters = new MeshParameters();
 		    meshParameters.read(context,bais);
@@ -5920,7 +5940,7 @@ public class IRhino3dm{
 		    if(b>0){
 			Chunk chunk = readChunk(is);
 			if(chunk.header != tcodeAnonymousChunk) throw new IOException("invalid type code = "+hex(chunk.header));
-			ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+			ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content());
 			curvatureStat[i] = new MeshCurvatureStats();
 			curvatureStat[i].read(context,bais);
 		    }
@@ -6494,7 +6514,7 @@ public class IRhino3dm{
 	
 	public void read(Rhino3dmFile context, InputStream is)throws IOException{
 	    Chunk chunk = readChunk(is);
-	    is = new ByteArrayInputStream(chunk.content);
+	    is = new ByteArrayInputStream(chunk.content());
 	    
 	    int majorVersion = readInt(is);
 	    int minorVersion = readInt(is);
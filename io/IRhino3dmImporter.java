@@ -41,6 +41,11 @@ import java.io.*;
 //import java.awt.Color;
 import java.util.ArrayList;
 import java.util.zip.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -65,12 +70,25 @@ public class IRhino3dmImporter extends IRhino3dm{
     
     public ArrayList<IObject> objects;
     
+    /** when reading from a file, top level chunks are mapped from this channel instead of istream */
+    public FileChannel channel;
+    public long channelPosition=0;
+    
+    /** check CRC of chunks with tcodeCRC read from a mapped file. Default is false */
+    public static boolean verifyCRC=false;
+    
+    /** decode records of object table on multiple threads before instantiating IObjects in file order. Default is true */
+    public static boolean parallelDecoding=true;
+    /** number of threads to decode object records. If zero or negative, number of available processors is used. */
+    public static int decodingThreadNum=0;
+    
     /***************************************************************************
      * non static methods
      ***************************************************************************/
     
     //public IRhino3dmImporter(BufferedReader r){ reader = r; }
     public IRhino3dmImporter(InputStream istr, IServerI svr){ istream = istr; server = svr; }
+    public IRhino3dmImporter(FileChannel ch, IServerI svr){ channel = ch; server = svr; }
         
     
     public void readFileHeader() throws IOException{
@@ -81,8 +99,15 @@ public class IRhino3dmImporter extends IRhino3dm{
 	byte[] txtBuf = new byte[headerTextLen];
 	byte[] versionBuf = new byte[headerVersionNumLen];
 	
-	istream.read(txtBuf, 0, headerTextLen);
-	istream.read(versionBuf, 0, headerVersionNumLen);
+	if(channel!=null){
+	    readFully(channel, ByteBuffer.wrap(txtBuf), channelPosition);
+	    readFully(channel, ByteBuffer.wrap(versionBuf), channelPosition+headerTextLen);
+	    channelPosition += headerTextLen+headerVersionNumLen;
+	}
+	else{
+	    istream.read(txtBuf, 0, headerTextLen);
+	    istream.read(versionBuf, 0, headerVersionNumLen);
+	}
 	
 	try{
 	    String vstr = new String(versionBuf);
@@ -97,6 +122,49 @@ public class IRhino3dmImporter extends IRhino3dm{
     
     
     
+    /**
+       Reading a top level chunk from the channel. Content of a big chunk is mapped from the file
+       and nested chunks in it are read as slices of the mapped region without copying.
+    */
+    public Chunk readChunk() throws IOException{
+	if(channel==null) return readChunk(istream);
+	
+	ByteBuffer headerBuf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	if(channelPosition >= channel.size()) throw new EOFException();
+	readFully(channel, headerBuf, channelPosition);
+	channelPosition += 8;
+	
+	int header = headerBuf.getInt(0);
+	int body = headerBuf.getInt(4);
+	
+	if(isShortChunk(header) || body==0) return new Chunk(header,body); // short chunk
+	
+	if(body<0){
+	    IOut.err("length of content isn't positive: "+body);
+	    return null;
+	}
+	if(channelPosition+body > channel.size()){
+	    IOut.err("unexpected end of file : len="+body+", remaining="+(channel.size()-channelPosition));
+	    throw new IOException();
+	}
+	ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, channelPosition, body);
+	content.order(ByteOrder.LITTLE_ENDIAN);
+	channelPosition += body;
+	
+	Chunk chunk = new Chunk(header,body,content);
+	if(verifyCRC) checkCRC(chunk);
+	return chunk; // big chunk
+    }
+    
+    public static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException{
+	while(buf.hasRemaining()){
+	    int res = channel.read(buf, position);
+	    if(res<0) throw new EOFException();
+	    position += res;
+	}
+    }
+    
+    
     /***************************************************************************    
      * static methods
      ***************************************************************************/
@@ -239,7 +307,7 @@ public class IRhino3dmImporter extends IRhino3dm{
     }
     
     public static UUID readUUID(Chunk chunk) throws IOException{
-	ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+	ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content());
 	return readUUID(bais);
     }
     
@@ -549,6 +617,72 @@ public class IRhino3dmImporter extends IRhino3dm{
     }
     
     
+    /**
+       Reading a chunk at the current position of the buffer of a mapped chunk.
+       Content of a big chunk is a slice of the buffer.
+    */
+    public static Chunk readChunk(ByteBuffer buf) throws IOException{
+	if(buf.remaining()==0) throw new EOFException();
+	if(buf.remaining()<8){
+	    IOut.err("unexpected end of chunk : remaining="+buf.remaining());
+	    throw new IOException();
+	}
+	int header = buf.getInt();
+	int body = buf.getInt();
+	
+	if(isShortChunk(header) || body==0) return new Chunk(header,body); // short chunk
+	
+	if(body<0){
+	    IOut.err("length of content isn't positive: "+body);
+	    return null;
+	}
+	if(body > buf.remaining()){
+	    IOut.err("unexpected end of chunk : len="+body+", remaining="+buf.remaining());
+	    throw new IOException();
+	}
+	ByteBuffer content = buf.slice();
+	content.limit(body);
+	content.order(ByteOrder.LITTLE_ENDIAN);
+	buf.position(buf.position()+body);
+	
+	Chunk chunk = new Chunk(header,body,content);
+	if(verifyCRC) checkCRC(chunk);
+	return chunk; // big chunk
+    }
+    
+    /**
+       Checking CRC32 in the last 4 bytes of content of a big chunk with tcodeCRC.
+       @return false if CRC doesn't match. true if it matches or the chunk has no CRC.
+    */
+    public static boolean checkCRC(Chunk chunk){
+	if(!chunk.doCRC() || isShortChunk(chunk.header) || chunk.body<4) return true;
+	
+	CRC32 crc = new CRC32();
+	int stored;
+	if(chunk.buffer!=null){
+	    ByteBuffer buf = chunk.buffer.duplicate();
+	    byte[] b = new byte[Math.min(chunk.body-4, 1<<16)];
+	    int remaining = chunk.body-4;
+	    while(remaining>0){
+		int len = Math.min(remaining, b.length);
+		buf.get(b, 0, len);
+		crc.update(b, 0, len);
+		remaining -= len;
+	    }
+	    stored = chunk.buffer.getInt(chunk.body-4);
+	}
+	else{
+	    crc.update(chunk.content, 0, chunk.body-4);
+	    stored = readInt32(new byte[]{ chunk.content[chunk.body-4], chunk.content[chunk.body-3],
+					   chunk.content[chunk.body-2], chunk.content[chunk.body-1] });
+	}
+	if((int)crc.getValue() != stored){
+	    IOut.err("CRC doesn't match: "+hex(chunk.header));
+	    return false;
+	}
+	return true;
+    }
+    
     public static Chunk[] readChunkTable(Chunk chunk){
 	return readChunkTable(chunk, tcodeEndOfTable);
     }
@@ -559,7 +693,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 	    IOut.err("input chunk is null"); //
 	    return null;
 	}
-	if(chunk.content==null){
+	if(!chunk.hasContent()){
 	    IOut.err("no content in the input chunk"); //
 	    return null;
 	}
@@ -567,7 +701,11 @@ public class IRhino3dmImporter extends IRhino3dm{
 	//IOut.p("table content:"); //
 	//IOut.p(hex(chunk.content)); //
 	
-	ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+	// nested chunks of a mapped chunk are read as slices without copying
+	ByteBuffer buf = null;
+	ByteArrayInputStream bais = null;
+	if(chunk.content==null){ buf = chunk.buffer.duplicate(); buf.order(ByteOrder.LITTLE_ENDIAN); }
+	else{ bais = new ByteArrayInputStream(chunk.content); }
 	Chunk ck=null;
 	ArrayList<Chunk> chunks = new ArrayList<Chunk>();
 	
@@ -575,7 +713,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 	do{
 	    try{
 		//IOut.p("reading chunk #"+i); //
-		ck = readChunk(bais);
+		ck = buf!=null?readChunk(buf):readChunk(bais);
 		//IOut.p("chunk #"+i+ " = "+ck); //
 		
 		if(ck==null){ IOut.err("no chunk is read"); return null; }
@@ -602,12 +740,17 @@ public class IRhino3dmImporter extends IRhino3dm{
 	    IOut.err("input chunk is null"); //
 	    return null;
 	}
-	if(chunk.content==null){
+	if(!chunk.hasContent()){
 	    IOut.err("no content in the input chunk"); //
 	    return null;
 	}
-	ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
 	try{
+	    if(chunk.content==null){
+		ByteBuffer buf = chunk.buffer.duplicate();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return readChunk(buf);
+	    }
+	    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
 	    Chunk ck=readChunk(bais);
 	    return ck;
 	}
@@ -724,7 +867,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 			    //return chunks[i+1].content;
 			    //IOut.err("content: "+ hex(chunks[i+1].content)); //
 			    
-			    byte[] data = chunks[i+1].content;
+			    byte[] data = chunks[i+1].content();
 			    object.read(context,data);
 			    return object;
 			}
@@ -811,7 +954,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 	int inSize = chunk.body-4; // last 4 bytes for CRC
 	
 	Inflater inflater = new Inflater();
-	inflater.setInput(chunk.content, 0, inSize);
+	inflater.setInput(chunk.content(), 0, inSize);
 	byte[] buf = new byte[len];
 	try{ inflater.inflate(buf, 0, len); }
 	catch(DataFormatException e){
@@ -829,10 +972,13 @@ public class IRhino3dmImporter extends IRhino3dm{
     */
     public static boolean read(File file, IServerI server){
 	try{
-	    FileInputStream fis = new FileInputStream(file);
-	    boolean retval = read(fis, server);
-	    if(fis!=null) fis.close();
-	    return retval;
+	    RandomAccessFile raf = new RandomAccessFile(file, "r");
+	    try{
+		IRhino3dmImporter importer = new IRhino3dmImporter(raf.getChannel(),server);
+		importer.read();
+	    }
+	    finally{ raf.close(); }
+	    return true;
 	}catch(IOException e){ e.printStackTrace(); }
 	return false;
     }
@@ -867,7 +1013,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 		IOut.debug(10,"chunk #"+chunkNum); //
 		
 		try{
-		    chunk = readChunk(istream);
+		    chunk = readChunk();
 		    
 		    if(chunk==null){ IOut.err("chunk is null"); }
 		    else{
@@ -951,12 +1097,13 @@ public class IRhino3dmImporter extends IRhino3dm{
     
     public void readStartSection(Chunk chunk){
 	IOut.debug(10,"Rhino3dmImporter.readStartSection"); //
-	int strlen = chunk.content.length;
+	byte[] content = chunk.content();
+	int strlen = content.length;
 	while(strlen>0 &&
-	      (chunk.content[strlen-1] == 0x00 ||
-	       chunk.content[strlen-1] == 0x1A) ) strlen--;
+	      (content[strlen-1] == 0x00 ||
+	       content[strlen-1] == 0x1A) ) strlen--;
 	
-	String info = new String(chunk.content, 0, strlen);
+	String info = new String(content, 0, strlen);
 	
 	//IOut.p("information:");
 	//IOut.p(info);
@@ -1977,6 +2124,7 @@ public class IRhino3dmImporter extends IRhino3dm{
     public void readObjectTable(Chunk chunk){
 	IOut.debug(10,"Rhino3dmImporter.readObjectTable"); //
 	
+	// index of object records
 	Chunk[] chunks = readChunkTable(chunk);
 	if(chunks==null) return; // no dimstyle
 	
@@ -1984,14 +2132,19 @@ public class IRhino3dmImporter extends IRhino3dm{
 	
 	IOut.debug(10,"num of rhino objects : "+chunks.length);
 	
-	int i=0;
-	for(Chunk c:chunks){
-	    if(i>0 && i%100==0) IOut.debug(1,(++i)+"/"+chunks.length);
+	// records are decoded independently
+	RhinoObject[] decoded = decodeRhinoObjects(chunks);
+	
+	// IObjects are instantiated in file order
+	for(int i=0; i<decoded.length; i++){
+	    if(i>0 && i%100==0) IOut.debug(1,i+"/"+chunks.length);
 	    //IOut.p("object #"+(++i));
 	    //IOut.p(c);
 	    
-	    RhinoObject obj = readRhinoObject(c);
-	    if(obj!=null) robjects.add(obj);
+	    if(decoded[i]!=null){
+		createIObject(decoded[i]);
+		robjects.add(decoded[i]);
+	    }
 	}
 	
 	if(robjects.size()>0) file.rhinoObjects = robjects.toArray(new RhinoObject[robjects.size()]);
@@ -2014,7 +2167,76 @@ public class IRhino3dmImporter extends IRhino3dm{
 	*/
     }
     
+    /** decoding object records on threads of decodingThreadNum if parallelDecoding is true
+	@return decoded objects in the same order as chunks. null if decoding fails.
+    */
+    public RhinoObject[] decodeRhinoObjects(Chunk[] chunks){
+	RhinoObject[] objects = new RhinoObject[chunks.length];
+	int threadNum = decodingThreadNum;
+	if(threadNum<=0) threadNum = Runtime.getRuntime().availableProcessors();
+	
+	if(!parallelDecoding || threadNum<=1 || chunks.length<2){
+	    for(int i=0; i<chunks.length; i++) objects[i] = decodeRhinoObject(chunks[i]);
+	    return objects;
+	}
+	ForkJoinPool pool = new ForkJoinPool(threadNum);
+	try{
+	    pool.invoke(new DecodeTask(this, chunks, objects, 0, chunks.length,
+				       Math.max(1, chunks.length/(threadNum*8))));
+	}
+	finally{ pool.shutdown(); }
+	return objects;
+    }
+    
+    static class DecodeTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	IRhino3dmImporter importer;
+	Chunk[] chunks;
+	RhinoObject[] objects;
+	int from, to, grain;
+	
+	DecodeTask(IRhino3dmImporter importer, Chunk[] chunks, RhinoObject[] objects, int from, int to, int grain){
+	    this.importer=importer;
+	    this.chunks=chunks;
+	    this.objects=objects;
+	    this.from=from;
+	    this.to=to;
+	    this.grain=grain;
+	}
+	
+	protected void compute(){
+	    if(to-from<=grain){
+		for(int i=from; i<to; i++){ objects[i] = importer.decodeRhinoObject(chunks[i]); }
+	    }
+	    else{
+		int mid = (from+to)>>>1;
+		invokeAll(new DecodeTask(importer, chunks, objects, from, mid, grain),
+			  new DecodeTask(importer, chunks, objects, mid, to, grain));
+	    }
+	}
+    }
+    
+    /** decoding and instantiating an object record */
     public RhinoObject readRhinoObject(Chunk chunk){
+	RhinoObject object = decodeRhinoObject(chunk);
+	if(object!=null) createIObject(object);
+	return object;
+    }
+    
+    /** instantiate IObject of a decoded object in the server */
+    public IObject createIObject(RhinoObject object){
+	IObject elem = object.createIObject(file,server);
+	if(elem!=null){
+	    object.setAttributesToIObject(file,elem);
+	    objects.add(elem);
+	}
+	return elem;
+    }
+    
+    /** decoding an object record with attributes without instantiating IObject.
+	This only reads file and is safe to be executed on multiple threads.
+    */
+    public RhinoObject decodeRhinoObject(Chunk chunk){
 	
 	if(file.version==1){
 	    return null; // version 1 not supported
@@ -2056,7 +2278,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 	    for(int i=2; i<chunks.length; i++){
 		if(chunks[i].header == tcodeObjectRecordAttributes){ // object attributes
 		    ObjectAttributes attributes = new ObjectAttributes();
-		    try{ attributes.read(file,chunks[i].content); }
+		    try{ attributes.read(file,chunks[i].content()); }
 		    catch(IOException e){ e.printStackTrace(); }
 		    
 		    //IOut.p("attributes = "); //
@@ -2070,13 +2292,6 @@ public class IRhino3dmImporter extends IRhino3dm{
 	    }
 	}
 	
-	// instantiate here
-	IObject elem = object.createIObject(file,server);
-	if(elem!=null){
-	    object.setAttributesToIObject(file,elem);
-	    objects.add(elem);
-	}
-	
 	return object;
     }
     
@@ -2152,7 +2367,7 @@ public class IRhino3dmImporter extends IRhino3dm{
 	IOut.debug(10,"Rhino3dmImporter.readEndMark"); //
 	
 	try{
-	    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content);
+	    ByteArrayInputStream bais = new ByteArrayInputStream(chunk.content());
 	    if(file.sizeOfChunkLength()==4){
 		int fileLength = readInt(bais);
 		//IOut.debug(10,"file length = "+fileLength);
@@ -0,0 +1,53 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo.io;
+
+import java.nio.ByteOrder;
+
+/**
+   Definitions of iGeo binary snapshot format shared by ISnapshotExporter and ISnapshotImporter.
+   A file starts with the magic bytes and the version number followed by sections.
+   Each section has an int tag and a long byte length of its content, and unknown sections are skipped.
+   Objects in the object table are length-prefixed records and their geometries are stored
+   as primitive arrays. All numbers are little endian.
+   
+   @author Satoru Sugihara
+*/
+public class ISnapshot{
+    
+    public static final byte[] magic = new byte[]{ 'i','G','e','o','S','n','a','p' };
+    public static final int version = 1;
+    
+    public static final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+    
+    public static final int sectionEnd = 0;
+    public static final int sectionLayerTable = 1;
+    public static final int sectionObjectTable = 2;
+    
+    public static final int typePoint = 1;
+    public static final int typeCurve = 2;
+    public static final int typeSurface = 3;
+    public static final int typeMesh = 4;
+    public static final int typeBrep = 5;
+    
+}
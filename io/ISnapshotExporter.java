@@ -0,0 +1,398 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo.io;
+
+import igeo.*;
+
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+   Exporter of iGeo binary snapshot format.
+   Points, curves, surfaces, meshes and breps are written with layers and attributes
+   into length-prefixed records of primitive arrays to be restored by ISnapshotImporter.
+   
+   @author Satoru Sugihara
+*/
+public class ISnapshotExporter extends ISnapshot{
+    
+    /** size of the buffer in front of the file channel */
+    public static int bufferSize = 1<<20;
+    
+    public FileChannel channel;
+    public ByteBuffer buffer;
+    /** file position of the beginning of the buffer */
+    public long flushedLength;
+    
+    public HashMap<ILayer,Integer> layerIndex;
+    
+    public ISnapshotExporter(FileChannel channel){
+	this.channel = channel;
+	buffer = ByteBuffer.allocate(bufferSize).order(byteOrder);
+	flushedLength = 0;
+	layerIndex = new HashMap<ILayer,Integer>();
+    }
+    
+    
+    /**
+       Writing the content of server out to a snapshot file.
+       The main entry of the exporter class.
+       @param file An exporting file object.
+       @param server A server interface containing exporting data.
+       @return Boolean true if writing is successful. Otherwise false.
+    */
+    static public boolean write(File file, IServerI server){
+	RandomAccessFile raf = null;
+	try{
+	    raf = new RandomAccessFile(file, "rw");
+	    raf.setLength(0);
+	    ISnapshotExporter exporter = new ISnapshotExporter(raf.getChannel());
+	    synchronized(IG.lock){ exporter.write(server.server()); }
+	    return true;
+	}
+	catch(IOException e){ e.printStackTrace(); }
+	finally{
+	    try{ if(raf!=null) raf.close(); }catch(IOException e){ e.printStackTrace(); }
+	}
+	return false;
+    }
+    
+    static public boolean write(String filename, IServerI server){
+	return write(new File(filename), server);
+    }
+    
+    
+    public void write(IServer server) throws IOException{
+	ensure(magic.length+4);
+	buffer.put(magic);
+	buffer.putInt(version);
+	
+	long section = beginSection(sectionLayerTable);
+	writeLayerTable(server);
+	endSection(section);
+	
+	section = beginSection(sectionObjectTable);
+	writeObjectTable(server);
+	endSection(section);
+	
+	endSection(beginSection(sectionEnd));
+	flush();
+    }
+    
+    
+    public void writeLayerTable(IServer server) throws IOException{
+	ensure(4);
+	buffer.putInt(server.layers.size());
+	for(int i=0; i<server.layers.size(); i++){
+	    ILayer layer = server.layers.get(i);
+	    layerIndex.put(layer, i);
+	    writeString(layer.name());
+	    writeAttribute(layer.attribute);
+	}
+    }
+    
+    
+    public void writeObjectTable(IServer server) throws IOException{
+	ArrayList<IObject> objects = new ArrayList<IObject>(server.objects.size());
+	for(int i=0; i<server.objects.size(); i++){
+	    IObject obj = server.objects.get(i);
+	    if(obj instanceof IPoint || obj instanceof ICurve || obj instanceof ISurface ||
+	       obj instanceof IMesh || obj instanceof IBrep){
+		objects.add(obj);
+	    }
+	    else if(!(obj instanceof ILayer)){
+		IOut.debug(10, "object is not supported in snapshot: "+obj); //
+	    }
+	}
+	
+	ensure(4);
+	buffer.putInt(objects.size());
+	for(int i=0; i<objects.size(); i++){
+	    IObject obj = objects.get(i);
+	    ensure(8);
+	    if(obj instanceof IPoint) buffer.putInt(typePoint);
+	    else if(obj instanceof ICurve) buffer.putInt(typeCurve);
+	    else if(obj instanceof ISurface) buffer.putInt(typeSurface);
+	    else if(obj instanceof IMesh) buffer.putInt(typeMesh);
+	    else buffer.putInt(typeBrep);
+	    long start = position();
+	    buffer.putInt(0); // length of the record
+	    
+	    writeAttribute(obj.attribute);
+	    if(obj instanceof IPoint){
+		IVec pt = ((IPoint)obj).pos;
+		ensure(24);
+		buffer.putDouble(pt.x).putDouble(pt.y).putDouble(pt.z);
+	    }
+	    else if(obj instanceof ICurve) writeCurve(((ICurve)obj).curve);
+	    else if(obj instanceof ISurface) writeSurface(((ISurface)obj).surface);
+	    else if(obj instanceof IMesh) writeMesh(((IMesh)obj).mesh);
+	    else writeBrep((IBrep)obj);
+	    
+	    patchInt(start, (int)(position()-start-4));
+	}
+    }
+    
+    
+    public void writeAttribute(IAttribute attr) throws IOException{
+	ensure(1);
+	if(attr==null){ buffer.put((byte)0); return; }
+	buffer.put((byte)1);
+	ensure(4);
+	buffer.putInt(attr.id);
+	writeString(attr.name);
+	writeColor(attr.color);
+	writeColor(attr.stroke);
+	ensure(13);
+	buffer.putFloat(attr.size);
+	buffer.putFloat(attr.weight);
+	buffer.put((byte)(attr.visible?1:0));
+	Integer layer = attr.layer==null?null:layerIndex.get(attr.layer);
+	buffer.putInt(layer==null?-1:layer);
+    }
+    
+    public void writeColor(IColor color) throws IOException{
+	ensure(17);
+	if(color==null){ buffer.put((byte)0); return; }
+	buffer.put((byte)1);
+	for(int i=0; i<4; i++) buffer.putFloat(color.rgba[i]);
+    }
+    
+    public void writeString(String str) throws IOException{
+	if(str==null){ ensure(4); buffer.putInt(-1); return; }
+	byte[] b = str.getBytes(StandardCharsets.UTF_8);
+	ensure(4+b.length);
+	buffer.putInt(b.length);
+	buffer.put(b);
+    }
+    
+    
+    /** control points and knots of NURBS curve including trim curve */
+    public void writeCurve(ICurveGeo crv) throws IOException{
+	IVecI[] cpts = crv.controlPoints;
+	boolean rational = false;
+	for(int i=0; i<cpts.length && !rational; i++) rational = cpts[i] instanceof IVec4I;
+	ensure(4+16+8+1);
+	buffer.putInt(crv.degree);
+	buffer.putDouble(crv.ustart).putDouble(crv.uend);
+	buffer.putInt(cpts.length).putInt(crv.knots.length);
+	buffer.put((byte)(rational?1:0));
+	writePoints(cpts, rational);
+	writeDoubles(crv.knots);
+    }
+    
+    public void writeSurface(ISurfaceGeo srf) throws IOException{
+	IVecI[][] cpts = srf.controlPoints;
+	int unum = cpts.length, vnum = cpts[0].length;
+	IVecI[] pts = new IVecI[unum*vnum];
+	boolean rational = false;
+	for(int i=0; i<unum; i++){
+	    for(int j=0; j<vnum; j++){
+		pts[i*vnum+j] = cpts[i][j];
+		if(cpts[i][j] instanceof IVec4I) rational = true;
+	    }
+	}
+	ensure(8+32+16+1);
+	buffer.putInt(srf.udegree).putInt(srf.vdegree);
+	buffer.putDouble(srf.ustart).putDouble(srf.uend).putDouble(srf.vstart).putDouble(srf.vend);
+	buffer.putInt(unum).putInt(vnum).putInt(srf.uknots.length).putInt(srf.vknots.length);
+	buffer.put((byte)(rational?1:0));
+	writePoints(pts, rational);
+	writeDoubles(srf.uknots);
+	writeDoubles(srf.vknots);
+	
+	ensure(2);
+	buffer.put((byte)(srf.outerTrimClosed?1:0));
+	buffer.put((byte)(srf.innerTrimClosed?1:0));
+	writeTrimLoops(srf.outerTrimLoop);
+	writeTrimLoops(srf.innerTrimLoop);
+    }
+    
+    public void writeTrimLoops(ArrayList<ArrayList<ITrimCurve>> loops) throws IOException{
+	ensure(4);
+	if(loops==null){ buffer.putInt(0); return; }
+	buffer.putInt(loops.size());
+	for(int i=0; i<loops.size(); i++){
+	    ensure(4);
+	    buffer.putInt(loops.get(i).size());
+	    for(int j=0; j<loops.get(i).size(); j++) writeCurve(loops.get(i).get(j));
+	}
+    }
+    
+    /** vertex positions, normals and texture coordinates, vertex indices of edges and edge indices of faces */
+    public void writeMesh(IMeshGeo mesh) throws IOException{
+	ArrayList<IVertex> vertices = new ArrayList<IVertex>(mesh.vertices);
+	ArrayList<IEdge> edges = new ArrayList<IEdge>(mesh.edges);
+	IdentityHashMap<IVertex,Integer> vertexIndex = new IdentityHashMap<IVertex,Integer>(vertices.size()*2);
+	IdentityHashMap<IEdge,Integer> edgeIndex = new IdentityHashMap<IEdge,Integer>(edges.size()*2);
+	for(int i=0; i<edges.size(); i++) if(!edgeIndex.containsKey(edges.get(i))) edgeIndex.put(edges.get(i), i);
+	int cornerNum = 0;
+	for(int i=0; i<mesh.faces.size(); i++){
+	    IEdge[] e = mesh.faces.get(i).edges;
+	    cornerNum += e.length;
+	    for(int j=0; j<e.length; j++){
+		if(!edgeIndex.containsKey(e[j])){ edgeIndex.put(e[j], edges.size()); edges.add(e[j]); }
+	    }
+	}
+	for(int i=0; i<vertices.size(); i++) if(!vertexIndex.containsKey(vertices.get(i))) vertexIndex.put(vertices.get(i), i);
+	for(int i=0; i<edges.size(); i++){
+	    for(int j=0; j<2; j++){
+		IVertex v = edges.get(i).vertices[j];
+		if(!vertexIndex.containsKey(v)){ vertexIndex.put(v, vertices.size()); vertices.add(v); }
+	    }
+	}
+	boolean normal=false, texture=false;
+	for(int i=0; i<vertices.size(); i++){
+	    if(vertices.get(i).normal!=null) normal=true;
+	    if(vertices.get(i).texture!=null) texture=true;
+	}
+	
+	ensure(6);
+	buffer.putInt(vertices.size());
+	buffer.put((byte)(normal?1:0));
+	buffer.put((byte)(texture?1:0));
+	for(int i=0; i<vertices.size(); i++){
+	    IVecI p = vertices.get(i).pos;
+	    ensure(24);
+	    buffer.putDouble(p.x()).putDouble(p.y()).putDouble(p.z());
+	}
+	if(normal){
+	    for(int i=0; i<vertices.size(); i++){
+		IVecI n = vertices.get(i).normal;
+		ensure(24);
+		if(n==null) buffer.putDouble(Double.NaN).putDouble(Double.NaN).putDouble(Double.NaN);
+		else buffer.putDouble(n.x()).putDouble(n.y()).putDouble(n.z());
+	    }
+	}
+	if(texture){
+	    for(int i=0; i<vertices.size(); i++){
+		IVec2I t = vertices.get(i).texture;
+		ensure(16);
+		if(t==null) buffer.putDouble(Double.NaN).putDouble(Double.NaN);
+		else buffer.putDouble(t.x()).putDouble(t.y());
+	    }
+	}
+	
+	ensure(4);
+	buffer.putInt(edges.size());
+	for(int i=0; i<edges.size(); i++){
+	    ensure(8);
+	    buffer.putInt(vertexIndex.get(edges.get(i).vertices[0]));
+	    buffer.putInt(vertexIndex.get(edges.get(i).vertices[1]));
+	}
+	
+	ensure(8);
+	buffer.putInt(mesh.faces.size());
+	buffer.putInt(cornerNum);
+	for(int i=0; i<mesh.faces.size(); i++){
+	    ensure(4);
+	    buffer.putInt(mesh.faces.get(i).edges.length);
+	}
+	for(int i=0; i<mesh.faces.size(); i++){
+	    IEdge[] e = mesh.faces.get(i).edges;
+	    for(int j=0; j<e.length; j++){
+		ensure(4);
+		buffer.putInt(edgeIndex.get(e[j]));
+	    }
+	}
+    }
+    
+    public void writeBrep(IBrep brep) throws IOException{
+	ensure(5);
+	buffer.put((byte)(brep.solid?1:0));
+	buffer.putInt(brep.surfaces.length);
+	for(int i=0; i<brep.surfaces.length; i++) writeSurface(brep.surfaces[i]);
+    }
+    
+    
+    /** x, y, z of points followed by weights if rational. weight of non-rational point is NaN */
+    public void writePoints(IVecI[] pts, boolean rational) throws IOException{
+	for(int i=0; i<pts.length; i++){
+	    ensure(24);
+	    buffer.putDouble(pts[i].x()).putDouble(pts[i].y()).putDouble(pts[i].z());
+	}
+	if(rational){
+	    for(int i=0; i<pts.length; i++){
+		ensure(8);
+		if(pts[i] instanceof IVec4I) buffer.putDouble(((IVec4I)pts[i]).w());
+		else buffer.putDouble(Double.NaN);
+	    }
+	}
+    }
+    
+    public void writeDoubles(double[] values) throws IOException{
+	for(int i=0; i<values.length; i++){
+	    ensure(8);
+	    buffer.putDouble(values[i]);
+	}
+    }
+    
+    
+    /** writing a section tag and a placeholder of its length. returns file position of the length */
+    public long beginSection(int tag) throws IOException{
+	ensure(12);
+	buffer.putInt(tag);
+	long pos = position();
+	buffer.putLong(0);
+	return pos;
+    }
+    
+    public void endSection(long lengthPosition) throws IOException{
+	long len = position()-lengthPosition-8;
+	if(lengthPosition>=flushedLength){ buffer.putLong((int)(lengthPosition-flushedLength), len); }
+	else{
+	    ByteBuffer b = ByteBuffer.allocate(8).order(byteOrder);
+	    b.putLong(len).flip();
+	    while(b.hasRemaining()) channel.write(b, lengthPosition+b.position());
+	}
+    }
+    
+    public void patchInt(long pos, int value) throws IOException{
+	if(pos>=flushedLength){ buffer.putInt((int)(pos-flushedLength), value); }
+	else{
+	    ByteBuffer b = ByteBuffer.allocate(4).order(byteOrder);
+	    b.putInt(value).flip();
+	    while(b.hasRemaining()) channel.write(b, pos+b.position());
+	}
+    }
+    
+    public long position(){ return flushedLength+buffer.position(); }
+    
+    /** flushing the buffer if it doesn't have len bytes of space */
+    public void ensure(int len) throws IOException{
+	if(buffer.remaining()>=len) return;
+	flush();
+	if(buffer.capacity()<len) buffer = ByteBuffer.allocate(len).order(byteOrder);
+    }
+    
+    public void flush() throws IOException{
+	buffer.flip();
+	while(buffer.hasRemaining()) channel.write(buffer, flushedLength+buffer.position());
+	flushedLength += buffer.limit();
+	buffer.clear();
+    }
+    
+}
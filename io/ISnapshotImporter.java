@@ -0,0 +1,457 @@
+/*---
+
+    iGeo - http://igeo.jp
+
+    Copyright (c) 2002-2012 Satoru Sugihara
+
+    This file is part of iGeo.
+
+    iGeo is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, version 3.
+
+    iGeo is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with iGeo.  If not, see <http://www.gnu.org/licenses/>.
+
+---*/
+
+package igeo.io;
+
+import igeo.*;
+
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+   Importer of iGeo binary snapshot format written by ISnapshotExporter.
+   Object records are indexed by their length prefix and decoded into geometries on multiple threads,
+   then IObjects are instantiated in the order of the file.
+   
+   @author Satoru Sugihara
+*/
+public class ISnapshotImporter extends ISnapshot{
+    
+    /** map a file into memory instead of reading it into a heap buffer. Default is true */
+    public static boolean memoryMapping=true;
+    /** decode object records on multiple threads. Default is true */
+    public static boolean parallelDecoding=true;
+    /** number of threads to decode object records. If zero or negative, number of available processors is used. */
+    public static int decodingThreadNum=0;
+    
+    public ByteBuffer buffer;
+    public IServerI server;
+    public ILayer[] layers;
+    public ArrayList<IObject> objects;
+    
+    public ISnapshotImporter(ByteBuffer buffer, IServerI server){
+	this.buffer = buffer.order(byteOrder);
+	this.server = server;
+	objects = new ArrayList<IObject>();
+    }
+    
+    
+    /** decoded object record before instantiation */
+    public static class Record{
+	public int type;
+	public IAttribute attribute;
+	public int layer=-1;
+	public Object geometry;
+	public boolean solid;
+    }
+    
+    
+    /**
+       Reading a snapshot file and creating objects in a server.
+       The main entry of the importer class.
+       @param file An importing file object.
+       @param server A server interface to put imported objects in. 
+       @return ArrayList of created IObject or null if reading failed.
+    */
+    static public ArrayList<IObject> read(File file, IServerI server){
+	try{
+	    RandomAccessFile raf = new RandomAccessFile(file, "r");
+	    ByteBuffer buf = null;
+	    try{
+		FileChannel channel = raf.getChannel();
+		if(channel.size() > Integer.MAX_VALUE){
+		    IOut.err("file is too large: "+file);
+		    return null;
+		}
+		if(memoryMapping){ buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); }
+		else{
+		    buf = ByteBuffer.allocate((int)channel.size());
+		    while(buf.hasRemaining() && channel.read(buf)>=0);
+		    buf.flip();
+		}
+	    }
+	    finally{ raf.close(); }
+	    return new ISnapshotImporter(buf, server).read();
+	}
+	catch(IOException e){ e.printStackTrace(); }
+	return null;
+    }
+    
+    /**
+       Reading snapshot data from a stream and creating objects in a server.
+       @param stream An input stream.
+       @param server A server interface to put imported objects in. 
+       @return ArrayList of created IObject or null if reading failed.
+    */
+    static public ArrayList<IObject> read(InputStream stream, IServerI server){
+	try{
+	    byte[] bytes = new byte[1<<16];
+	    int length=0, n;
+	    while((n = stream.read(bytes, length, bytes.length-length)) >= 0){
+		length += n;
+		if(length==bytes.length) bytes = Arrays.copyOf(bytes, length*2);
+	    }
+	    return new ISnapshotImporter(ByteBuffer.wrap(bytes, 0, length), server).read();
+	}
+	catch(IOException e){ e.printStackTrace(); }
+	return null;
+    }
+    
+    
+    public ArrayList<IObject> read() throws IOException{
+	byte[] head = new byte[magic.length];
+	if(buffer.remaining() < magic.length+4){ throw new IOException("not a snapshot file"); }
+	buffer.get(head);
+	if(!Arrays.equals(head, magic)){ throw new IOException("not a snapshot file"); }
+	int ver = buffer.getInt();
+	if(ver > version){ throw new IOException("unsupported snapshot version "+ver); }
+	
+	while(buffer.remaining() >= 12){
+	    int tag = buffer.getInt();
+	    long len = buffer.getLong();
+	    if(len<0 || len>buffer.remaining()){ throw new IOException("broken section "+tag); }
+	    if(tag==sectionEnd) break;
+	    
+	    ByteBuffer section = buffer.slice().order(byteOrder);
+	    section.limit((int)len);
+	    if(tag==sectionLayerTable) readLayerTable(section);
+	    else if(tag==sectionObjectTable) readObjectTable(section);
+	    else IOut.debug(10, "unknown section "+tag+" is skipped"); //
+	    buffer.position(buffer.position()+(int)len);
+	}
+	return objects;
+    }
+    
+    
+    public void readLayerTable(ByteBuffer b){
+	int num = b.getInt();
+	layers = new ILayer[num];
+	synchronized(IG.lock){
+	    for(int i=0; i<num; i++){
+		String name = readString(b);
+		Record rec = new Record();
+		readAttribute(b, rec);
+		layers[i] = server.server().getLayer(name);
+		IAttribute attr = rec.attribute;
+		if(attr!=null){
+		    if(attr.color!=null) layers[i].clr(attr.color);
+		    layers[i].attribute.stroke = attr.stroke;
+		    layers[i].attribute.size = attr.size;
+		    layers[i].attribute.weight = attr.weight;
+		    layers[i].setVisible(attr.visible);
+		}
+	    }
+	}
+    }
+    
+    
+    public void readObjectTable(ByteBuffer b){
+	int num = b.getInt();
+	int[] types = new int[num];
+	int[] offsets = new int[num];
+	int[] lengths = new int[num];
+	for(int i=0; i<num; i++){
+	    types[i] = b.getInt();
+	    lengths[i] = b.getInt();
+	    offsets[i] = b.position();
+	    b.position(offsets[i]+lengths[i]);
+	}
+	
+	Record[] records = new Record[num];
+	int threadNum = decodingThreadNum;
+	if(threadNum<=0) threadNum = Runtime.getRuntime().availableProcessors();
+	if(!parallelDecoding || threadNum<=1 || num<2){
+	    for(int i=0; i<num; i++) records[i] = decodeRecord(b, types[i], offsets[i], lengths[i]);
+	}
+	else{
+	    ForkJoinPool pool = new ForkJoinPool(threadNum);
+	    try{
+		pool.invoke(new DecodeTask(this, b, types, offsets, lengths, records, 0, num,
+					   Math.max(1, num/(threadNum*8))));
+	    }
+	    finally{ pool.shutdown(); }
+	}
+	
+	synchronized(IG.lock){
+	    for(int i=0; i<num; i++){
+		if(records[i]!=null) createIObject(records[i]);
+	    }
+	}
+    }
+    
+    static class DecodeTask extends RecursiveAction{
+	static final long serialVersionUID = 1;
+	ISnapshotImporter importer;
+	ByteBuffer table;
+	int[] types, offsets, lengths;
+	Record[] records;
+	int from, to, grain;
+	
+	DecodeTask(ISnapshotImporter importer, ByteBuffer table, int[] types, int[] offsets, int[] lengths,
+		   Record[] records, int from, int to, int grain){
+	    this.importer=importer;
+	    this.table=table;
+	    this.types=types;
+	    this.offsets=offsets;
+	    this.lengths=lengths;
+	    this.records=records;
+	    this.from=from;
+	    this.to=to;
+	    this.grain=grain;
+	}
+	
+	protected void compute(){
+	    if(to-from<=grain){
+		for(int i=from; i<to; i++){
+		    records[i] = importer.decodeRecord(table, types[i], offsets[i], lengths[i]);
+		}
+	    }
+	    else{
+		int mid = (from+to)>>>1;
+		invokeAll(new DecodeTask(importer, table, types, offsets, lengths, records, from, mid, grain),
+			  new DecodeTask(importer, table, types, offsets, lengths, records, mid, to, grain));
+	    }
+	}
+    }
+    
+    
+    /** decoding an object record into geometry without instantiating IObject.
+	This only reads the buffer and is safe to be executed on multiple threads.
+    */
+    public Record decodeRecord(ByteBuffer table, int type, int offset, int length){
+	ByteBuffer b = table.duplicate().order(byteOrder);
+	b.limit(offset+length).position(offset);
+	Record rec = new Record();
+	rec.type = type;
+	readAttribute(b, rec);
+	if(type==typePoint){
+	    rec.geometry = new IVec(b.getDouble(), b.getDouble(), b.getDouble());
+	}
+	else if(type==typeCurve){
+	    ICurveGeo crv = new ICurveGeo();
+	    readCurve(b, crv);
+	    rec.geometry = crv;
+	}
+	else if(type==typeSurface){
+	    rec.geometry = readSurface(b);
+	}
+	else if(type==typeMesh){
+	    rec.geometry = readMesh(b);
+	}
+	else if(type==typeBrep){
+	    rec.solid = b.get()!=0;
+	    ISurfaceGeo[] srfs = new ISurfaceGeo[b.getInt()];
+	    for(int i=0; i<srfs.length; i++) srfs[i] = readSurface(b);
+	    rec.geometry = srfs;
+	}
+	else{
+	    IOut.err("unknown object type "+type);
+	    return null;
+	}
+	return rec;
+    }
+    
+    /** instantiate IObject of a decoded record in the server */
+    public IObject createIObject(Record rec){
+	IObject obj = null;
+	if(rec.type==typePoint) obj = new IPoint(server, (IVec)rec.geometry);
+	else if(rec.type==typeCurve) obj = new ICurve(server, (ICurveGeo)rec.geometry);
+	else if(rec.type==typeSurface) obj = new ISurface(server, (ISurfaceGeo)rec.geometry);
+	else if(rec.type==typeMesh) obj = new IMesh(server, (IMeshGeo)rec.geometry);
+	else if(rec.type==typeBrep){
+	    IBrep brep = new IBrep(server, (ISurfaceGeo[])rec.geometry);
+	    brep.solid = rec.solid;
+	    obj = brep;
+	}
+	if(obj==null) return null;
+	
+	if(rec.attribute!=null){
+	    obj.attribute = rec.attribute;
+	    if(layers!=null && rec.layer>=0 && rec.layer<layers.length) layers[rec.layer].add(obj);
+	    if(rec.attribute.color!=null) obj.syncColor();
+	    obj.syncWeight();
+	    if(!rec.attribute.visible) obj.hide();
+	}
+	objects.add(obj);
+	return obj;
+    }
+    
+    
+    public static void readAttribute(ByteBuffer b, Record rec){
+	if(b.get()==0) return;
+	IAttribute attr = new IAttribute();
+	attr.id = b.getInt();
+	attr.name = readString(b);
+	attr.color = readColor(b);
+	attr.stroke = readColor(b);
+	attr.size = b.getFloat();
+	attr.weight = b.getFloat();
+	attr.visible = b.get()!=0;
+	rec.layer = b.getInt();
+	rec.attribute = attr;
+    }
+    
+    public static IColor readColor(ByteBuffer b){
+	if(b.get()==0) return null;
+	return new IColor(b.getFloat(), b.getFloat(), b.getFloat(), b.getFloat());
+    }
+    
+    public static String readString(ByteBuffer b){
+	int len = b.getInt();
+	if(len<0) return null;
+	byte[] bytes = new byte[len];
+	b.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    
+    /** reading control points and knots into a curve including trim curve */
+    public static void readCurve(ByteBuffer b, ICurveGeo crv){
+	int degree = b.getInt();
+	crv.ustart = b.getDouble();
+	crv.uend = b.getDouble();
+	int num = b.getInt();
+	int knotNum = b.getInt();
+	boolean rational = b.get()!=0;
+	IVecI[] cpts = readPoints(b, num, rational);
+	double[] knots = readDoubles(b, knotNum);
+	crv.init(cpts, degree, knots); // knots are already normalized
+    }
+    
+    public static ISurfaceGeo readSurface(ByteBuffer b){
+	ISurfaceGeo srf = new ISurfaceGeo();
+	int udeg = b.getInt();
+	int vdeg = b.getInt();
+	srf.ustart = b.getDouble();
+	srf.uend = b.getDouble();
+	srf.vstart = b.getDouble();
+	srf.vend = b.getDouble();
+	int unum = b.getInt();
+	int vnum = b.getInt();
+	int uknotNum = b.getInt();
+	int vknotNum = b.getInt();
+	boolean rational = b.get()!=0;
+	IVecI[] pts = readPoints(b, unum*vnum, rational);
+	IVecI[][] cpts = new IVecI[unum][vnum];
+	for(int i=0; i<unum; i++) System.arraycopy(pts, i*vnum, cpts[i], 0, vnum);
+	double[] uknots = readDoubles(b, uknotNum);
+	double[] vknots = readDoubles(b, vknotNum);
+	srf.init(cpts, udeg, vdeg, uknots, vknots);
+	
+	srf.outerTrimClosed = b.get()!=0;
+	srf.innerTrimClosed = b.get()!=0;
+	srf.outerTrimLoop = readTrimLoops(b, srf);
+	srf.innerTrimLoop = readTrimLoops(b, srf);
+	return srf;
+    }
+    
+    public static ArrayList<ArrayList<ITrimCurve>> readTrimLoops(ByteBuffer b, ISurfaceGeo srf){
+	int loopNum = b.getInt();
+	if(loopNum==0) return null;
+	ArrayList<ArrayList<ITrimCurve>> loops = new ArrayList<ArrayList<ITrimCurve>>(loopNum);
+	for(int i=0; i<loopNum; i++){
+	    int num = b.getInt();
+	    ArrayList<ITrimCurve> loop = new ArrayList<ITrimCurve>(num);
+	    for(int j=0; j<num; j++){
+		ITrimCurve crv = new ITrimCurve();
+		readCurve(b, crv);
+		crv.surface(srf);
+		loop.add(crv);
+	    }
+	    loops.add(loop);
+	}
+	return loops;
+    }
+    
+    public static IMeshGeo readMesh(ByteBuffer b){
+	int vnum = b.getInt();
+	boolean normal = b.get()!=0;
+	boolean texture = b.get()!=0;
+	double[] pos = readDoubles(b, vnum*3);
+	double[] nml = normal?readDoubles(b, vnum*3):null;
+	double[] tex = texture?readDoubles(b, vnum*2):null;
+	
+	IIndexedList<IVertex> vertices = new IIndexedList<IVertex>();
+	IVertex[] vtx = new IVertex[vnum];
+	for(int i=0; i<vnum; i++){
+	    vtx[i] = new IVertex(pos[i*3], pos[i*3+1], pos[i*3+2]);
+	    if(normal && !Double.isNaN(nml[i*3])) vtx[i].setNormal(new IVec(nml[i*3], nml[i*3+1], nml[i*3+2]));
+	    if(texture && !Double.isNaN(tex[i*2])) vtx[i].texture(new IVec2(tex[i*2], tex[i*2+1]));
+	    vertices.add(vtx[i]);
+	}
+	
+	int edgeNum = b.getInt();
+	int[] edgeVertices = readInts(b, edgeNum*2);
+	IIndexedList<IEdge> edges = new IIndexedList<IEdge>();
+	IEdge[] edg = new IEdge[edgeNum];
+	for(int i=0; i<edgeNum; i++){
+	    edg[i] = new IEdge(vtx[edgeVertices[i*2]], vtx[edgeVertices[i*2+1]]);
+	    edges.add(edg[i]);
+	}
+	
+	int fnum = b.getInt();
+	int cornerNum = b.getInt();
+	int[] sizes = readInts(b, fnum);
+	int[] faceEdges = readInts(b, cornerNum);
+	IIndexedList<IFace> faces = new IIndexedList<IFace>();
+	for(int i=0, c=0; i<fnum; i++){
+	    IEdge[] e = new IEdge[sizes[i]];
+	    for(int j=0; j<e.length; j++) e[j] = edg[faceEdges[c+j]];
+	    faces.add(new IFace(e));
+	    c += e.length;
+	}
+	return new IMeshGeo(vertices, edges, faces);
+    }
+    
+    
+    /** reading points written by ISnapshotExporter.writePoints */
+    public static IVecI[] readPoints(ByteBuffer b, int num, boolean rational){
+	double[] xyz = readDoubles(b, num*3);
+	double[] w = rational?readDoubles(b, num):null;
+	IVecI[] pts = new IVecI[num];
+	for(int i=0; i<num; i++){
+	    if(rational && !Double.isNaN(w[i])) pts[i] = new IVec4(xyz[i*3], xyz[i*3+1], xyz[i*3+2], w[i]);
+	    else pts[i] = new IVec(xyz[i*3], xyz[i*3+1], xyz[i*3+2]);
+	}
+	return pts;
+    }
+    
+    public static double[] readDoubles(ByteBuffer b, int num){
+	double[] values = new double[num];
+	b.asDoubleBuffer().get(values);
+	b.position(b.position()+num*8);
+	return values;
+    }
+    
+    public static int[] readInts(ByteBuffer b, int num){
+	int[] values = new int[num];
+	b.asIntBuffer().get(values);
+	b.position(b.position()+num*4);
+	return values;
+    }
+    
+}